@@ -20,13 +20,18 @@
  */
 package de.interactive_instruments.etf.bsxm;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
+import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
 import java.math.BigInteger;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -57,6 +62,7 @@ import de.interactive_instruments.etf.bsxm.algorithm.CurveComponentAnalysis;
 import de.interactive_instruments.etf.bsxm.algorithm.GeometryAnalysis;
 import de.interactive_instruments.etf.bsxm.algorithm.GeometryPointsAnalysis;
 import de.interactive_instruments.etf.bsxm.geometry.JtsSridCoordinate;
+import de.interactive_instruments.etf.bsxm.index.BinaryResourceFile;
 import de.interactive_instruments.etf.bsxm.index.SpatialIndexRegister;
 import de.interactive_instruments.etf.bsxm.node.DBNodeRef;
 import de.interactive_instruments.etf.bsxm.node.DBNodeRefFactory;
@@ -719,50 +725,50 @@ final public class GmlGeoX extends GeoX implements Externalizable, QueryResource
 
     @Requires(Permission.NONE)
     @Deterministic
-    public DBNode[] search(final Object minx, final Object miny, final Object maxx, final Object maxy)
+    public Value search(final Object minx, final Object miny, final Object maxx, final Object maxy)
             throws GmlGeoXException {
         return this.context.indexRegister().search(minx, miny, maxx, maxy, this.context);
     }
 
     @Requires(Permission.NONE)
     @Deterministic
-    public DBNode[] search(final String indexName, final Object minx, final Object miny, final Object maxx,
+    public Value search(final String indexName, final Object minx, final Object miny, final Object maxx,
             final Object maxy) throws GmlGeoXException {
         return this.context.indexRegister().search(indexName, minx, miny, maxx, maxy, this.context);
     }
 
     @Requires(Permission.NONE)
     @Deterministic
-    public DBNode[] search(final ANode geometryNode) throws GmlGeoXException {
+    public Value search(final ANode geometryNode) throws GmlGeoXException {
         return this.context.indexRegister().search(geometryNode, this.context);
     }
 
     @Requires(Permission.NONE)
     @Deterministic
-    public DBNode[] search(final String indexName, final ANode geometryNode) throws GmlGeoXException {
+    public Value search(final String indexName, final ANode geometryNode) throws GmlGeoXException {
         return this.context.indexRegister().search(indexName, geometryNode, this.context);
     }
 
     @Requires(Permission.NONE)
     @Deterministic
-    public DBNode[] searchGeom(final com.vividsolutions.jts.geom.Geometry geom) throws GmlGeoXException {
+    public Value searchGeom(final com.vividsolutions.jts.geom.Geometry geom) throws GmlGeoXException {
         return this.context.indexRegister().searchGeom(geom, this.context);
     }
 
     @Requires(Permission.NONE)
     @Deterministic
-    public DBNode[] searchGeom(final String indexName, final com.vividsolutions.jts.geom.Geometry geom)
+    public Value searchGeom(final String indexName, final com.vividsolutions.jts.geom.Geometry geom)
             throws GmlGeoXException {
         return this.context.indexRegister().searchGeom(indexName, geom, this.context);
     }
 
     @Requires(Permission.NONE)
-    public DBNode[] search() throws GmlGeoXException {
+    public Value search() throws GmlGeoXException {
         return this.context.indexRegister().search(this.context);
     }
 
     @Requires(Permission.NONE)
-    public DBNode[] searchInIndex(final String indexName) throws GmlGeoXException {
+    public Value searchInIndex(final String indexName) throws GmlGeoXException {
         return this.context.indexRegister().searchInIndex(indexName, this.context);
     }
 
@@ -790,6 +796,26 @@ final public class GmlGeoX extends GeoX implements Externalizable, QueryResource
         return this.context.geometryCache().getCacheSize();
     }
 
+    @Requires(Permission.NONE)
+    public void cacheWeight(final Object weight) throws GmlGeoXException {
+        final long newWeight;
+        if (weight instanceof BigInteger) {
+            newWeight = ((BigInteger) weight).longValue();
+        } else if (weight instanceof Long) {
+            newWeight = (Long) weight;
+        } else if (weight instanceof Integer) {
+            newWeight = (Integer) weight;
+        } else {
+            throw new GmlGeoXException("Unsupported parameter type: " + weight.getClass().getName());
+        }
+        this.context.geometryCache().resetCacheByWeight(newWeight);
+    }
+
+    @Requires(Permission.NONE)
+    public long getCacheWeight() {
+        return this.context.geometryCache().getCacheWeight();
+    }
+
     @Requires(Permission.NONE)
     public void index(final ANode node, final ANode geometry) throws GmlGeoXException {
         this.context.indexRegister().index(node, geometry, this.context);
@@ -978,6 +1004,11 @@ final public class GmlGeoX extends GeoX implements Externalizable, QueryResource
         this.context.indexRegister().buildSpatialIndex(indexName);
     }
 
+    @Requires(Permission.NONE)
+    public void buildAllSpatialIndexes() throws GmlGeoXException {
+        this.context.indexRegister().buildAllSpatialIndexes();
+    }
+
     /**
      * Retrieve the first two coordinates of a given geometry.
      *
@@ -1040,6 +1071,67 @@ final public class GmlGeoX extends GeoX implements Externalizable, QueryResource
         return this;
     }
 
+    /**
+     * Write the geometry cache and the named spatial indexes to a binary file, which can be restored with
+     * {@link #restoreResources(String)} without parsing or repacking.
+     *
+     * @param file
+     *            path of the file
+     * @throws GmlGeoXException
+     *             if the file could not be written
+     */
+    @Requires(Permission.ADMIN)
+    public void storeResources(final String file) throws GmlGeoXException {
+        final ByteArrayOutputStream header = new ByteArrayOutputStream();
+        try {
+            try (final ObjectOutputStream out = new ObjectOutputStream(header)) {
+                out.writeUTF(this.context.dbNodeRefFactory.getDbNamePrefix());
+                this.context.writeHeader(out);
+            }
+            BinaryResourceFile.write(Paths.get(file), header.toByteArray(), this.context.geometryCache(),
+                    this.context.indexRegister());
+        } catch (final IOException e) {
+            throw new GmlGeoXException("Failed to store resources: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Restore the geometry cache and the named spatial indexes from a file that has been written with
+     * {@link #storeResources(String)}.
+     *
+     * @param file
+     *            path of the file
+     * @throws GmlGeoXException
+     *             if the file could not be read or has been written with an incompatible version
+     */
+    @Requires(Permission.ADMIN)
+    @ContextDependent
+    public void restoreResources(final String file) throws GmlGeoXException {
+
+        // ensure that the CRSManager has been initialised
+        initCRSManager();
+
+        try (final BinaryResourceFile resourceFile = BinaryResourceFile.open(Paths.get(file));
+                final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(resourceFile.header()))) {
+            final BxNamespaceHolder bxNamespaceHolder = BxNamespaceHolder.init(this.queryContext);
+
+            final String dbNamePrefix = in.readUTF();
+            final DBNodeRefFactory dbNodeRefFactory = DBNodeRefFactory.create(dbNamePrefix + "000");
+            final DBNodeRefLookup dbNodeRefLookup = new DBNodeRefLookup(this.queryContext, dbNodeRefFactory);
+
+            final GmlGeoXContext restoredContext = new GmlGeoXContext(bxNamespaceHolder, dbNodeRefFactory,
+                    dbNodeRefLookup);
+            restoredContext.readHeader(in);
+            resourceFile.readInto(restoredContext.geometryCache(), restoredContext.indexRegister());
+            if (this.context != null) {
+                this.context.geometryCache().close();
+            }
+            this.context = restoredContext;
+        } catch (final IOException | ClassNotFoundException e) {
+            throw new GmlGeoXException("Failed to restore resources: " + e.getMessage(), e);
+        }
+    }
+
     @Override
     public void writeExternal(ObjectOutput out) throws IOException {
         out.writeUTF(this.context.dbNodeRefFactory.getDbNamePrefix());
@@ -1066,6 +1158,10 @@ final public class GmlGeoX extends GeoX implements Externalizable, QueryResource
 
     @Override
     public void close() {
+        if (this.context != null) {
+            this.context.dbNodeRefLookup.invalidate();
+            this.context.geometryCache().close();
+        }
         this.queryContext = null;
         this.staticContext = null;
         this.context = null;
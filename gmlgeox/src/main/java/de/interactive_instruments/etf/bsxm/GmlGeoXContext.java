@@ -71,6 +71,21 @@ public class GmlGeoXContext extends GeoXContext {
         this.srsLookup.setStandardSRS(in.readUTF(), CRSManager.get("default"));
     }
 
+    /**
+     * Write the context without the geometry cache and the index register, which are written separately to a
+     * {@link de.interactive_instruments.etf.bsxm.index.BinaryResourceFile}.
+     */
+    void writeHeader(final ObjectOutput out) throws IOException {
+        out.writeObject(this.geometryFactory());
+        final String standardSRS = this.srsLookup.getStandardSRS();
+        out.writeUTF(standardSRS != null ? standardSRS : "");
+    }
+
+    void readHeader(final ObjectInput in) throws IOException, ClassNotFoundException {
+        setGeometryFactory((IIGeometryFactory) in.readObject());
+        this.srsLookup.setStandardSRS(in.readUTF(), CRSManager.get("default"));
+    }
+
     public GeometryCache geometryCache() {
         return this.geometryCache;
     }
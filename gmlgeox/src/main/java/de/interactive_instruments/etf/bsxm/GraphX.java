@@ -173,6 +173,9 @@ final public class GraphX extends QueryModule implements QueryResource {
 
     @Override
     public void close() {
+        if (this.dbNodeRefLookup != null) {
+            this.dbNodeRefLookup.invalidate();
+        }
         this.simpleGraph = null;
         this.dbNodeRefLookup = null;
         this.dbNodeRefFactory = null;
@@ -0,0 +1,623 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.bsxm.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+import org.jetbrains.annotations.NotNull;
+
+import de.interactive_instruments.etf.bsxm.node.DBNodeRef;
+
+/**
+ * A versioned, columnar binary file for the geometry cache and the named spatial indexes.
+ *
+ * In contrast to the {@link java.io.Externalizable} implementations, no objects are written per entry. The file is
+ * written with a {@link FileChannel} and restored through {@link MappedByteBuffer}s without copying the columns: the
+ * packed R-trees are stored with their node layout and search the mapped columns, the envelopes are stored as a
+ * {@link RefTable} that is looked up in the mapped file, and the geometry records are registered in the second level
+ * store of the {@link GeometryCache}, which decodes a geometry when it is requested. Columns that exceed the maximum
+ * size of a mapping are read into the heap.
+ *
+ * The file is written in little-endian order, the native order of common platforms, and the columns are aligned to 8
+ * bytes.
+ *
+ * <pre>
+ * int magic, int version
+ * int length, byte[] header                         opaque header of the caller
+ * table, double[slots * 4] boxes                    envelopes, in the slot order of the table
+ * int n, n * (name, int l, int[l] levelBounds,      packed R-trees
+ *            long[levelBounds[0]] refs, double[levelBounds[l - 1] * 4] boxes)
+ * int maxSize, long maxWeight                       geometry cache configuration
+ * table, long[slots] positions                      geometries, segment index and position of the record of each slot
+ * long length, records                              records in segments, see {@link MappedGeometryStore}
+ *
+ * table: int size, int zeroKey, int slots, long[slots] refs, see {@link RefTable}
+ * </pre>
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public final class BinaryResourceFile implements Closeable {
+
+    private static final int MAGIC = 0x474D4C47;
+    private static final int VERSION = 2;
+
+    // mapped window for reading and size of the record segments, records must not exceed it
+    private static final int WINDOW_SIZE = 1 << 30;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final byte[] header;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long pos;
+
+    private BinaryResourceFile(final Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        try {
+            final int magic = fileSize < 8 ? 0 : readInt();
+            if (magic == Integer.reverseBytes(MAGIC)) {
+                // version 1 has been written in big-endian order
+                throw new IOException("Unsupported GmlGeoX resource file version " + Integer.reverseBytes(readInt())
+                        + ", expected " + VERSION);
+            } else if (magic != MAGIC) {
+                throw new IOException("Not a GmlGeoX resource file: " + file);
+            }
+            final int version = readInt();
+            if (version != VERSION) {
+                throw new IOException(
+                        "Unsupported GmlGeoX resource file version " + version + ", expected " + VERSION);
+            }
+            this.header = new byte[readInt()];
+            ensure(header.length).get(header);
+            pos += header.length;
+        } catch (final IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open a resource file and read its header
+     *
+     * @param file
+     *            file that has been written with {@link #write(Path, byte[], GeometryCache, SpatialIndexRegister)}
+     * @return the opened file
+     * @throws IOException
+     *             if the file can not be read or has an unsupported version
+     */
+    @NotNull
+    public static BinaryResourceFile open(@NotNull final Path file) throws IOException {
+        return new BinaryResourceFile(file);
+    }
+
+    /**
+     * Returns the header that has been passed on writing
+     *
+     * @return header bytes
+     */
+    @NotNull
+    public byte[] header() {
+        return header;
+    }
+
+    /**
+     * Restore the envelopes, the spatial indexes and the geometries. The restored objects use the mapped columns of the
+     * file, which remain valid after the file has been closed.
+     *
+     * @param geometryCache
+     *            cache that is reset and filled
+     * @param indexRegister
+     *            register, whose spatial indexes are replaced
+     * @throws IOException
+     *             if the file can not be read
+     */
+    public void readInto(@NotNull final GeometryCache geometryCache, @NotNull final SpatialIndexRegister indexRegister)
+            throws IOException {
+        // Envelopes
+        final RefTable envelopeRefs = readRefTable();
+        final EnvelopeMap envelopes = new EnvelopeMap(envelopeRefs, mapDoubles(envelopeRefs.slots() * 4L));
+
+        // Spatial indexes
+        final int indexCount = readInt();
+        final Map<String, PackedRTree> indexes = new LinkedHashMap<>(indexCount * 2);
+        for (int i = 0; i < indexCount; i++) {
+            final String name = readString();
+            final int[] levelBounds = readInts(readInt());
+            if (levelBounds.length == 0) {
+                indexes.put(name, PackedRTree.empty());
+            } else {
+                final LongBuffer refs = mapLongs(levelBounds[0]);
+                final DoubleBuffer boxes = mapDoubles(levelBounds[levelBounds.length - 1] * 4L);
+                indexes.put(name, PackedRTree.restore(refs, boxes, levelBounds));
+            }
+        }
+        indexRegister.restorePackedIndexes(indexes);
+
+        // Geometries
+        final int maxSize = readInt();
+        final long maxWeight = readLong();
+        final RefTable geometryRefs = readRefTable();
+        final LongBuffer recordPositions = mapLongs(geometryRefs.slots());
+        final long recordsLength = readLong();
+        align();
+        if (recordsLength < 0 || pos + recordsLength > fileSize) {
+            throw new IOException("Unexpected end of GmlGeoX resource file");
+        }
+        final List<MappedByteBuffer> recordSegments = new ArrayList<>();
+        for (long off = 0; off < recordsLength; off += WINDOW_SIZE) {
+            final MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, pos + off,
+                    Math.min(WINDOW_SIZE, recordsLength - off));
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            recordSegments.add(segment);
+        }
+        pos += recordsLength;
+        geometryCache.restore(maxSize, maxWeight, envelopes, geometryRefs, recordPositions, recordSegments);
+    }
+
+    /**
+     * Write the envelopes, the spatial indexes and the geometries
+     *
+     * @param file
+     *            file to write, an existing file is replaced after the new file has been written completely
+     * @param header
+     *            opaque header, that is returned by {@link #header()}
+     * @param geometryCache
+     *            cache with the envelopes and the geometries
+     * @param indexRegister
+     *            register with the named spatial indexes
+     * @throws IOException
+     *             if the file can not be written
+     */
+    public static void write(@NotNull final Path file, @NotNull final byte[] header,
+            @NotNull final GeometryCache geometryCache, @NotNull final SpatialIndexRegister indexRegister)
+            throws IOException {
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (final ChannelWriter out = new ChannelWriter(FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(header.length);
+            out.putBytes(header);
+
+            // Envelopes
+            final EnvelopeColumns envelopes = new EnvelopeColumns(geometryCache.envelopes().size());
+            geometryCache.envelopes().forEach(envelopes);
+            final int[] envelopeSlots = new int[envelopes.size];
+            final long[] envelopeTable = RefTable.build(envelopes.refs, envelopes.size, envelopeSlots);
+            out.putRefTable(envelopeTable, envelopes.refs, envelopes.size);
+            final double[] slotBoxes = new double[envelopeTable.length * 4];
+            for (int i = 0; i < envelopes.size; i++) {
+                System.arraycopy(envelopes.boxes, i * 4, slotBoxes, envelopeSlots[i] * 4, 4);
+            }
+            out.putDoubles(slotBoxes, slotBoxes.length);
+
+            // Spatial indexes
+            final Map<String, PackedRTree> indexes = indexRegister.packedIndexes();
+            out.putInt(indexes.size());
+            for (final Map.Entry<String, PackedRTree> index : indexes.entrySet()) {
+                out.putString(index.getKey());
+                final PackedRTree tree = index.getValue();
+                out.putInt(tree.rawLevelBounds().length);
+                out.putInts(tree.rawLevelBounds());
+                if (!tree.isEmpty()) {
+                    out.putLongs(tree.rawRefs());
+                    out.putDoubles(tree.rawBoxes());
+                }
+            }
+
+            // Geometries
+            out.putInt(geometryCache.getCacheSize());
+            out.putLong(geometryCache.getCacheWeight());
+            final List<DBNodeRef> refs = new ArrayList<>();
+            final List<Geometry> geometries = new ArrayList<>();
+            geometryCache.geometries().forEach((ref, geometry) -> {
+                // Geometries that do not fit in a mapped window are parsed again on demand
+                if (MappedGeometryStore.recordSize(geometry) <= WINDOW_SIZE) {
+                    refs.add(ref);
+                    geometries.add(geometry);
+                }
+            });
+            final long[] geometryRefs = new long[refs.size()];
+            for (int i = 0; i < geometryRefs.length; i++) {
+                geometryRefs[i] = refs.get(i).getNativeData();
+            }
+            final int[] geometrySlots = new int[geometryRefs.length];
+            final long[] geometryTable = RefTable.build(geometryRefs, geometryRefs.length, geometrySlots);
+            out.putRefTable(geometryTable, geometryRefs, geometryRefs.length);
+
+            // Records are placed in segments of the window size, so that a record is never split
+            final long[] recordPositions = new long[geometryTable.length];
+            final long[] recordOffsets = new long[geometries.size()];
+            int segment = 0;
+            long segmentPos = 0;
+            for (int i = 0; i < recordOffsets.length; i++) {
+                final long recordSize = MappedGeometryStore.recordSize(geometries.get(i));
+                if (segmentPos + recordSize > WINDOW_SIZE) {
+                    segment++;
+                    segmentPos = 0;
+                }
+                recordPositions[geometrySlots[i]] = (long) segment << 32 | segmentPos;
+                recordOffsets[i] = (long) segment * WINDOW_SIZE + segmentPos;
+                segmentPos += recordSize;
+            }
+            out.putLongs(recordPositions, recordPositions.length);
+            out.putLong((long) segment * WINDOW_SIZE + segmentPos);
+            out.align();
+            final long recordsStart = out.position();
+            for (int i = 0; i < recordOffsets.length; i++) {
+                out.pad(recordsStart + recordOffsets[i] - out.position());
+                out.putGeometry(geometries.get(i));
+            }
+        } catch (final IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private ByteBuffer ensure(final int length) throws IOException {
+        if (pos + length > fileSize) {
+            throw new IOException("Unexpected end of GmlGeoX resource file");
+        }
+        if (window == null || pos < windowStart || pos + length > windowStart + window.capacity()) {
+            windowStart = pos;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(WINDOW_SIZE, fileSize - pos));
+            window.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        window.position((int) (pos - windowStart));
+        return window;
+    }
+
+    private void align() {
+        pos = (pos + 7) & ~7L;
+    }
+
+    private RefTable readRefTable() throws IOException {
+        final int size = readInt();
+        final boolean zeroKey = readInt() != 0;
+        final int slots = readInt();
+        if (slots < 3 || Integer.bitCount(slots - 1) != 1 || size < 0 || size > slots) {
+            throw new IOException("Invalid reference table in GmlGeoX resource file");
+        }
+        return new RefTable(mapLongs(slots), size, zeroKey);
+    }
+
+    /**
+     * Map a column that starts at the next aligned position
+     */
+    private ByteBuffer map(final long length) throws IOException {
+        align();
+        if (pos + length > fileSize) {
+            throw new IOException("Unexpected end of GmlGeoX resource file");
+        }
+        final ByteBuffer column = channel.map(FileChannel.MapMode.READ_ONLY, pos, length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        pos += length;
+        return column;
+    }
+
+    private LongBuffer mapLongs(final long length) throws IOException {
+        if (length * 8 <= Integer.MAX_VALUE) {
+            return map(length * 8).asLongBuffer();
+        }
+        align();
+        return LongBuffer.wrap(readLongs(toInt(length)));
+    }
+
+    private DoubleBuffer mapDoubles(final long length) throws IOException {
+        if (length * 8 <= Integer.MAX_VALUE) {
+            return map(length * 8).asDoubleBuffer();
+        }
+        align();
+        return DoubleBuffer.wrap(readDoubles(toInt(length)));
+    }
+
+    private static int toInt(final long length) throws IOException {
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("Column too large in GmlGeoX resource file: " + length);
+        }
+        return (int) length;
+    }
+
+    private int readInt() throws IOException {
+        final int value = ensure(4).getInt();
+        pos += 4;
+        return value;
+    }
+
+    private long readLong() throws IOException {
+        final long value = ensure(8).getLong();
+        pos += 8;
+        return value;
+    }
+
+    private String readString() throws IOException {
+        final byte[] bytes = new byte[readInt()];
+        ensure(bytes.length).get(bytes);
+        pos += bytes.length;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int[] readInts(final int length) throws IOException {
+        final int[] values = new int[length];
+        for (int off = 0; off < length;) {
+            final int n = Math.min(length - off, WINDOW_SIZE / 4);
+            ensure(n * 4).asIntBuffer().get(values, off, n);
+            pos += n * 4L;
+            off += n;
+        }
+        return values;
+    }
+
+    private long[] readLongs(final int length) throws IOException {
+        final long[] values = new long[length];
+        for (int off = 0; off < length;) {
+            final int n = Math.min(length - off, WINDOW_SIZE / 8);
+            ensure(n * 8).asLongBuffer().get(values, off, n);
+            pos += n * 8L;
+            off += n;
+        }
+        return values;
+    }
+
+    private double[] readDoubles(final int length) throws IOException {
+        final double[] values = new double[length];
+        for (int off = 0; off < length;) {
+            final int n = Math.min(length - off, WINDOW_SIZE / 8);
+            ensure(n * 8).asDoubleBuffer().get(values, off, n);
+            pos += n * 8L;
+            off += n;
+        }
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    /**
+     * Collects the entries of an {@link EnvelopeMap} in columns
+     */
+    private static final class EnvelopeColumns implements EnvelopeMap.EntryVisitor {
+        private long[] refs;
+        private double[] boxes;
+        private int size;
+
+        EnvelopeColumns(final int initialCapacity) {
+            this.refs = new long[Math.max(initialCapacity, 1)];
+            this.boxes = new double[refs.length * 4];
+        }
+
+        @Override
+        public void accept(final long ref, final double minX, final double minY, final double maxX, final double maxY) {
+            if (size == refs.length) {
+                refs = Arrays.copyOf(refs, size << 1);
+                boxes = Arrays.copyOf(boxes, refs.length * 4);
+            }
+            refs[size] = ref;
+            final int b = size * 4;
+            boxes[b] = minX;
+            boxes[b + 1] = minY;
+            boxes[b + 2] = maxX;
+            boxes[b + 3] = maxY;
+            size++;
+        }
+    }
+
+    /**
+     * Buffered writing of primitive values and arrays to a channel. Long and double columns are aligned to 8 bytes.
+     */
+    private static final class ChannelWriter implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        // bytes that have been written to the channel
+        private long written;
+
+        ChannelWriter(final FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void require(final int length) throws IOException {
+            if (buffer.remaining() < length) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        long position() {
+            return written + buffer.position();
+        }
+
+        void pad(final long length) throws IOException {
+            if (length < 8) {
+                for (int i = 0; i < length; i++) {
+                    require(1);
+                    buffer.put((byte) 0);
+                }
+            } else {
+                // skipped bytes are read as zeros
+                flush();
+                channel.position(channel.position() + length);
+                written += length;
+            }
+        }
+
+        void align() throws IOException {
+            pad(-position() & 7);
+        }
+
+        void putInt(final int value) throws IOException {
+            require(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(final long value) throws IOException {
+            require(8);
+            buffer.putLong(value);
+        }
+
+        void putBytes(final byte[] bytes) throws IOException {
+            for (int off = 0; off < bytes.length;) {
+                require(1);
+                final int n = Math.min(bytes.length - off, buffer.remaining());
+                buffer.put(bytes, off, n);
+                off += n;
+            }
+        }
+
+        void putString(final String value) throws IOException {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            putBytes(bytes);
+        }
+
+        void putInts(final int[] values) throws IOException {
+            for (int off = 0; off < values.length;) {
+                require(4);
+                final int n = Math.min(values.length - off, buffer.remaining() / 4);
+                buffer.asIntBuffer().put(values, off, n);
+                buffer.position(buffer.position() + n * 4);
+                off += n;
+            }
+        }
+
+        void putLongs(final long[] values, final int length) throws IOException {
+            align();
+            for (int off = 0; off < length;) {
+                require(8);
+                final int n = Math.min(length - off, buffer.remaining() / 8);
+                buffer.asLongBuffer().put(values, off, n);
+                buffer.position(buffer.position() + n * 8);
+                off += n;
+            }
+        }
+
+        void putDoubles(final double[] values, final int length) throws IOException {
+            align();
+            for (int off = 0; off < length;) {
+                require(8);
+                final int n = Math.min(length - off, buffer.remaining() / 8);
+                buffer.asDoubleBuffer().put(values, off, n);
+                buffer.position(buffer.position() + n * 8);
+                off += n;
+            }
+        }
+
+        void putLongs(final LongBuffer values) throws IOException {
+            align();
+            final LongBuffer src = values.duplicate();
+            while (src.hasRemaining()) {
+                require(8);
+                final LongBuffer chunk = src.duplicate();
+                chunk.limit(src.position() + Math.min(src.remaining(), buffer.remaining() / 8));
+                buffer.asLongBuffer().put(chunk);
+                buffer.position(buffer.position() + (chunk.position() - src.position()) * 8);
+                src.position(chunk.position());
+            }
+        }
+
+        void putDoubles(final DoubleBuffer values) throws IOException {
+            align();
+            final DoubleBuffer src = values.duplicate();
+            while (src.hasRemaining()) {
+                require(8);
+                final DoubleBuffer chunk = src.duplicate();
+                chunk.limit(src.position() + Math.min(src.remaining(), buffer.remaining() / 8));
+                buffer.asDoubleBuffer().put(chunk);
+                buffer.position(buffer.position() + (chunk.position() - src.position()) * 8);
+                src.position(chunk.position());
+            }
+        }
+
+        /**
+         * Write the header and the keys of a table that has been built with {@link RefTable#build(long[], int, int[])}
+         */
+        void putRefTable(final long[] table, final long[] refs, final int size) throws IOException {
+            boolean zeroKey = false;
+            for (int i = 0; i < size && !zeroKey; i++) {
+                zeroKey = refs[i] == 0;
+            }
+            putInt(size);
+            putInt(zeroKey ? 1 : 0);
+            putInt(table.length);
+            putLongs(table, table.length);
+        }
+
+        void putGeometry(final Geometry geometry) throws IOException {
+            final int length = (int) MappedGeometryStore.recordSize(geometry);
+            if (length <= WRITE_BUFFER_SIZE) {
+                require(length);
+                buffer.position(MappedGeometryStore.write(buffer, buffer.position(), geometry));
+            } else {
+                flush();
+                final ByteBuffer record = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+                MappedGeometryStore.write(record, 0, geometry);
+                while (record.hasRemaining()) {
+                    written += channel.write(record);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,358 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.bsxm.index;
+
+import java.nio.DoubleBuffer;
+import java.util.concurrent.locks.StampedLock;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A thread-safe map from compressed DBNodeRefs to envelopes.
+ *
+ * The keys are stored in open-addressing tables of primitive longs and the envelopes as four consecutive doubles (minX,
+ * minY, maxX, maxY) in a parallel double array, so that an entry requires about 40 bytes instead of a DBNodeRef, a JTS
+ * Envelope and a HashMap node. The map is split into stripes that are guarded by their own lock. Readers use an
+ * optimistic read and only fall back to the read lock if the stripe has been modified concurrently.
+ *
+ * The envelopes of a map that has been restored from a {@link BinaryResourceFile} are looked up in the mapped
+ * columns of the file and are not copied into the stripes. Envelopes that are added later are stored in the stripes and
+ * replace restored envelopes.
+ *
+ * Entries are never removed.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class EnvelopeMap {
+
+    // must be a power of two
+    private static final int STRIPES = 64;
+    private static final int INITIAL_STRIPE_CAPACITY = 64;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    // restored envelopes, null if the map has not been restored
+    private final RefTable restoredRefs;
+    // minX, minY, maxX, maxY in the slot order of the restored references
+    private final DoubleBuffer restoredBoxes;
+
+    EnvelopeMap() {
+        this(null, null);
+    }
+
+    /**
+     * Creates a map with restored envelopes
+     *
+     * @param restoredRefs
+     *            references of the restored envelopes
+     * @param restoredBoxes
+     *            four values per slot of the references
+     */
+    EnvelopeMap(final RefTable restoredRefs, final DoubleBuffer restoredBoxes) {
+        if (restoredRefs != null && restoredBoxes.capacity() != restoredRefs.slots() * 4) {
+            throw new IllegalArgumentException("Invalid number of restored envelopes");
+        }
+        this.restoredRefs = restoredRefs;
+        this.restoredBoxes = restoredBoxes;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Callback for {@link #forEach(EntryVisitor)}
+     */
+    @FunctionalInterface
+    interface EntryVisitor {
+        void accept(final long ref, final double minX, final double minY, final double maxX, final double maxY);
+    }
+
+    /**
+     * Spread the bits of a compressed DBNodeRef. The pre value in the upper half changes most, while the node kind and
+     * the database index in the lower half are mostly constant.
+     */
+    static long hash(final long ref) {
+        long h = ref;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private Stripe stripe(final long hash) {
+        return stripes[(int) (hash >>> 58) & (STRIPES - 1)];
+    }
+
+    /**
+     * Add or replace the envelope for a node
+     *
+     * @param ref
+     *            compressed DBNodeRef
+     */
+    void put(final long ref, final double minX, final double minY, final double maxX, final double maxY) {
+        final long hash = hash(ref);
+        stripe(hash).put(ref, (int) hash, minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Get the envelope of a node
+     *
+     * @param ref
+     *            compressed DBNodeRef
+     * @return a new array { minX, minY, maxX, maxY } or <code>null</code> if no envelope is stored for the node
+     */
+    @Nullable
+    double[] get(final long ref) {
+        final long hash = hash(ref);
+        final double[] envelope = stripe(hash).get(ref, (int) hash);
+        if (envelope != null || restoredRefs == null) {
+            return envelope;
+        }
+        final int slot = restoredRefs.slot(ref);
+        if (slot == -1) {
+            return null;
+        }
+        final int b = slot * 4;
+        return new double[]{restoredBoxes.get(b), restoredBoxes.get(b + 1), restoredBoxes.get(b + 2),
+                restoredBoxes.get(b + 3)};
+    }
+
+    boolean contains(final long ref) {
+        final long hash = hash(ref);
+        return stripe(hash).contains(ref, (int) hash) || (restoredRefs != null && restoredRefs.slot(ref) != -1);
+    }
+
+    /**
+     * Returns the number of stored envelopes
+     *
+     * @return number of envelopes
+     */
+    int size() {
+        int size = 0;
+        for (final Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        if (restoredRefs == null) {
+            return size;
+        }
+        if (size == 0) {
+            return restoredRefs.size();
+        }
+        // restored envelopes that have been replaced are only counted once
+        final int[] replaced = new int[1];
+        for (final Stripe stripe : stripes) {
+            stripe.forEach((ref, minX, minY, maxX, maxY) -> {
+                if (restoredRefs.slot(ref) != -1) {
+                    replaced[0]++;
+                }
+            });
+        }
+        return size + restoredRefs.size() - replaced[0];
+    }
+
+    /**
+     * Returns the approximate number of bytes occupied by the tables, including free slots and the mapped columns of
+     * restored envelopes
+     *
+     * @return memory in bytes
+     */
+    long memorySize() {
+        long bytes = restoredRefs != null ? restoredRefs.memorySize() + restoredBoxes.capacity() * 8L : 0;
+        for (final Stripe stripe : stripes) {
+            bytes += stripe.memorySize();
+        }
+        return bytes;
+    }
+
+    /**
+     * Visit all entries. Concurrent modifications of a stripe are blocked while the stripe is visited.
+     *
+     * @param visitor
+     *            visitor
+     */
+    void forEach(final EntryVisitor visitor) {
+        for (final Stripe stripe : stripes) {
+            stripe.forEach(visitor);
+        }
+        if (restoredRefs != null) {
+            for (int slot = 0; slot < restoredRefs.slots(); slot++) {
+                if (restoredRefs.occupied(slot)) {
+                    final long ref = restoredRefs.ref(slot);
+                    final long hash = hash(ref);
+                    if (!stripe(hash).contains(ref, (int) hash)) {
+                        final int b = slot * 4;
+                        visitor.accept(ref, restoredBoxes.get(b), restoredBoxes.get(b + 1), restoredBoxes.get(b + 2),
+                                restoredBoxes.get(b + 3));
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Stripe {
+        // 0 is a valid DBNodeRef and marks free slots, so an entry for 0 is stored separately
+        private static final long FREE = 0;
+        private static final float LOAD_FACTOR = 0.75f;
+
+        private final StampedLock lock = new StampedLock();
+        private long[] keys = new long[INITIAL_STRIPE_CAPACITY];
+        private double[] values = new double[INITIAL_STRIPE_CAPACITY * 4];
+        private int size;
+        private double[] freeKeyValue;
+
+        private static int slot(final long[] keys, final long ref, final int hash) {
+            final int mask = keys.length - 1;
+            int pos = hash & mask;
+            while (keys[pos] != ref && keys[pos] != FREE) {
+                pos = (pos + 1) & mask;
+            }
+            return pos;
+        }
+
+        void put(final long ref, final int hash, final double minX, final double minY, final double maxX,
+                final double maxY) {
+            final long stamp = lock.writeLock();
+            try {
+                if (ref == FREE) {
+                    if (freeKeyValue == null) {
+                        size++;
+                    }
+                    freeKeyValue = new double[]{minX, minY, maxX, maxY};
+                    return;
+                }
+                final int pos = slot(keys, ref, hash);
+                if (keys[pos] == FREE) {
+                    keys[pos] = ref;
+                    if (++size > keys.length * LOAD_FACTOR) {
+                        // write the values first into the old table, they are copied on rehash
+                        set(values, pos, minX, minY, maxX, maxY);
+                        rehash();
+                        return;
+                    }
+                }
+                set(values, pos, minX, minY, maxX, maxY);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private static void set(final double[] values, final int pos, final double minX, final double minY,
+                final double maxX, final double maxY) {
+            final int v = pos * 4;
+            values[v] = minX;
+            values[v + 1] = minY;
+            values[v + 2] = maxX;
+            values[v + 3] = maxY;
+        }
+
+        private void rehash() {
+            final long[] newKeys = new long[keys.length << 1];
+            final double[] newValues = new double[newKeys.length * 4];
+            for (int i = 0; i < keys.length; i++) {
+                final long ref = keys[i];
+                if (ref != FREE) {
+                    final int pos = slot(newKeys, ref, (int) hash(ref));
+                    newKeys[pos] = ref;
+                    System.arraycopy(values, i * 4, newValues, pos * 4, 4);
+                }
+            }
+            keys = newKeys;
+            values = newValues;
+        }
+
+        double[] get(final long ref, final int hash) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                final double[] result = read(ref, hash);
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return read(ref, hash);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private double[] read(final long ref, final int hash) {
+            if (ref == FREE) {
+                final double[] value = freeKeyValue;
+                return value != null ? value.clone() : null;
+            }
+            // The tables may be replaced by a concurrent writer. Only use a consistent pair, the optimistic read is
+            // invalidated anyway.
+            final long[] k = keys;
+            final double[] v = values;
+            if (v.length != k.length * 4) {
+                return null;
+            }
+            final int pos = slot(k, ref, hash);
+            if (k[pos] == FREE) {
+                return null;
+            }
+            final int p = pos * 4;
+            return new double[]{v[p], v[p + 1], v[p + 2], v[p + 3]};
+        }
+
+        boolean contains(final long ref, final int hash) {
+            return get(ref, hash) != null;
+        }
+
+        int size() {
+            final long stamp = lock.readLock();
+            try {
+                return size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        long memorySize() {
+            final long stamp = lock.readLock();
+            try {
+                return keys.length * 8L + values.length * 8L + (freeKeyValue != null ? 32 : 0);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        void forEach(final EntryVisitor visitor) {
+            final long stamp = lock.readLock();
+            try {
+                if (freeKeyValue != null) {
+                    visitor.accept(FREE, freeKeyValue[0], freeKeyValue[1], freeKeyValue[2], freeKeyValue[3]);
+                }
+                for (int i = 0; i < keys.length; i++) {
+                    if (keys[i] != FREE) {
+                        final int v = i * 4;
+                        visitor.accept(keys[i], values[v], values[v + 1], values[v + 2], values[v + 3]);
+                    }
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+}
@@ -22,15 +22,21 @@ package de.interactive_instruments.etf.bsxm.index;
 
 import java.io.Externalizable;
 import java.io.IOException;
+import java.io.InvalidObjectException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Map;
+import java.util.Optional;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
@@ -64,19 +70,105 @@ public final class GeometryCache implements Externalizable {
     // Max cache entries as number
     private static final String ETF_GEOCACHE_SIZE = "etf.gmlgeox.geocache.size";
 
+    // Max number of coordinates of all cached geometries as number, replaces the max entry count
+    private static final String ETF_GEOCACHE_WEIGHT = "etf.gmlgeox.geocache.weight";
+
+    // Max percentage of the heap, that cached geometries may occupy, as number; replaces the max entry count
+    private static final String ETF_GEOCACHE_HEAP_PERCENTAGE = "etf.gmlgeox.geocache.heap";
+
+    // Move evicted geometries to a memory-mapped second level cache as boolean
+    private static final String ETF_GEOCACHE_MMAP = "etf.gmlgeox.geocache.mmap";
+
     // Record hitcounts and misscounts as boolean
     private static final String ETF_GEOCACHE_REC_STATS = "etf.gmlgeox.geocache.statistics";
 
+    // Estimated memory per coordinate: a JTS Coordinate object with three doubles and the reference in the array
+    private static final int BYTES_PER_COORDINATE = 48;
+
+    // Externalized format: magic, version, then the cache. Previous versions started with the max cache size, which
+    // is never negative, so the negative magic also identifies caches of previous versions.
+    private static final int EXTERNAL_MAGIC = 0xC6E0CAC4;
+    private static final int EXTERNAL_VERSION = 1;
+
     /**
      * Geometry cache, where a key is the ID of a database node that represents a geometry, and the value is the JTS
      * geometry parsed from that node.
      */
     private Cache<DBNodeRef, Geometry> geometryCache = null;
-    private HashMap<DBNodeRef, Envelope> envelopeByDBNodeEntry = new HashMap<>();
+    private EnvelopeMap envelopeByDBNodeEntry = new EnvelopeMap();
     private int maxSizeOfGeometryCache;
+    // 0 if the cache is limited by the number of entries
+    private long maxWeightOfGeometryCache;
+    // evicted and restored geometries, null if not enabled and nothing has been restored
+    private MappedGeometryStore secondLevelStore;
+    // move evicted geometries to the second level store
+    private boolean secondLevelEvictions;
+    private final GeometryFactory secondLevelGeometryFactory = new GeometryFactory();
 
     public GeometryCache() {
-        resetCache(Integer.valueOf(System.getProperty(ETF_GEOCACHE_SIZE, "100000")));
+        final long maxWeight = maxWeightFromProperties();
+        if (maxWeight > 0) {
+            resetCacheByWeight(maxWeight);
+        } else {
+            resetCache(Integer.valueOf(System.getProperty(ETF_GEOCACHE_SIZE, "100000")));
+        }
+    }
+
+    private static long maxWeightFromProperties() {
+        final String weight = System.getProperty(ETF_GEOCACHE_WEIGHT);
+        if (weight != null) {
+            return Long.parseLong(weight);
+        }
+        final String heapPercentage = System.getProperty(ETF_GEOCACHE_HEAP_PERCENTAGE);
+        if (heapPercentage != null) {
+            final double percentage = Double.parseDouble(heapPercentage);
+            if (percentage <= 0 || percentage > 100) {
+                throw new IllegalArgumentException(
+                        "Cache for geometries could not be initialized: invalid heap percentage " + heapPercentage);
+            }
+            return (long) (Runtime.getRuntime().maxMemory() * percentage / 100 / BYTES_PER_COORDINATE);
+        }
+        return 0;
+    }
+
+    private Caffeine<DBNodeRef, Geometry> newCacheBuilder() {
+        resetSecondLevelStore();
+        final Caffeine<Object, Object> builder = Caffeine.newBuilder();
+        if (logger.isDebugEnabled() || Boolean.valueOf(System.getProperty(ETF_GEOCACHE_REC_STATS, "false"))) {
+            builder.recordStats();
+        }
+        return builder.removalListener((final DBNodeRef ref, final Geometry geometry, final RemovalCause cause) -> {
+            final MappedGeometryStore store = this.secondLevelStore;
+            if (store != null && secondLevelEvictions && cause.wasEvicted() && ref != null && geometry != null) {
+                store.put(ref.getNativeData(), geometry);
+            }
+        });
+    }
+
+    private void resetSecondLevelStore() {
+        closeSecondLevelStore();
+        this.secondLevelEvictions = Boolean.valueOf(System.getProperty(ETF_GEOCACHE_MMAP, "false"));
+        if (this.secondLevelEvictions) {
+            this.secondLevelStore = new MappedGeometryStore();
+        }
+    }
+
+    private void closeSecondLevelStore() {
+        if (this.secondLevelStore != null) {
+            try {
+                this.secondLevelStore.close();
+            } catch (final IOException e) {
+                logger.warn("Second level cache for geometries could not be closed: {}", e.getMessage());
+            }
+            this.secondLevelStore = null;
+        }
+    }
+
+    /**
+     * Release the second level cache. The cache can still be used afterwards, but evicted geometries are lost.
+     */
+    public void close() {
+        closeSecondLevelStore();
     }
 
     /**
@@ -88,19 +180,41 @@ public final class GeometryCache implements Externalizable {
      */
     public void resetCache(final int maxSize) {
         try {
-            if (logger.isDebugEnabled() || Boolean.valueOf(System.getProperty(ETF_GEOCACHE_REC_STATS, "false"))) {
-                geometryCache = Caffeine.newBuilder().recordStats().maximumSize(maxSize).build();
-            } else {
-                geometryCache = Caffeine.newBuilder().maximumSize(maxSize).build();
-            }
+            geometryCache = newCacheBuilder().maximumSize(maxSize).build();
             this.maxSizeOfGeometryCache = maxSize;
+            this.maxWeightOfGeometryCache = 0;
         } catch (Exception e) {
             throw new IllegalArgumentException("Cache for geometries could not be initialized: " + e.getMessage());
         }
     }
 
     /**
-     * Get a geometry from the cache
+     * Resets the geometry cache, by replacing the existing cache with a new cache that is limited by the total number of
+     * coordinates of the cached geometries. That means that all cached geometries will be lost.
+     *
+     * <p>
+     * A few large surfaces may displace many points, while a point heavy dataset can use more entries than with a fixed
+     * entry count.
+     *
+     * @param maxWeight
+     *            maximum number of coordinates of all cached geometries
+     */
+    public void resetCacheByWeight(final long maxWeight) {
+        try {
+            geometryCache = newCacheBuilder().maximumWeight(maxWeight)
+                    .weigher((final DBNodeRef ref, final Geometry geometry) -> Math.max(1, geometry.getNumPoints()))
+                    .build();
+            this.maxSizeOfGeometryCache = 0;
+            this.maxWeightOfGeometryCache = maxWeight;
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Cache for geometries could not be initialized: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get a geometry from the cache. If the geometry has been evicted and the second level cache is enabled, or if the
+     * geometry has been restored from a {@link BinaryResourceFile}, the geometry is decoded from the second level cache
+     * and put back in the cache.
      *
      * @param dbNode
      *            tbd
@@ -108,7 +222,16 @@ public final class GeometryCache implements Externalizable {
      */
     @Nullable
     public com.vividsolutions.jts.geom.Geometry getGeometry(final DBNodeRef dbNode) {
-        return geometryCache.getIfPresent(dbNode);
+        final Geometry geometry = geometryCache.getIfPresent(dbNode);
+        final MappedGeometryStore store = this.secondLevelStore;
+        if (geometry == null && store != null) {
+            final Geometry evictedGeometry = store.get(dbNode.getNativeData(), secondLevelGeometryFactory);
+            if (evictedGeometry != null) {
+                geometryCache.put(dbNode, evictedGeometry);
+            }
+            return evictedGeometry;
+        }
+        return geometry;
     }
 
     /**
@@ -129,6 +252,49 @@ public final class GeometryCache implements Externalizable {
         return geometryCache.stats().missCount();
     }
 
+    /**
+     * Returns the number of geometries that have been evicted from the cache
+     *
+     * @return number of evicted geometries
+     */
+    public long getEvictionCount() {
+        return geometryCache.stats().evictionCount();
+    }
+
+    /**
+     * Returns the number of geometries that were decoded from the second level cache
+     *
+     * @return number of read accesses to the second level cache, or 0 if it is not enabled
+     */
+    public long getSecondLevelCount() {
+        final MappedGeometryStore store = this.secondLevelStore;
+        return store != null ? store.getHitCount() : 0;
+    }
+
+    /**
+     * Returns the number of geometries in the second level cache
+     *
+     * @return number of evicted and restored geometries, or 0 if the second level cache is not used
+     */
+    public int getSecondLevelSize() {
+        final MappedGeometryStore store = this.secondLevelStore;
+        return store != null ? store.size() : 0;
+    }
+
+    /**
+     * Returns the total number of coordinates of the cached geometries if the cache is limited by weight, otherwise the
+     * approximate number of cached geometries.
+     *
+     * @return current weight of the cache
+     */
+    public long getWeightedSize() {
+        final Optional<Policy.Eviction<DBNodeRef, Geometry>> eviction = geometryCache.policy().eviction();
+        if (eviction.isPresent() && eviction.get().isWeighted()) {
+            return eviction.get().weightedSize().orElse(0);
+        }
+        return geometryCache.estimatedSize();
+    }
+
     /**
      * Put a feature geometry in the cache
      *
@@ -159,10 +325,8 @@ public final class GeometryCache implements Externalizable {
     public Object[] envelope(final ANode geometryNode, final GmlGeoXContext context) throws GmlGeoXException {
         /* Try lookup in envelope map first. */
         final DBNodeRef geometryNodeEntry = context.dbNodeRefFactory.createDBNodeEntry((DBNode) geometryNode);
-        Envelope env;
-        if (hasEnvelope(geometryNodeEntry)) {
-            env = getEnvelope(geometryNodeEntry);
-        } else {
+        Envelope env = getEnvelope(geometryNodeEntry);
+        if (env == null) {
             /* Get JTS geometry and cache the envelope. */
             com.vividsolutions.jts.geom.Geometry geom = getOrCacheGeometry(geometryNode, geometryNodeEntry, context);
             env = geom.getEnvelopeInternal();
@@ -178,7 +342,7 @@ public final class GeometryCache implements Externalizable {
      * @return <code>true</code> if a mapping to an envelope exists for the given DBNode entry, else <code>false</code>s
      */
     public boolean hasEnvelope(final DBNodeRef entry) {
-        return envelopeByDBNodeEntry.containsKey(entry);
+        return envelopeByDBNodeEntry.contains(entry.getNativeData());
     }
 
     /**
@@ -187,8 +351,10 @@ public final class GeometryCache implements Externalizable {
      * @return The envelope stored for the given entry, or <code>null</code> if the manager does not contain a mapping for
      *         the given entry.
      */
+    @Nullable
     public Envelope getEnvelope(final DBNodeRef entry) {
-        return envelopeByDBNodeEntry.get(entry);
+        final double[] env = envelopeByDBNodeEntry.get(entry.getNativeData());
+        return env != null ? new Envelope(env[0], env[2], env[1], env[3]) : null;
     }
 
     /**
@@ -200,25 +366,92 @@ public final class GeometryCache implements Externalizable {
      *            tbd
      */
     public void addEnvelope(final DBNodeRef entry, final Envelope env) {
-        envelopeByDBNodeEntry.put(entry, env);
+        envelopeByDBNodeEntry.put(entry.getNativeData(), env.getMinX(), env.getMinY(), env.getMaxX(), env.getMaxY());
+    }
+
+    /**
+     * Returns the number of cached envelopes
+     *
+     * @return number of cached envelopes
+     */
+    public int getEnvelopeCount() {
+        return envelopeByDBNodeEntry.size();
+    }
+
+    /**
+     * Returns the approximate memory occupied by the cached envelopes
+     *
+     * @return memory in bytes
+     */
+    public long getEnvelopeMemorySize() {
+        return envelopeByDBNodeEntry.memorySize();
     }
 
     /**
      * Get the current size of the geometry cache.
      *
-     * @return the size of the geometry cache
+     * @return the size of the geometry cache, or 0 if the cache is limited by weight
      */
     public int getCacheSize() {
         return this.maxSizeOfGeometryCache;
     }
 
+    /**
+     * Get the maximum weight of the geometry cache.
+     *
+     * @return the maximum number of coordinates of all cached geometries, or 0 if the cache is limited by the number of
+     *         entries
+     */
+    public long getCacheWeight() {
+        return this.maxWeightOfGeometryCache;
+    }
+
+    EnvelopeMap envelopes() {
+        return envelopeByDBNodeEntry;
+    }
+
+    /**
+     * Returns the cached geometries and the restored geometries of a {@link BinaryResourceFile}, which are decoded
+     */
+    Map<DBNodeRef, Geometry> geometries() {
+        final MappedGeometryStore store = this.secondLevelStore;
+        if (store == null) {
+            return geometryCache.asMap();
+        }
+        final Map<DBNodeRef, Geometry> geometries = new LinkedHashMap<>(geometryCache.asMap());
+        store.forEachRestored((ref, geometry) -> geometries.putIfAbsent(DBNodeRef.create(ref), geometry),
+                secondLevelGeometryFactory);
+        return geometries;
+    }
+
+    /**
+     * Reset the cache with a restored configuration, restored envelopes and the geometry records of a
+     * {@link BinaryResourceFile}. The geometries are decoded from the records when they are requested.
+     */
+    void restore(final int maxSize, final long maxWeight, final EnvelopeMap envelopes, final RefTable geometryRefs,
+            final LongBuffer recordPositions, final List<MappedByteBuffer> recordSegments) {
+        if (maxWeight > 0) {
+            resetCacheByWeight(maxWeight);
+        } else {
+            resetCache(maxSize);
+        }
+        this.envelopeByDBNodeEntry = envelopes;
+        if (this.secondLevelStore == null) {
+            this.secondLevelStore = new MappedGeometryStore();
+        }
+        this.secondLevelStore.restore(geometryRefs, recordPositions, recordSegments);
+    }
+
     @Override
     public void writeExternal(final ObjectOutput out) throws IOException {
+        out.writeInt(EXTERNAL_MAGIC);
+        out.writeInt(EXTERNAL_VERSION);
         out.writeInt(maxSizeOfGeometryCache);
+        out.writeLong(maxWeightOfGeometryCache);
         final ExternalizableDBNodeRefMap dbNodeRefMap = new ExternalizableDBNodeRefMap();
         // Geometries
         {
-            final ConcurrentMap<DBNodeRef, Geometry> geometryCacheMap = geometryCache.asMap();
+            final Map<DBNodeRef, Geometry> geometryCacheMap = geometries();
             out.writeInt(geometryCacheMap.size());
             int posGeo = 0;
             final int[] geometryCacheDBNodeRefPositions = dbNodeRefMap.addAndGetRefPositions(geometryCacheMap.keySet());
@@ -227,23 +460,43 @@ public final class GeometryCache implements Externalizable {
                 out.writeObject(ExternalizableJtsGeometry.create(geometry));
             }
         }
+        out.writeObject(dbNodeRefMap);
         // Envelopes
         {
-            int posEnvelope = 0;
-            final int[] geometryCacheDBNodeRefPositions = dbNodeRefMap
-                    .addAndGetRefPositions(envelopeByDBNodeEntry.keySet());
+            final List<IOException> exceptions = new ArrayList<>(1);
             out.writeInt(envelopeByDBNodeEntry.size());
-            for (final Envelope geometry : envelopeByDBNodeEntry.values()) {
-                out.writeInt(geometryCacheDBNodeRefPositions[posEnvelope++]);
-                out.writeObject(new ExternalizableJtsEnvelope(geometry));
+            envelopeByDBNodeEntry.forEach((ref, minX, minY, maxX, maxY) -> {
+                if (exceptions.isEmpty()) {
+                    try {
+                        out.writeLong(ref);
+                        out.writeDouble(minX);
+                        out.writeDouble(minY);
+                        out.writeDouble(maxX);
+                        out.writeDouble(maxY);
+                    } catch (final IOException e) {
+                        exceptions.add(e);
+                    }
+                }
+            });
+            if (!exceptions.isEmpty()) {
+                throw exceptions.get(0);
             }
         }
-        out.writeObject(dbNodeRefMap);
     }
 
     @Override
     public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
+        if (in.readInt() != EXTERNAL_MAGIC) {
+            throw new InvalidObjectException("The geometry cache has been stored by a previous GmlGeoX version "
+                    + "and can not be restored, the resources must be rebuilt");
+        }
+        final int version = in.readInt();
+        if (version != EXTERNAL_VERSION) {
+            throw new InvalidObjectException("Unsupported geometry cache version " + version + ", expected "
+                    + EXTERNAL_VERSION + ", the resources must be rebuilt");
+        }
         this.maxSizeOfGeometryCache = in.readInt();
+        this.maxWeightOfGeometryCache = in.readLong();
 
         final GeometryFactory jtsGeomFactory = new GeometryFactory();
 
@@ -255,20 +508,16 @@ public final class GeometryCache implements Externalizable {
             geometries.add(((ExternalizableJtsGeometry) in.readObject()).toJtsGeometry(jtsGeomFactory));
         }
 
-        // Prepare Envelopes
-        final int[] envelopeDBNodeRefPositions = new int[in.readInt()];
-        final List<Envelope> envelopes = new ArrayList<>(geometryCacheDBNodeRefPositions.length);
-        for (int i = 0; i < envelopeDBNodeRefPositions.length; i++) {
-            envelopeDBNodeRefPositions[i] = in.readInt();
-            envelopes.add(((ExternalizableJtsEnvelope) in.readObject()).toEnvelope());
-        }
-
         // Restore DBNodeRefs
         final ExternalizableDBNodeRefMap dbNodeRefMap = ((ExternalizableDBNodeRefMap) in.readObject());
 
         // Restore Geometries
         {
-            resetCache(this.maxSizeOfGeometryCache);
+            if (this.maxWeightOfGeometryCache > 0) {
+                resetCacheByWeight(this.maxWeightOfGeometryCache);
+            } else {
+                resetCache(this.maxSizeOfGeometryCache);
+            }
             final DBNodeRef[] geometryCacheDBNodeRefs = dbNodeRefMap.getByRefPositions(geometryCacheDBNodeRefPositions);
             for (int i = 0; i < geometryCacheDBNodeRefs.length; i++) {
                 this.geometryCache.put(geometryCacheDBNodeRefs[i], geometries.get(i));
@@ -277,10 +526,11 @@ public final class GeometryCache implements Externalizable {
 
         // Restore Envelopes
         {
-            final DBNodeRef[] envelopeDBNodeRefs = dbNodeRefMap.getByRefPositions(envelopeDBNodeRefPositions);
-            this.envelopeByDBNodeEntry = new HashMap<>(envelopeDBNodeRefs.length);
-            for (int i = 0; i < envelopeDBNodeRefs.length; i++) {
-                this.envelopeByDBNodeEntry.put(envelopeDBNodeRefs[i], envelopes.get(i));
+            final int size = in.readInt();
+            this.envelopeByDBNodeEntry = new EnvelopeMap();
+            for (int i = 0; i < size; i++) {
+                this.envelopeByDBNodeEntry.put(in.readLong(), in.readDouble(), in.readDouble(), in.readDouble(),
+                        in.readDouble());
             }
         }
     }
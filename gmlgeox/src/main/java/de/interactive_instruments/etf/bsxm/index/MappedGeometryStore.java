@@ -0,0 +1,536 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.bsxm.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.*;
+import com.vividsolutions.jts.geom.impl.CoordinateArraySequence;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A second level store for JTS geometries that have been evicted from the {@link GeometryCache}.
+ *
+ * The geometries are appended to a temporary, memory-mapped file, so that a geometry can be decoded again without
+ * parsing the GML. As in the {@link ExternalizableJtsGeometry} classes, coordinates are stored as x, y, z triples. A
+ * record starts with a type byte, simple geometries are followed by the number of coordinates and the coordinates,
+ * polygons by the number of rings and the rings, and collections by the number of members and the members.
+ *
+ * The file is only appended and entries are never removed. The geometry of a DBNodeRef does not change, so a geometry
+ * that is evicted again after it has been put back into the cache is not appended a second time. The file is created
+ * when the first geometry is stored.
+ *
+ * The geometry records of a {@link BinaryResourceFile} are registered with their mapped segments and a table of their
+ * positions. They are not copied and only decoded when they are requested.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class MappedGeometryStore implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedGeometryStore.class);
+
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final byte POINT = 1;
+    private static final byte LINE_STRING = 2;
+    private static final byte LINEAR_RING = 3;
+    private static final byte POLYGON = 4;
+    private static final byte MULTI_POINT = 5;
+    private static final byte MULTI_LINE_STRING = 6;
+    private static final byte MULTI_POLYGON = 7;
+    private static final byte GEOMETRY_COLLECTION = 8;
+
+    // Unsafe.invokeCleaner(ByteBuffer) and the Unsafe instance, null if the segments can not be unmapped explicitly
+    private static final Method INVOKE_CLEANER;
+    private static final Object UNSAFE;
+
+    static {
+        Method invokeCleaner = null;
+        Object unsafe = null;
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (final ReflectiveOperationException | RuntimeException ign) {
+            // Java 8 or restricted access, the segments are unmapped when they are garbage collected
+        }
+        INVOKE_CLEANER = invokeCleaner;
+        UNSAFE = unsafe;
+    }
+
+    // null until the first geometry is stored
+    private Path file;
+    private FileChannel channel;
+    private boolean closed;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private long fileSize;
+    private int segmentPos;
+
+    // compressed DBNodeRef -> segment index in the upper and position in the lower 32 bits
+    private final LongLongMap positions = new LongLongMap();
+    private long hitCount;
+
+    // geometries of a resource file, null if none have been registered
+    private RefTable restoredRefs;
+    // segment index in the upper and position in the lower 32 bits, in the slot order of the restored references
+    private LongBuffer restoredPositions;
+    private List<MappedByteBuffer> restoredSegments;
+
+    MappedGeometryStore() {}
+
+    /**
+     * Visitor for {@link #forEachRestored(GeometryVisitor, GeometryFactory)}
+     */
+    @FunctionalInterface
+    interface GeometryVisitor {
+        void accept(final long ref, final Geometry geometry);
+    }
+
+    /**
+     * Register the geometry records of a resource file, see {@link BinaryResourceFile}
+     *
+     * @param refs
+     *            compressed DBNodeRefs of the geometries
+     * @param recordPositions
+     *            segment index in the upper and position in the lower 32 bits, for each slot of the references
+     * @param recordSegments
+     *            mapped segments with the records
+     */
+    synchronized void restore(final RefTable refs, final LongBuffer recordPositions,
+            final List<MappedByteBuffer> recordSegments) {
+        if (recordPositions.capacity() != refs.slots()) {
+            throw new IllegalArgumentException("Invalid number of restored geometry positions");
+        }
+        unmapRestored();
+        if (!closed) {
+            this.restoredRefs = refs;
+            this.restoredPositions = recordPositions;
+            this.restoredSegments = new ArrayList<>(recordSegments);
+        }
+    }
+
+    private int restoredSlot(final long ref) {
+        return restoredRefs != null ? restoredRefs.slot(ref) : -1;
+    }
+
+    /**
+     * Store a geometry, if it has not been stored yet
+     *
+     * @param ref
+     *            compressed DBNodeRef
+     * @param geometry
+     *            the geometry to store
+     */
+    synchronized void put(final long ref, final Geometry geometry) {
+        if (closed || positions.get(ref) != -1 || restoredSlot(ref) != -1) {
+            return;
+        }
+        final long recordSize = recordSize(geometry);
+        if (recordSize > Integer.MAX_VALUE) {
+            return;
+        }
+        try {
+            final MappedByteBuffer segment = reserve((int) recordSize);
+            final int start = segmentPos;
+            final int end = write(segment, start, geometry);
+            segmentPos = end;
+            positions.put(ref, ((long) (segments.size() - 1)) << 32 | start);
+        } catch (final IOException e) {
+            logger.error("Geometry could not be moved to the second level cache: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Decode a stored geometry
+     *
+     * @param ref
+     *            compressed DBNodeRef
+     * @param factory
+     *            factory for the decoded geometry
+     * @return the geometry or <code>null</code> if the geometry has not been stored
+     */
+    @Nullable
+    synchronized Geometry get(final long ref, final GeometryFactory factory) {
+        final long position = positions.get(ref);
+        if (position != -1) {
+            hitCount++;
+            return read(segments.get((int) (position >>> 32)), new int[]{(int) position}, factory);
+        }
+        final int slot = restoredSlot(ref);
+        if (slot != -1) {
+            hitCount++;
+            final long restoredPosition = restoredPositions.get(slot);
+            return read(restoredSegments.get((int) (restoredPosition >>> 32)), new int[]{(int) restoredPosition},
+                    factory);
+        }
+        return null;
+    }
+
+    /**
+     * Decode all registered geometries of a resource file, for instance to write them again
+     *
+     * @param visitor
+     *            receives the compressed DBNodeRef and the decoded geometry
+     * @param factory
+     *            factory for the decoded geometries
+     */
+    synchronized void forEachRestored(final GeometryVisitor visitor, final GeometryFactory factory) {
+        if (restoredRefs == null) {
+            return;
+        }
+        for (int slot = 0; slot < restoredRefs.slots(); slot++) {
+            if (restoredRefs.occupied(slot)) {
+                final long position = restoredPositions.get(slot);
+                visitor.accept(restoredRefs.ref(slot),
+                        read(restoredSegments.get((int) (position >>> 32)), new int[]{(int) position}, factory));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of geometries that were decoded from this store
+     *
+     * @return number of hits
+     */
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of stored and registered geometries
+     *
+     * @return number of geometries
+     */
+    synchronized int size() {
+        return positions.size() + (restoredRefs != null ? restoredRefs.size() : 0);
+    }
+
+    /**
+     * Returns the size of the mapped file
+     *
+     * @return size in bytes
+     */
+    synchronized long fileSize() {
+        return fileSize;
+    }
+
+    private MappedByteBuffer reserve(final int recordSize) throws IOException {
+        if (channel == null) {
+            file = Files.createTempFile("gmlgeox-geometries", ".bin");
+            file.toFile().deleteOnExit();
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        if (segments.isEmpty() || segments.get(segments.size() - 1).capacity() - segmentPos < recordSize) {
+            final int size = Math.max(SEGMENT_SIZE, recordSize);
+            segments.add(channel.map(FileChannel.MapMode.READ_WRITE, fileSize, size));
+            fileSize += size;
+            segmentPos = 0;
+        }
+        return segments.get(segments.size() - 1);
+    }
+
+    static long recordSize(final Geometry geometry) {
+        // type byte, followed by the coordinates, the rings or the members
+        if (geometry instanceof Point) {
+            return 1 + sequenceSize(((Point) geometry).getCoordinateSequence());
+        } else if (geometry instanceof LineString) {
+            return 1 + sequenceSize(((LineString) geometry).getCoordinateSequence());
+        } else if (geometry instanceof Polygon) {
+            final Polygon polygon = (Polygon) geometry;
+            if (polygon.isEmpty()) {
+                return 5;
+            }
+            long size = 5 + sequenceSize(polygon.getExteriorRing().getCoordinateSequence());
+            for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                size += sequenceSize(polygon.getInteriorRingN(i).getCoordinateSequence());
+            }
+            return size;
+        } else if (geometry instanceof GeometryCollection) {
+            long size = 5;
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                size += recordSize(geometry.getGeometryN(i));
+            }
+            return size;
+        }
+        throw new IllegalStateException("Unknown JTS type for serialization: " + geometry.getGeometryType());
+    }
+
+    private static long sequenceSize(final CoordinateSequence sequence) {
+        return 4 + sequence.size() * 24L;
+    }
+
+    private static byte type(final Geometry geometry) {
+        if (geometry instanceof Point) {
+            return POINT;
+        } else if (geometry instanceof LinearRing) {
+            return LINEAR_RING;
+        } else if (geometry instanceof LineString) {
+            return LINE_STRING;
+        } else if (geometry instanceof Polygon) {
+            return POLYGON;
+        } else if (geometry instanceof MultiPoint) {
+            return MULTI_POINT;
+        } else if (geometry instanceof MultiLineString) {
+            return MULTI_LINE_STRING;
+        } else if (geometry instanceof MultiPolygon) {
+            return MULTI_POLYGON;
+        } else if (geometry instanceof GeometryCollection) {
+            return GEOMETRY_COLLECTION;
+        }
+        throw new IllegalStateException("Unknown JTS type for serialization: " + geometry.getGeometryType());
+    }
+
+    static int write(final ByteBuffer buffer, int pos, final Geometry geometry) {
+        final byte type = type(geometry);
+        buffer.put(pos++, type);
+        switch (type) {
+        case POINT:
+            return writeSequence(buffer, pos, ((Point) geometry).getCoordinateSequence());
+        case LINE_STRING:
+        case LINEAR_RING:
+            return writeSequence(buffer, pos, ((LineString) geometry).getCoordinateSequence());
+        case POLYGON:
+            final Polygon polygon = (Polygon) geometry;
+            if (polygon.isEmpty()) {
+                buffer.putInt(pos, 0);
+                return pos + 4;
+            }
+            buffer.putInt(pos, polygon.getNumInteriorRing() + 1);
+            // rings are written without a type byte
+            pos = writeSequence(buffer, pos + 4, polygon.getExteriorRing().getCoordinateSequence());
+            for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                pos = writeSequence(buffer, pos, polygon.getInteriorRingN(i).getCoordinateSequence());
+            }
+            return pos;
+        default:
+            buffer.putInt(pos, geometry.getNumGeometries());
+            pos += 4;
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                pos = write(buffer, pos, geometry.getGeometryN(i));
+            }
+            return pos;
+        }
+    }
+
+    /**
+     * Writes the number of coordinates and the coordinates and returns the position after the sequence
+     */
+    private static int writeSequence(final ByteBuffer buffer, int pos, final CoordinateSequence sequence) {
+        final int size = sequence.size();
+        buffer.putInt(pos, size);
+        pos += 4;
+        for (int i = 0; i < size; i++) {
+            buffer.putDouble(pos, sequence.getOrdinate(i, CoordinateSequence.X));
+            buffer.putDouble(pos + 8, sequence.getOrdinate(i, CoordinateSequence.Y));
+            buffer.putDouble(pos + 16, sequence.getOrdinate(i, CoordinateSequence.Z));
+            pos += 24;
+        }
+        return pos;
+    }
+
+    private static Coordinate[] readCoordinates(final ByteBuffer buffer, final int[] pos) {
+        int p = pos[0];
+        final Coordinate[] coordinates = new Coordinate[buffer.getInt(p)];
+        p += 4;
+        for (int i = 0; i < coordinates.length; i++) {
+            coordinates[i] = new Coordinate(buffer.getDouble(p), buffer.getDouble(p + 8), buffer.getDouble(p + 16));
+            p += 24;
+        }
+        pos[0] = p;
+        return coordinates;
+    }
+
+    static Geometry read(final ByteBuffer buffer, final int[] pos, final GeometryFactory factory) {
+        final byte type = buffer.get(pos[0]++);
+        switch (type) {
+        case POINT:
+            return new Point(new CoordinateArraySequence(readCoordinates(buffer, pos)), factory);
+        case LINE_STRING:
+            return new LineString(new CoordinateArraySequence(readCoordinates(buffer, pos)), factory);
+        case LINEAR_RING:
+            return new LinearRing(new CoordinateArraySequence(readCoordinates(buffer, pos)), factory);
+        case POLYGON:
+            final int rings = buffer.getInt(pos[0]);
+            pos[0] += 4;
+            if (rings == 0) {
+                return factory.createPolygon(null, null);
+            }
+            final LinearRing shell = new LinearRing(new CoordinateArraySequence(readCoordinates(buffer, pos)), factory);
+            final LinearRing[] holes = new LinearRing[rings - 1];
+            for (int i = 0; i < holes.length; i++) {
+                holes[i] = new LinearRing(new CoordinateArraySequence(readCoordinates(buffer, pos)), factory);
+            }
+            return new Polygon(shell, holes, factory);
+        case MULTI_POINT:
+        case MULTI_LINE_STRING:
+        case MULTI_POLYGON:
+        case GEOMETRY_COLLECTION:
+            final Geometry[] members = new Geometry[buffer.getInt(pos[0])];
+            pos[0] += 4;
+            for (int i = 0; i < members.length; i++) {
+                members[i] = read(buffer, pos, factory);
+            }
+            if (type == MULTI_POINT) {
+                return factory.createMultiPoint(Arrays.copyOf(members, members.length, Point[].class));
+            } else if (type == MULTI_LINE_STRING) {
+                return factory.createMultiLineString(Arrays.copyOf(members, members.length, LineString[].class));
+            } else if (type == MULTI_POLYGON) {
+                return factory.createMultiPolygon(Arrays.copyOf(members, members.length, Polygon[].class));
+            }
+            return factory.createGeometryCollection(members);
+        default:
+            throw new IllegalStateException("Corrupt second level geometry cache, unknown type " + type);
+        }
+    }
+
+    /**
+     * Unmaps the segments and deletes the file. No buffer escapes this class and all accesses are synchronized, so no
+     * segment is accessed after it has been unmapped.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        unmapRestored();
+        for (final MappedByteBuffer segment : segments) {
+            unmap(segment);
+        }
+        segments.clear();
+        positions.clear();
+        if (channel != null) {
+            channel.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private void unmapRestored() {
+        if (restoredSegments != null) {
+            for (final MappedByteBuffer segment : restoredSegments) {
+                unmap(segment);
+            }
+        }
+        restoredRefs = null;
+        restoredPositions = null;
+        restoredSegments = null;
+    }
+
+    private static void unmap(final MappedByteBuffer segment) {
+        if (INVOKE_CLEANER != null) {
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, segment);
+            } catch (final ReflectiveOperationException | RuntimeException e) {
+                logger.debug("Segment of the second level cache could not be unmapped: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Minimal open-addressing map from compressed DBNodeRefs to file positions. -1 is returned for missing keys, 0
+     * keys are stored separately.
+     */
+    private static final class LongLongMap {
+        private long[] keys = new long[1024];
+        private long[] values = new long[1024];
+        private int size;
+        private long zeroKeyValue = -1;
+
+        private static int slot(final long[] keys, final long key) {
+            final int mask = keys.length - 1;
+            // Fibonacci hashing, the home slot is taken from the log2(capacity) highest bits of the product
+            final int shift = Long.numberOfLeadingZeros(mask);
+            int pos = (int) ((key ^ (key >>> 32)) * 0x9E3779B97F4A7C15L >>> shift);
+            while (keys[pos] != key && keys[pos] != 0) {
+                pos = (pos + 1) & mask;
+            }
+            return pos;
+        }
+
+        long get(final long key) {
+            if (key == 0) {
+                return zeroKeyValue;
+            }
+            final int pos = slot(keys, key);
+            return keys[pos] == 0 ? -1 : values[pos];
+        }
+
+        void put(final long key, final long value) {
+            if (key == 0) {
+                if (zeroKeyValue == -1) {
+                    size++;
+                }
+                zeroKeyValue = value;
+                return;
+            }
+            final int pos = slot(keys, key);
+            if (keys[pos] == 0) {
+                keys[pos] = key;
+                if (++size > keys.length * 3 / 4) {
+                    values[pos] = value;
+                    rehash();
+                    return;
+                }
+            }
+            values[pos] = value;
+        }
+
+        private void rehash() {
+            final long[] newKeys = new long[keys.length << 1];
+            final long[] newValues = new long[newKeys.length];
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0) {
+                    final int pos = slot(newKeys, keys[i]);
+                    newKeys[pos] = keys[i];
+                    newValues[pos] = values[i];
+                }
+            }
+            keys = newKeys;
+            values = newValues;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            keys = new long[1024];
+            values = new long[1024];
+            size = 0;
+            zeroKeyValue = -1;
+        }
+    }
+}
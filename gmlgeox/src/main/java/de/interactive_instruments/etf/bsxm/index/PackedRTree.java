@@ -0,0 +1,550 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.bsxm.index;
+
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.stream.IntStream;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A read-optimized, bulk loaded R-tree that is packed along a Hilbert curve.
+ *
+ * The tree does not create an object per entry. The bounding boxes of the entries and of all inner nodes are stored in
+ * one flat double buffer (minx, miny, maxx, maxy per box), the references to the indexed BaseX nodes are stored as the
+ * compressed long values of {@link de.interactive_instruments.etf.bsxm.node.DBNodeRef}s. The first level holds the
+ * entries, every following level groups {@link #NODE_SIZE} boxes of the previous level. The last box is the root.
+ *
+ * Packed trees wrap heap arrays, restored trees use the mapped columns of a {@link BinaryResourceFile}.
+ *
+ * Instances are immutable, new entries are collected with a {@link Builder}.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class PackedRTree {
+
+    static final int NODE_SIZE = 16;
+    // minimum number of entries or nodes that are processed in parallel while packing
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+    private static final int HILBERT_MAX = (1 << 16) - 1;
+
+    private static final PackedRTree EMPTY = new PackedRTree(LongBuffer.allocate(0), DoubleBuffer.allocate(0),
+            new int[0]);
+
+    private final LongBuffer refs;
+    private final DoubleBuffer boxes;
+    // exclusive end of each level, counted in boxes
+    private final int[] levelBounds;
+
+    private PackedRTree(final LongBuffer refs, final DoubleBuffer boxes, final int[] levelBounds) {
+        this.refs = refs;
+        this.boxes = boxes;
+        this.levelBounds = levelBounds;
+    }
+
+    /**
+     * Create a tree from the columns of a tree that has already been packed, see {@link #rawRefs()},
+     * {@link #rawBoxes()} and {@link #rawLevelBounds()}. The buffers are used directly and must not be modified.
+     */
+    static PackedRTree restore(final LongBuffer refs, final DoubleBuffer boxes, final int[] levelBounds) {
+        if (refs.capacity() == 0) {
+            return EMPTY;
+        }
+        if (levelBounds.length == 0 || levelBounds[0] != refs.capacity()
+                || boxes.capacity() != levelBounds[levelBounds.length - 1] * 4L) {
+            throw new IllegalArgumentException("Invalid packed R-tree layout");
+        }
+        return new PackedRTree(refs, boxes, levelBounds);
+    }
+
+    /**
+     * Collects entries for a packed R-tree.
+     */
+    static final class Builder {
+        private long[] refs;
+        private double[] boxes;
+        private int size;
+
+        Builder() {
+            this(64);
+        }
+
+        Builder(final int initialCapacity) {
+            this.refs = new long[Math.max(initialCapacity, 1)];
+            this.boxes = new double[Math.max(initialCapacity, 1) * 4];
+        }
+
+        void add(final long ref, final double minX, final double minY, final double maxX, final double maxY) {
+            if (size == refs.length) {
+                final int newCapacity = size + (size >> 1) + 1;
+                refs = Arrays.copyOf(refs, newCapacity);
+                boxes = Arrays.copyOf(boxes, newCapacity * 4);
+            }
+            refs[size] = ref;
+            final int b = size * 4;
+            boxes[b] = minX;
+            boxes[b + 1] = minY;
+            boxes[b + 2] = maxX;
+            boxes[b + 3] = maxY;
+            size++;
+        }
+
+        void addAll(@NotNull final PackedRTree tree) {
+            for (int i = 0; i < tree.size(); i++) {
+                final int b = i * 4;
+                add(tree.refs.get(i), tree.boxes.get(b), tree.boxes.get(b + 1), tree.boxes.get(b + 2),
+                        tree.boxes.get(b + 3));
+            }
+        }
+
+        void addAll(@NotNull final Builder builder) {
+            for (int i = 0; i < builder.size; i++) {
+                final int b = i * 4;
+                add(builder.refs[i], builder.boxes[b], builder.boxes[b + 1], builder.boxes[b + 2],
+                        builder.boxes[b + 3]);
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * Report all entries whose bounding box intersects with the given bounding box, without using an index.
+         */
+        void search(final double minX, final double minY, final double maxX, final double maxY,
+                final LongConsumer visitor) {
+            for (int i = 0; i < size; i++) {
+                if (intersects(boxes, i * 4, minX, minY, maxX, maxY)) {
+                    visitor.accept(refs[i]);
+                }
+            }
+        }
+
+        @NotNull
+        PackedRTree build() {
+            return pack(refs, boxes, size);
+        }
+    }
+
+    @NotNull
+    @Contract(pure = true)
+    static PackedRTree empty() {
+        return EMPTY;
+    }
+
+    @NotNull
+    private static PackedRTree pack(final long[] unsortedRefs, final double[] unsortedBoxes, final int size) {
+        if (size == 0) {
+            return EMPTY;
+        }
+
+        // Calculate the number of boxes on each level
+        int count = size;
+        int levels = 1;
+        do {
+            count = (count + NODE_SIZE - 1) / NODE_SIZE;
+            levels++;
+        } while (count != 1);
+        final int[] levelBounds = new int[levels];
+        count = size;
+        int numBoxes = size;
+        levelBounds[0] = size;
+        for (int l = 1; l < levels; l++) {
+            count = (count + NODE_SIZE - 1) / NODE_SIZE;
+            numBoxes += count;
+            levelBounds[l] = numBoxes;
+        }
+
+        // Extent of all entries, used to map the centers onto the Hilbert grid
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            final int b = i * 4;
+            minX = Math.min(minX, unsortedBoxes[b]);
+            minY = Math.min(minY, unsortedBoxes[b + 1]);
+            maxX = Math.max(maxX, unsortedBoxes[b + 2]);
+            maxY = Math.max(maxY, unsortedBoxes[b + 3]);
+        }
+        final double width = maxX - minX;
+        final double height = maxY - minY;
+
+        // The Hilbert value is stored in the upper 32 bits and the position of the entry in the lower 32 bits.
+        // The sign bit is flipped so that the signed sort orders the unsigned Hilbert values.
+        final long[] keys = new long[size];
+        final double fMinX = minX;
+        final double fMinY = minY;
+        rangeForEach(size, i -> {
+            final int b = i * 4;
+            final int hx = width > 0
+                    ? (int) (HILBERT_MAX * ((unsortedBoxes[b] + unsortedBoxes[b + 2]) / 2 - fMinX) / width)
+                    : 0;
+            final int hy = height > 0
+                    ? (int) (HILBERT_MAX * ((unsortedBoxes[b + 1] + unsortedBoxes[b + 3]) / 2 - fMinY) / height)
+                    : 0;
+            keys[i] = ((hilbert(hx, hy) & 0xFFFFFFFFL) << 32 | i) ^ Long.MIN_VALUE;
+        });
+        // falls back to a sequential sort for small arrays
+        Arrays.parallelSort(keys);
+
+        final long[] refs = new long[size];
+        final double[] boxes = new double[numBoxes * 4];
+        rangeForEach(size, i -> {
+            final int src = ((int) keys[i]) * 4;
+            final int dst = i * 4;
+            refs[i] = unsortedRefs[(int) keys[i]];
+            boxes[dst] = unsortedBoxes[src];
+            boxes[dst + 1] = unsortedBoxes[src + 1];
+            boxes[dst + 2] = unsortedBoxes[src + 2];
+            boxes[dst + 3] = unsortedBoxes[src + 3];
+        });
+        buildNodes(boxes, levelBounds);
+        return new PackedRTree(LongBuffer.wrap(refs), DoubleBuffer.wrap(boxes), levelBounds);
+    }
+
+    /**
+     * Run the consumer for all values from 0 to size (exclusive), in parallel for large ranges
+     */
+    private static void rangeForEach(final int size, final IntConsumer consumer) {
+        if (size < PARALLEL_THRESHOLD) {
+            for (int i = 0; i < size; i++) {
+                consumer.accept(i);
+            }
+        } else {
+            IntStream.range(0, size).parallel().forEach(consumer);
+        }
+    }
+
+    /**
+     * Calculate the bounding boxes of the inner nodes from the boxes of the first level. The nodes of one level are
+     * independent of each other and are calculated in parallel for large levels.
+     */
+    private static void buildNodes(final double[] boxes, final int[] levelBounds) {
+        for (int l = 0; l < levelBounds.length - 1; l++) {
+            final int start = l == 0 ? 0 : levelBounds[l - 1];
+            final int end = levelBounds[l];
+            final int nodeStart = end;
+            rangeForEach(levelBounds[l + 1] - nodeStart, node -> {
+                double nodeMinX = Double.POSITIVE_INFINITY;
+                double nodeMinY = Double.POSITIVE_INFINITY;
+                double nodeMaxX = Double.NEGATIVE_INFINITY;
+                double nodeMaxY = Double.NEGATIVE_INFINITY;
+                final int childEnd = Math.min(start + (node + 1) * NODE_SIZE, end);
+                for (int pos = start + node * NODE_SIZE; pos < childEnd; pos++) {
+                    final int b = pos * 4;
+                    nodeMinX = Math.min(nodeMinX, boxes[b]);
+                    nodeMinY = Math.min(nodeMinY, boxes[b + 1]);
+                    nodeMaxX = Math.max(nodeMaxX, boxes[b + 2]);
+                    nodeMaxY = Math.max(nodeMaxY, boxes[b + 3]);
+                }
+                final int n = (nodeStart + node) * 4;
+                boxes[n] = nodeMinX;
+                boxes[n + 1] = nodeMinY;
+                boxes[n + 2] = nodeMaxX;
+                boxes[n + 3] = nodeMaxY;
+            });
+        }
+    }
+
+    /**
+     * Number of indexed entries
+     *
+     * @return number of entries
+     */
+    @Contract(pure = true)
+    int size() {
+        return levelBounds.length == 0 ? 0 : levelBounds[0];
+    }
+
+    @Contract(pure = true)
+    boolean isEmpty() {
+        return levelBounds.length == 0;
+    }
+
+    /**
+     * Returns the minimum bounding rectangle of all entries as array (minx, miny, maxx, maxy).
+     *
+     * @return minimum bounding rectangle or <code>null</code> if the tree is empty
+     */
+    double[] mbr() {
+        if (isEmpty()) {
+            return null;
+        }
+        return box(levelBounds[levelBounds.length - 1] - 1);
+    }
+
+    /**
+     * Report all entries whose bounding box intersects with the given bounding box.
+     *
+     * @param minX
+     *            minimum value on the first coordinate axis
+     * @param minY
+     *            minimum value on the second coordinate axis
+     * @param maxX
+     *            maximum value on the first coordinate axis
+     * @param maxY
+     *            maximum value on the second coordinate axis
+     * @param visitor
+     *            receives the compressed node reference of each detected entry
+     */
+    void search(final double minX, final double minY, final double maxX, final double maxY,
+            final LongConsumer visitor) {
+        if (isEmpty()) {
+            return;
+        }
+        final int rootLevel = levelBounds.length - 1;
+        final int root = levelBounds[rootLevel] - 1;
+        if (intersects(boxes, root * 4, minX, minY, maxX, maxY)) {
+            searchNode(root, rootLevel, minX, minY, maxX, maxY, visitor);
+        }
+    }
+
+    private void searchNode(final int node, final int level, final double minX, final double minY,
+            final double maxX, final double maxY, final LongConsumer visitor) {
+        final int childLevel = level - 1;
+        final int childLevelStart = childLevel == 0 ? 0 : levelBounds[childLevel - 1];
+        final int levelStart = levelBounds[childLevel];
+        final int start = childLevelStart + (node - levelStart) * NODE_SIZE;
+        final int end = Math.min(start + NODE_SIZE, levelBounds[childLevel]);
+        for (int c = start; c < end; c++) {
+            if (intersects(boxes, c * 4, minX, minY, maxX, maxY)) {
+                if (childLevel == 0) {
+                    visitor.accept(refs.get(c));
+                } else {
+                    searchNode(c, childLevel, minX, minY, maxX, maxY, visitor);
+                }
+            }
+        }
+    }
+
+    /**
+     * Report all entries
+     *
+     * @param visitor
+     *            receives the compressed node reference of each entry
+     */
+    void forEach(final LongConsumer visitor) {
+        for (int i = 0; i < size(); i++) {
+            visitor.accept(refs.get(i));
+        }
+    }
+
+    /**
+     * Returns the positions of the nearest k entries (k=maxCount) to the given point, ordered by their distance, where
+     * the entries are strictly less than a given maximum distance from the point.
+     *
+     * @param x
+     *            first coordinate of the point
+     * @param y
+     *            second coordinate of the point
+     * @param maxDistance
+     *            the maximum distance
+     * @param maxCount
+     *            maximum number of entries
+     * @return positions of the entries, use {@link #ref(int)} and {@link #box(int)} to access them
+     */
+    @NotNull
+    int[] nearest(final double x, final double y, final double maxDistance, final int maxCount) {
+        if (isEmpty() || maxCount <= 0) {
+            return new int[0];
+        }
+        final NearestCollector collector = new NearestCollector(maxDistance, maxCount);
+        final int rootLevel = levelBounds.length - 1;
+        final int root = levelBounds[rootLevel] - 1;
+        if (distance(boxes, root * 4, x, y) < maxDistance) {
+            nearestNode(root, rootLevel, x, y, collector);
+        }
+        return Arrays.copyOf(collector.positions, collector.size);
+    }
+
+    private void nearestNode(final int node, final int level, final double x, final double y,
+            final NearestCollector collector) {
+        final int childLevel = level - 1;
+        final int childLevelStart = childLevel == 0 ? 0 : levelBounds[childLevel - 1];
+        final int levelStart = levelBounds[childLevel];
+        final int start = childLevelStart + (node - levelStart) * NODE_SIZE;
+        final int end = Math.min(start + NODE_SIZE, levelBounds[childLevel]);
+        for (int c = start; c < end; c++) {
+            final double d = distance(boxes, c * 4, x, y);
+            if (d < collector.bound()) {
+                if (childLevel == 0) {
+                    collector.add(c, d);
+                } else {
+                    nearestNode(c, childLevel, x, y, collector);
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps the nearest entries sorted by distance.
+     */
+    private static final class NearestCollector {
+        private final double maxDistance;
+        private final int maxCount;
+        private int[] positions = new int[16];
+        private double[] distances = new double[16];
+        private int size;
+
+        private NearestCollector(final double maxDistance, final int maxCount) {
+            this.maxDistance = maxDistance;
+            this.maxCount = maxCount;
+        }
+
+        private double bound() {
+            return size < maxCount ? maxDistance : distances[size - 1];
+        }
+
+        private void add(final int position, final double distance) {
+            if (size == positions.length && size < maxCount) {
+                final int newCapacity = (int) Math.min((long) size * 2, maxCount);
+                positions = Arrays.copyOf(positions, newCapacity);
+                distances = Arrays.copyOf(distances, newCapacity);
+            }
+            int i = size < maxCount ? size++ : size - 1;
+            while (i > 0 && distances[i - 1] > distance) {
+                positions[i] = positions[i - 1];
+                distances[i] = distances[i - 1];
+                i--;
+            }
+            positions[i] = position;
+            distances[i] = distance;
+        }
+    }
+
+    /**
+     * Compressed node reference of the entry at the given position
+     */
+    @Contract(pure = true)
+    long ref(final int position) {
+        return refs.get(position);
+    }
+
+    /**
+     * Bounding box of the entry at the given position as array (minx, miny, maxx, maxy)
+     */
+    @NotNull
+    double[] box(final int position) {
+        final int b = position * 4;
+        return new double[]{boxes.get(b), boxes.get(b + 1), boxes.get(b + 2), boxes.get(b + 3)};
+    }
+
+    @Contract(pure = true)
+    private static boolean intersects(final double[] boxes, final int b, final double minX, final double minY,
+            final double maxX, final double maxY) {
+        return boxes[b] <= maxX && boxes[b + 1] <= maxY && boxes[b + 2] >= minX && boxes[b + 3] >= minY;
+    }
+
+    @Contract(pure = true)
+    private static boolean intersects(final DoubleBuffer boxes, final int b, final double minX, final double minY,
+            final double maxX, final double maxY) {
+        return boxes.get(b) <= maxX && boxes.get(b + 1) <= maxY && boxes.get(b + 2) >= minX
+                && boxes.get(b + 3) >= minY;
+    }
+
+    @Contract(pure = true)
+    private static double distance(final DoubleBuffer boxes, final int b, final double x, final double y) {
+        final double dx = Math.max(Math.max(boxes.get(b) - x, 0), x - boxes.get(b + 2));
+        final double dy = Math.max(Math.max(boxes.get(b + 1) - y, 0), y - boxes.get(b + 3));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Position on a Hilbert curve of order 16, based on the non-recursive algorithm from
+     * https://github.com/rawrunprotected/hilbert_curves (public domain).
+     */
+    @Contract(pure = true)
+    private static int hilbert(final int x, final int y) {
+        int a = x ^ y;
+        int b = 0xFFFF ^ a;
+        int c = 0xFFFF ^ (x | y);
+        int d = x & (y ^ 0xFFFF);
+
+        int A = a | (b >> 1);
+        int B = (a >> 1) ^ a;
+        int C = ((c >> 1) ^ (b & (d >> 1))) ^ c;
+        int D = ((a & (c >> 1)) ^ (d >> 1)) ^ d;
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        A = ((a & (a >> 2)) ^ (b & (b >> 2)));
+        B = ((a & (b >> 2)) ^ (b & ((a ^ b) >> 2)));
+        C ^= ((a & (c >> 2)) ^ (b & (d >> 2)));
+        D ^= ((b & (c >> 2)) ^ ((a ^ b) & (d >> 2)));
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        A = ((a & (a >> 4)) ^ (b & (b >> 4)));
+        B = ((a & (b >> 4)) ^ (b & ((a ^ b) >> 4)));
+        C ^= ((a & (c >> 4)) ^ (b & (d >> 4)));
+        D ^= ((b & (c >> 4)) ^ ((a ^ b) & (d >> 4)));
+
+        a = A;
+        b = B;
+        c = C;
+        d = D;
+        C ^= ((a & (c >> 8)) ^ (b & (d >> 8)));
+        D ^= ((b & (c >> 8)) ^ ((a ^ b) & (d >> 8)));
+
+        a = C ^ (C >> 1);
+        b = D ^ (D >> 1);
+
+        int i0 = x ^ y;
+        int i1 = b | (0xFFFF ^ (i0 | a));
+
+        i0 = (i0 | (i0 << 8)) & 0x00FF00FF;
+        i0 = (i0 | (i0 << 4)) & 0x0F0F0F0F;
+        i0 = (i0 | (i0 << 2)) & 0x33333333;
+        i0 = (i0 | (i0 << 1)) & 0x55555555;
+
+        i1 = (i1 | (i1 << 8)) & 0x00FF00FF;
+        i1 = (i1 | (i1 << 4)) & 0x0F0F0F0F;
+        i1 = (i1 | (i1 << 2)) & 0x33333333;
+        i1 = (i1 | (i1 << 1)) & 0x55555555;
+
+        return (i1 << 1) | i0;
+    }
+
+    // The backing columns, which must not be modified. Used for persisting the tree without repacking.
+
+    LongBuffer rawRefs() {
+        return refs.duplicate();
+    }
+
+    DoubleBuffer rawBoxes() {
+        return boxes.duplicate();
+    }
+
+    int[] rawLevelBounds() {
+        return levelBounds;
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.bsxm.index;
+
+import java.nio.LongBuffer;
+
+/**
+ * A read-only open-addressing table of compressed DBNodeRefs, whose keys are stored in a buffer.
+ *
+ * The table is built when a {@link BinaryResourceFile} is written and is used from the mapped file without creating
+ * an object per entry. The values are stored by the caller in columns with the same slot order. 0 is a valid DBNodeRef
+ * and marks free slots, so an entry for 0 is stored in an additional slot after the last slot of the table.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class RefTable {
+
+    private static final long FREE = 0;
+
+    // capacity + 1 keys, the last one is reserved for the 0 key
+    private final LongBuffer keys;
+    private final int mask;
+    private final int size;
+    private final boolean zeroKey;
+
+    /**
+     * Creates a table from the keys that have been built with {@link #build(long[], int, int[])}
+     *
+     * @param keys
+     *            keys of the slots
+     * @param size
+     *            number of entries
+     * @param zeroKey
+     *            true if the table contains an entry for the 0 key
+     */
+    RefTable(final LongBuffer keys, final int size, final boolean zeroKey) {
+        final int capacity = keys.capacity() - 1;
+        if (capacity < 1 || Integer.bitCount(capacity) != 1 || size < 0 || size > keys.capacity()) {
+            throw new IllegalArgumentException("Invalid reference table capacity: " + capacity);
+        }
+        this.keys = keys;
+        this.mask = capacity - 1;
+        this.size = size;
+        this.zeroKey = zeroKey;
+    }
+
+    /**
+     * Returns the number of table slots for a number of entries, including the slot for the 0 key
+     *
+     * @param size
+     *            number of entries
+     * @return number of slots
+     */
+    static int slots(final int size) {
+        // load factor of 0.75
+        final long requested = Math.max(2, (size * 4L + 2) / 3);
+        if (requested > 1 << 30) {
+            throw new IllegalArgumentException("Too many references: " + size);
+        }
+        return Integer.highestOneBit((int) (requested - 1)) * 2 + 1;
+    }
+
+    /**
+     * Builds the keys of a table
+     *
+     * @param refs
+     *            distinct compressed DBNodeRefs
+     * @param size
+     *            number of references
+     * @param slots
+     *            receives the slot of each reference
+     * @return the keys of the slots
+     */
+    static long[] build(final long[] refs, final int size, final int[] slots) {
+        final long[] table = new long[slots(size)];
+        final int zeroSlot = table.length - 1;
+        final int tableMask = zeroSlot - 1;
+        for (int i = 0; i < size; i++) {
+            final long ref = refs[i];
+            if (ref == FREE) {
+                slots[i] = zeroSlot;
+            } else {
+                int pos = (int) EnvelopeMap.hash(ref) & tableMask;
+                while (table[pos] != FREE) {
+                    pos = (pos + 1) & tableMask;
+                }
+                table[pos] = ref;
+                slots[i] = pos;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Find the slot of a reference
+     *
+     * @param ref
+     *            compressed DBNodeRef
+     * @return the slot or -1 if the reference is not contained
+     */
+    int slot(final long ref) {
+        if (ref == FREE) {
+            return zeroKey ? mask + 1 : -1;
+        }
+        for (int pos = (int) EnvelopeMap.hash(ref) & mask;; pos = (pos + 1) & mask) {
+            final long key = keys.get(pos);
+            if (key == ref) {
+                return pos;
+            } else if (key == FREE) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of slots, including the slot for the 0 key
+     *
+     * @return number of slots
+     */
+    int slots() {
+        return mask + 2;
+    }
+
+    /**
+     * Returns the reference stored in an occupied slot, see {@link #occupied(int)}
+     *
+     * @param slot
+     *            slot
+     * @return compressed DBNodeRef
+     */
+    long ref(final int slot) {
+        return keys.get(slot);
+    }
+
+    boolean occupied(final int slot) {
+        return slot > mask ? zeroKey : keys.get(slot) != FREE;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long memorySize() {
+        return keys.capacity() * 8L;
+    }
+}
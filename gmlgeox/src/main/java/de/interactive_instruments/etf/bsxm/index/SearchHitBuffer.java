@@ -0,0 +1,96 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.bsxm.index;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+import org.basex.query.value.Value;
+import org.basex.query.value.node.DBNode;
+import org.jetbrains.annotations.NotNull;
+
+import de.interactive_instruments.etf.bsxm.node.DBNodeRefLookup;
+import de.interactive_instruments.etf.bsxm.node.DBNodeRefSequence;
+
+/**
+ * A reusable buffer that collects the compressed DBNodeRefs of search hits.
+ *
+ * The buffer is passed as visitor to the index and only grows, so that repeated searches do not allocate. The nodes
+ * are resolved after the search has completed, either all at once or lazily by a {@link DBNodeRefSequence}. Not
+ * thread-safe.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class SearchHitBuffer implements LongConsumer {
+
+    private long[] hits = new long[64];
+    private int size;
+
+    /**
+     * Reset the buffer before the next search
+     *
+     * @return this buffer
+     */
+    SearchHitBuffer clear() {
+        size = 0;
+        return this;
+    }
+
+    @Override
+    public void accept(final long ref) {
+        if (size == hits.length) {
+            hits = Arrays.copyOf(hits, size << 1);
+        }
+        hits[size++] = ref;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Create a sequence of the collected hits, which resolves the nodes when they are accessed
+     *
+     * @param lookup
+     *            lookup for the database nodes
+     * @return the empty sequence, a single node or a lazy sequence of nodes
+     */
+    @NotNull
+    Value sequence(@NotNull final DBNodeRefLookup lookup) {
+        return DBNodeRefSequence.create(hits, size, lookup);
+    }
+
+    /**
+     * Resolve all collected hits
+     *
+     * @param lookup
+     *            lookup for the database nodes
+     * @return the database nodes in the order of the hits
+     */
+    @NotNull
+    DBNode[] resolve(@NotNull final DBNodeRefLookup lookup) {
+        final DBNode[] nodes = new DBNode[size];
+        for (int i = 0; i < size; i++) {
+            nodes[i] = lookup.resolve(hits[i]);
+        }
+        return nodes;
+    }
+}
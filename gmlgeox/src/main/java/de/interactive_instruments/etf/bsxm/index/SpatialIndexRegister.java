@@ -25,13 +25,15 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.stream.Collectors;
+import java.util.function.LongConsumer;
+import java.util.stream.IntStream;
 
 import com.github.davidmoten.rtree.RTree;
 import com.github.davidmoten.rtree.geometry.Geometries;
@@ -43,8 +45,10 @@ import com.vividsolutions.jts.geom.Envelope;
 import org.basex.query.QueryModule.Deterministic;
 import org.basex.query.QueryModule.Permission;
 import org.basex.query.QueryModule.Requires;
+import org.basex.query.value.Value;
 import org.basex.query.value.node.ANode;
 import org.basex.query.value.node.DBNode;
+import org.basex.query.value.seq.Empty;
 import org.deegree.commons.xml.XMLParsingException;
 import org.deegree.geometry.Geometry;
 import org.jetbrains.annotations.NotNull;
@@ -56,7 +60,6 @@ import de.interactive_instruments.etf.bsxm.JtsTransformer;
 import de.interactive_instruments.etf.bsxm.algorithm.GeometryPointsAnalysis;
 import de.interactive_instruments.etf.bsxm.node.DBNodeRef;
 import de.interactive_instruments.etf.bsxm.node.DBNodeRefLookup;
-import de.interactive_instruments.etf.bsxm.node.ExternalizableDBNodeRefMap;
 
 /**
  * Builds and maintains spatial indexes.
@@ -67,8 +70,59 @@ public class SpatialIndexRegister implements Externalizable {
 
     public static String DEFAULT_SPATIAL_INDEX = "";
 
-    private Map<String, RTree<DBNodeRef, com.github.davidmoten.rtree.geometry.Geometry>> rtreeByIndexName = new HashMap<>();
-    private final Map<String, List<com.github.davidmoten.rtree.Entry<DBNodeRef, com.github.davidmoten.rtree.geometry.Geometry>>> geomIndexEntriesByIndexName = new HashMap<>();
+    private Map<String, NamedSpatialIndex> rtreeByIndexName = new HashMap<>();
+    private final Map<String, PackedRTree.Builder> geomIndexEntriesByIndexName = new HashMap<>();
+    // reused by all searches in the named indexes
+    private final SearchHitBuffer hitBuffer = new SearchHitBuffer();
+
+    /**
+     * A packed R-tree and the entries that have been added after it has been built.
+     *
+     * Entries added with {@link #index(String, DBNodeRef, com.github.davidmoten.rtree.geometry.Geometry)} are first
+     * collected and scanned linearly. The tree is repacked once there are too many of them.
+     */
+    private static final class NamedSpatialIndex {
+        private static final int MIN_LINEAR_SCAN_ENTRIES = 1024;
+
+        private PackedRTree tree;
+        private PackedRTree.Builder pending;
+
+        private NamedSpatialIndex(final PackedRTree tree) {
+            this.tree = tree;
+        }
+
+        private void add(final long ref, final double minX, final double minY, final double maxX, final double maxY) {
+            if (pending == null) {
+                pending = new PackedRTree.Builder();
+            }
+            pending.add(ref, minX, minY, maxX, maxY);
+        }
+
+        private PackedRTree tree() {
+            if (pending != null) {
+                final PackedRTree.Builder builder = new PackedRTree.Builder(tree.size() + pending.size());
+                builder.addAll(tree);
+                builder.addAll(pending);
+                tree = builder.build();
+                pending = null;
+            }
+            return tree;
+        }
+
+        private int size() {
+            return pending != null ? tree.size() + pending.size() : tree.size();
+        }
+
+        private void search(final double minX, final double minY, final double maxX, final double maxY,
+                final LongConsumer visitor) {
+            if (pending != null && pending.size() <= Math.max(MIN_LINEAR_SCAN_ENTRIES, tree.size() >> 4)) {
+                tree.search(minX, minY, maxX, maxY, visitor);
+                pending.search(minX, minY, maxX, maxY, visitor);
+            } else {
+                tree().search(minX, minY, maxX, maxY, visitor);
+            }
+        }
+    }
 
     /**
      * Index a geometry
@@ -82,12 +136,14 @@ public class SpatialIndexRegister implements Externalizable {
      */
     public void index(@NotNull final String indexName, final DBNodeRef entry,
             final com.github.davidmoten.rtree.geometry.Geometry geometry) {
-        RTree<DBNodeRef, com.github.davidmoten.rtree.geometry.Geometry> rtree = rtreeByIndexName.get(indexName);
-        if (rtree == null) {
-            rtree = RTree.star().create();
-        }
-        rtree = rtree.add(entry, geometry);
-        rtreeByIndexName.put(indexName, rtree);
+        final Rectangle mbr = geometry.mbr();
+        index(indexName, entry.getNativeData(), mbr.x1(), mbr.y1(), mbr.x2(), mbr.y2());
+    }
+
+    private void index(@NotNull final String indexName, final long ref, final double minX, final double minY,
+            final double maxX, final double maxY) {
+        rtreeByIndexName.computeIfAbsent(indexName, n -> new NamedSpatialIndex(PackedRTree.empty()))
+                .add(ref, minX, minY, maxX, maxY);
     }
 
     /**
@@ -116,8 +172,9 @@ public class SpatialIndexRegister implements Externalizable {
      */
     public List<DBNode> getAll(@NotNull final String indexName, final DBNodeRefLookup lookup) {
         if (rtreeByIndexName.containsKey(indexName)) {
-            return lookup
-                    .collect(rtreeByIndexName.get(indexName).entries().map(com.github.davidmoten.rtree.Entry::value));
+            final SearchHitBuffer hits = hitBuffer.clear();
+            rtreeByIndexName.get(indexName).tree().forEach(hits);
+            return Arrays.asList(hits.resolve(lookup));
         } else {
             return null;
         }
@@ -136,12 +193,22 @@ public class SpatialIndexRegister implements Externalizable {
      */
     @NotNull
     public List<DBNode> search(@NotNull final String indexName, final Rectangle bbox, final DBNodeRefLookup lookup) {
-        if (rtreeByIndexName.containsKey(indexName)) {
-            return lookup.collect(
-                    rtreeByIndexName.get(indexName).search(bbox).map(com.github.davidmoten.rtree.Entry::value));
-        } else {
-            return Collections.emptyList();
+        return Arrays.asList(search(indexName, bbox.x1(), bbox.y1(), bbox.x2(), bbox.y2()).resolve(lookup));
+    }
+
+    /**
+     * Collect the references of all entries in the named spatial index whose bounding box intersects with the given
+     * bounding box. The returned buffer is reused by the next search.
+     */
+    @NotNull
+    private SearchHitBuffer search(@NotNull final String indexName, final double minX, final double minY,
+            final double maxX, final double maxY) {
+        final SearchHitBuffer hits = hitBuffer.clear();
+        final NamedSpatialIndex index = rtreeByIndexName.get(indexName);
+        if (index != null) {
+            index.search(minX, minY, maxX, maxY, hits);
         }
+        return hits;
     }
 
     /**
@@ -163,9 +230,15 @@ public class SpatialIndexRegister implements Externalizable {
             final String indexName, final Point point, final double maxDistance, final int maxCount) {
 
         if (rtreeByIndexName.containsKey(indexName)) {
-
-            return rtreeByIndexName.get(indexName).nearest(point, maxDistance, maxCount).toList().toBlocking().single();
-
+            final PackedRTree tree = rtreeByIndexName.get(indexName).tree();
+            final int[] positions = tree.nearest(point.x(), point.y(), maxDistance, maxCount);
+            final List<com.github.davidmoten.rtree.Entry<DBNodeRef, com.github.davidmoten.rtree.geometry.Geometry>> entries = new ArrayList<>(
+                    positions.length);
+            for (final int position : positions) {
+                entries.add(new EntryDefault<>(DBNodeRef.create(tree.ref(position)),
+                        rTreeGeometry(tree.box(position))));
+            }
+            return entries;
         } else {
 
             return new ArrayList<com.github.davidmoten.rtree.Entry<DBNodeRef, com.github.davidmoten.rtree.geometry.Geometry>>();
@@ -173,13 +246,13 @@ public class SpatialIndexRegister implements Externalizable {
     }
 
     /**
-     * Create the named spatial index by bulk loading, using the STR method. Before the index can be built, entries must be
-     * added by calling {@link #prepareSpatialIndex(String, DBNodeRef, com.github.davidmoten.rtree.geometry.Geometry)}.
+     * Create the named spatial index by bulk loading, using a Hilbert packed R-tree. Before the index can be built,
+     * entries must be added by calling
+     * {@link #prepareSpatialIndex(String, DBNodeRef, com.github.davidmoten.rtree.geometry.Geometry)}.
      *
      * <p>
-     * According to https://github.com/ambling/rtree-benchmark, creating an R*-tree using bulk loading is faster than doing
-     * so without bulk loading. Furthermore, according to https://en.wikipedia.org/wiki/R-tree, an STR bulk loaded R*-tree
-     * is a "very efficient tree".
+     * The entries are sorted by the Hilbert value of their centers and packed into a tree with full nodes, which is
+     * stored in primitive arrays. See {@link PackedRTree}.
      *
      * @param indexName
      *            Identifies the index. The empty string identifies the default index.
@@ -190,15 +263,40 @@ public class SpatialIndexRegister implements Externalizable {
         if (rtreeByIndexName.containsKey(indexName)) {
             throw new GmlGeoXException("Spatial index '" + indexName + "' has already been built.");
         } else if (geomIndexEntriesByIndexName.containsKey(indexName)) {
-            RTree<DBNodeRef, com.github.davidmoten.rtree.geometry.Geometry> rtree = RTree.star()
-                    .create(geomIndexEntriesByIndexName.get(indexName));
-            rtreeByIndexName.put(indexName, rtree);
+            final PackedRTree rtree = geomIndexEntriesByIndexName.get(indexName).build();
+            rtreeByIndexName.put(indexName, new NamedSpatialIndex(rtree));
             geomIndexEntriesByIndexName.remove(indexName);
         }
         // Else: No entries for that index have been added using
         // prepareSpatialIndex(...) -> ignore
     }
 
+    /**
+     * Create all spatial indexes, for which entries have been prepared, using bulk loading.
+     *
+     * <p>
+     * The indexes are independent of each other and are packed concurrently in the common ForkJoin pool. Large indexes
+     * are additionally sorted and packed in parallel, see {@link PackedRTree}.
+     *
+     * @throws GmlGeoXException
+     *             If one of the prepared indexes has already been built. No index is built in this case.
+     */
+    public void buildAllSpatialIndexes() throws GmlGeoXException {
+        for (final String indexName : geomIndexEntriesByIndexName.keySet()) {
+            if (rtreeByIndexName.containsKey(indexName)) {
+                throw new GmlGeoXException("Spatial index '" + indexName + "' has already been built.");
+            }
+        }
+        final String[] indexNames = geomIndexEntriesByIndexName.keySet().toArray(new String[0]);
+        final PackedRTree[] rtrees = new PackedRTree[indexNames.length];
+        IntStream.range(0, indexNames.length).parallel()
+                .forEach(i -> rtrees[i] = geomIndexEntriesByIndexName.get(indexNames[i]).build());
+        for (int i = 0; i < indexNames.length; i++) {
+            rtreeByIndexName.put(indexNames[i], new NamedSpatialIndex(rtrees[i]));
+        }
+        geomIndexEntriesByIndexName.clear();
+    }
+
     /**
      * Returns the minimum bounding rectangle of a given rtree by index name.
      *
@@ -207,7 +305,8 @@ public class SpatialIndexRegister implements Externalizable {
      * @return minimum bounding rectangle
      */
     public Rectangle getIndexMbr(@NotNull final String indexName) {
-        return rtreeByIndexName.get(indexName).mbr().get();
+        final double[] mbr = rtreeByIndexName.get(indexName).tree().mbr();
+        return mbr != null ? Geometries.rectangle(mbr[0], mbr[1], mbr[2], mbr[3]) : null;
     }
 
     /**
@@ -225,80 +324,67 @@ public class SpatialIndexRegister implements Externalizable {
      */
     public void prepareSpatialIndex(@NotNull final String indexName, final DBNodeRef nodeEntry,
             final com.github.davidmoten.rtree.geometry.Geometry geometry) {
-        final List<com.github.davidmoten.rtree.Entry<DBNodeRef, com.github.davidmoten.rtree.geometry.Geometry>> geomIndexEntries;
-        if (geomIndexEntriesByIndexName.containsKey(indexName)) {
-            geomIndexEntries = geomIndexEntriesByIndexName.get(indexName);
-        } else {
-            geomIndexEntries = new ArrayList<>();
-            geomIndexEntriesByIndexName.put(indexName, geomIndexEntries);
+        final Rectangle mbr = geometry.mbr();
+        prepareSpatialIndex(indexName, nodeEntry.getNativeData(), mbr.x1(), mbr.y1(), mbr.x2(), mbr.y2());
+    }
+
+    private void prepareSpatialIndex(@NotNull final String indexName, final long ref, final double minX,
+            final double minY, final double maxX, final double maxY) {
+        geomIndexEntriesByIndexName.computeIfAbsent(indexName, n -> new PackedRTree.Builder())
+                .add(ref, minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Returns the built named indexes, see {@link BinaryResourceFile}
+     */
+    Map<String, PackedRTree> packedIndexes() {
+        final Map<String, PackedRTree> indexes = new LinkedHashMap<>(rtreeByIndexName.size() * 2);
+        for (final Entry<String, NamedSpatialIndex> rtreeIndex : rtreeByIndexName.entrySet()) {
+            indexes.put(rtreeIndex.getKey(), rtreeIndex.getValue().tree());
         }
-        geomIndexEntries.add(new EntryDefault<>(nodeEntry, geometry));
+        return indexes;
     }
 
-    @Override
-    public void writeExternal(final ObjectOutput out) throws IOException {
-        final ExternalizableDBNodeRefMap dbNodeRefMap = new ExternalizableDBNodeRefMap();
-        // Rtrees
-        {
-            out.writeInt(rtreeByIndexName.size());
-            for (final Entry<String, RTree<DBNodeRef, com.github.davidmoten.rtree.geometry.Geometry>> rtreeIndex : rtreeByIndexName
-                    .entrySet()) {
-                out.writeUTF(rtreeIndex.getKey());
-                final List<com.github.davidmoten.rtree.Entry<DBNodeRef, com.github.davidmoten.rtree.geometry.Geometry>> rtreeEntrySet = rtreeIndex
-                        .getValue().entries().toList().toBlocking().single();
-                final int[] rtreeDBNodeRefPositions = dbNodeRefMap
-                        .addAndGetRefPositions(rtreeEntrySet.stream().map(com.github.davidmoten.rtree.Entry::value)
-                                .collect(Collectors.toCollection(() -> new ArrayList<>(rtreeEntrySet.size()))));
-                out.writeInt(rtreeDBNodeRefPositions.length);
-                int posRtree = 0;
-                for (final com.github.davidmoten.rtree.Entry<DBNodeRef, com.github.davidmoten.rtree.geometry.Geometry> entry : rtreeEntrySet) {
-                    out.writeInt(rtreeDBNodeRefPositions[posRtree++]);
-                    out.writeObject(ExternalizableRtreeGeometry.create(entry.geometry()));
-                }
-            }
+    /**
+     * Replaces the built named indexes, see {@link BinaryResourceFile}
+     */
+    void restorePackedIndexes(final Map<String, PackedRTree> indexes) {
+        this.rtreeByIndexName = new HashMap<>(indexes.size() * 2);
+        for (final Entry<String, PackedRTree> index : indexes.entrySet()) {
+            this.rtreeByIndexName.put(index.getKey(), new NamedSpatialIndex(index.getValue()));
         }
-        out.writeObject(dbNodeRefMap);
     }
 
     @Override
-    public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
-
-        // Prepare Rtrees
-        final String[] indexnames = new String[in.readInt()];
-        final List<int[]> rtreeDBNodeRefPositions = new ArrayList<>(indexnames.length);
-        final List<com.github.davidmoten.rtree.geometry.Geometry[]> rtreeGeometries = new ArrayList<>(
-                indexnames.length);
-        for (int i = 0; i < indexnames.length; i++) {
-            indexnames[i] = in.readUTF();
-            final int[] positions = new int[in.readInt()];
-            final com.github.davidmoten.rtree.geometry.Geometry[] rtreeGeos = new com.github.davidmoten.rtree.geometry.Geometry[positions.length];
-            for (int p = 0; p < positions.length; p++) {
-                positions[p] = in.readInt();
-                rtreeGeos[p] = ((ExternalizableRtreeGeometry) in.readObject()).toRtreeGeometry();
+    public void writeExternal(final ObjectOutput out) throws IOException {
+        out.writeInt(rtreeByIndexName.size());
+        for (final Entry<String, NamedSpatialIndex> rtreeIndex : rtreeByIndexName.entrySet()) {
+            out.writeUTF(rtreeIndex.getKey());
+            final PackedRTree tree = rtreeIndex.getValue().tree();
+            out.writeInt(tree.size());
+            for (int i = 0; i < tree.size(); i++) {
+                out.writeLong(tree.ref(i));
+                final double[] box = tree.box(i);
+                out.writeDouble(box[0]);
+                out.writeDouble(box[1]);
+                out.writeDouble(box[2]);
+                out.writeDouble(box[3]);
             }
-            rtreeDBNodeRefPositions.add(positions);
-            rtreeGeometries.add(rtreeGeos);
         }
+    }
 
-        // Restore DBNodeRefs
-        final ExternalizableDBNodeRefMap dbNodeRefMap = ((ExternalizableDBNodeRefMap) in.readObject());
-
-        // Restore Rtrees
-        {
-            this.rtreeByIndexName = new HashMap<>(indexnames.length);
-            for (int i = 0; i < indexnames.length; i++) {
-
-                final DBNodeRef[] rtreeDBNodeRefs = dbNodeRefMap.getByRefPositions(rtreeDBNodeRefPositions.get(i));
-                rtreeDBNodeRefPositions.set(i, null);
-                final com.github.davidmoten.rtree.geometry.Geometry[] currentRtreeGeometries = rtreeGeometries.get(i);
-                final List<com.github.davidmoten.rtree.Entry<DBNodeRef, com.github.davidmoten.rtree.geometry.Geometry>> entries = new ArrayList<>(
-                        rtreeDBNodeRefs.length);
-                for (int p = 0; p < rtreeDBNodeRefs.length; p++) {
-                    entries.add(new EntryDefault<>(rtreeDBNodeRefs[p], currentRtreeGeometries[p]));
-                }
-                rtreeGeometries.set(i, null);
-                this.rtreeByIndexName.put(indexnames[i], RTree.star().create(entries));
+    @Override
+    public void readExternal(final ObjectInput in) throws IOException {
+        final int indexSize = in.readInt();
+        this.rtreeByIndexName = new HashMap<>(indexSize);
+        for (int i = 0; i < indexSize; i++) {
+            final String indexName = in.readUTF();
+            final int size = in.readInt();
+            final PackedRTree.Builder builder = new PackedRTree.Builder(size);
+            for (int p = 0; p < size; p++) {
+                builder.add(in.readLong(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
             }
+            this.rtreeByIndexName.put(indexName, new NamedSpatialIndex(builder.build()));
         }
     }
 
@@ -434,7 +520,7 @@ public class SpatialIndexRegister implements Externalizable {
      * @throws GmlGeoXException
      *             In case an exception occurred.
      */
-    public DBNode[] search(final Object minx, final Object miny, final Object maxx, final Object maxy,
+    public Value search(final Object minx, final Object miny, final Object maxx, final Object maxy,
             final GmlGeoXContext context) throws GmlGeoXException {
         return search(DEFAULT_SPATIAL_INDEX, minx, miny, maxx, maxy, context);
     }
@@ -457,7 +543,7 @@ public class SpatialIndexRegister implements Externalizable {
      *            tbd
      * @return the node set of all items in the envelope
      */
-    public DBNode[] search(final String indexName, final Object minx, final Object miny, final Object maxx,
+    public Value search(final String indexName, final Object minx, final Object miny, final Object maxx,
             final Object maxy, final GmlGeoXContext context) {
         return performSearch(indexName, toDoubleOrZero(minx), toDoubleOrZero(miny), toDoubleOrZero(maxx),
                 toDoubleOrZero(maxy), context);
@@ -471,10 +557,9 @@ public class SpatialIndexRegister implements Externalizable {
     }
 
     @NotNull
-    private DBNode[] performSearch(final String indexName, final double x1, final double y1, final double x2,
+    private Value performSearch(final String indexName, final double x1, final double y1, final double x2,
             final double y2, final GmlGeoXContext context) {
-        final List<DBNode> nodelist = search(indexName, Geometries.rectangle(x1, y1, x2, y2), context.dbNodeRefLookup);
-        return nodelist.toArray(new DBNode[0]);
+        return search(indexName, x1, y1, x2, y2).sequence(context.dbNodeRefLookup);
     }
 
     /**
@@ -489,7 +574,7 @@ public class SpatialIndexRegister implements Externalizable {
      * @throws GmlGeoXException
      *             In case an exception occurred.
      */
-    public DBNode[] search(final ANode geometryNode, final GmlGeoXContext context) throws GmlGeoXException {
+    public Value search(final ANode geometryNode, final GmlGeoXContext context) throws GmlGeoXException {
         return search(DEFAULT_SPATIAL_INDEX, geometryNode, context);
     }
 
@@ -509,10 +594,10 @@ public class SpatialIndexRegister implements Externalizable {
      */
     @Requires(Permission.NONE)
     @Deterministic
-    public DBNode[] search(final String indexName, final ANode geometryNode, final GmlGeoXContext context)
+    public Value search(final String indexName, final ANode geometryNode, final GmlGeoXContext context)
             throws GmlGeoXException {
         if (geometryNode == null) {
-            return new DBNode[0];
+            return Empty.VALUE;
         }
         /* Try lookup in envelope map first. */
         final DBNodeRef entry = context.dbNodeRefFactory.createDBNodeEntry((DBNode) geometryNode);
@@ -544,7 +629,7 @@ public class SpatialIndexRegister implements Externalizable {
      * @throws GmlGeoXException
      *             In case an exception occurred.
      */
-    public DBNode[] searchGeom(final com.vividsolutions.jts.geom.Geometry geom, final GmlGeoXContext context)
+    public Value searchGeom(final com.vividsolutions.jts.geom.Geometry geom, final GmlGeoXContext context)
             throws GmlGeoXException {
         return searchGeom(DEFAULT_SPATIAL_INDEX, geom, context);
     }
@@ -563,7 +648,7 @@ public class SpatialIndexRegister implements Externalizable {
      * @throws GmlGeoXException
      *             In case an exception occurred.
      */
-    public DBNode[] searchGeom(final String indexName, com.vividsolutions.jts.geom.Geometry geom,
+    public Value searchGeom(final String indexName, com.vividsolutions.jts.geom.Geometry geom,
             GmlGeoXContext context) throws GmlGeoXException {
         if (geom.isEmpty()) {
             throw new GmlGeoXException("Geometry is empty. Cannot perform a search based upon an empty geometry.");
@@ -571,7 +656,7 @@ public class SpatialIndexRegister implements Externalizable {
         return search(indexName, geom.getEnvelopeInternal(), context);
     }
 
-    private DBNode[] search(final String indexName, final Envelope env, final GmlGeoXContext context) {
+    private Value search(final String indexName, final Envelope env, final GmlGeoXContext context) {
         double x1 = env.getMinX();
         double x2 = env.getMaxX();
         double y1 = env.getMinY();
@@ -589,7 +674,7 @@ public class SpatialIndexRegister implements Externalizable {
      * @throws GmlGeoXException
      *             In case an exception occurred.
      */
-    public DBNode[] search(final GmlGeoXContext context) throws GmlGeoXException {
+    public Value search(final GmlGeoXContext context) throws GmlGeoXException {
         // Do we really search here???
         return searchInIndex(DEFAULT_SPATIAL_INDEX, context);
     }
@@ -606,11 +691,16 @@ public class SpatialIndexRegister implements Externalizable {
      *             In case an exception occurred.
      */
     @Requires(Permission.NONE)
-    public DBNode[] searchInIndex(final String indexName, final GmlGeoXContext context) throws GmlGeoXException {
+    public Value searchInIndex(final String indexName, final GmlGeoXContext context) throws GmlGeoXException {
         // Do we really search here???
         try {
-            final List<DBNode> nodelist = getAll(indexName, context.dbNodeRefLookup);
-            return nodelist.toArray(new DBNode[0]);
+            final NamedSpatialIndex index = rtreeByIndexName.get(indexName);
+            if (index == null) {
+                return Empty.VALUE;
+            }
+            final SearchHitBuffer hits = hitBuffer.clear();
+            index.tree().forEach(hits);
+            return hits.sequence(context.dbNodeRefLookup);
         } catch (Exception e) {
             throw new GmlGeoXException(e);
         }
@@ -663,12 +753,8 @@ public class SpatialIndexRegister implements Externalizable {
 
                 if (!env.isNull()) {
                     final DBNodeRef nodeEntry = context.dbNodeRefFactory.createDBNodeEntry((DBNode) node);
-                    if (env.getHeight() == 0.0 && env.getWidth() == 0.0) {
-                        context.indexRegister().index(indexName, nodeEntry,
-                                Geometries.point(env.getMinX(), env.getMinY()));
-                    } else {
-                        context.indexRegister().index(indexName, nodeEntry, rTreeRectangle(env));
-                    }
+                    index(indexName, nodeEntry.getNativeData(), env.getMinX(), env.getMinY(), env.getMaxX(),
+                            env.getMaxY());
 
                     // also cache the envelope
                     final DBNodeRef geomNodeEntry = context.dbNodeRefFactory.createDBNodeEntry((DBNode) geometry);
@@ -732,13 +818,8 @@ public class SpatialIndexRegister implements Externalizable {
                 } else {
                     geometryNodeEntry = context.dbNodeRefFactory.createDBNodeEntry((DBNode) node);
                 }
-                final com.github.davidmoten.rtree.geometry.Geometry treeGeom;
-                if (env.getHeight() == 0.0 && env.getWidth() == 0.0) {
-                    treeGeom = Geometries.point(env.getMinX(), env.getMinY());
-                } else {
-                    treeGeom = rTreeRectangle(env);
-                }
-                prepareSpatialIndex(indexName, geometryNodeEntry, treeGeom);
+                prepareSpatialIndex(indexName, geometryNodeEntry.getNativeData(), env.getMinX(), env.getMinY(),
+                        env.getMaxX(), env.getMaxY());
                 // also cache the envelope
                 context.geometryCache().addEnvelope(geometryNodeEntry, env);
             }
@@ -775,13 +856,11 @@ public class SpatialIndexRegister implements Externalizable {
                     controlPointSearchBehavior, context);
 
             if (!points.isEmpty()) {
-                final DBNodeRef geometryNodeEntry = context.dbNodeRefFactory.createDBNodeEntry((DBNode) node);
+                final long ref = context.dbNodeRefFactory.createDBNodeEntry((DBNode) node).getNativeData();
 
                 for (com.vividsolutions.jts.geom.Point p : points) {
                     // cache the index entry
-                    final com.github.davidmoten.rtree.geometry.Point treeGeom;
-                    treeGeom = Geometries.point(p.getX(), p.getY());
-                    prepareSpatialIndex(indexName, geometryNodeEntry, treeGeom);
+                    prepareSpatialIndex(indexName, ref, p.getX(), p.getY(), p.getX(), p.getY());
                 }
             }
         }
@@ -818,14 +897,10 @@ public class SpatialIndexRegister implements Externalizable {
                 } else {
                     geometryNodeEntry = context.dbNodeRefFactory.createDBNodeEntry((DBNode) node);
                 }
-                final com.github.davidmoten.rtree.geometry.Geometry treeGeom;
-                if (env.getHeight() == 0.0 && env.getWidth() == 0.0) {
-                    treeGeom = Geometries.point(env.getMinX(), env.getMinY());
-                } else {
-                    treeGeom = rTreeRectangle(env);
-                }
-                prepareSpatialIndex(indexName, geometryNodeEntry, treeGeom);
-                prepareSpatialIndex(DEFAULT_SPATIAL_INDEX, geometryNodeEntry, treeGeom);
+                final long ref = geometryNodeEntry.getNativeData();
+                prepareSpatialIndex(indexName, ref, env.getMinX(), env.getMinY(), env.getMaxX(), env.getMaxY());
+                prepareSpatialIndex(DEFAULT_SPATIAL_INDEX, ref, env.getMinX(), env.getMinY(), env.getMaxX(),
+                        env.getMaxY());
                 // also cache the envelope
                 context.geometryCache().addEnvelope(geometryNodeEntry, env);
             }
@@ -978,6 +1053,14 @@ public class SpatialIndexRegister implements Externalizable {
         return rTreeRectangle(jtsGeom.getEnvelopeInternal());
     }
 
+    private static com.github.davidmoten.rtree.geometry.Geometry rTreeGeometry(final double[] box) {
+        if (box[0] == box[2] && box[1] == box[3]) {
+            return Geometries.point(box[0], box[1]);
+        } else {
+            return Geometries.rectangle(box[0], box[1], box[2], box[3]);
+        }
+    }
+
     private static Rectangle rTreeRectangle(final com.vividsolutions.jts.geom.Envelope jtsEnvelope) {
         double x1 = jtsEnvelope.getMinX();
         double x2 = jtsEnvelope.getMaxX();
@@ -20,10 +20,7 @@
  */
 package de.interactive_instruments.etf.bsxm.node;
 
-import org.basex.query.QueryContext;
-import org.basex.query.QueryException;
 import org.basex.query.value.node.DBNode;
-import org.basex.util.InputInfo;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
@@ -56,13 +53,23 @@ final public class DBNodeRef implements Comparable<DBNodeRef> {
     }
 
     @Contract(pure = true)
-    private int getPre() {
+    static int getPre(final long compressedData) {
         return (int) (compressedData >> 32);
     }
 
+    @Contract(pure = true)
+    static int getNodeKind(final long compressedData) {
+        return ((int) compressedData) >>> 16;
+    }
+
+    @Contract(pure = true)
+    static int getDbIndex(final long compressedData) {
+        return ((int) compressedData) & 0xFFFF;
+    }
+
     @NotNull
-    private String getDBname(@NotNull final DBNodeRefFactory callback) {
-        final String dbIndexStr = Integer.toString((((int) compressedData) & 0xFFFF));
+    static String getDBname(final int dbIndex, @NotNull final DBNodeRefFactory callback) {
+        final String dbIndexStr = Integer.toString(dbIndex);
         final StringBuilder sb = callback.getSBForDbNamePrefix();
         final int pads = 3 - dbIndexStr.length();
         if (pads > 0) {
@@ -73,34 +80,14 @@ final public class DBNodeRef implements Comparable<DBNodeRef> {
         return sb.append(dbIndexStr).toString();
     }
 
-    @Contract(pure = true)
-    private int getNodeKind() {
-        return ((int) compressedData) >>> 16;
-    }
-
-    @NotNull
-    @Contract("_, _ -> new")
-    DBNode resolve(@NotNull final QueryContext queryContext, final DBNodeRefFactory callback) {
-        try {
-            return new DBNode(
-                    queryContext.resources.database(this.getDBname(callback), new InputInfo("xpath", 0, 0)),
-                    getPre(),
-                    getNodeKind());
-        } catch (QueryException e) {
-            throw new IllegalStateException("Could not query DBNode. "
-                    + "Pre: " + getPre() + " DBName: " + getDBname(callback) + " Kind: " + getNodeKind() + " Compressed data: "
-                    + compressedData);
-        }
-    }
-
     @NotNull
     @Contract(value = "_ -> new", pure = true)
-    static DBNodeRef create(final long compressedData) {
+    public static DBNodeRef create(final long compressedData) {
         return new DBNodeRef(compressedData);
     }
 
     @Contract(pure = true)
-    long getNativeData() {
+    public long getNativeData() {
         return this.compressedData;
     }
 
@@ -21,11 +21,15 @@
 package de.interactive_instruments.etf.bsxm.node;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 
+import org.basex.data.Data;
 import org.basex.query.QueryContext;
+import org.basex.query.QueryException;
 import org.basex.query.value.node.DBNode;
+import org.basex.util.InputInfo;
 import org.jetbrains.annotations.NotNull;
 
 import rx.Observable;
@@ -38,8 +42,15 @@ import rx.schedulers.Schedulers;
  * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
  */
 final public class DBNodeRefLookup {
+
+    // Database names are suffixed with a three digits index
+    private static final int MAX_DB_COUNT = 1000;
+
     private final QueryContext qc;
     private final DBNodeRefFactory factory;
+    // databases opened by this query context, by database index
+    private final Data[] dataByDbIndex = new Data[MAX_DB_COUNT];
+    private final InputInfo inputInfo = new InputInfo("xpath", 0, 0);
 
     public DBNodeRefLookup(final QueryContext qc, final DBNodeRefFactory factory) {
         this.qc = qc;
@@ -48,7 +59,56 @@ final public class DBNodeRefLookup {
 
     @NotNull
     public DBNode resolve(@NotNull final DBNodeRef ref) {
-        return ref.resolve(qc, factory);
+        return resolve(ref.getNativeData());
+    }
+
+    /**
+     * Resolve a node from the compressed data of a DBNodeRef
+     *
+     * @param nativeData
+     *            compressed data as returned by {@link DBNodeRef#getNativeData()}
+     * @return the database node
+     */
+    @NotNull
+    public DBNode resolve(final long nativeData) {
+        return new DBNode(database(DBNodeRef.getDbIndex(nativeData)), DBNodeRef.getPre(nativeData),
+                DBNodeRef.getNodeKind(nativeData));
+    }
+
+    /**
+     * Get the database with the given index. The database is only looked up once in the query context.
+     *
+     * @param dbIndex
+     *            index of the database
+     * @return the database
+     */
+    @NotNull
+    Data database(final int dbIndex) {
+        if (dbIndex < MAX_DB_COUNT) {
+            final Data data = dataByDbIndex[dbIndex];
+            if (data != null) {
+                return data;
+            }
+            return dataByDbIndex[dbIndex] = openDatabase(dbIndex);
+        }
+        return openDatabase(dbIndex);
+    }
+
+    @NotNull
+    private Data openDatabase(final int dbIndex) {
+        final String dbName = DBNodeRef.getDBname(dbIndex, factory);
+        try {
+            return qc.resources.database(dbName, inputInfo);
+        } catch (QueryException e) {
+            throw new IllegalStateException("Could not query DBNode. DBName: " + dbName, e);
+        }
+    }
+
+    /**
+     * Drop the cached databases. Must be called when the query context is closed.
+     */
+    public void invalidate() {
+        Arrays.fill(dataByDbIndex, null);
     }
 
     @NotNull
@@ -69,7 +129,7 @@ final public class DBNodeRefLookup {
 
                     @Override
                     public void onNext(final DBNodeRef nodeRef) {
-                        nodelist.add(nodeRef.resolve(qc, factory));
+                        nodelist.add(resolve(nodeRef));
                     }
                 });
         if (latch.getCount() != 0) {
@@ -0,0 +1,145 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.bsxm.node;
+
+import java.util.Arrays;
+
+import org.basex.query.QueryContext;
+import org.basex.query.QueryException;
+import org.basex.query.value.Value;
+import org.basex.query.value.ValueBuilder;
+import org.basex.query.value.item.Item;
+import org.basex.query.value.seq.Empty;
+import org.basex.query.value.seq.Seq;
+import org.basex.query.value.type.AtomType;
+import org.basex.query.value.type.NodeType;
+import org.basex.util.InputInfo;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A sequence of database nodes that is backed by the compressed data of DBNodeRefs.
+ *
+ * The nodes are only resolved when they are accessed, so that queries which only check for the existence of results or
+ * which only use the first results do not resolve all nodes.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final public class DBNodeRefSequence extends Seq {
+
+    private final long[] refs;
+    private final DBNodeRefLookup lookup;
+
+    private DBNodeRefSequence(final long[] refs, final DBNodeRefLookup lookup) {
+        super(refs.length, NodeType.NOD);
+        this.refs = refs;
+        this.lookup = lookup;
+    }
+
+    /**
+     * Create a sequence from the compressed data of DBNodeRefs
+     *
+     * @param refs
+     *            compressed data as returned by {@link DBNodeRef#getNativeData()}, the first size values are copied
+     * @param size
+     *            number of references
+     * @param lookup
+     *            lookup for the database nodes
+     * @return the empty sequence, a single node or a lazy sequence of nodes
+     */
+    @NotNull
+    public static Value create(final long[] refs, final int size, @NotNull final DBNodeRefLookup lookup) {
+        if (size == 0) {
+            return Empty.VALUE;
+        } else if (size == 1) {
+            return lookup.resolve(refs[0]);
+        }
+        return new DBNodeRefSequence(Arrays.copyOf(refs, size), lookup);
+    }
+
+    @Override
+    public Value atomValue(final QueryContext qc, final InputInfo ii) throws QueryException {
+        final ValueBuilder vb = new ValueBuilder(qc);
+        for (int i = 0; i < size; i++)
+            vb.add(itemAt(i).atomValue(qc, ii));
+        return vb.value(AtomType.AAT);
+    }
+
+    @Override
+    public Item ebv(final QueryContext qc, final InputInfo ii) throws QueryException {
+        return itemAt(0);
+    }
+
+    @Override
+    public Value insert(final long pos, final Item value, final QueryContext qc) {
+        // the inserted item is not necessarily a database node, resolve all nodes
+        final ValueBuilder vb = new ValueBuilder(qc);
+        for (int i = 0; i < size; i++)
+            vb.add(itemAt(i));
+        return vb.value(NodeType.NOD).insert(pos, value, qc);
+    }
+
+    @Override
+    public Value remove(final long pos, final QueryContext qc) {
+        final long[] remaining = new long[refs.length - 1];
+        System.arraycopy(refs, 0, remaining, 0, (int) pos);
+        System.arraycopy(refs, (int) pos + 1, remaining, (int) pos, remaining.length - (int) pos);
+        return create(remaining, remaining.length, lookup);
+    }
+
+    @Override
+    public void cache(final boolean lazy, final InputInfo ii) throws QueryException {
+
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof DBNodeRefSequence))
+            return super.equals(obj);
+        return Arrays.equals(refs, ((DBNodeRefSequence) obj).refs);
+    }
+
+    @Override
+    public boolean ddo() {
+        // the nodes are ordered by their position in the index
+        return false;
+    }
+
+    @Override
+    public long atomSize() {
+        return size;
+    }
+
+    @Override
+    public Item itemAt(final long pos) {
+        return lookup.resolve(refs[(int) pos]);
+    }
+
+    @Override
+    public Value reverse(final QueryContext qc) {
+        final long[] reversed = new long[refs.length];
+        for (int i = 0; i < refs.length; i++) {
+            reversed[i] = refs[refs.length - 1 - i];
+        }
+        return new DBNodeRefSequence(reversed, lookup);
+    }
+}
@@ -41,21 +41,25 @@ public interface BigArray extends Externalizable {
 
     BigArray add(final Value value);
 
-    Seq sequence(final QueryContext qc);
+    default Seq sequence(final QueryContext qc) {
+        return sequence(new DatabaseLookup(qc));
+    }
+
+    Seq sequence(final DatabaseLookup lookup);
 
     long size();
 
-    Item get(final QueryContext qc, final long index);
+    Item get(final DatabaseLookup lookup, final long index);
 
     class EntrySequence extends Seq {
 
         private final BigArray arr;
-        private final QueryContext qc;
+        private final DatabaseLookup lookup;
 
-        public EntrySequence(final QueryContext qc, final BigArray arr) {
+        public EntrySequence(final DatabaseLookup lookup, final BigArray arr) {
             super(arr.size(), NodeType.NOD);
             this.arr = arr;
-            this.qc = qc;
+            this.lookup = lookup;
         }
 
         @Override
@@ -108,7 +112,7 @@ public interface BigArray extends Externalizable {
 
         @Override
         public Item itemAt(final long pos) {
-            return arr.get(qc, pos);
+            return arr.get(lookup, pos);
         }
 
         @Override
@@ -26,13 +26,11 @@ import java.io.ObjectOutput;
 import java.util.Arrays;
 
 import org.basex.data.Data;
-import org.basex.query.QueryContext;
 import org.basex.query.QueryException;
 import org.basex.query.value.Value;
 import org.basex.query.value.item.Item;
 import org.basex.query.value.node.DBNode;
 import org.basex.query.value.seq.Seq;
-import org.basex.util.InputInfo;
 
 /**
  * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
@@ -126,12 +124,12 @@ public class DBNodeBigArray implements BigArray {
     }
 
     @Override
-    public Item get(final QueryContext qc, final long index) {
+    public Item get(final DatabaseLookup lookup, final long index) {
         if (index < ARRAY_MAX_SIZE) {
             final int i = (int) index;
             final long compressed = compressedData[i];
             try {
-                final Data d = qc.resources.database(dbName(compressed), new InputInfo("xpath", 0, 0));
+                final Data d = lookup.database(dbName(compressed));
                 return new DBNode(d, pre(compressed), nodeKind(compressed));
             } catch (QueryException e) {
                 throw new IllegalStateException("Node lookup failed. "
@@ -141,7 +139,7 @@ public class DBNodeBigArray implements BigArray {
                         + ", NK: " + nodeKind(compressed), e);
             }
         } else {
-            return next.get(qc, index - ARRAY_MAX_SIZE);
+            return next.get(lookup, index - ARRAY_MAX_SIZE);
         }
     }
 
@@ -166,8 +164,9 @@ public class DBNodeBigArray implements BigArray {
         this.next = (DBNodeBigArray) in.readObject();
     }
 
-    public Seq sequence(final QueryContext qc) {
-        return new EntrySequence(qc, this);
+    @Override
+    public Seq sequence(final DatabaseLookup lookup) {
+        return new EntrySequence(lookup, this);
     }
 
 }
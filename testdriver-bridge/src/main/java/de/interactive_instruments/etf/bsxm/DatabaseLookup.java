@@ -0,0 +1,55 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.bsxm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.basex.data.Data;
+import org.basex.query.QueryContext;
+import org.basex.query.QueryException;
+import org.basex.util.InputInfo;
+
+/**
+ * Looks up the databases of restored nodes. Every database is only looked up once in the query context.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public final class DatabaseLookup {
+
+    private final QueryContext qc;
+    private final Map<String, Data> dataByName = new HashMap<>();
+    private final InputInfo inputInfo = new InputInfo("xpath", 0, 0);
+
+    public DatabaseLookup(final QueryContext qc) {
+        this.qc = qc;
+    }
+
+    Data database(final String dbName) throws QueryException {
+        final Data data = dataByName.get(dbName);
+        if (data != null) {
+            return data;
+        }
+        final Data opened = qc.resources.database(dbName, inputInfo);
+        dataByName.put(dbName, opened);
+        return opened;
+    }
+}
@@ -65,7 +65,11 @@ public class ExternalizedMapEntry implements Externalizable {
     }
 
     public Value getValues(final QueryContext qc) {
-        final Seq seq = arr.sequence(qc);
+        return getValues(new DatabaseLookup(qc));
+    }
+
+    public Value getValues(final DatabaseLookup lookup) {
+        final Seq seq = arr.sequence(lookup);
         if (seq.isItem()) {
             return seq.itemAt(0);
         }
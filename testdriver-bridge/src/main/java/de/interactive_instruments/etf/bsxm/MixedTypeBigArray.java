@@ -26,14 +26,12 @@ import java.io.ObjectInput;
 import java.io.ObjectOutput;
 
 import org.basex.data.Data;
-import org.basex.query.QueryContext;
 import org.basex.query.QueryException;
 import org.basex.query.value.Value;
 import org.basex.query.value.item.Item;
 import org.basex.query.value.item.Str;
 import org.basex.query.value.node.DBNode;
 import org.basex.query.value.seq.Seq;
-import org.basex.util.InputInfo;
 
 /**
  * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
@@ -41,7 +39,7 @@ import org.basex.util.InputInfo;
 public class MixedTypeBigArray implements BigArray {
 
     private interface Entry extends Externalizable {
-        Item get(final QueryContext qc);
+        Item get(final DatabaseLookup lookup);
     }
 
     private static class StrTypeEntry implements Entry {
@@ -55,7 +53,7 @@ public class MixedTypeBigArray implements BigArray {
         public StrTypeEntry() {}
 
         @Override
-        public Item get(final QueryContext qc) {
+        public Item get(final DatabaseLookup lookup) {
             return Str.get(bytes);
         }
 
@@ -92,9 +90,9 @@ public class MixedTypeBigArray implements BigArray {
         public DBNodeEntry() {}
 
         @Override
-        public Item get(final QueryContext qc) {
+        public Item get(final DatabaseLookup lookup) {
             try {
-                final Data d = qc.resources.database(dbname, new InputInfo("xpath", 0, 0));
+                final Data d = lookup.database(dbname);
                 return new DBNode(d, pre, nodeKind);
             } catch (QueryException e) {
                 throw new IllegalStateException("Node lookup failed. "
@@ -180,8 +178,8 @@ public class MixedTypeBigArray implements BigArray {
     }
 
     @Override
-    public Seq sequence(final QueryContext qc) {
-        return new EntrySequence(qc, this);
+    public Seq sequence(final DatabaseLookup lookup) {
+        return new EntrySequence(lookup, this);
     }
 
     public long size() {
@@ -192,12 +190,12 @@ public class MixedTypeBigArray implements BigArray {
     }
 
     @Override
-    public Item get(final QueryContext qc, final long index) {
+    public Item get(final DatabaseLookup lookup, final long index) {
         if (index < ARRAY_MAX_SIZE) {
             final int i = (int) index;
-            return entries[i].get(qc);
+            return entries[i].get(lookup);
         } else {
-            return next.get(qc, index - ARRAY_MAX_SIZE);
+            return next.get(lookup, index - ARRAY_MAX_SIZE);
         }
     }
 }
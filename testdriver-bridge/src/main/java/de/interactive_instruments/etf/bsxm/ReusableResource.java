@@ -23,8 +23,15 @@ package de.interactive_instruments.etf.bsxm;
 import java.io.*;
 import java.lang.ref.Reference;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import org.basex.query.QueryException;
 import org.basex.query.QueryModule;
@@ -39,6 +46,12 @@ import de.interactive_instruments.exceptions.ExcUtils;
 
 public class ReusableResource extends QueryModule implements QueryResource {
 
+    // Format of stored maps: magic, version, number of entries, then the chunks
+    private static final int MAP_MAGIC = 0x52524D50;
+    private static final int MAP_VERSION = 1;
+    private static final int CHUNK_SIZE = 4096;
+    private static final int CHUNKS_PER_BATCH = Runtime.getRuntime().availableProcessors() * 2;
+
     private IFile storeDir;
 
     private static class RRObjectInputStream extends ObjectInputStream {
@@ -81,6 +94,19 @@ public class ReusableResource extends QueryModule implements QueryResource {
         return storeDir.secureExpandPathDown(name + ".obj");
     }
 
+    /**
+     * Returns the path of a binary file in the store directory, for resources that write their own file format, like
+     * GmlGeoX storeResources().
+     *
+     * @param name
+     *            name of the resource
+     * @return absolute path of the file
+     */
+    @Requires(Permission.ADMIN)
+    public String binaryFilePath(final String name) {
+        return storeDir.secureExpandPathDown(name + ".bin").getAbsolutePath();
+    }
+
     @Requires(Permission.ADMIN)
     public boolean existsObj(final Object obj) {
         return getFile(obj.getClass().getName()).exists();
@@ -130,13 +156,58 @@ public class ReusableResource extends QueryModule implements QueryResource {
     @Deterministic
     @Requires(Permission.NONE)
     public XQMap restoreMap(final String name) throws QueryException {
+        XQMap map = XQMap.EMPTY;
+        final DatabaseLookup lookup = new DatabaseLookup(this.queryContext);
+        try (final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(getFile(name))))) {
+            if (in.readInt() != MAP_MAGIC) {
+                return restoreObjectStreamMap(name, lookup);
+            }
+            final int version = in.readInt();
+            if (version != MAP_VERSION) {
+                throw new QueryException("Failed to restore reusable resource " + name
+                        + " : unsupported format version " + version);
+            }
+            final long size = in.readLong();
+            long restored = 0;
+            final List<byte[]> chunks = new ArrayList<>(CHUNKS_PER_BATCH);
+            while (restored < size) {
+                // Read a batch of chunks and decompress them in parallel. The values are bound to the databases on
+                // this thread, as the lookup is not thread-safe.
+                chunks.clear();
+                for (long pending = size - restored; chunks.size() < CHUNKS_PER_BATCH && pending > 0;) {
+                    final int entries = in.readInt();
+                    final byte[] chunk = new byte[in.readInt()];
+                    in.readFully(chunk);
+                    chunks.add(chunk);
+                    pending -= entries;
+                }
+                final ExternalizedMapEntry[][] entries = new ExternalizedMapEntry[chunks.size()][];
+                IntStream.range(0, chunks.size()).parallel().forEach(i -> entries[i] = readChunk(chunks.get(i)));
+                for (final ExternalizedMapEntry[] chunkEntries : entries) {
+                    for (final ExternalizedMapEntry entry : chunkEntries) {
+                        map = map.put(Str.get(entry.getKey()), entry.getValues(lookup), null);
+                    }
+                    restored += chunkEntries.length;
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            throw new QueryException("Failed to restore reusable resource " + name + " : " + e.getMessage());
+        }
+        return map;
+    }
+
+    /**
+     * Restore a map that has been written as a single object stream by previous versions
+     */
+    private XQMap restoreObjectStreamMap(final String name, final DatabaseLookup lookup) throws QueryException {
         XQMap map = XQMap.EMPTY;
         try (final FileInputStream fileInputStream = new FileInputStream(getFile(name));
                 final ObjectInputStream objectInputStream = new RRObjectInputStream(fileInputStream)) {
             final long size = objectInputStream.readLong();
             for (long i = 0; i < size; i++) {
                 final ExternalizedMapEntry entry = (ExternalizedMapEntry) objectInputStream.readObject();
-                map = map.put(Str.get(entry.getKey()), entry.getValues(this.queryContext), null);
+                map = map.put(Str.get(entry.getKey()), entry.getValues(lookup), null);
             }
         } catch (IOException | ClassNotFoundException e) {
             throw new QueryException("Failed to restore reusable resource " + name + " : " + e.getMessage());
@@ -144,21 +215,94 @@ public class ReusableResource extends QueryModule implements QueryResource {
         return map;
     }
 
+    private static ExternalizedMapEntry[] readChunk(final byte[] chunk) {
+        final Inflater inflater = new Inflater();
+        try (final ObjectInputStream objectInputStream = new RRObjectInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(chunk), inflater))) {
+            final ExternalizedMapEntry[] entries = new ExternalizedMapEntry[objectInputStream.readInt()];
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = (ExternalizedMapEntry) objectInputStream.readObject();
+            }
+            return entries;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (final ClassNotFoundException e) {
+            throw new UncheckedIOException(new IOException(e.getMessage(), e));
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Stores the map in independently compressed chunks of {@link #CHUNK_SIZE} entries, which are serialized in
+     * parallel.
+     *
+     * @param map
+     *            the map to store
+     * @param name
+     *            name of the resource
+     * @throws QueryException
+     *             if the map could not be written
+     */
     @Requires(Permission.NONE)
     public void storeMap(final XQMap map, final String name) throws QueryException {
-        try (final FileOutputStream fileOutputStream = new FileOutputStream(getFile(name));
-                final ObjectOutputStream objectOutputStream = new RRObjectOutputStream(fileOutputStream)) {
-            objectOutputStream.writeLong(map.keys().size());
-            for (final Item key : map.keys()) {
-                final Value value = map.get(key, null);
-                objectOutputStream.writeObject(new ExternalizedMapEntry(key, value));
+        try (final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(getFile(name))))) {
+            final Value keys = map.keys();
+            out.writeInt(MAP_MAGIC);
+            out.writeInt(MAP_VERSION);
+            out.writeLong(keys.size());
+            final List<List<ExternalizedMapEntry>> batch = new ArrayList<>(CHUNKS_PER_BATCH);
+            List<ExternalizedMapEntry> chunk = new ArrayList<>(CHUNK_SIZE);
+            for (final Item key : keys) {
+                chunk.add(new ExternalizedMapEntry(key, map.get(key, null)));
+                if (chunk.size() == CHUNK_SIZE) {
+                    batch.add(chunk);
+                    chunk = new ArrayList<>(CHUNK_SIZE);
+                    if (batch.size() == CHUNKS_PER_BATCH) {
+                        writeChunks(out, batch);
+                        batch.clear();
+                    }
+                }
             }
-        } catch (IOException e) {
+            if (!chunk.isEmpty()) {
+                batch.add(chunk);
+            }
+            writeChunks(out, batch);
+        } catch (IOException | UncheckedIOException e) {
             getFile(name).delete();
             throw new QueryException("Failed to store reusable resource " + name + " : " + e.getMessage());
         }
     }
 
+    private static void writeChunks(final DataOutputStream out, final List<List<ExternalizedMapEntry>> batch)
+            throws IOException {
+        final byte[][] chunks = new byte[batch.size()][];
+        IntStream.range(0, batch.size()).parallel().forEach(i -> chunks[i] = writeChunk(batch.get(i)));
+        for (int i = 0; i < chunks.length; i++) {
+            out.writeInt(batch.get(i).size());
+            out.writeInt(chunks[i].length);
+            out.write(chunks[i]);
+        }
+    }
+
+    private static byte[] writeChunk(final List<ExternalizedMapEntry> entries) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (final ObjectOutputStream objectOutputStream = new RRObjectOutputStream(
+                new DeflaterOutputStream(bytes, deflater))) {
+            objectOutputStream.writeInt(entries.size());
+            for (final ExternalizedMapEntry entry : entries) {
+                objectOutputStream.writeObject(entry);
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
     @Override
     public void close() {
         clearReferencesObjectStreamClassCaches();
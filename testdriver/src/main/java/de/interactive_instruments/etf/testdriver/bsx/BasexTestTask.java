@@ -27,6 +27,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.basex.core.BaseXException;
 import org.basex.core.Context;
@@ -43,6 +44,7 @@ import de.interactive_instruments.etf.dal.dto.Arguments;
 import de.interactive_instruments.etf.dal.dto.capabilities.TestObjectDto;
 import de.interactive_instruments.etf.dal.dto.run.TestRunDto;
 import de.interactive_instruments.etf.dal.dto.run.TestTaskDto;
+import de.interactive_instruments.etf.dal.dto.test.ExecutableTestSuiteDto;
 import de.interactive_instruments.etf.model.EID;
 import de.interactive_instruments.etf.model.EidFactory;
 import de.interactive_instruments.etf.model.ParameterSet;
@@ -147,6 +149,9 @@ class BasexTestTask extends AbstractTestTask {
         proc.bind("$dbBaseName", this.dbName);
         proc.bind("$tmpDir", this.resultCollector.getTempDir().getAbsolutePath());
         proc.bind("$dbDir", preparation.testDataDir.getAbsolutePath());
+        proc.bind("$topologySnapshotDir", databaseCtx.topologySnapshotDir().getAbsolutePath());
+        proc.bind("$testObjectHash", preparation.testObject.getItemHash());
+        proc.bind("$topologySnapshotKey", topologySnapshotKey(preparation));
         proc.bind("$etsFile", testTaskDto.getExecutableTestSuite().getLocalPath());
         final int dbCount = preparation.testObject.properties().getPropertyAsInt("dbCount");
         proc.bind("$dbCount", dbCount);
@@ -203,6 +208,27 @@ class BasexTestTask extends AbstractTestTask {
 
     }
 
+    /**
+     * Builds the key for the TopoX snapshots. The key changes when the test object, the Executable Test Suite or one of
+     * the arguments change, as each of them may change the parsed topology.
+     *
+     * @param preparation
+     *            prepared test object
+     * @return key for the TopoX snapshots
+     */
+    private String topologySnapshotKey(final BsxTestObjectPreparation preparation) {
+        final ExecutableTestSuiteDto ets = this.testTaskDto.getExecutableTestSuite();
+        final StringBuilder key = new StringBuilder(preparation.testObject.getItemHash())
+                .append('|').append(ets.getId().getId())
+                .append('|').append(ets.getVersion())
+                .append('|').append(ets.getItemHash());
+        for (final Map.Entry<String, String> argument : new TreeMap<>(
+                this.testTaskDto.getArguments().values()).entrySet()) {
+            key.append('|').append(argument.getKey()).append('=').append(argument.getValue());
+        }
+        return key.toString();
+    }
+
     private void advance() {
         ((BasexTaskProgress) progress).doAdvance();
     }
@@ -40,9 +40,17 @@ public final class BsxConstants {
     public static final String DB_MAX_CHUNK_THRESHOLD = "etf.testdrivers.bsx.db.chunk.size.threshold";
     public static final long DEFAULT_CHUNK_SIZE_THRESHOLD = 10200547328L;
 
+    public static final String DB_IMPORT_THREADS = "etf.testdrivers.bsx.db.import.threads";
+
     public static final String CHOP_WHITESPACES = "etf.testdrivers.bsx.whitespaces.chop";
 
     public static final String LOG_MEMORY = "etf.testdrivers.bsx.log.memory";
 
     public static final String MIN_OPTIMIZATION_SIZE = "etf.testdrivers.bsx.optimization.size.min";
+
+    // Test task argument with a comma separated list of file types that are transformed: 'shp' and 'csv'
+    public static final String TRANSFORMED_FILE_TYPES = "transformed_file_types";
+
+    // Test task argument with the srsName of CSV files and Shapefiles without a known coordinate reference system
+    public static final String TRANSFORMED_FILE_SRS_NAME = "transformed_file_srs_name";
 }
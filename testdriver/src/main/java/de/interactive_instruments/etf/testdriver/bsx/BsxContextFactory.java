@@ -63,6 +63,17 @@ public class BsxContextFactory implements WriteDaoListener {
         return ctx;
     }
 
+    /**
+     * Returns the directory for the TopoX snapshots of the databases with the name
+     *
+     * @param dbName
+     *            database name without index
+     * @return snapshot directory, which may not exist
+     */
+    IFile topologySnapshotDir(final String dbName) {
+        return storageDir.secureExpandPathDown("topox").secureExpandPathDown(dbName);
+    }
+
     public static void unloadModulesAndClose(final QueryProcessor processor) {
         if (processor != null) {
             if (!processor.stopped()) {
@@ -129,8 +140,12 @@ public class BsxContextFactory implements WriteDaoListener {
     public void writeOperationPerformed(EventType eventType, PreparedDto preparedDto) {
         if (eventType == EventType.DELETE) {
             // Delete storageDirs for this DTO
-            final List<IFile> dirs = storageDir.secureExpandPathDown("data").listDirs(Pattern.compile(".*" +
-                    preparedDto.getDtoId().getId() + ".*"));
+            final Pattern dtoPattern = Pattern.compile(".*" + preparedDto.getDtoId().getId() + ".*");
+            final List<IFile> dirs = new ArrayList<>(storageDir.secureExpandPathDown("data").listDirs(dtoPattern));
+            final IFile topologySnapshotDirs = storageDir.secureExpandPathDown("topox");
+            if (topologySnapshotDirs.exists()) {
+                dirs.addAll(topologySnapshotDirs.listDirs(dtoPattern));
+            }
             try {
                 for (IFile dir : dirs) {
                     dir.deleteDirectory();
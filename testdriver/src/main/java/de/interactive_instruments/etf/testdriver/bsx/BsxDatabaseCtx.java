@@ -22,6 +22,8 @@ package de.interactive_instruments.etf.testdriver.bsx;
 
 import org.basex.core.Context;
 
+import de.interactive_instruments.IFile;
+
 /**
  * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
  */
@@ -37,6 +39,15 @@ public class BsxDatabaseCtx {
         this.contextFactory = contextFactory;
     }
 
+    /**
+     * Returns the directory for the TopoX snapshots of the databases
+     *
+     * @return snapshot directory, which may not exist
+     */
+    public IFile topologySnapshotDir() {
+        return contextFactory.topologySnapshotDir(dbName);
+    }
+
     public Context newCtx() {
         return contextFactory.create();
     }
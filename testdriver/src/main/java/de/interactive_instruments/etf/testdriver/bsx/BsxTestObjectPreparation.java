@@ -23,6 +23,7 @@ package de.interactive_instruments.etf.testdriver.bsx;
 import static de.interactive_instruments.etf.testdriver.bsx.BsxConstants.PREPARE_CHUNK_XQ_FILE_NAME;
 
 import java.io.File;
+import java.io.FileFilter;
 import java.io.IOException;
 import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
@@ -44,6 +45,7 @@ import de.interactive_instruments.etf.dal.dto.run.TestTaskDto;
 import de.interactive_instruments.etf.model.EidFactory;
 import de.interactive_instruments.etf.testdriver.TestResultCollector;
 import de.interactive_instruments.etf.testdriver.bsx.partitioning.ChunkXqFile;
+import de.interactive_instruments.etf.testdriver.bsx.partitioning.DatabaseInventarization;
 import de.interactive_instruments.etf.testdriver.bsx.partitioning.DatabasePartitioner;
 import de.interactive_instruments.etf.testdriver.bsx.transformers.ForwardingTransformerFactory;
 import de.interactive_instruments.etf.testdriver.bsx.transformers.Transformer;
@@ -66,6 +68,8 @@ public class BsxTestObjectPreparation {
     private final FileHashVisitor fileHashVisitor;
     private final TestObjectTypeDto testObjectType;
     private final MultiFileFilter filter;
+    // Accepts files that are transformed independently of the Test Object Type, null if not enabled
+    private final FileFilter transformedFileFilter;
 
     final BsxUriResolver uriResolver;
     final boolean testObjectChanged;
@@ -104,10 +108,20 @@ public class BsxTestObjectPreparation {
 
         testObjectType = testTaskDto.getTestObject()
                 .getTestObjectTypes().iterator().next();
+        final MultiFileFilter testObjectTypeFilter = testObjectType.filenameFilter().get();
+        transformedFileFilter = ForwardingTransformerFactory.getInstance()
+                .fileTypeFilter(testTaskDto.getArguments().values());
+        final MultiFileFilter typeFilter;
+        if (transformedFileFilter != null) {
+            // Add the Shapefiles or CSV files that are not covered by the Test Object Type
+            typeFilter = pathname -> testObjectTypeFilter.accept(pathname) || transformedFileFilter.accept(pathname);
+        } else {
+            typeFilter = testObjectTypeFilter;
+        }
         if (regex != null && !regex.isEmpty()) {
-            filter = testObjectType.filenameFilter().get().and(new RegexFileFilter(regex));
+            filter = typeFilter.and(new RegexFileFilter(regex));
         } else {
-            filter = testObjectType.filenameFilter().get();
+            filter = typeFilter;
         }
         // Init file hash visitor
         fileHashVisitor = new FileHashVisitor(filter);
@@ -154,6 +168,12 @@ public class BsxTestObjectPreparation {
             final TestResultCollector resultCollector)
             throws SAXException, IOException, InterruptedException, ObjectWithIdNotFoundException {
         if (testObjectChanged) {
+            // Snapshots of topologies in the old databases must not be restored for the new ones
+            final IFile topologySnapshotDir = dbCtx.topologySnapshotDir();
+            if (topologySnapshotDir.exists()) {
+                topologySnapshotDir.deleteDirectory();
+            }
+
             // Validate against schema if schema file is set
             // First of all get the schema file
             final IFile schemaFile;
@@ -198,28 +218,31 @@ public class BsxTestObjectPreparation {
                             "Skipping schema validation because no schema file has been set in the test suite. Data are only checked for well-formedness.");
                 }
             } else {
-                validationFilter = new Factory<MultiFileFilter>() {
-                    @Override
-                    public MultiFileFilter create() {
-                        return pathname -> true;
-                    }
-
-                    @Override
-                    public void release() {}
-                };
+                validationFilter = acceptAll();
             }
 
             // Initialize Database Partitioner
             final DatabasePartitioner databaseVisitor;
             final Transformer transformer = ForwardingTransformerFactory.getInstance().create(testObjectType,
-                    resultCollector.getAttachmentDir());
+                    resultCollector.getAttachmentDir(), testTaskDto.getArguments().values());
             final ChunkXqFile chunkXqFile = ChunkXqFile.createOrNull(this.dbCtx.ctx, prepareChunkXqFile, this.uriResolver);
+            // Validate and inventory the test data to plan balanced database chunks
+            final DatabaseInventarization inventory = new DatabaseInventarization(config, null, transformer);
+            // Files that are transformed are not XML files and are not validated
+            final MultiThreadedFilteredFileVisitor inventoryVisitor = new MultiThreadedFilteredFileVisitor(
+                    filter, transformedFileFilter != null ? skipValidation(validationFilter, transformedFileFilter)
+                            : validationFilter,
+                    Collections.singleton(inventory));
+            Files.walkFileTree(testDataDir.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS), 5, inventoryVisitor);
+            inventoryVisitor.startWorkers();
+            inventoryVisitor.awaitTermination();
+            inventory.release();
             databaseVisitor = new DatabasePartitioner(config, logger, this.dbCtx,
-                    testDataDir.getAbsolutePath().length(), transformer, chunkXqFile);
+                    testDataDir.getAbsolutePath().length(), transformer, chunkXqFile, inventory);
 
-            // Combine filters and visitors
+            // Import the files that passed the validation
             final MultiThreadedFilteredFileVisitor multiThreadedFileVisitor = new MultiThreadedFilteredFileVisitor(
-                    filter, validationFilter, Collections.singleton(databaseVisitor));
+                    filter.and(inventory::isInventoried), acceptAll(), Collections.singleton(databaseVisitor));
             Files.walkFileTree(testDataDir.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS), 5, multiThreadedFileVisitor);
             multiThreadedFileVisitor.startWorkers();
             multiThreadedFileVisitor.awaitTermination();
@@ -277,6 +300,34 @@ public class BsxTestObjectPreparation {
         }
     }
 
+    private static Factory<MultiFileFilter> acceptAll() {
+        return new Factory<MultiFileFilter>() {
+            @Override
+            public MultiFileFilter create() {
+                return pathname -> true;
+            }
+
+            @Override
+            public void release() {}
+        };
+    }
+
+    private static Factory<MultiFileFilter> skipValidation(final Factory<MultiFileFilter> validationFilter,
+            final FileFilter skippedFiles) {
+        return new Factory<MultiFileFilter>() {
+            @Override
+            public MultiFileFilter create() {
+                final MultiFileFilter validator = validationFilter.create();
+                return pathname -> skippedFiles.accept(pathname) || validator.accept(pathname);
+            }
+
+            @Override
+            public void release() {
+                validationFilter.release();
+            }
+        };
+    }
+
     String getValidationErrors() {
         if (this.validationErrors == null) {
             this.validationErrors = ((TestRunDto) testTaskDto.getParent()).getExchangeProperty("validationErrors");
@@ -22,6 +22,8 @@ package de.interactive_instruments.etf.testdriver.bsx.partitioning;
 
 import static de.interactive_instruments.etf.testdriver.bsx.BsxConstants.CHOP_WHITESPACES;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.Collection;
 
@@ -31,6 +33,7 @@ import org.basex.core.cmd.*;
 import org.slf4j.Logger;
 
 import de.interactive_instruments.etf.testdriver.bsx.BsxDatabaseCtx;
+import de.interactive_instruments.etf.testdriver.bsx.transformers.Transformer;
 import de.interactive_instruments.properties.ConfigPropertyHolder;
 
 /**
@@ -82,13 +85,27 @@ final class DatabaseChunk {
     }
 
     void add(final String fileName, final Path path, Collection<Set> parameters) throws BaseXException {
+        setParameters(parameters);
+        new Add(fileName, path.toString()).execute(ctx);
+    }
+
+    void add(final String fileName, final Transformer.PreparedStream stream, Collection<Set> parameters)
+            throws IOException {
+        setParameters(parameters);
+        try (final InputStream input = stream.open()) {
+            final Add add = new Add(fileName);
+            add.setInput(input);
+            add.execute(ctx);
+        }
+    }
+
+    private void setParameters(final Collection<Set> parameters) throws BaseXException {
         if (parameters.hashCode() != parameterHash) {
             for (final Set parameter : parameters) {
                 parameter.execute(ctx);
             }
             this.parameterHash = parameters.hashCode();
         }
-        new Add(fileName, path.toString()).execute(ctx);
     }
 
     synchronized void close() {
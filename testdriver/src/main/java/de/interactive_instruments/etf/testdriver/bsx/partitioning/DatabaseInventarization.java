@@ -22,34 +22,56 @@ package de.interactive_instruments.etf.testdriver.bsx.partitioning;
 
 import static de.interactive_instruments.etf.testdriver.bsx.BsxConstants.DEFAULT_CHUNK_SIZE_THRESHOLD;
 
+import java.io.File;
+import java.io.FileFilter;
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
-import org.basex.core.BaseXException;
-
+import de.interactive_instruments.IFile;
 import de.interactive_instruments.etf.testdriver.bsx.BsxConstants;
+import de.interactive_instruments.etf.testdriver.bsx.transformers.Transformer;
 import de.interactive_instruments.exceptions.ExcUtils;
 import de.interactive_instruments.exceptions.config.InvalidPropertyException;
 import de.interactive_instruments.properties.ConfigPropertyHolder;
 
 /**
+ * Walks the test data before the import and records the estimated size of each file that will be added to the
+ * database. The inventory is used by the {@link DatabasePartitioner} to plan the database chunks.
+ *
+ * If the files are validated while they are inventoried, the import can be restricted to the inventoried files with
+ * {@link #isInventoried(File)}, so that the plan and the import see the same files and each file is validated once.
+ *
  * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
  */
 public class DatabaseInventarization implements DatabaseVisitor {
     private final long maxDbSizeSizePerChunk;
-    private long currentDbSize = 0;
-    private int currentDbIndex = 0;
+    private final FileFilter filter;
+    private final Transformer transformer;
     private final Set<String> skippedFiles = new TreeSet<>();
+    // synchronized
+    private final Map<String, Long> estimatedSizes = new HashMap<>();
+    // synchronized
     private long size = 0;
-    private long fileCount = 0;
 
-    public DatabaseInventarization(final ConfigPropertyHolder config) throws BaseXException {
-        currentDbIndex = 0;
-        fileCount = 0L;
+    /**
+     * Creates a new inventory
+     *
+     * @param config
+     *            configuration with the database chunk size threshold
+     * @param filter
+     *            filter for the files that are imported, may be null
+     * @param transformer
+     *            transformer that estimates the size of the imported data
+     */
+    public DatabaseInventarization(final ConfigPropertyHolder config, final FileFilter filter,
+            final Transformer transformer) {
         long chunkSize;
         try {
             chunkSize = config.getPropertyOrDefaultAsLong(BsxConstants.DB_MAX_CHUNK_THRESHOLD, DEFAULT_CHUNK_SIZE_THRESHOLD);
@@ -58,6 +80,8 @@ public class DatabaseInventarization implements DatabaseVisitor {
             chunkSize = DEFAULT_CHUNK_SIZE_THRESHOLD;
         }
         this.maxDbSizeSizePerChunk = chunkSize;
+        this.filter = filter;
+        this.transformer = transformer;
     }
 
     @Override
@@ -65,20 +89,17 @@ public class DatabaseInventarization implements DatabaseVisitor {
         if (Thread.currentThread().isInterrupted()) {
             return FileVisitResult.TERMINATE;
         }
-
+        if (!attrs.isRegularFile() || (filter != null && !filter.accept(file.toFile()))) {
+            return FileVisitResult.CONTINUE;
+        }
+        final long estimatedSize = transformer != null ? transformer.estimateSize(new IFile(file.toFile()))
+                : attrs.size();
         synchronized (this) {
-            if (currentDbSize >= maxDbSizeSizePerChunk) {
-                currentDbIndex++;
-                currentDbSize = 0;
-            }
-            currentDbSize += attrs.size();
+            estimatedSizes.put(file.toAbsolutePath().toString(), estimatedSize);
+            size += estimatedSize;
         }
-
-        size += attrs.size();
-        fileCount++;
         return FileVisitResult.CONTINUE;
     }
-
     @Override
     public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
             throws IOException {
@@ -88,7 +109,9 @@ public class DatabaseInventarization implements DatabaseVisitor {
     @Override
     public FileVisitResult visitFileFailed(Path file, IOException exc)
             throws IOException {
-        skippedFiles.add(file.getFileName().toString());
+        synchronized (skippedFiles) {
+            skippedFiles.add(file.getFileName().toString());
+        }
         return FileVisitResult.CONTINUE;
     }
 
@@ -103,16 +126,16 @@ public class DatabaseInventarization implements DatabaseVisitor {
      *
      * @return number of databases
      */
-    public int getDbCount() {
-        return currentDbIndex + 1;
+    public synchronized int getDbCount() {
+        return (int) Math.max(1, (size + maxDbSizeSizePerChunk - 1) / maxDbSizeSizePerChunk);
     }
 
     /**
-     * Total size of files.
+     * Total estimated size of files.
      *
      * @return files size in bytes
      */
-    public long getSize() {
+    public synchronized long getSize() {
         return size;
     }
 
@@ -121,8 +144,28 @@ public class DatabaseInventarization implements DatabaseVisitor {
      *
      * @return number of files
      */
-    public long getFileCount() {
-        return fileCount;
+    public synchronized long getFileCount() {
+        return estimatedSizes.size();
+    }
+
+    /**
+     * Checks if a file has been inventoried
+     *
+     * @param file
+     *            file to check
+     * @return true if the file has been inventoried
+     */
+    public synchronized boolean isInventoried(final File file) {
+        return estimatedSizes.containsKey(file.getAbsolutePath());
+    }
+
+    /**
+     * Estimated sizes of the files, mapped by their absolute path.
+     *
+     * @return estimated file sizes in bytes
+     */
+    public synchronized Map<String, Long> getEstimatedSizes() {
+        return Collections.unmodifiableMap(new HashMap<>(estimatedSizes));
     }
 
     public Set<String> getSkippedFiles() {
@@ -27,13 +27,22 @@ import java.io.IOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import org.basex.core.BaseXException;
-import org.basex.core.cmd.*;
 import org.slf4j.Logger;
 
 import de.interactive_instruments.FileUtils;
@@ -46,24 +55,42 @@ import de.interactive_instruments.exceptions.config.InvalidPropertyException;
 import de.interactive_instruments.properties.ConfigPropertyHolder;
 
 /**
+ * Adds the visited files to database chunks.
+ *
+ * The files are transformed by the visiting threads and passed through bounded queues to ingestion threads. Each
+ * ingestion thread adds the files to its own database chunk, so that several chunks are filled concurrently. A file is
+ * passed to the first ingestion thread with free capacity in its queue, so additional chunks are only opened if the
+ * previous ingestion threads can not keep up with the visiting threads. Full chunks are flushed and optimized by a
+ * separate executor, while the ingestion thread continues with a new chunk.
+ *
+ * If the partitioner is created with a {@link DatabaseInventarization}, the files are assigned to the chunks of a
+ * {@link PartitionPlan} instead. Every chunk is bound to one ingestion thread and is flushed as soon as all files that
+ * have been planned for it are added, so that the chunks are built independently of the order in which the files are
+ * visited. A visiting thread only holds the lock of the plan to assign the file to a chunk, so a full queue of one
+ * ingestion thread does not block the files of the other chunks. The plan contains at least one chunk per ingestion
+ * thread if the test data are large enough, as the chunk size threshold alone would usually result in a single chunk.
+ * Ingestion threads without a planned chunk stay idle.
+ *
  * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
  */
 public class DatabasePartitioner implements DatabaseVisitor {
 
+    // Number of prepared files that can be queued per ingestion thread
+    private static final int QUEUE_CAPACITY = 64;
+    // Lower bound of the chunk size threshold, also the minimum size of a chunk that is planned for a further thread
+    private static final long MIN_CHUNK_SIZE_THRESHOLD = 11000000;
+
     private final ConfigPropertyHolder config;
     private final long dbSizeSizePerChunkThreshold;
     private final long dbSizeSizePerChunkLowerThreshold;
     private final BsxDatabaseCtx dbCtx;
-    private DatabaseChunk chunk;
     private final Transformer transformer;
     private final String dbBaseName;
     private final Set<String> skippedFiles = new TreeSet<>();
     private final Logger logger;
 
     // synchronized
-    private int currentDbIndex = 0;
-    // synchronized
-    private String currentDbName;
+    private int dbCount = 0;
 
     // synchronized
     private long fileCount = 0L;
@@ -75,12 +102,244 @@ public class DatabasePartitioner implements DatabaseVisitor {
 
     private final ChunkXqFile chunkXqFile;
 
-    // The write lock is acquired when the database is flushed,
-    // read locks are acquired for adding single files
-    private final Lock contextExchangeLock = new ReentrantLock();
+    private final Ingestion[] ingestions;
+    private final ExecutorService flushExecutor;
+
+    // null if the chunks are not planned
+    private final PartitionPlan plan;
+    // Planned chunks with a database, synchronized
+    private final boolean[] createdChunks;
+    // Queue entries of the planned chunks that have not been added yet, plus one until the last planned file of the
+    // chunk has been passed on. The chunk is complete when the number drops to zero.
+    private final AtomicIntegerArray outstandingEntries;
+
+    /**
+     * A transformed file or stream that is queued for adding it to a database chunk
+     */
+    private static final class PreparedFile {
+        // Marks the end of the queue
+        private static final PreparedFile END = new PreparedFile(null, null, null, null, 0, -1);
+
+        private final String originalFileName;
+        private final Path path;
+        private final Transformer.PreparedStream stream;
+        private final Collection<org.basex.core.cmd.Set> parameters;
+        private final long size;
+        // Planned chunk or -1
+        private final int chunkIndex;
+
+        private PreparedFile(final String originalFileName, final Path path, final Transformer.PreparedStream stream,
+                final Collection<org.basex.core.cmd.Set> parameters, final long size, final int chunkIndex) {
+            this.originalFileName = originalFileName;
+            this.path = path;
+            this.stream = stream;
+            this.parameters = parameters;
+            this.size = size;
+            this.chunkIndex = chunkIndex;
+        }
+
+        /**
+         * An entry without content that completes a planned chunk, if its last file has not been transformed to any
+         * file
+         */
+        private static PreparedFile completion(final int chunkIndex) {
+            return new PreparedFile(null, null, null, null, 0, chunkIndex);
+        }
+
+        /**
+         * Creates the queue entries for the transformed files and streams of a visited file
+         */
+        private static List<PreparedFile> of(final String originalFileName,
+                final Transformer.PreparedFileCollection preparedFiles, final int chunkIndex) {
+            final List<PreparedFile> files = new ArrayList<>(
+                    preparedFiles.files().size() + preparedFiles.streams().size());
+            for (final File transformedFile : preparedFiles.files()) {
+                files.add(new PreparedFile(originalFileName, transformedFile.toPath(), null, preparedFiles.parameters(),
+                        transformedFile.length(), chunkIndex));
+            }
+            for (final Transformer.PreparedStream transformedStream : preparedFiles.streams()) {
+                files.add(new PreparedFile(originalFileName, null, transformedStream, preparedFiles.parameters(),
+                        transformedStream.size(), chunkIndex));
+            }
+            return files;
+        }
+
+        private boolean hasContent() {
+            return path != null || stream != null;
+        }
+
+        private String name() {
+            return path != null ? path.getFileName().toString() : originalFileName;
+        }
+
+        private void addTo(final DatabaseChunk chunk) throws IOException {
+            if (path != null) {
+                chunk.add(originalFileName, path, parameters);
+            } else {
+                chunk.add(originalFileName, stream, parameters);
+            }
+        }
+    }
+
+    /**
+     * Ingestion thread that owns the current database chunk it adds files to
+     */
+    private final class Ingestion implements Runnable {
+        private final BlockingQueue<PreparedFile> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final Thread thread;
+        private DatabaseChunk chunk;
+        private String dbName;
+        // Open planned chunks of this ingestion thread
+        private final Map<Integer, DatabaseChunk> plannedChunks = new HashMap<>();
+        // Planned chunks whose database could not be created
+        private final Set<Integer> failedChunks = new TreeSet<>();
+
+        private Ingestion(final int index) {
+            this.thread = new Thread(this, dbBaseName + "-ingestion-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (PreparedFile file = queue.take(); file != PreparedFile.END; file = queue.take()) {
+                    add(file);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (final Map.Entry<Integer, DatabaseChunk> plannedChunk : plannedChunks.entrySet()) {
+                flushAndCheck(databaseName(dbBaseName, plannedChunk.getKey()), plannedChunk.getValue());
+            }
+            plannedChunks.clear();
+            if (chunk != null) {
+                final DatabaseChunk lastChunk = chunk;
+                final String lastDbName = dbName;
+                chunk = null;
+                flushAndCheck(lastDbName, lastChunk);
+            }
+        }
+
+        private void add(final PreparedFile file) {
+            if (file.chunkIndex >= 0) {
+                addToPlannedChunk(file);
+                return;
+            }
+            // Create new chunk if the current size exceeds the threshold or if the
+            // current chunk size is 85 % of the threshold and exceeds with the current
+            // file the threshold
+            if (chunk != null && (chunk.size > dbSizeSizePerChunkThreshold ||
+                    (chunk.size + file.size > dbSizeSizePerChunkThreshold &&
+                            chunk.size > dbSizeSizePerChunkLowerThreshold))) {
+                final DatabaseChunk fullChunk = chunk;
+                final String fullDbName = dbName;
+                chunk = null;
+                // The full chunk is flushed in parallel
+                flushExecutor.execute(() -> flushExecInitAndOptimize(fullDbName, fullChunk));
+            }
+            if (chunk == null && !newChunk()) {
+                synchronized (skippedFiles) {
+                    skippedFiles.add(file.name());
+                }
+                return;
+            }
+            chunk = chunk.incSize(file.size);
+            try {
+                file.addTo(chunk);
+            } catch (final IOException e) {
+                logger.warn("Data import of file " + file.name() + " failed : " + e.getMessage());
+                synchronized (skippedFiles) {
+                    skippedFiles.add(file.name());
+                }
+            }
+        }
+
+        private void addToPlannedChunk(final PreparedFile file) {
+            final int index = file.chunkIndex;
+            DatabaseChunk plannedChunk = plannedChunks.get(index);
+            if (file.hasContent()) {
+                if (plannedChunk == null && !failedChunks.contains(index)) {
+                    // The database is created with the first file
+                    plannedChunk = newPlannedChunk(index);
+                    if (plannedChunk == null) {
+                        failedChunks.add(index);
+                    }
+                }
+                if (plannedChunk == null) {
+                    synchronized (skippedFiles) {
+                        skippedFiles.add(file.name());
+                    }
+                } else {
+                    plannedChunk = plannedChunk.incSize(file.size);
+                    plannedChunks.put(index, plannedChunk);
+                    try {
+                        file.addTo(plannedChunk);
+                    } catch (final IOException e) {
+                        logger.warn("Data import of file " + file.name() + " failed : " + e.getMessage());
+                        synchronized (skippedFiles) {
+                            skippedFiles.add(file.name());
+                        }
+                    }
+                }
+            }
+            if (outstandingEntries.decrementAndGet(index) == 0 && plannedChunk != null) {
+                // All planned files are added, the chunk is flushed in parallel
+                plannedChunks.remove(index);
+                flushAndCheck(databaseName(dbBaseName, index), plannedChunk);
+            }
+        }
+
+        private boolean newChunk() {
+            // The database names must be consecutive, the index is only used if the database has been created
+            synchronized (DatabasePartitioner.this) {
+                final String nextDbName = databaseName(dbBaseName, dbCount);
+                try {
+                    chunk = DatabaseChunk.newChunk(config, dbCtx.withDbName(nextDbName));
+                } catch (final BaseXException e) {
+                    logger.error("Next database {} could not be created", nextDbName, e);
+                    return false;
+                }
+                dbName = nextDbName;
+                dbCount++;
+                logger.info("Created next database {} ", dbName);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Creates the database of a planned chunk, or returns null if the database could not be created
+     */
+    private DatabaseChunk newPlannedChunk(final int index) {
+        final String plannedDbName = databaseName(dbBaseName, index);
+        try {
+            final DatabaseChunk plannedChunk = DatabaseChunk.newChunk(config, dbCtx.withDbName(plannedDbName));
+            synchronized (createdChunks) {
+                createdChunks[index] = true;
+            }
+            logger.info("Created database {} ", plannedDbName);
+            return plannedChunk;
+        } catch (final BaseXException e) {
+            logger.error("Database {} could not be created", plannedDbName, e);
+            return null;
+        }
+    }
 
     public DatabasePartitioner(final ConfigPropertyHolder config, final Logger logger, final BsxDatabaseCtx dbCtx,
             final int rootPathCutIndex, final Transformer transformer, final ChunkXqFile chunkXqFile) throws BaseXException {
+        this(config, logger, dbCtx, rootPathCutIndex, transformer, chunkXqFile, null);
+    }
+
+    /**
+     * Creates a partitioner that assigns the files to the chunks that are planned from an inventory.
+     *
+     * @param inventory
+     *            inventory of the files that will be visited or null to fill the chunks in the order the files are
+     *            visited
+     */
+    public DatabasePartitioner(final ConfigPropertyHolder config, final Logger logger, final BsxDatabaseCtx dbCtx,
+            final int rootPathCutIndex, final Transformer transformer, final ChunkXqFile chunkXqFile,
+            final DatabaseInventarization inventory) throws BaseXException {
         this.dbBaseName = dbCtx.dbName;
         this.dbCtx = dbCtx;
         this.logger = logger;
@@ -91,18 +350,27 @@ public class DatabasePartitioner implements DatabaseVisitor {
         long chunkSize;
         try {
             chunkSize = config.getPropertyOrDefaultAsLong(BsxConstants.DB_MAX_CHUNK_THRESHOLD, DEFAULT_CHUNK_SIZE_THRESHOLD);
-            // one MB
-            if (chunkSize < 11000000) {
-                chunkSize = 11000000;
+            if (chunkSize < MIN_CHUNK_SIZE_THRESHOLD) {
+                chunkSize = MIN_CHUNK_SIZE_THRESHOLD;
             }
         } catch (InvalidPropertyException e) {
             ExcUtils.suppress(e);
             chunkSize = DEFAULT_CHUNK_SIZE_THRESHOLD;
         }
         this.dbSizeSizePerChunkThreshold = chunkSize;
-        this.dbSizeSizePerChunkLowerThreshold = Math.round(8.5 * chunkSize);
+        this.dbSizeSizePerChunkLowerThreshold = Math.round(0.85 * chunkSize);
 
-        this.currentDbName = dbBaseName + "-000";
+        final int defaultThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+        int threads;
+        try {
+            threads = (int) config.getPropertyOrDefaultAsLong(BsxConstants.DB_IMPORT_THREADS, defaultThreads);
+            if (threads < 1) {
+                threads = 1;
+            }
+        } catch (InvalidPropertyException e) {
+            ExcUtils.suppress(e);
+            threads = defaultThreads;
+        }
 
         this.config = config;
 
@@ -110,8 +378,52 @@ public class DatabasePartitioner implements DatabaseVisitor {
             this.logger.info("Database chunk size threshold is set to  {}",
                     FileUtils.byteCountToDisplayRoundedSize(dbSizeSizePerChunkThreshold, 2));
         }
-        this.logger.info("Creating first database {}", this.currentDbName);
-        this.chunk = DatabaseChunk.newChunk(config, dbCtx.withDbName(currentDbName));
+        // Without inventoried files, the chunks are filled in the order the files are visited
+        if (inventory != null && inventory.getFileCount() > 0) {
+            // Plan a chunk for every thread, unless the chunks would become too small
+            final int parallelChunks = (int) Math.min(threads, inventory.getSize() / MIN_CHUNK_SIZE_THRESHOLD);
+            this.plan = PartitionPlan.create(inventory.getEstimatedSizes(), dbSizeSizePerChunkThreshold,
+                    parallelChunks);
+            this.createdChunks = new boolean[plan.getChunkCount()];
+            this.outstandingEntries = new AtomicIntegerArray(plan.getChunkCount());
+            for (int i = 0; i < plan.getChunkCount(); i++) {
+                // Released by the last planned file of the chunk
+                this.outstandingEntries.set(i, 1);
+            }
+            this.logger.info("Planned {} database(s) for {} in {} file(s)", plan.getChunkCount(),
+                    FileUtils.byteCountToDisplayRoundedSize(inventory.getSize(), 2), inventory.getFileCount());
+        } else {
+            this.plan = null;
+            this.createdChunks = null;
+            this.outstandingEntries = null;
+        }
+        this.logger.info("Importing data with {} thread(s)", threads);
+
+        final AtomicInteger flushThreadIndex = new AtomicInteger();
+        this.flushExecutor = Executors.newFixedThreadPool(threads, r -> {
+            final Thread thread = new Thread(r, dbBaseName + "-flush-" + flushThreadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.ingestions = new Ingestion[threads];
+        for (int i = 0; i < threads; i++) {
+            this.ingestions[i] = new Ingestion(i);
+        }
+        // There is always at least one database
+        if (plan != null) {
+            final DatabaseChunk firstChunk = newPlannedChunk(0);
+            if (firstChunk == null) {
+                this.flushExecutor.shutdown();
+                throw new BaseXException("Database " + databaseName(dbBaseName, 0) + " could not be created");
+            }
+            this.ingestions[0].plannedChunks.put(0, firstChunk);
+        } else if (!this.ingestions[0].newChunk()) {
+            this.flushExecutor.shutdown();
+            throw new BaseXException("Database " + databaseName(dbBaseName, 0) + " could not be created");
+        }
+        for (final Ingestion ingestion : this.ingestions) {
+            ingestion.thread.start();
+        }
     }
 
     public static String databaseName(final String dbBaseName, final int index) {
@@ -135,35 +447,99 @@ public class DatabasePartitioner implements DatabaseVisitor {
         databaseChunk.close();
     }
 
-    private DatabaseChunk getChunk(final long fileSize) {
-        // Critical region
-        contextExchangeLock.lock();
-        final DatabaseChunk currentChunk = this.chunk;
-        // Create new chunk if the current size exceeds the threshold or if the
-        // current chunk size is 85 % of the threshold and exceeds with the current
-        // file the threshold
-        if (currentChunk.size > this.dbSizeSizePerChunkThreshold ||
-                (currentChunk.size + fileSize > this.dbSizeSizePerChunkThreshold &&
-                        currentChunk.size > this.dbSizeSizePerChunkLowerThreshold)) {
-            final String oldDbName = currentDbName;
-            currentDbName = databaseName(dbBaseName, ++currentDbIndex);
+    /**
+     * Flushes, optimizes and checks a database chunk in parallel
+     */
+    private void flushAndCheck(final String dbName, final DatabaseChunk databaseChunk) {
+        flushExecutor.execute(() -> {
+            flushExecInitAndOptimize(dbName, databaseChunk);
             try {
-                this.chunk = DatabaseChunk.newChunk(config, dbCtx.withDbName(this.currentDbName));
-                logger.info("Created next database {} ", this.currentDbName);
+                databaseChunk.check(dbName);
             } catch (final BaseXException e) {
-                this.chunk.close();
-                logger.error("Next database {} could not be created", this.currentDbName, e);
-            }
-            contextExchangeLock.unlock();
-            // created a new chunk and opened the database. We must flush the old chunk
-            // before we can proceed. This can be done in parallel
-            flushExecInitAndOptimize(oldDbName, currentChunk);
-            // during the flush another new chunk could have been created
-            return getChunk(fileSize);
+                logger.error("Database import failed: ", e);
+            }
+            databaseChunk.close();
+        });
+    }
+
+    /**
+     * Passes a file to the first ingestion thread that can take it without waiting, or waits for the first ingestion
+     * thread if all queues are full.
+     */
+    private void enqueue(final PreparedFile file) throws InterruptedException {
+        for (final Ingestion ingestion : ingestions) {
+            if (ingestion.queue.offer(file)) {
+                return;
+            }
+        }
+        ingestions[0].queue.put(file);
+    }
+
+    /**
+     * Passes the transformed files to the ingestion thread that owns the planned chunk of the visited file.
+     *
+     * The entries are counted as outstanding entries of the chunk while holding the lock of the plan, before the file
+     * is marked as passed on. The last planned file releases the additional count of the chunk, so the count only drops
+     * to zero after the ingestion thread has added all entries of the chunk, in whatever order they are queued. The
+     * entries are queued without holding the lock.
+     */
+    private void enqueuePlanned(final Path path, final String originalFileName,
+            final Transformer.PreparedFileCollection preparedFiles) throws InterruptedException {
+        final String absolutePath = path.toAbsolutePath().toString();
+        final int chunkIndex;
+        final List<PreparedFile> files;
+        synchronized (plan) {
+            chunkIndex = plan.chunkIndex(absolutePath, preparedFiles.size());
+            if (chunkIndex == -1) {
+                logger.warn("Skipping file {} that has been added after all databases were completed", path);
+                synchronized (skippedFiles) {
+                    skippedFiles.add(path.getFileName().toString());
+                }
+                return;
+            }
+            files = PreparedFile.of(originalFileName, preparedFiles, chunkIndex);
+            passOn(chunkIndex, files);
+        }
+        put(chunkIndex, files);
+    }
+
+    /**
+     * Marks a planned file as passed on, that has not been transformed to any file
+     */
+    private void completePlanned(final Path path) throws InterruptedException {
+        final String absolutePath = path.toAbsolutePath().toString();
+        final int chunkIndex;
+        final List<PreparedFile> files = new ArrayList<>(1);
+        synchronized (plan) {
+            if (!plan.isPlanned(absolutePath)) {
+                return;
+            }
+            chunkIndex = plan.chunkIndex(absolutePath, 0);
+            passOn(chunkIndex, files);
+        }
+        put(chunkIndex, files);
+    }
+
+    /**
+     * Counts the entries of a file as outstanding and marks the file as passed on. If it is the last planned file of
+     * the chunk, the additional count is released. A completion entry is added if the file has no entries, so that the
+     * ingestion thread still observes the count dropping to zero. Must be called while holding the lock of the plan.
+     */
+    private void passOn(final int chunkIndex, final List<PreparedFile> files) {
+        if (plan.complete(chunkIndex)) {
+            if (files.isEmpty()) {
+                files.add(PreparedFile.completion(chunkIndex));
+            }
+            outstandingEntries.addAndGet(chunkIndex, files.size() - 1);
         } else {
-            this.chunk = currentChunk.incSize(fileSize);
-            contextExchangeLock.unlock();
-            return currentChunk;
+            outstandingEntries.addAndGet(chunkIndex, files.size());
+        }
+    }
+
+    private void put(final int chunkIndex, final List<PreparedFile> files) throws InterruptedException {
+        final BlockingQueue<PreparedFile> queue = ingestions[chunkIndex % ingestions.length].queue;
+        for (final PreparedFile file : files) {
+            queue.put(file);
         }
     }
 
@@ -172,19 +548,29 @@ public class DatabasePartitioner implements DatabaseVisitor {
         if (Thread.currentThread().isInterrupted()) {
             return FileVisitResult.TERMINATE;
         }
+        // A planned file is passed on exactly once, even if it could not be transformed
+        boolean passedOn = plan == null;
         try {
             final Transformer.PreparedFileCollection preparedFiles = transformer.transform(new IFile(path.toFile()));
-            if (preparedFiles != null && !preparedFiles.files().isEmpty()) {
+            if (preparedFiles != null && !preparedFiles.isEmpty()) {
                 final String originalFileName = path.toAbsolutePath().toString().substring(rootPathCutIndex);
-                for (final File transformedFile : preparedFiles.files()) {
-                    getChunk(transformedFile.length()).add(originalFileName,
-                            transformedFile.toPath(), preparedFiles.parameters());
+                if (plan != null) {
+                    enqueuePlanned(path, originalFileName, preparedFiles);
+                    passedOn = true;
+                } else {
+                    for (final PreparedFile file : PreparedFile.of(originalFileName, preparedFiles, -1)) {
+                        enqueue(file);
+                    }
                 }
                 synchronized (this) {
                     fileCount += preparedFiles.fileCount();
                     size += preparedFiles.size();
                 }
             }
+            if (!passedOn) {
+                completePlanned(path);
+                passedOn = true;
+            }
             if (preparedFiles != null && preparedFiles.exceptionOccurred()) {
                 throw preparedFiles.getException();
             }
@@ -194,6 +580,17 @@ public class DatabasePartitioner implements DatabaseVisitor {
             synchronized (skippedFiles) {
                 skippedFiles.add(path.getFileName().toString());
             }
+            if (!passedOn) {
+                try {
+                    completePlanned(path);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return FileVisitResult.TERMINATE;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return FileVisitResult.TERMINATE;
         }
         return FileVisitResult.CONTINUE;
     }
@@ -216,29 +613,70 @@ public class DatabasePartitioner implements DatabaseVisitor {
         return FileVisitResult.CONTINUE;
     }
 
+    /**
+     * Waits until all queued files have been added and all databases have been flushed and optimized.
+     */
     @Override
     public void release() {
         try {
-            flushExecInitAndOptimize(currentDbName, this.chunk);
-            chunk.close();
-            chunk.check(currentDbName);
-            chunk.close();
-            chunk = null;
+            for (final Ingestion ingestion : ingestions) {
+                ingestion.queue.put(PreparedFile.END);
+            }
+            for (final Ingestion ingestion : ingestions) {
+                ingestion.thread.join();
+            }
+            if (plan != null) {
+                createEmptyChunks();
+            }
+            flushExecutor.shutdown();
+            flushExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
             logger.info("Import completed.");
-        } catch (BaseXException e) {
-            logger.error("Database import failed: ", e);
+        } catch (final InterruptedException e) {
+            flushExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+            logger.error("Database import interrupted");
+        }
+    }
+
+    /**
+     * Creates the databases of planned chunks that did not receive any file, so that the database names are
+     * consecutive
+     */
+    private void createEmptyChunks() {
+        for (int i = 0; i < plan.getChunkCount(); i++) {
+            final boolean created;
+            synchronized (createdChunks) {
+                created = createdChunks[i];
+            }
+            if (!created) {
+                final DatabaseChunk emptyChunk = newPlannedChunk(i);
+                if (emptyChunk == null) {
+                    return;
+                }
+                flushAndCheck(databaseName(dbBaseName, i), emptyChunk);
+            }
         }
     }
 
-    public int getDbCount() {
-        return currentDbIndex + 1;
+    public synchronized int getDbCount() {
+        if (plan != null) {
+            // Number of consecutive databases
+            synchronized (createdChunks) {
+                int count = 0;
+                while (count < createdChunks.length && createdChunks[count]) {
+                    count++;
+                }
+                return count;
+            }
+        }
+        return dbCount;
     }
 
-    public long getSize() {
+    public synchronized long getSize() {
         return size;
     }
 
-    public long getFileCount() {
+    public synchronized long getFileCount() {
         return fileCount;
     }
 }
@@ -0,0 +1,173 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.bsx.partitioning;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Assigns the files of the test data to a fixed number of database chunks before the import.
+ *
+ * The number of chunks is derived from the estimated total size and the chunk size threshold, but is raised to a
+ * minimum number of chunks, so that small test objects are still imported by several threads. The files are then
+ * distributed with the longest-processing-time-first rule: the files are sorted by their estimated size in descending
+ * order and each file is assigned to the chunk with the smallest planned size. The planned size of a chunk therefore
+ * exceeds the threshold at most by the size of its largest file.
+ *
+ * During the import the plan counts the files that are still pending for each chunk, so that a chunk can be finished
+ * as soon as its last file has been passed on. Callers that count the files of a chunk together with its completion
+ * synchronize on the plan.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public final class PartitionPlan {
+
+    private final Map<String, Integer> assignments;
+    // synchronized
+    private final long[] chunkSizes;
+    private final int[] chunkFileCounts;
+    // synchronized
+    private final int[] pendingFiles;
+
+    private PartitionPlan(final Map<String, Integer> assignments, final long[] chunkSizes, final int[] chunkFileCounts) {
+        this.assignments = assignments;
+        this.chunkSizes = chunkSizes;
+        this.chunkFileCounts = chunkFileCounts;
+        this.pendingFiles = chunkFileCounts.clone();
+    }
+
+    /**
+     * Creates a plan from estimated file sizes
+     *
+     * @param estimatedSizes
+     *            estimated sizes of the files, mapped by their absolute path
+     * @param chunkSizeThreshold
+     *            size threshold of one database chunk
+     * @param minChunkCount
+     *            minimum number of chunks, limited by the number of files
+     * @return the plan
+     */
+    public static PartitionPlan create(final Map<String, Long> estimatedSizes, final long chunkSizeThreshold,
+            final int minChunkCount) {
+        final List<Map.Entry<String, Long>> files = new ArrayList<>(estimatedSizes.entrySet());
+        files.sort(Collections.reverseOrder(Map.Entry.comparingByValue()));
+
+        long totalSize = 0;
+        for (final Map.Entry<String, Long> file : files) {
+            totalSize += file.getValue();
+        }
+        final int chunkCount = (int) Math.max(1, Math.min(Math.max(1, files.size()),
+                Math.max(minChunkCount, (totalSize + chunkSizeThreshold - 1) / chunkSizeThreshold)));
+
+        final long[] chunkSizes = new long[chunkCount];
+        final int[] chunkFileCounts = new int[chunkCount];
+        // Order by planned size, then by index to fill the first chunks first
+        final PriorityQueue<Integer> chunks = new PriorityQueue<>(chunkCount,
+                (a, b) -> chunkSizes[a] != chunkSizes[b] ? Long.compare(chunkSizes[a], chunkSizes[b])
+                        : Integer.compare(a, b));
+        for (int i = 0; i < chunkCount; i++) {
+            chunks.add(i);
+        }
+        final Map<String, Integer> assignments = new HashMap<>((int) (files.size() / 0.75f) + 1);
+        for (final Map.Entry<String, Long> file : files) {
+            final int chunk = chunks.poll();
+            chunkSizes[chunk] += file.getValue();
+            chunkFileCounts[chunk]++;
+            chunks.add(chunk);
+            assignments.put(file.getKey(), chunk);
+        }
+        return new PartitionPlan(assignments, chunkSizes, chunkFileCounts);
+    }
+
+    /**
+     * Number of planned database chunks.
+     *
+     * @return number of database chunks
+     */
+    public int getChunkCount() {
+        return chunkSizes.length;
+    }
+
+    /**
+     * Number of files that are planned for a chunk.
+     *
+     * @param chunkIndex
+     *            index of the chunk
+     * @return number of files
+     */
+    public int getFileCount(final int chunkIndex) {
+        return chunkFileCounts[chunkIndex];
+    }
+
+    /**
+     * Returns the chunk that a file has been assigned to. A file that has not been inventoried is assigned to the
+     * unfinished chunk with the smallest planned size and is counted as pending file of this chunk.
+     *
+     * @param path
+     *            absolute path of the file
+     * @param size
+     *            size of the file, used for files that have not been inventoried
+     * @return index of the chunk or -1 if the file has not been inventoried and all chunks are finished
+     */
+    public synchronized int chunkIndex(final String path, final long size) {
+        final Integer chunk = assignments.get(path);
+        if (chunk != null) {
+            return chunk;
+        }
+        int smallest = -1;
+        for (int i = 0; i < chunkSizes.length; i++) {
+            if (pendingFiles[i] > 0 && (smallest == -1 || chunkSizes[i] < chunkSizes[smallest])) {
+                smallest = i;
+            }
+        }
+        if (smallest != -1) {
+            chunkSizes[smallest] += size;
+            pendingFiles[smallest]++;
+        }
+        return smallest;
+    }
+
+    /**
+     * Returns true if a file has been inventoried and is counted in {@link #getFileCount(int)}
+     *
+     * @param path
+     *            absolute path of the file
+     * @return true if the file is planned
+     */
+    public boolean isPlanned(final String path) {
+        return assignments.containsKey(path);
+    }
+
+    /**
+     * Marks a file of a chunk as passed on.
+     *
+     * @param chunkIndex
+     *            index of the chunk
+     * @return true if this was the last pending file of the chunk
+     */
+    public synchronized boolean complete(final int chunkIndex) {
+        return --pendingFiles[chunkIndex] == 0;
+    }
+}
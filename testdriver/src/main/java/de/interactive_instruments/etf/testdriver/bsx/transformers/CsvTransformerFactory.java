@@ -0,0 +1,579 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.bsx.transformers;
+
+import static de.interactive_instruments.etf.testdriver.bsx.transformers.GmlFeatureCollectionStream.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.basex.core.cmd.Set;
+
+import de.interactive_instruments.IFile;
+import de.interactive_instruments.etf.model.capabilities.TestObjectType;
+import de.interactive_instruments.etf.testdriver.bsx.BsxConstants;
+
+/**
+ * Transforms CSV files with point coordinates into GML 3.2 features.
+ *
+ * The file is split into row-aligned byte ranges with an estimated transformed size of
+ * {@link GmlFeatureCollectionStream#BATCH_SIZE}. Each range is memory-mapped and converted to a feature collection
+ * that is streamed into the database. When a range is opened, the conversion of the following ranges is started in
+ * parallel, so that the ranges are converted concurrently while the number of converted ranges held in memory stays
+ * bounded.
+ *
+ * The delimiter, the charset (UTF-8 or ISO-8859-1) and a header row are detected from the beginning of the file. The
+ * coordinates are taken from columns with typical names like x/y or lon/lat, or, without a header, from the first two
+ * adjacent columns with decimal numbers. Decimal commas are supported. Line breaks in quoted values are not supported.
+ * As CSV files do not declare a coordinate reference system, the srsName of the points is taken from the test task
+ * argument {@link BsxConstants#TRANSFORMED_FILE_SRS_NAME}. The coordinates are written in the order of the columns.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class CsvTransformerFactory implements TransformerFactory {
+
+    static final String NAMESPACE = "http://www.interactive-instruments.de/etf/csv";
+
+    // Number of bytes that are inspected to detect the format
+    private static final int SAMPLE_SIZE = 65536;
+
+    // Estimated size of a feature without properties, the feature type name is written four times
+    private static final int FEATURE_OVERHEAD = 120;
+
+    private static final String[][] COORDINATE_COLUMN_NAMES = {
+            {"x", "y"}, {"lon", "lat"}, {"lng", "lat"}, {"longitude", "latitude"}, {"easting", "northing"},
+            {"east", "north"}, {"rechtswert", "hochwert"}};
+
+    private final Collection<Set> parameters = new ArrayList<Set>() {
+        {
+            add(new Set("PARSER", "xml"));
+        }
+    };
+
+    /**
+     * The detected layout of a CSV file
+     */
+    private static final class CsvFormat {
+        private final char delimiter;
+        private final Charset charset;
+        // Offset of the first data row
+        private final long dataOffset;
+        private final String featureType;
+        private final String[] propertyNames;
+        private final int xColumn;
+        private final int yColumn;
+        // Estimated ratio between the size of a feature and the size of a row
+        private final double ratio;
+
+        private CsvFormat(final char delimiter, final Charset charset, final long dataOffset, final String featureType,
+                final String[] propertyNames, final int xColumn, final int yColumn, final double ratio) {
+            this.delimiter = delimiter;
+            this.charset = charset;
+            this.dataOffset = dataOffset;
+            this.featureType = featureType;
+            this.propertyNames = propertyNames;
+            this.xColumn = xColumn;
+            this.yColumn = yColumn;
+            this.ratio = ratio;
+        }
+
+        private String propertyName(final int column) {
+            return column < propertyNames.length ? propertyNames[column] : "column_" + (column + 1);
+        }
+
+        static CsvFormat detect(final File file) throws IOException {
+            final byte[] sample = readSample(file);
+            final Charset charset = isUtf8(sample) ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1;
+            int start = 0;
+            // Skip the byte order mark
+            if (charset == StandardCharsets.UTF_8 && sample.length >= 3 && (sample[0] & 0xFF) == 0xEF
+                    && (sample[1] & 0xFF) == 0xBB && (sample[2] & 0xFF) == 0xBF) {
+                start = 3;
+            }
+            final int firstEnd = lineEnd(sample, start);
+            final String firstLine = decodeLine(sample, start, firstEnd, charset);
+            final char delimiter = detectDelimiter(firstLine);
+            final List<String> firstRow = split(firstLine, delimiter, new ArrayList<>());
+
+            final String fileName = file.getName();
+            final String featureType = ncName(fileName.substring(0, fileName.lastIndexOf('.')));
+            boolean header = !firstRow.isEmpty();
+            for (final String value : firstRow) {
+                if (value.isEmpty() || parseNumber(value) != null) {
+                    header = false;
+                    break;
+                }
+            }
+            final String[] propertyNames;
+            final long dataOffset;
+            List<String> dataRow = firstRow;
+            int dataRowLength = firstEnd - start;
+            int xColumn = -1;
+            if (header) {
+                propertyNames = new String[firstRow.size()];
+                for (int i = 0; i < propertyNames.length; i++) {
+                    propertyNames[i] = ncName(firstRow.get(i));
+                }
+                xColumn = coordinateColumnsByName(firstRow);
+                dataOffset = Math.min(sample.length, firstEnd + 1);
+                final int secondEnd = lineEnd(sample, (int) dataOffset);
+                dataRow = split(decodeLine(sample, (int) dataOffset, secondEnd, charset), delimiter, new ArrayList<>());
+                dataRowLength = Math.max(1, secondEnd - (int) dataOffset);
+            } else {
+                propertyNames = new String[firstRow.size()];
+                for (int i = 0; i < propertyNames.length; i++) {
+                    propertyNames[i] = "column_" + (i + 1);
+                }
+                dataOffset = start;
+            }
+            if (xColumn == -1) {
+                for (int i = 0; i + 1 < dataRow.size() && xColumn == -1; i++) {
+                    if (isDecimal(dataRow.get(i)) && isDecimal(dataRow.get(i + 1))) {
+                        xColumn = i;
+                    }
+                }
+            }
+            long propertySize = FEATURE_OVERHEAD + 4 * featureType.length() + dataRowLength;
+            for (int i = 0; i < dataRow.size(); i++) {
+                // start and end tag with prefix
+                propertySize += 2 * (i < propertyNames.length ? propertyNames[i].length() : 9) + 12;
+            }
+            return new CsvFormat(delimiter, charset, dataOffset, featureType, propertyNames, xColumn,
+                    xColumn == -1 ? -1 : xColumn + 1, (double) propertySize / Math.max(1, dataRowLength));
+        }
+
+        private static int coordinateColumnsByName(final List<String> names) {
+            for (final String[] candidates : COORDINATE_COLUMN_NAMES) {
+                int x = -1;
+                int y = -1;
+                for (int i = 0; i < names.size(); i++) {
+                    final String name = names.get(i).trim().toLowerCase(Locale.ENGLISH);
+                    if (name.equals(candidates[0])) {
+                        x = i;
+                    } else if (name.equals(candidates[1])) {
+                        y = i;
+                    }
+                }
+                if (x != -1 && y == x + 1) {
+                    return x;
+                }
+            }
+            return -1;
+        }
+
+        private static char detectDelimiter(final String line) {
+            final char[] candidates = {';', ',', '\t', '|'};
+            char delimiter = ',';
+            int maxCount = 0;
+            for (final char candidate : candidates) {
+                int count = 0;
+                boolean quoted = false;
+                for (int i = 0; i < line.length(); i++) {
+                    final char c = line.charAt(i);
+                    if (c == '"') {
+                        quoted = !quoted;
+                    } else if (c == candidate && !quoted) {
+                        count++;
+                    }
+                }
+                if (count > maxCount) {
+                    maxCount = count;
+                    delimiter = candidate;
+                }
+            }
+            return delimiter;
+        }
+
+        private static boolean isUtf8(final byte[] sample) {
+            // Ignore a sequence that is cut at the end of the sample
+            int length = sample.length;
+            for (int i = 1; i <= 3 && length - i >= 0; i++) {
+                if ((sample[length - i] & 0xC0) == 0xC0) {
+                    length -= i;
+                    break;
+                }
+            }
+            try {
+                StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+                        .onUnmappableCharacter(CodingErrorAction.REPORT).decode(ByteBuffer.wrap(sample, 0, length));
+                return true;
+            } catch (final CharacterCodingException e) {
+                return false;
+            }
+        }
+
+        private static byte[] readSample(final File file) throws IOException {
+            try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(SAMPLE_SIZE, channel.size()));
+                while (buffer.hasRemaining() && channel.read(buffer) != -1) {}
+                final byte[] sample = new byte[buffer.position()];
+                buffer.flip();
+                buffer.get(sample);
+                return sample;
+            }
+        }
+
+        private static int lineEnd(final byte[] bytes, final int start) {
+            int end = start;
+            while (end < bytes.length && bytes[end] != '\n') {
+                end++;
+            }
+            return end;
+        }
+    }
+
+    private static class CsvTransformer implements Transformer {
+
+        private final Collection<Set> parameters;
+        private final String srsName;
+
+        private CsvTransformer(final Collection<Set> parameters, final String srsName) {
+            this.parameters = parameters;
+            this.srsName = srsName;
+        }
+
+        @Override
+        public PreparedFileCollection transform(final IFile file) throws IOException {
+            final DefaultPreparedFileCollection collection = new DefaultPreparedFileCollection(parameters);
+            final CsvFormat format = CsvFormat.detect(file);
+            final long rangeSize = Math.max(SAMPLE_SIZE, (long) (BATCH_SIZE / format.ratio));
+            final List<long[]> ranges = new ArrayList<>();
+            try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                final long size = channel.size();
+                final ByteBuffer window = ByteBuffer.allocate(SAMPLE_SIZE);
+                long start = format.dataOffset;
+                while (start < size) {
+                    long end = Math.min(size, start + rangeSize);
+                    // Move the end behind the next line break
+                    while (end < size) {
+                        window.clear();
+                        final int read = channel.read(window, end);
+                        int i = 0;
+                        while (i < read && window.get(i) != '\n') {
+                            i++;
+                        }
+                        end += i;
+                        if (i < read) {
+                            end++;
+                            break;
+                        }
+                    }
+                    ranges.add(new long[]{start, end});
+                    start = end;
+                }
+            }
+            final String timeStamp = Instant.now().truncatedTo(ChronoUnit.SECONDS).toString();
+            final Ranges converter = new Ranges(file, format, srsName, ranges, timeStamp);
+            for (int i = 0; i < ranges.size(); i++) {
+                collection.addStream(new Range(converter, i,
+                        (long) ((ranges.get(i)[1] - ranges.get(i)[0]) * format.ratio) + COLLECTION_OVERHEAD));
+            }
+            return collection;
+        }
+
+        @Override
+        public long estimateSize(final IFile file) {
+            try {
+                return (long) (file.length() * CsvFormat.detect(file).ratio) + COLLECTION_OVERHEAD;
+            } catch (final IOException e) {
+                return file.length();
+            }
+        }
+    }
+
+    /**
+     * Converts the ranges of a file in parallel, ahead of the range that is read
+     */
+    private static final class Ranges {
+        private final File file;
+        private final CsvFormat format;
+        private final String srsName;
+        private final List<long[]> ranges;
+        private final String timeStamp;
+        // synchronized
+        private final CompletableFuture<byte[]>[] converted;
+        private final int lookahead;
+
+        @SuppressWarnings("unchecked")
+        private Ranges(final File file, final CsvFormat format, final String srsName, final List<long[]> ranges,
+                final String timeStamp) {
+            this.file = file;
+            this.format = format;
+            this.srsName = srsName;
+            this.ranges = ranges;
+            this.timeStamp = timeStamp;
+            this.converted = new CompletableFuture[ranges.size()];
+            this.lookahead = Math.max(1, ForkJoinPool.commonPool().getParallelism());
+        }
+
+        private InputStream open(final int index) throws IOException {
+            final CompletableFuture<byte[]> range;
+            synchronized (this) {
+                for (int i = index; i < Math.min(converted.length, index + lookahead); i++) {
+                    if (converted[i] == null) {
+                        final int rangeIndex = i;
+                        converted[i] = CompletableFuture.supplyAsync(() -> convert(rangeIndex));
+                    }
+                }
+                range = converted[index];
+                // Release the converted range after reading it
+                converted[index] = CompletableFuture.completedFuture(null);
+            }
+            final byte[] bytes;
+            try {
+                bytes = range.join();
+            } catch (final CompletionException e) {
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                }
+                throw new IOException("Transformation of " + file.getName() + " failed", e.getCause());
+            }
+            if (bytes == null) {
+                throw new IOException("Range " + index + " of " + file.getName() + " has already been read");
+            }
+            return new ByteArrayInputStream(bytes);
+        }
+
+        private byte[] convert(final int index) {
+            final long start = ranges.get(index)[0];
+            final long end = ranges.get(index)[1];
+            if (end - start > Integer.MAX_VALUE) {
+                throw new UncheckedIOException(new IOException("A row of " + file.getName() + " is too large"));
+            }
+            try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                try (final CsvFeatureStream stream = new CsvFeatureStream(format, srsName, buffer, start,
+                        timeStamp)) {
+                    return stream.readAllBytes();
+                }
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * A converted range of a file
+     */
+    private static final class Range implements Transformer.PreparedStream {
+        private final Ranges ranges;
+        private final int index;
+        private final long size;
+
+        private Range(final Ranges ranges, final int index, final long size) {
+            this.ranges = ranges;
+            this.index = index;
+            this.size = size;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            return ranges.open(index);
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+    }
+
+    /**
+     * Writes the rows of a range as features
+     */
+    private static final class CsvFeatureStream extends GmlFeatureCollectionStream {
+        private final CsvFormat format;
+        private final String srsName;
+        private final ByteBuffer buffer;
+        private final long offset;
+        private final List<String> values = new ArrayList<>();
+        private byte[] line = new byte[1024];
+
+        private CsvFeatureStream(final CsvFormat format, final String srsName, final ByteBuffer buffer,
+                final long offset, final String timeStamp) {
+            super(NAMESPACE, timeStamp, countRows(buffer));
+            this.format = format;
+            this.srsName = srsName;
+            this.buffer = buffer;
+            this.offset = offset;
+        }
+
+        private static int countRows(final ByteBuffer buffer) {
+            int rows = 0;
+            boolean empty = true;
+            for (int i = 0; i < buffer.limit(); i++) {
+                final byte b = buffer.get(i);
+                if (b == '\n') {
+                    if (!empty) {
+                        rows++;
+                    }
+                    empty = true;
+                } else if (b != '\r') {
+                    empty = false;
+                }
+            }
+            return empty ? rows : rows + 1;
+        }
+
+        @Override
+        protected boolean writeNextFeature(final StringBuilder out) {
+            if (!buffer.hasRemaining()) {
+                return false;
+            }
+            final long rowOffset = offset + buffer.position();
+            int length = 0;
+            while (buffer.hasRemaining()) {
+                final byte b = buffer.get();
+                if (b == '\n') {
+                    break;
+                }
+                if (length == line.length) {
+                    final byte[] larger = new byte[line.length * 2];
+                    System.arraycopy(line, 0, larger, 0, length);
+                    line = larger;
+                }
+                line[length++] = b;
+            }
+            final String row = decodeLine(line, 0, length, format.charset);
+            if (row.isEmpty()) {
+                return true;
+            }
+            split(row, format.delimiter, values);
+            final String id = format.featureType + '.' + rowOffset;
+            startFeature(out, format.featureType, id);
+            for (int i = 0; i < values.size(); i++) {
+                property(out, format.propertyName(i), values.get(i));
+            }
+            if (format.xColumn != -1 && format.yColumn < values.size()) {
+                final Double x = parseNumber(values.get(format.xColumn));
+                final Double y = parseNumber(values.get(format.yColumn));
+                if (x != null && y != null) {
+                    out.append('<').append(NS_PREFIX).append(":geometry><gml:Point gml:id=\"").append(id)
+                            .append(".g\"");
+                    srsAttributes(out, srsName, false);
+                    out.append("><gml:pos>");
+                    appendDouble(out, x);
+                    out.append(' ');
+                    appendDouble(out, y);
+                    out.append("</gml:pos></gml:Point></").append(NS_PREFIX).append(":geometry>");
+                }
+            }
+            endFeature(out, format.featureType);
+            return true;
+        }
+    }
+
+    private static String decodeLine(final byte[] bytes, final int start, final int end, final Charset charset) {
+        int length = end - start;
+        if (length > 0 && bytes[start + length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, start, Math.max(0, length), charset);
+    }
+
+    /**
+     * Splits a row into its values, quoted values may contain delimiters and escaped quotes
+     */
+    private static List<String> split(final String row, final char delimiter, final List<String> values) {
+        values.clear();
+        final StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < row.length(); i++) {
+            final char c = row.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < row.length() && row.charAt(i + 1) == '"') {
+                        value.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == delimiter) {
+                values.add(value.toString().trim());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString().trim());
+        return values;
+    }
+
+    /**
+     * Parses a number with a decimal point or comma, or returns null
+     */
+    private static Double parseNumber(final String value) {
+        if (value.isEmpty() || value.length() > 32) {
+            return null;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (!((c >= '0' && c <= '9') || c == '.' || c == ',' || c == '-' || c == '+' || c == 'e' || c == 'E')) {
+                return null;
+            }
+        }
+        try {
+            return Double.parseDouble(value.replace(',', '.'));
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean isDecimal(final String value) {
+        return (value.indexOf('.') != -1 || value.indexOf(',') != -1) && parseNumber(value) != null;
+    }
+
+    @Override
+    public Transformer create(final TestObjectType testObjectType, final IFile attachmentDir) {
+        return create(testObjectType, attachmentDir, Collections.emptyMap());
+    }
+
+    @Override
+    public Transformer create(final TestObjectType testObjectType, final IFile attachmentDir,
+            final Map<String, String> arguments) {
+        return new CsvTransformer(parameters, TransformerFactory.srsName(arguments));
+    }
+}
@@ -37,22 +37,29 @@ final class DefaultPreparedFileCollection implements Transformer.PreparedFileCol
 
     private final Collection<Set> parameters;
     private final Collection<File> files;
+    private final Collection<Transformer.PreparedStream> streams;
     private IOException throwable;
 
     public DefaultPreparedFileCollection(final Collection<Set> parameters) {
         this.parameters = parameters;
         this.files = new ArrayList<>();
+        this.streams = new ArrayList<>();
     }
 
     public DefaultPreparedFileCollection(final Collection<Set> parameters, final File file) {
         this.parameters = parameters;
         this.files = Collections.singleton(file);
+        this.streams = Collections.emptyList();
     }
 
     void addFile(final IFile file) {
         this.files.add(file);
     }
 
+    void addStream(final Transformer.PreparedStream stream) {
+        this.streams.add(stream);
+    }
+
     void setThrowable(final IOException throwable) {
         if (this.throwable != null) {
             throw new IllegalStateException("Exception already set", throwable);
@@ -74,4 +81,9 @@ final class DefaultPreparedFileCollection implements Transformer.PreparedFileCol
     public Collection<File> files() {
         return files;
     }
+
+    @Override
+    public Collection<Transformer.PreparedStream> streams() {
+        return streams;
+    }
 }
@@ -20,27 +20,91 @@
  */
 package de.interactive_instruments.etf.testdriver.bsx.transformers;
 
+import java.io.File;
+import java.io.FileFilter;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import de.interactive_instruments.IFile;
 import de.interactive_instruments.etf.model.capabilities.TestObjectType;
+import de.interactive_instruments.etf.testdriver.bsx.BsxConstants;
 
 /**
+ * Creates the Transformer for a Test Object Type.
+ *
+ * Files of formats that are not bound to a Test Object Type, like Shapefiles or CSV files, are transformed by the
+ * Transformer that is registered for their file extension. These file types must be enabled with the test task
+ * argument {@link BsxConstants#TRANSFORMED_FILE_TYPES}, otherwise the files are left to the Transformer of the Test
+ * Object Type.
+ *
  * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
  */
 final public class ForwardingTransformerFactory {
 
     private static ForwardingTransformerFactory instance = new ForwardingTransformerFactory();
     private final Map<String, TransformerFactory> transformerFactories;
+    private final Map<String, FileType> fileTypes;
     private final TransformerFactory defaultTransformerFactory = new XmlTransformerFactory();
 
     private ForwardingTransformerFactory() {
         final HashMap<String, TransformerFactory> factories = new HashMap<>();
         factories.put("e1d4a306-7a78-4a3b-ae2d-cf5f0810853e", defaultTransformerFactory);
         transformerFactories = Collections.unmodifiableMap(factories);
+
+        final HashMap<String, FileType> types = new HashMap<>();
+        types.put("shp", new FileType(new ShapefileTransformerFactory(),
+                "shp", "shx", "dbf", "prj", "cpg", "sbn", "sbx", "qix"));
+        types.put("csv", new FileType(new CsvTransformerFactory(), "csv"));
+        fileTypes = Collections.unmodifiableMap(types);
+    }
+
+    /**
+     * A file type that can be enabled with the test task argument {@link BsxConstants#TRANSFORMED_FILE_TYPES}
+     */
+    private static final class FileType {
+        private final TransformerFactory factory;
+        // Extensions of all files of the type, in lower case
+        private final String[] extensions;
+
+        private FileType(final TransformerFactory factory, final String... extensions) {
+            this.factory = factory;
+            this.extensions = extensions;
+        }
+    }
+
+    /**
+     * Forwards files to the Transformer of their file extension or to the Transformer of the Test Object Type
+     */
+    private static final class FileTypeForwardingTransformer implements Transformer {
+        private final Transformer testObjectTypeTransformer;
+        private final Map<String, Transformer> fileTypeTransformers;
+
+        private FileTypeForwardingTransformer(final Transformer testObjectTypeTransformer,
+                final Map<String, Transformer> fileTypeTransformers) {
+            this.testObjectTypeTransformer = testObjectTypeTransformer;
+            this.fileTypeTransformers = fileTypeTransformers;
+        }
+
+        private Transformer transformer(final IFile file) {
+            final Transformer transformer = fileTypeTransformers.get(extension(file));
+            return transformer != null ? transformer : testObjectTypeTransformer;
+        }
+
+        @Override
+        public PreparedFileCollection transform(final IFile file) throws IOException {
+            return transformer(file).transform(file);
+        }
+
+        @Override
+        public long estimateSize(final IFile file) {
+            return transformer(file).estimateSize(file);
+        }
     }
 
     public static ForwardingTransformerFactory getInstance() {
@@ -48,6 +112,92 @@ final public class ForwardingTransformerFactory {
     }
 
     public Transformer create(final TestObjectType testObjectType, final IFile attachmentDir) throws IOException {
+        return create(testObjectType, attachmentDir, Collections.emptyMap());
+    }
+
+    /**
+     * Creates the Transformer for a Test Object Type and the file types that are enabled in the test task arguments
+     *
+     * @param testObjectType
+     *            Test Object Type of the test data
+     * @param attachmentDir
+     *            directory for transformed files
+     * @param arguments
+     *            test task arguments
+     * @return Transformer
+     * @throws IOException
+     *             if the directory for transformed files can not be created
+     * @throws IllegalArgumentException
+     *             if an unknown file type is enabled
+     */
+    public Transformer create(final TestObjectType testObjectType, final IFile attachmentDir,
+            final Map<String, String> arguments) throws IOException {
+        final Map<TransformerFactory, Transformer> created = new IdentityHashMap<>();
+        final Map<String, Transformer> fileTypeTransformers = new HashMap<>();
+        for (final FileType fileType : enabledFileTypes(arguments)) {
+            final Transformer transformer = created.computeIfAbsent(fileType.factory,
+                    f -> f.create(testObjectType, attachmentDir, arguments));
+            for (final String extension : fileType.extensions) {
+                fileTypeTransformers.put(extension, transformer);
+            }
+        }
+        final Transformer testObjectTypeTransformer = createForTestObjectType(testObjectType, attachmentDir);
+        if (fileTypeTransformers.isEmpty()) {
+            return testObjectTypeTransformer;
+        }
+        return new FileTypeForwardingTransformer(testObjectTypeTransformer, fileTypeTransformers);
+    }
+
+    /**
+     * Returns a filter that accepts the files of the file types that are enabled in the test task arguments. The
+     * filter must be combined with the file name filter of the Test Object Type, so the files are passed to the
+     * Transformer.
+     *
+     * @param arguments
+     *            test task arguments
+     * @return filter or null if no file type is enabled
+     * @throws IllegalArgumentException
+     *             if an unknown file type is enabled
+     */
+    public FileFilter fileTypeFilter(final Map<String, String> arguments) {
+        final Set<String> extensions = new HashSet<>();
+        for (final FileType fileType : enabledFileTypes(arguments)) {
+            Collections.addAll(extensions, fileType.extensions);
+        }
+        if (extensions.isEmpty()) {
+            return null;
+        }
+        return pathname -> extensions.contains(extension(pathname)) && pathname.isFile();
+    }
+
+    private Set<FileType> enabledFileTypes(final Map<String, String> arguments) {
+        final String value = arguments.get(BsxConstants.TRANSFORMED_FILE_TYPES);
+        if (value == null || value.trim().isEmpty()) {
+            return Collections.emptySet();
+        }
+        final Set<FileType> enabled = new HashSet<>();
+        for (final String name : value.split("[,;\\s]+")) {
+            if (!name.isEmpty()) {
+                final FileType fileType = fileTypes.get(name.toLowerCase(Locale.ENGLISH));
+                if (fileType == null) {
+                    throw new IllegalArgumentException("Unknown file type '" + name + "' in test task argument '"
+                            + BsxConstants.TRANSFORMED_FILE_TYPES + "', supported are: "
+                            + String.join(", ", fileTypes.keySet()));
+                }
+                enabled.add(fileType);
+            }
+        }
+        return enabled;
+    }
+
+    private static String extension(final File file) {
+        final String name = file.getName();
+        final int extensionIndex = name.lastIndexOf('.');
+        return extensionIndex != -1 ? name.substring(extensionIndex + 1).toLowerCase(Locale.ENGLISH) : "";
+    }
+
+    private Transformer createForTestObjectType(final TestObjectType testObjectType, final IFile attachmentDir)
+            throws IOException {
         if (testObjectType != null) {
             TestObjectType currentTestObjectType = testObjectType;
             do {
@@ -0,0 +1,240 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.bsx.transformers;
+
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Generates a GML 3.2 feature collection while it is read.
+ *
+ * The features are wrapped into a WFS 2.0 FeatureCollection and are written one after another into a reused buffer,
+ * so only one feature is held in memory at a time. Subclasses write the features into the application namespace
+ * {@link #NS_PREFIX}.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+abstract class GmlFeatureCollectionStream extends InputStream {
+
+    static final String GML_NS = "http://www.opengis.net/gml/3.2";
+    static final String WFS_NS = "http://www.opengis.net/wfs/2.0";
+    static final String NS_PREFIX = "etf";
+
+    // Rough size of a feature collection without features, used for estimations
+    static final int COLLECTION_OVERHEAD = 400;
+
+    // Estimated size of a feature collection that is streamed into the database, less than the minimal database
+    // chunk size
+    static final long BATCH_SIZE = 8 * 1024 * 1024;
+
+    private final String namespace;
+    private final String timeStamp;
+    private final int numberReturned;
+    private final StringBuilder out = new StringBuilder(8192);
+    private byte[] buffer = new byte[0];
+    private int position = 0;
+    // 0 = header, 1 = features, 2 = footer, 3 = end
+    private int state = 0;
+
+    /**
+     * @param namespace
+     *            namespace of the feature types
+     * @param timeStamp
+     *            time stamp of the feature collection
+     * @param numberReturned
+     *            number of features that will be written
+     */
+    GmlFeatureCollectionStream(final String namespace, final String timeStamp, final int numberReturned) {
+        this.namespace = namespace;
+        this.timeStamp = timeStamp;
+        this.numberReturned = numberReturned;
+    }
+
+    /**
+     * Writes the next feature, including the enclosing wfs:member element.
+     *
+     * @param out
+     *            builder to write to
+     * @return false if there are no more features
+     */
+    protected abstract boolean writeNextFeature(final StringBuilder out);
+
+    private boolean fill() {
+        out.setLength(0);
+        while (out.length() == 0) {
+            switch (state) {
+            case 0:
+                out.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<wfs:FeatureCollection xmlns:wfs=\"")
+                        .append(WFS_NS).append("\" xmlns:gml=\"").append(GML_NS).append("\" xmlns:")
+                        .append(NS_PREFIX).append("=\"");
+                escape(out, namespace);
+                out.append("\" timeStamp=\"").append(timeStamp).append("\" numberMatched=\"unknown\" numberReturned=\"")
+                        .append(numberReturned).append("\">\n");
+                state = 1;
+                break;
+            case 1:
+                if (!writeNextFeature(out)) {
+                    state = 2;
+                }
+                break;
+            case 2:
+                out.append("</wfs:FeatureCollection>\n");
+                state = 3;
+                break;
+            default:
+                return false;
+            }
+        }
+        buffer = out.toString().getBytes(StandardCharsets.UTF_8);
+        position = 0;
+        return true;
+    }
+
+    @Override
+    public int read() {
+        if (position == buffer.length && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (position == buffer.length && !fill()) {
+            return -1;
+        }
+        final int length = Math.min(len, buffer.length - position);
+        System.arraycopy(buffer, position, b, off, length);
+        position += length;
+        return length;
+    }
+
+    @Override
+    public int available() {
+        return buffer.length - position;
+    }
+
+    /**
+     * Appends a text and escapes XML markup. Characters that are not allowed in XML are dropped.
+     */
+    static void escape(final StringBuilder out, final CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            switch (c) {
+            case '&':
+                out.append("&amp;");
+                break;
+            case '<':
+                out.append("&lt;");
+                break;
+            case '>':
+                out.append("&gt;");
+                break;
+            case '"':
+                out.append("&quot;");
+                break;
+            default:
+                if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+                    if (c < 0xFFFE) {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends a coordinate or a number without exponent
+     */
+    static void appendDouble(final StringBuilder out, final double value) {
+        if (value == (long) value && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            final String str = Double.toString(value);
+            if (str.indexOf('E') == -1 || Double.isNaN(value) || Double.isInfinite(value)) {
+                out.append(str);
+            } else {
+                out.append(BigDecimal.valueOf(value).stripTrailingZeros().toPlainString());
+            }
+        }
+    }
+
+    /**
+     * Converts a name to a valid XML element name or gml:id
+     */
+    static String ncName(final String name) {
+        final StringBuilder ncName = new StringBuilder(name.length() + 1);
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.') {
+                ncName.append(c);
+            } else {
+                ncName.append('_');
+            }
+        }
+        if (ncName.length() == 0 || !(Character.isLetter(ncName.charAt(0)) || ncName.charAt(0) == '_')) {
+            ncName.insert(0, '_');
+        }
+        return ncName.toString();
+    }
+
+    /**
+     * Writes the srsName and srsDimension attributes of a geometry. The srsName is omitted if it is unknown.
+     */
+    static void srsAttributes(final StringBuilder out, final String srsName, final boolean hasZ) {
+        if (srsName != null) {
+            out.append(" srsName=\"");
+            escape(out, srsName);
+            out.append('"');
+        }
+        out.append(" srsDimension=\"").append(hasZ ? '3' : '2').append('"');
+    }
+
+    /**
+     * Writes the start of a feature and its wfs:member element
+     */
+    static void startFeature(final StringBuilder out, final String featureType, final String id) {
+        out.append("<wfs:member><").append(NS_PREFIX).append(':').append(featureType).append(" gml:id=\"").append(id)
+                .append("\">");
+    }
+
+    /**
+     * Writes a property with text content, empty values are omitted
+     */
+    static void property(final StringBuilder out, final String name, final CharSequence value) {
+        if (value != null && value.length() > 0) {
+            out.append('<').append(NS_PREFIX).append(':').append(name).append('>');
+            escape(out, value);
+            out.append("</").append(NS_PREFIX).append(':').append(name).append('>');
+        }
+    }
+
+    /**
+     * Writes the end of a feature and its wfs:member element
+     */
+    static void endFeature(final StringBuilder out, final String featureType) {
+        out.append("</").append(NS_PREFIX).append(':').append(featureType).append("></wfs:member>\n");
+    }
+}
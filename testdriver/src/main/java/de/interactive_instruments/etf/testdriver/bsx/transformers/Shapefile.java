@@ -0,0 +1,412 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.bsx.transformers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Read-only access to the records of a Shapefile and its dBASE attribute table.
+ *
+ * The .shp, .shx and .dbf files are memory-mapped. The record offsets are taken from the .shx index or, if the index
+ * is missing, by skipping through the record headers of the .shp file. Several threads can read records concurrently,
+ * as every reader works on its own view of the mapped buffers. The coordinate reference system is taken from the EPSG
+ * authority code of the .prj file or, if the file has no code, from the name of a well known ESRI projection.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class Shapefile {
+
+    static final int NULL_SHAPE = 0;
+    static final int POINT = 1;
+    static final int POLYLINE = 3;
+    static final int POLYGON = 5;
+    static final int MULTIPOINT = 8;
+
+    private static final int HEADER_LENGTH = 100;
+
+    // EPSG code of the root element, which is the last element of the WKT
+    private static final Pattern WKT_AUTHORITY = Pattern.compile(
+            "(?:AUTHORITY|ID)\\[\\s*\"EPSG\"\\s*,\\s*\"?(\\d+)\"?\\s*\\]\\s*\\]\\s*$",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern WKT_NAME = Pattern.compile("^\\s*(?:PROJCS|GEOGCS)\\[\\s*\"([^\"]+)\"");
+    private static final Pattern ESRI_UTM = Pattern.compile("(WGS_1984|ETRS_1989)_UTM_Zone_(\\d{1,2})([NS])",
+            Pattern.CASE_INSENSITIVE);
+
+    private final String name;
+    private final ByteBuffer shp;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final ByteBuffer dbf;
+    private final Charset charset;
+    private final String srsName;
+    private final int dbfHeaderLength;
+    private final int dbfRecordLength;
+    private final int dbfRecordCount;
+    private final List<Field> fields;
+
+    /**
+     * A column of the attribute table
+     */
+    static final class Field {
+        final String name;
+        final char type;
+        final int offset;
+        final int length;
+
+        private Field(final String name, final char type, final int offset, final int length) {
+            this.name = name;
+            this.type = type;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private Shapefile(final String name, final ByteBuffer shp, final int[] offsets, final int[] lengths,
+            final ByteBuffer dbf, final Charset charset, final String srsName) throws IOException {
+        this.name = name;
+        this.shp = shp;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.dbf = dbf;
+        this.charset = charset;
+        this.srsName = srsName;
+        this.fields = new ArrayList<>();
+        if (dbf != null) {
+            final ByteBuffer header = dbf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            this.dbfRecordCount = header.getInt(4);
+            this.dbfHeaderLength = header.getShort(8) & 0xFFFF;
+            this.dbfRecordLength = header.getShort(10) & 0xFFFF;
+            // The first byte of a record is the deletion flag
+            int fieldOffset = 1;
+            for (int pos = 32; pos + 32 <= dbfHeaderLength && header.get(pos) != 0x0D; pos += 32) {
+                int nameLength = 0;
+                while (nameLength < 11 && header.get(pos + nameLength) != 0) {
+                    nameLength++;
+                }
+                final byte[] fieldName = new byte[nameLength];
+                for (int i = 0; i < nameLength; i++) {
+                    fieldName[i] = header.get(pos + i);
+                }
+                final int fieldLength = header.get(pos + 16) & 0xFF;
+                fields.add(new Field(new String(fieldName, StandardCharsets.ISO_8859_1).trim(),
+                        (char) header.get(pos + 11), fieldOffset, fieldLength));
+                fieldOffset += fieldLength;
+            }
+            if ((long) dbfHeaderLength + (long) dbfRecordCount * dbfRecordLength > dbf.capacity()) {
+                throw new IOException("Attribute table of " + name + " is truncated");
+            }
+        } else {
+            this.dbfRecordCount = 0;
+            this.dbfHeaderLength = 0;
+            this.dbfRecordLength = 0;
+        }
+    }
+
+    /**
+     * Maps the files of a Shapefile
+     *
+     * @param shpFile
+     *            the .shp file, the .shx, .dbf, .cpg and .prj files are looked up next to it
+     * @return mapped Shapefile
+     * @throws IOException
+     *             if the files can not be read or are invalid
+     */
+    static Shapefile open(final File shpFile) throws IOException {
+        final String fileName = shpFile.getName();
+        final String baseName = fileName.substring(0, fileName.length() - 4);
+        final ByteBuffer shp = map(shpFile);
+        if (shp.capacity() < HEADER_LENGTH || shp.order(ByteOrder.BIG_ENDIAN).getInt(0) != 9994) {
+            throw new IOException(fileName + " is not a Shapefile");
+        }
+        final File shxFile = sibling(shpFile, baseName, ".shx");
+        final int[] offsets;
+        final int[] lengths;
+        if (shxFile != null) {
+            final ByteBuffer shx = map(shxFile).order(ByteOrder.BIG_ENDIAN);
+            final int count = (shx.capacity() - HEADER_LENGTH) / 8;
+            offsets = new int[count];
+            lengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                offsets[i] = shx.getInt(HEADER_LENGTH + i * 8) * 2 + 8;
+                lengths[i] = shx.getInt(HEADER_LENGTH + i * 8 + 4) * 2;
+            }
+        } else {
+            final List<int[]> records = new ArrayList<>();
+            for (int pos = HEADER_LENGTH; pos + 8 <= shp.capacity();) {
+                final int length = shp.getInt(pos + 4) * 2;
+                records.add(new int[]{pos + 8, length});
+                pos += 8 + length;
+            }
+            offsets = new int[records.size()];
+            lengths = new int[records.size()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = records.get(i)[0];
+                lengths[i] = records.get(i)[1];
+            }
+        }
+        for (int i = 0; i < offsets.length; i++) {
+            if (offsets[i] < HEADER_LENGTH || lengths[i] < 4 || (long) offsets[i] + lengths[i] > shp.capacity()) {
+                throw new IOException("Record " + (i + 1) + " of " + fileName + " is invalid");
+            }
+        }
+        final File dbfFile = sibling(shpFile, baseName, ".dbf");
+        final ByteBuffer dbf = dbfFile != null ? map(dbfFile) : null;
+        return new Shapefile(baseName, shp, offsets, lengths, dbf, charset(shpFile, baseName),
+                srsName(shpFile, baseName));
+    }
+
+    /**
+     * Estimates the number of records from the file size of the index, without mapping the files
+     */
+    static long estimateRecordCount(final File shpFile) {
+        final String fileName = shpFile.getName();
+        final File shxFile = sibling(shpFile, fileName.substring(0, fileName.length() - 4), ".shx");
+        if (shxFile != null) {
+            return Math.max(0, (shxFile.length() - HEADER_LENGTH) / 8);
+        }
+        // Assume small polygons
+        return Math.max(1, shpFile.length() / 256);
+    }
+
+    /**
+     * Size of the attribute table
+     */
+    static long attributeTableSize(final File shpFile) {
+        final String fileName = shpFile.getName();
+        final File dbfFile = sibling(shpFile, fileName.substring(0, fileName.length() - 4), ".dbf");
+        return dbfFile != null ? dbfFile.length() : 0;
+    }
+
+    private static File sibling(final File shpFile, final String baseName, final String extension) {
+        final File dir = shpFile.getAbsoluteFile().getParentFile();
+        final String[] candidates = {baseName + extension, baseName + extension.toUpperCase(Locale.ENGLISH)};
+        for (final String candidate : candidates) {
+            final File file = new File(dir, candidate);
+            if (file.isFile()) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private static Charset charset(final File shpFile, final String baseName) {
+        final File cpgFile = sibling(shpFile, baseName, ".cpg");
+        if (cpgFile != null) {
+            try {
+                final String name = new String(Files.readAllBytes(cpgFile.toPath()), StandardCharsets.US_ASCII).trim();
+                if ("UTF8".equalsIgnoreCase(name) || "UTF-8".equalsIgnoreCase(name)) {
+                    return StandardCharsets.UTF_8;
+                }
+                return Charset.forName(name);
+            } catch (final IOException | IllegalArgumentException ign) {
+                // fall back to the dBASE default
+            }
+        }
+        return StandardCharsets.ISO_8859_1;
+    }
+
+    private static String srsName(final File shpFile, final String baseName) {
+        final File prjFile = sibling(shpFile, baseName, ".prj");
+        if (prjFile != null) {
+            try {
+                return srsNameFromWkt(new String(Files.readAllBytes(prjFile.toPath()), StandardCharsets.ISO_8859_1));
+            } catch (final IOException ign) {
+                // unknown coordinate reference system
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Derives the srsName from the WKT of a .prj file.
+     *
+     * The 'EPSG:' form is used, as its axis order is easting, northing respectively longitude, latitude like the
+     * coordinates in Shapefiles.
+     *
+     * @param wkt
+     *            content of the .prj file
+     * @return srsName or null if the coordinate reference system is unknown
+     */
+    static String srsNameFromWkt(final String wkt) {
+        final Matcher authority = WKT_AUTHORITY.matcher(wkt);
+        if (authority.find()) {
+            return "EPSG:" + authority.group(1);
+        }
+        // ESRI WKT without authority
+        final Matcher nameMatcher = WKT_NAME.matcher(wkt);
+        if (!nameMatcher.find()) {
+            return null;
+        }
+        final String crsName = nameMatcher.group(1);
+        if ("GCS_WGS_1984".equalsIgnoreCase(crsName)) {
+            return "EPSG:4326";
+        } else if ("GCS_ETRS_1989".equalsIgnoreCase(crsName)) {
+            return "EPSG:4258";
+        }
+        final Matcher utm = ESRI_UTM.matcher(crsName);
+        if (utm.matches()) {
+            final int zone = Integer.parseInt(utm.group(2));
+            final boolean north = "N".equalsIgnoreCase(utm.group(3));
+            if ("WGS_1984".equalsIgnoreCase(utm.group(1)) && zone >= 1 && zone <= 60) {
+                return "EPSG:" + ((north ? 32600 : 32700) + zone);
+            } else if (north && zone >= 28 && zone <= 38) {
+                return "EPSG:" + (25800 + zone);
+            }
+        }
+        return null;
+    }
+
+    private static ByteBuffer map(final File file) throws IOException {
+        if (file.length() > Integer.MAX_VALUE) {
+            throw new IOException(file.getName() + " exceeds the supported size of 2 GB");
+        }
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * The srsName of the coordinate reference system of the .prj file
+     *
+     * @return srsName or null if the coordinate reference system is unknown
+     */
+    String srsName() {
+        return srsName;
+    }
+
+    String name() {
+        return name;
+    }
+
+    int recordCount() {
+        return offsets.length;
+    }
+
+    /**
+     * Content length of a shape record in bytes
+     */
+    int contentLength(final int record) {
+        return lengths[record];
+    }
+
+    List<Field> fields() {
+        return fields;
+    }
+
+    int attributeRecordLength() {
+        return dbfRecordLength;
+    }
+
+    /**
+     * Returns a little endian view of the shape records, the view must not be shared between threads
+     */
+    ByteBuffer shapes() {
+        return shp.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Offset of the content of a shape record in {@link #shapes()}
+     */
+    int contentOffset(final int record) {
+        return offsets[record];
+    }
+
+    /**
+     * Returns a view of the attribute table, the view must not be shared between threads
+     */
+    ByteBuffer attributes() {
+        return dbf != null ? dbf.duplicate() : null;
+    }
+
+    /**
+     * Returns true if the attributes of a record exist
+     */
+    boolean hasAttributes(final ByteBuffer attributes, final int record) {
+        return attributes != null && record < dbfRecordCount;
+    }
+
+    /**
+     * Returns true if the record is marked as deleted in the attribute table
+     */
+    boolean isDeleted(final ByteBuffer attributes, final int record) {
+        return hasAttributes(attributes, record) && attributes.get(dbfHeaderLength + record * dbfRecordLength) == '*';
+    }
+
+    /**
+     * Reads the trimmed value of a field, or returns null if the value is empty
+     */
+    String attribute(final ByteBuffer attributes, final byte[] buffer, final int record, final Field field) {
+        final int offset = dbfHeaderLength + record * dbfRecordLength + field.offset;
+        int start = 0;
+        int end = field.length;
+        for (int i = 0; i < field.length; i++) {
+            buffer[i] = attributes.get(offset + i);
+        }
+        while (start < end && (buffer[start] == ' ' || buffer[start] == 0)) {
+            start++;
+        }
+        while (end > start && (buffer[end - 1] == ' ' || buffer[end - 1] == 0)) {
+            end--;
+        }
+        if (start == end) {
+            return null;
+        }
+        final String value = new String(buffer, start, end - start, charset);
+        switch (field.type) {
+        case 'D':
+            // YYYYMMDD
+            if (value.length() == 8) {
+                return value.substring(0, 4) + '-' + value.substring(4, 6) + '-' + value.substring(6);
+            }
+            return value;
+        case 'L':
+            switch (value.charAt(0)) {
+            case 'T':
+            case 't':
+            case 'Y':
+            case 'y':
+                return "true";
+            case 'F':
+            case 'f':
+            case 'N':
+            case 'n':
+                return "false";
+            default:
+                return null;
+            }
+        default:
+            return value;
+        }
+    }
+}
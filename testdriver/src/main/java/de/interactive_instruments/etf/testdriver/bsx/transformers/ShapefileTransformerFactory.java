@@ -0,0 +1,426 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.bsx.transformers;
+
+import static de.interactive_instruments.etf.testdriver.bsx.transformers.GmlFeatureCollectionStream.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+import org.basex.core.cmd.Set;
+
+import de.interactive_instruments.IFile;
+import de.interactive_instruments.etf.model.capabilities.TestObjectType;
+import de.interactive_instruments.etf.testdriver.bsx.BsxConstants;
+
+/**
+ * Transforms Shapefiles into GML 3.2 features.
+ *
+ * The records of a Shapefile are split into batches with an estimated size of
+ * {@link GmlFeatureCollectionStream#BATCH_SIZE}. Each batch is a feature collection that is streamed into the
+ * database, so a batch always fits into a database chunk and no transformed file is written. The feature type is
+ * named after the Shapefile, the attributes of the dBASE table become properties and the shape becomes the 'geometry'
+ * property. Polygon rings are written counterclockwise for exterior and clockwise for interior boundaries. M values
+ * are ignored. The srsName of the geometries is derived from the .prj file. If the .prj file is missing or unknown,
+ * the srsName of the test task argument {@link BsxConstants#TRANSFORMED_FILE_SRS_NAME} is used.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class ShapefileTransformerFactory implements TransformerFactory {
+
+    static final String NAMESPACE = "http://www.interactive-instruments.de/etf/shapefile";
+
+    // Estimated size of a feature without attributes and geometry
+    private static final int FEATURE_OVERHEAD = 300;
+
+    // Estimated number of characters per binary byte of a coordinate
+    private static final double COORDINATE_RATIO = 1.7;
+
+    private final Collection<Set> parameters = new ArrayList<Set>() {
+        {
+            add(new Set("PARSER", "xml"));
+        }
+    };
+
+    private static class ShapefileTransformer implements Transformer {
+
+        private final Collection<Set> parameters;
+        private final String defaultSrsName;
+
+        private ShapefileTransformer(final Collection<Set> parameters, final String defaultSrsName) {
+            this.parameters = parameters;
+            this.defaultSrsName = defaultSrsName;
+        }
+
+        @Override
+        public PreparedFileCollection transform(final IFile file) throws IOException {
+            final DefaultPreparedFileCollection collection = new DefaultPreparedFileCollection(parameters);
+            if (!isShp(file)) {
+                // The index, attribute table and other files are read together with the .shp file
+                return collection;
+            }
+            final Shapefile shapefile = Shapefile.open(file);
+            final String srsName = shapefile.srsName() != null ? shapefile.srsName() : defaultSrsName;
+            final String timeStamp = Instant.now().truncatedTo(ChronoUnit.SECONDS).toString();
+            final int fieldOverhead = fieldOverhead(shapefile);
+            int from = 0;
+            long batchSize = COLLECTION_OVERHEAD;
+            for (int i = 0; i < shapefile.recordCount(); i++) {
+                final long featureSize = FEATURE_OVERHEAD + fieldOverhead + shapefile.attributeRecordLength()
+                        + (long) (shapefile.contentLength(i) * COORDINATE_RATIO);
+                if (i > from && batchSize + featureSize > BATCH_SIZE) {
+                    collection.addStream(new Batch(shapefile, srsName, from, i, batchSize, timeStamp));
+                    from = i;
+                    batchSize = COLLECTION_OVERHEAD;
+                }
+                batchSize += featureSize;
+            }
+            if (shapefile.recordCount() > from || from == 0) {
+                collection.addStream(new Batch(shapefile, srsName, from, shapefile.recordCount(), batchSize,
+                        timeStamp));
+            }
+            return collection;
+        }
+
+        @Override
+        public long estimateSize(final IFile file) {
+            if (!isShp(file)) {
+                return 0;
+            }
+            final long records = Shapefile.estimateRecordCount(file);
+            return COLLECTION_OVERHEAD + records * FEATURE_OVERHEAD + Shapefile.attributeTableSize(file) * 2
+                    + (long) (file.length() * COORDINATE_RATIO);
+        }
+
+        private static boolean isShp(final IFile file) {
+            return file.getName().toLowerCase(Locale.ENGLISH).endsWith(".shp");
+        }
+
+        private static int fieldOverhead(final Shapefile shapefile) {
+            int overhead = 0;
+            for (final Shapefile.Field field : shapefile.fields()) {
+                // start and end tag with prefix
+                overhead += 2 * (field.name.length() + NS_PREFIX.length()) + 6;
+            }
+            return overhead;
+        }
+    }
+
+    /**
+     * A range of records that is transformed to one feature collection
+     */
+    private static class Batch implements Transformer.PreparedStream {
+        private final Shapefile shapefile;
+        private final String srsName;
+        private final int from;
+        private final int to;
+        private final long size;
+        private final String timeStamp;
+
+        private Batch(final Shapefile shapefile, final String srsName, final int from, final int to, final long size,
+                final String timeStamp) {
+            this.shapefile = shapefile;
+            this.srsName = srsName;
+            this.from = from;
+            this.to = to;
+            this.size = size;
+            this.timeStamp = timeStamp;
+        }
+
+        @Override
+        public InputStream open() {
+            return new ShapefileFeatureStream(shapefile, srsName, from, to, timeStamp);
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+    }
+
+    /**
+     * Writes the records of a batch as features
+     */
+    private static class ShapefileFeatureStream extends GmlFeatureCollectionStream {
+        private final Shapefile shapefile;
+        private final String srsName;
+        private final ByteBuffer shapes;
+        private final ByteBuffer attributes;
+        private final byte[] attributeBuffer = new byte[256];
+        private final String featureType;
+        private final String[] propertyNames;
+        private final int to;
+        private int record;
+
+        private ShapefileFeatureStream(final Shapefile shapefile, final String srsName, final int from, final int to,
+                final String timeStamp) {
+            super(NAMESPACE, timeStamp, featureCount(shapefile, from, to));
+            this.shapefile = shapefile;
+            this.srsName = srsName;
+            this.shapes = shapefile.shapes();
+            this.attributes = shapefile.attributes();
+            this.featureType = ncName(shapefile.name());
+            this.propertyNames = new String[shapefile.fields().size()];
+            for (int i = 0; i < propertyNames.length; i++) {
+                propertyNames[i] = ncName(shapefile.fields().get(i).name);
+            }
+            this.record = from;
+            this.to = to;
+        }
+
+        private static int featureCount(final Shapefile shapefile, final int from, final int to) {
+            final ByteBuffer attributes = shapefile.attributes();
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                if (!shapefile.isDeleted(attributes, i)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        protected boolean writeNextFeature(final StringBuilder out) {
+            if (record >= to) {
+                return false;
+            }
+            final int current = record++;
+            if (shapefile.isDeleted(attributes, current)) {
+                return true;
+            }
+            final String id = featureType + '.' + (current + 1);
+            startFeature(out, featureType, id);
+            if (shapefile.hasAttributes(attributes, current)) {
+                for (int i = 0; i < propertyNames.length; i++) {
+                    property(out, propertyNames[i],
+                            shapefile.attribute(attributes, attributeBuffer, current, shapefile.fields().get(i)));
+                }
+            }
+            final int length = out.length();
+            out.append('<').append(NS_PREFIX).append(":geometry>");
+            if (writeGeometry(out, shapefile.contentOffset(current), shapefile.contentLength(current), id + ".g")) {
+                out.append("</").append(NS_PREFIX).append(":geometry>");
+            } else {
+                out.setLength(length);
+            }
+            endFeature(out, featureType);
+            return true;
+        }
+
+        /**
+         * Writes the shape of a record, returns false for null shapes
+         */
+        private boolean writeGeometry(final StringBuilder out, final int offset, final int length, final String id) {
+            final int shapeType = shapes.getInt(offset);
+            // PointZ, PolylineZ... are 10 larger, PointM, PolylineM... are 20 larger. MultiPatch is not supported
+            final int baseType = shapeType < 30 ? shapeType % 10 : Shapefile.NULL_SHAPE;
+            final boolean hasZ = shapeType > 10 && shapeType < 20;
+            if (!isComplete(offset, length, baseType, hasZ)) {
+                return false;
+            }
+            switch (baseType) {
+            case Shapefile.POINT: {
+                final double z = hasZ ? shapes.getDouble(offset + 20) : 0;
+                out.append("<gml:Point gml:id=\"").append(id).append('"');
+                srsAttributes(out, srsName, hasZ);
+                out.append("><gml:pos>");
+                appendDouble(out, shapes.getDouble(offset + 4));
+                out.append(' ');
+                appendDouble(out, shapes.getDouble(offset + 12));
+                if (hasZ) {
+                    out.append(' ');
+                    appendDouble(out, z);
+                }
+                out.append("</gml:pos></gml:Point>");
+                return true;
+            }
+            case Shapefile.MULTIPOINT: {
+                final int numPoints = shapes.getInt(offset + 36);
+                final int points = offset + 40;
+                final int zValues = points + 16 * numPoints + 16;
+                out.append("<gml:MultiPoint gml:id=\"").append(id).append('"');
+                srsAttributes(out, srsName, hasZ);
+                out.append('>');
+                for (int i = 0; i < numPoints; i++) {
+                    out.append("<gml:pointMember><gml:Point gml:id=\"").append(id).append('.').append(i + 1)
+                            .append('"').append(hasZ ? " srsDimension=\"3\"" : "").append("><gml:pos>");
+                    appendPositions(out, points, hasZ ? zValues : -1, i, i + 1, false);
+                    out.append("</gml:pos></gml:Point></gml:pointMember>");
+                }
+                out.append("</gml:MultiPoint>");
+                return true;
+            }
+            case Shapefile.POLYLINE: {
+                final int numParts = shapes.getInt(offset + 36);
+                final int numPoints = shapes.getInt(offset + 40);
+                final int parts = offset + 44;
+                final int points = parts + 4 * numParts;
+                final int zValues = points + 16 * numPoints + 16;
+                out.append("<gml:MultiCurve gml:id=\"").append(id).append('"');
+                srsAttributes(out, srsName, hasZ);
+                out.append('>');
+                for (int p = 0; p < numParts; p++) {
+                    out.append("<gml:curveMember><gml:LineString gml:id=\"").append(id).append('.').append(p + 1)
+                            .append("\"><gml:posList").append(hasZ ? " srsDimension=\"3\"" : "").append('>');
+                    appendPositions(out, points, hasZ ? zValues : -1, partStart(parts, p),
+                            partEnd(parts, p, numParts, numPoints), false);
+                    out.append("</gml:posList></gml:LineString></gml:curveMember>");
+                }
+                out.append("</gml:MultiCurve>");
+                return true;
+            }
+            case Shapefile.POLYGON: {
+                final int numParts = shapes.getInt(offset + 36);
+                final int numPoints = shapes.getInt(offset + 40);
+                final int parts = offset + 44;
+                final int points = parts + 4 * numParts;
+                final int zValues = points + 16 * numPoints + 16;
+                out.append("<gml:MultiSurface gml:id=\"").append(id).append('"');
+                srsAttributes(out, srsName, hasZ);
+                out.append('>');
+                int polygon = 0;
+                for (int p = 0; p < numParts; p++) {
+                    final int start = partStart(parts, p);
+                    final int end = partEnd(parts, p, numParts, numPoints);
+                    // Exterior rings are clockwise, holes counterclockwise. A hole belongs to the preceding exterior
+                    final boolean exterior = polygon == 0 || signedArea(points, start, end) <= 0;
+                    if (exterior) {
+                        if (polygon > 0) {
+                            out.append("</gml:Polygon></gml:surfaceMember>");
+                        }
+                        out.append("<gml:surfaceMember><gml:Polygon gml:id=\"").append(id).append('.')
+                                .append(++polygon).append("\"><gml:exterior>");
+                    } else {
+                        out.append("<gml:interior>");
+                    }
+                    out.append("<gml:LinearRing><gml:posList").append(hasZ ? " srsDimension=\"3\"" : "").append('>');
+                    // Reverse the orientation
+                    appendPositions(out, points, hasZ ? zValues : -1, start, end, true);
+                    out.append("</gml:posList></gml:LinearRing>")
+                            .append(exterior ? "</gml:exterior>" : "</gml:interior>");
+                }
+                if (polygon > 0) {
+                    out.append("</gml:Polygon></gml:surfaceMember>");
+                }
+                out.append("</gml:MultiSurface>");
+                return polygon > 0;
+            }
+            default:
+                return false;
+            }
+        }
+
+        /**
+         * Checks that the coordinates of a shape are within its record
+         */
+        private boolean isComplete(final int offset, final int length, final int baseType, final boolean hasZ) {
+            switch (baseType) {
+            case Shapefile.POINT:
+                return length >= (hasZ ? 28 : 20);
+            case Shapefile.MULTIPOINT: {
+                if (length < 40) {
+                    return false;
+                }
+                final long numPoints = shapes.getInt(offset + 36);
+                return numPoints >= 0 && 40 + 16 * numPoints + (hasZ ? 16 + 8 * numPoints : 0) <= length;
+            }
+            case Shapefile.POLYLINE:
+            case Shapefile.POLYGON: {
+                if (length < 44) {
+                    return false;
+                }
+                final long numParts = shapes.getInt(offset + 36);
+                final long numPoints = shapes.getInt(offset + 40);
+                if (numParts < 0 || numPoints < 0
+                        || 44 + 4 * numParts + 16 * numPoints + (hasZ ? 16 + 8 * numPoints : 0) > length) {
+                    return false;
+                }
+                for (int p = 0; p < numParts; p++) {
+                    final int start = shapes.getInt(offset + 44 + 4 * p);
+                    final int end = p + 1 < numParts ? shapes.getInt(offset + 48 + 4 * p) : (int) numPoints;
+                    if (start < 0 || start > end || end > numPoints) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            default:
+                return false;
+            }
+        }
+
+        private int partStart(final int parts, final int part) {
+            return shapes.getInt(parts + 4 * part);
+        }
+
+        private int partEnd(final int parts, final int part, final int numParts, final int numPoints) {
+            return part + 1 < numParts ? shapes.getInt(parts + 4 * (part + 1)) : numPoints;
+        }
+
+        private void appendPositions(final StringBuilder out, final int points, final int zValues, final int start,
+                final int end, final boolean reverse) {
+            for (int i = start; i < end; i++) {
+                final int point = reverse ? end - 1 - (i - start) : i;
+                if (i > start) {
+                    out.append(' ');
+                }
+                appendDouble(out, shapes.getDouble(points + 16 * point));
+                out.append(' ');
+                appendDouble(out, shapes.getDouble(points + 16 * point + 8));
+                if (zValues != -1) {
+                    out.append(' ');
+                    appendDouble(out, shapes.getDouble(zValues + 8 * point));
+                }
+            }
+        }
+
+        /**
+         * Shoelace formula, negative for clockwise rings
+         */
+        private double signedArea(final int points, final int start, final int end) {
+            double area = 0;
+            for (int i = start, j = end - 1; i < end; j = i++) {
+                area += (shapes.getDouble(points + 16 * j) - shapes.getDouble(points + 16 * i))
+                        * (shapes.getDouble(points + 16 * j + 8) + shapes.getDouble(points + 16 * i + 8));
+            }
+            return area / 2;
+        }
+    }
+
+    @Override
+    public Transformer create(final TestObjectType testObjectType, final IFile attachmentDir) {
+        return create(testObjectType, attachmentDir, Collections.emptyMap());
+    }
+
+    @Override
+    public Transformer create(final TestObjectType testObjectType, final IFile attachmentDir,
+            final Map<String, String> arguments) {
+        return new ShapefileTransformer(parameters, TransformerFactory.srsName(arguments));
+    }
+}
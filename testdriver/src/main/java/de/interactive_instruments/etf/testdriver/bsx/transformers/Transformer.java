@@ -22,7 +22,9 @@ package de.interactive_instruments.etf.testdriver.bsx.transformers;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
+import java.util.Collections;
 
 import org.basex.core.cmd.Set;
 
@@ -33,6 +35,28 @@ import de.interactive_instruments.IFile;
  */
 public interface Transformer {
 
+    /**
+     * Transformed content that is streamed into the database without writing it to a file first
+     */
+    interface PreparedStream {
+        /**
+         * Opens the transformed content. The method is invoked by the thread that adds the content to the database,
+         * so the transformation can be done while the content is read. The stream is closed by the caller.
+         *
+         * @return transformed content
+         * @throws IOException
+         *             if the content can not be opened or transformed
+         */
+        InputStream open() throws IOException;
+
+        /**
+         * The estimated size of the transformed content
+         *
+         * @return size in bytes
+         */
+        long size();
+    }
+
     interface PreparedFileCollection {
         /**
          * BaseX parameters to use for adding this file
@@ -49,7 +73,16 @@ public interface Transformer {
         Collection<File> files();
 
         /**
-         * The overall size of all transformed files
+         * Returns the transformed content that is streamed into the database
+         *
+         * @return transformed streams
+         */
+        default Collection<PreparedStream> streams() {
+            return Collections.emptyList();
+        }
+
+        /**
+         * The overall size of all transformed files and streams
          *
          * @return
          */
@@ -58,6 +91,9 @@ public interface Transformer {
             for (final File file : files()) {
                 size += file.length();
             }
+            for (final PreparedStream stream : streams()) {
+                size += stream.size();
+            }
             return size;
         }
 
@@ -66,7 +102,16 @@ public interface Transformer {
          * @return
          */
         default long fileCount() {
-            return files().size();
+            return files().size() + streams().size();
+        }
+
+        /**
+         * Returns true if there are neither transformed files nor streams
+         *
+         * @return true if nothing will be added to the database
+         */
+        default boolean isEmpty() {
+            return files().isEmpty() && streams().isEmpty();
         }
 
         IOException getException();
@@ -77,4 +122,16 @@ public interface Transformer {
     }
 
     PreparedFileCollection transform(final IFile file) throws IOException;
+
+    /**
+     * Estimates the size of the data that will be added to the database after transforming the file. The estimation
+     * is used to plan the database chunks before the files are transformed and should therefore be cheap.
+     *
+     * @param file
+     *            file to transform
+     * @return estimated size in bytes
+     */
+    default long estimateSize(final IFile file) {
+        return file.length();
+    }
 }
@@ -20,8 +20,11 @@
  */
 package de.interactive_instruments.etf.testdriver.bsx.transformers;
 
+import java.util.Map;
+
 import de.interactive_instruments.IFile;
 import de.interactive_instruments.etf.model.capabilities.TestObjectType;
+import de.interactive_instruments.etf.testdriver.bsx.BsxConstants;
 
 /**
  * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
@@ -29,4 +32,32 @@ import de.interactive_instruments.etf.model.capabilities.TestObjectType;
 interface TransformerFactory {
 
     Transformer create(final TestObjectType testObjectType, final IFile attachmentDir);
+
+    /**
+     * Creates a Transformer that is configured with test task arguments
+     *
+     * @param testObjectType
+     *            Test Object Type of the test data
+     * @param attachmentDir
+     *            directory for transformed files
+     * @param arguments
+     *            test task arguments
+     * @return Transformer
+     */
+    default Transformer create(final TestObjectType testObjectType, final IFile attachmentDir,
+            final Map<String, String> arguments) {
+        return create(testObjectType, attachmentDir);
+    }
+
+    /**
+     * The srsName for geometries of transformed files that do not declare a coordinate reference system
+     *
+     * @param arguments
+     *            test task arguments
+     * @return srsName of the argument {@link BsxConstants#TRANSFORMED_FILE_SRS_NAME} or null if it is not set
+     */
+    static String srsName(final Map<String, String> arguments) {
+        final String srsName = arguments.get(BsxConstants.TRANSFORMED_FILE_SRS_NAME);
+        return srsName != null && !srsName.trim().isEmpty() ? srsName.trim() : null;
+    }
 }
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.bsx.transformers;
+
+import static de.interactive_instruments.etf.testdriver.bsx.transformers.GmlFeatureCollectionStream.GML_NS;
+import static de.interactive_instruments.etf.testdriver.bsx.transformers.GmlFeatureCollectionStream.WFS_NS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import de.interactive_instruments.IFile;
+import de.interactive_instruments.etf.testdriver.bsx.BsxConstants;
+
+/**
+ * Transforms the CSV file of the test data and checks the resulting feature collections
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+class CsvTransformerFactoryTest {
+
+    private static final String FILE_NAME = "HK_32647_5649_adressen.csv";
+    private static final String SRS_NAME = "EPSG:25832";
+
+    // The file has no header, the coordinates with decimal commas are in the 12th and 13th column
+    private static final String X_COLUMN = "column_12";
+    private static final String Y_COLUMN = "column_13";
+
+    private static Path testData() throws Exception {
+        return Paths.get(CsvTransformerFactoryTest.class.getResource("/testdata/csv/" + FILE_NAME).toURI());
+    }
+
+    private static List<Transformer.PreparedStream> transform(final File file) throws IOException {
+        final Transformer transformer = new CsvTransformerFactory().create(null, null,
+                Collections.singletonMap(BsxConstants.TRANSFORMED_FILE_SRS_NAME, SRS_NAME));
+        final Transformer.PreparedFileCollection collection = transformer.transform(new IFile(file));
+        assertTrue(collection.files().isEmpty());
+        return new ArrayList<>(collection.streams());
+    }
+
+    private static Document parse(final Transformer.PreparedStream stream) throws Exception {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        try (final InputStream in = stream.open()) {
+            return factory.newDocumentBuilder().parse(in);
+        }
+    }
+
+    /**
+     * Counts the non-empty rows of a file
+     */
+    private static int rows(final Path file) throws IOException {
+        int rows = 0;
+        boolean empty = true;
+        for (final byte b : Files.readAllBytes(file)) {
+            if (b == '\n') {
+                rows += empty ? 0 : 1;
+                empty = true;
+            } else if (b != '\r') {
+                empty = false;
+            }
+        }
+        return empty ? rows : rows + 1;
+    }
+
+    /**
+     * Returns the features of a collection and checks that their number matches the numberReturned attribute
+     */
+    private static List<Element> features(final Document collection) {
+        final NodeList members = collection.getElementsByTagNameNS(WFS_NS, "member");
+        assertEquals(Integer.parseInt(collection.getDocumentElement().getAttribute("numberReturned")),
+                members.getLength());
+        final List<Element> features = new ArrayList<>();
+        for (int i = 0; i < members.getLength(); i++) {
+            final NodeList children = members.item(i).getChildNodes();
+            for (int c = 0; c < children.getLength(); c++) {
+                if (children.item(c) instanceof Element) {
+                    features.add((Element) children.item(c));
+                }
+            }
+        }
+        return features;
+    }
+
+    private static String property(final Element feature, final String name) {
+        final NodeList properties = feature.getElementsByTagNameNS(CsvTransformerFactory.NAMESPACE, name);
+        assertEquals(1, properties.getLength(), name);
+        return properties.item(0).getTextContent();
+    }
+
+    @Test
+    void featuresAndCoordinateColumns() throws Exception {
+        final List<Transformer.PreparedStream> streams = transform(testData().toFile());
+        int features = 0;
+        for (final Transformer.PreparedStream stream : streams) {
+            for (final Element feature : features(parse(stream))) {
+                features++;
+                final NodeList points = feature.getElementsByTagNameNS(GML_NS, "Point");
+                assertEquals(1, points.getLength());
+                assertEquals(SRS_NAME, ((Element) points.item(0)).getAttribute("srsName"));
+                final String[] pos = ((Element) points.item(0)).getElementsByTagNameNS(GML_NS, "pos").item(0)
+                        .getTextContent().split(" ");
+                assertEquals(2, pos.length);
+                assertEquals(Double.parseDouble(property(feature, X_COLUMN).replace(',', '.')),
+                        Double.parseDouble(pos[0]));
+                assertEquals(Double.parseDouble(property(feature, Y_COLUMN).replace(',', '.')),
+                        Double.parseDouble(pos[1]));
+            }
+        }
+        assertEquals(rows(testData()), features);
+        assertEquals(312, features);
+    }
+
+    @Test
+    void rangesOpenedOutOfOrder() throws Exception {
+        final Path dir = Files.createTempDirectory("csv");
+        final Path file = dir.resolve(FILE_NAME);
+        try {
+            // Enlarge the file, so that it is split into several ranges
+            final byte[] rows = Files.readAllBytes(testData());
+            try (final OutputStream out = Files.newOutputStream(file)) {
+                for (int i = 0; i < 100; i++) {
+                    out.write(rows);
+                }
+            }
+            final List<Transformer.PreparedStream> streams = transform(file.toFile());
+            assertTrue(streams.size() >= 3, "ranges " + streams.size());
+
+            // The last range is converted first, then the remaining ranges in reverse order
+            final Set<String> ids = new HashSet<>();
+            for (int i = streams.size() - 1; i >= 0; i--) {
+                for (final Element feature : features(parse(streams.get(i)))) {
+                    ids.add(feature.getAttributeNS(GML_NS, "id"));
+                }
+            }
+            assertEquals(rows(file), ids.size());
+            assertEquals(100 * 312, ids.size());
+
+            // A converted range is released after it has been read
+            assertThrows(IOException.class, () -> streams.get(0).open());
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+}
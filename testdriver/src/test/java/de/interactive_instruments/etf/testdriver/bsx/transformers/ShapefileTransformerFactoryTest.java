@@ -0,0 +1,257 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.testdriver.bsx.transformers;
+
+import static de.interactive_instruments.etf.testdriver.bsx.transformers.GmlFeatureCollectionStream.GML_NS;
+import static de.interactive_instruments.etf.testdriver.bsx.transformers.GmlFeatureCollectionStream.WFS_NS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import de.interactive_instruments.IFile;
+import de.interactive_instruments.etf.testdriver.bsx.BsxConstants;
+
+/**
+ * Transforms the Shapefile of the test data and checks the resulting feature collections
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+class ShapefileTransformerFactoryTest {
+
+    private static final String BASE_NAME = "HU_32647_5649";
+    private static final int FEATURES = 1018;
+
+    private static final String ESRI_UTM_32N = "PROJCS[\"ETRS_1989_UTM_Zone_32N\",GEOGCS[\"GCS_ETRS_1989\","
+            + "DATUM[\"D_ETRS_1989\",SPHEROID[\"GRS_1980\",6378137.0,298.257222101]],PRIMEM[\"Greenwich\",0.0],"
+            + "UNIT[\"Degree\",0.0174532925199433]],PROJECTION[\"Transverse_Mercator\"],"
+            + "PARAMETER[\"False_Easting\",500000.0],PARAMETER[\"False_Northing\",0.0],"
+            + "PARAMETER[\"Central_Meridian\",9.0],PARAMETER[\"Scale_Factor\",0.9996],"
+            + "PARAMETER[\"Latitude_Of_Origin\",0.0],UNIT[\"Meter\",1.0]]";
+
+    private static File testData(final String extension) throws URISyntaxException {
+        return Paths.get(ShapefileTransformerFactoryTest.class
+                .getResource("/testdata/shapefile/" + BASE_NAME + extension).toURI()).toFile();
+    }
+
+    private static Transformer transformer(final String srsName) {
+        return new ShapefileTransformerFactory().create(null, null,
+                srsName != null ? Collections.singletonMap(BsxConstants.TRANSFORMED_FILE_SRS_NAME, srsName)
+                        : Collections.emptyMap());
+    }
+
+    private static List<Document> transform(final Transformer transformer, final File shpFile) throws Exception {
+        final Transformer.PreparedFileCollection collection = transformer.transform(new IFile(shpFile));
+        assertTrue(collection.files().isEmpty());
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        final List<Document> documents = new ArrayList<>();
+        for (final Transformer.PreparedStream stream : collection.streams()) {
+            try (final InputStream in = stream.open()) {
+                documents.add(factory.newDocumentBuilder().parse(in));
+            }
+        }
+        return documents;
+    }
+
+    private static List<Element> elements(final List<Document> documents, final String namespace,
+            final String localName) {
+        final List<Element> elements = new ArrayList<>();
+        for (final Document document : documents) {
+            final NodeList nodes = document.getElementsByTagNameNS(namespace, localName);
+            for (int i = 0; i < nodes.getLength(); i++) {
+                elements.add((Element) nodes.item(i));
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * Shoelace formula over the posList of a ring, positive for counterclockwise rings
+     */
+    private static double signedArea(final Element ring) {
+        final NodeList posLists = ring.getElementsByTagNameNS(GML_NS, "posList");
+        assertEquals(1, posLists.getLength());
+        final Element posList = (Element) posLists.item(0);
+        final String[] ordinates = posList.getTextContent().trim().split("\\s+");
+        final String srsDimension = posList.getAttribute("srsDimension");
+        final int dimension = srsDimension.isEmpty() ? 2 : Integer.parseInt(srsDimension);
+        final int points = ordinates.length / dimension;
+        double area = 0;
+        for (int i = 0, j = points - 1; i < points; j = i++) {
+            area += Double.parseDouble(ordinates[dimension * j]) * Double.parseDouble(ordinates[dimension * i + 1])
+                    - Double.parseDouble(ordinates[dimension * i]) * Double.parseDouble(ordinates[dimension * j + 1]);
+        }
+        return area / 2;
+    }
+
+    private static Set<String> srsNames(final List<Document> documents) {
+        final Set<String> srsNames = new HashSet<>();
+        for (final Element element : elements(documents, GML_NS, "*")) {
+            if (element.hasAttribute("srsName")) {
+                srsNames.add(element.getAttribute("srsName"));
+            }
+        }
+        return srsNames;
+    }
+
+    private static void deleteDirectory(final Path dir) throws IOException {
+        try (final Stream<Path> files = Files.list(dir)) {
+            for (final Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    /**
+     * Writes a .shp file without index and attribute table, that contains one polygon
+     */
+    private static void writePolygon(final Path shpFile, final double[]... rings) throws IOException {
+        int numPoints = 0;
+        for (final double[] ring : rings) {
+            numPoints += ring.length / 2;
+        }
+        final int contentLength = 44 + 4 * rings.length + 16 * numPoints;
+        final ByteBuffer buffer = ByteBuffer.allocate(100 + 8 + contentLength);
+        buffer.order(ByteOrder.BIG_ENDIAN).putInt(0, 9994).putInt(24, buffer.capacity() / 2);
+        buffer.putInt(100, 1).putInt(104, contentLength / 2);
+        buffer.order(ByteOrder.LITTLE_ENDIAN).putInt(28, 1000).putInt(32, Shapefile.POLYGON);
+        buffer.position(108);
+        buffer.putInt(Shapefile.POLYGON);
+        // the bounding box is not evaluated
+        buffer.putDouble(0).putDouble(0).putDouble(0).putDouble(0);
+        buffer.putInt(rings.length).putInt(numPoints);
+        int start = 0;
+        for (final double[] ring : rings) {
+            buffer.putInt(start);
+            start += ring.length / 2;
+        }
+        for (final double[] ring : rings) {
+            for (final double ordinate : ring) {
+                buffer.putDouble(ordinate);
+            }
+        }
+        Files.write(shpFile, buffer.array());
+    }
+
+    @Test
+    void featureCountAndExteriorOrientation() throws Exception {
+        final Transformer transformer = transformer(null);
+        assertTrue(transformer.transform(new IFile(testData(".dbf"))).streams().isEmpty());
+
+        final List<Document> documents = transform(transformer, testData(".shp"));
+        assertEquals(FEATURES, elements(documents, WFS_NS, "member").size());
+        final List<Element> exteriors = elements(documents, GML_NS, "exterior");
+        assertEquals(FEATURES, exteriors.size());
+        // the clockwise Shapefile exteriors are reversed
+        for (final Element exterior : exteriors) {
+            assertTrue(signedArea(exterior) > 0, "exterior boundary is not counterclockwise");
+        }
+
+        // without .prj file and srsName argument the srsName is omitted
+        assertTrue(srsNames(documents).isEmpty());
+    }
+
+    @Test
+    void interiorOrientation() throws Exception {
+        final Path dir = Files.createTempDirectory("shapefile");
+        try {
+            final Path shpFile = dir.resolve("hole.shp");
+            // clockwise exterior and counterclockwise interior, as stored in Shapefiles
+            writePolygon(shpFile,
+                    new double[]{0, 0, 0, 10, 10, 10, 10, 0, 0, 0},
+                    new double[]{2, 2, 4, 2, 4, 4, 2, 4, 2, 2});
+            final List<Document> documents = transform(transformer(null), shpFile.toFile());
+            assertEquals(1, elements(documents, WFS_NS, "member").size());
+            final List<Element> polygons = elements(documents, GML_NS, "Polygon");
+            assertEquals(1, polygons.size());
+            final NodeList exteriors = polygons.get(0).getElementsByTagNameNS(GML_NS, "exterior");
+            final NodeList interiors = polygons.get(0).getElementsByTagNameNS(GML_NS, "interior");
+            assertEquals(1, exteriors.getLength());
+            assertEquals(1, interiors.getLength());
+            assertEquals(100.0, signedArea((Element) exteriors.item(0)));
+            assertEquals(-4.0, signedArea((Element) interiors.item(0)));
+        } finally {
+            deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    void srsNameFromPrjFile() throws Exception {
+        final Path dir = Files.createTempDirectory("shapefile");
+        try {
+            for (final String extension : new String[]{".shp", ".shx", ".dbf"}) {
+                Files.copy(testData(extension).toPath(), dir.resolve(BASE_NAME + extension));
+            }
+            final File shpFile = dir.resolve(BASE_NAME + ".shp").toFile();
+            final Transformer transformer = transformer("EPSG:4647");
+
+            // the srsName argument is used without .prj file
+            List<Document> documents = transform(transformer, shpFile);
+            assertEquals(Collections.singleton("EPSG:4647"), srsNames(documents));
+
+            // the .prj file overrides the srsName argument
+            Files.write(dir.resolve(BASE_NAME + ".PRJ"), ESRI_UTM_32N.getBytes(StandardCharsets.ISO_8859_1));
+            documents = transform(transformer, shpFile);
+            assertEquals(FEATURES, elements(documents, WFS_NS, "member").size());
+            assertEquals(Collections.singleton("EPSG:25832"), srsNames(documents));
+            assertTrue(transformer.transform(new IFile(dir.resolve(BASE_NAME + ".PRJ").toFile())).streams().isEmpty());
+        } finally {
+            deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    void srsNameFromWkt() {
+        assertEquals("EPSG:25832", Shapefile.srsNameFromWkt(ESRI_UTM_32N));
+        assertEquals("EPSG:25832", Shapefile.srsNameFromWkt("PROJCS[\"ETRS89 / UTM zone 32N\",GEOGCS[\"ETRS89\","
+                + "AUTHORITY[\"EPSG\",\"4258\"]],UNIT[\"metre\",1],AUTHORITY[\"EPSG\",\"25832\"]]"));
+        assertEquals("EPSG:4326", Shapefile.srsNameFromWkt("GEOGCS[\"GCS_WGS_1984\",DATUM[\"D_WGS_1984\"]]"));
+        assertEquals("EPSG:32733",
+                Shapefile.srsNameFromWkt("PROJCS[\"WGS_1984_UTM_Zone_33S\",GEOGCS[\"GCS_WGS_1984\"]]"));
+        assertNull(Shapefile.srsNameFromWkt("PROJCS[\"DHDN_3_Degree_Gauss_Zone_3\",GEOGCS[\"GCS_DHDN\"]]"));
+        assertNull(Shapefile.srsNameFromWkt("garbage"));
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.bsxm.topox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the {@link HashingPosListParser} with the {@link BaselineHashingPosListParser} on the posLists of the GML
+ * test data.
+ *
+ * All gml:posList and gml:pos elements of the XML files in the testData directory are parsed per invocation, once from
+ * byte arrays, as the posLists are read from the database, and once from Strings. The directory is resolved against
+ * the working directory of the jmh task, the project directory.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HashingPosListParserBenchmark {
+
+    private static final Pattern POS_LIST = Pattern.compile("<gml:pos(?:List)?(?:\\s[^>]*)?>([^<]*)</gml:pos");
+
+    @Param({"../testdriver/src/test/resources/testdata/gml"})
+    public String testData;
+
+    private String[] posLists;
+    private byte[][] posListBytes;
+
+    /**
+     * Sums up the output of a parser, so that the parsing can not be eliminated.
+     */
+    private static final class ConsumingSegmentHandler implements HashingSegmentHandler {
+
+        private long sum;
+
+        @Override
+        public void coordinate2d(final double x, final double y, final long hash, final long location,
+                final int type) {
+            sum += Double.doubleToRawLongBits(x) ^ Double.doubleToRawLongBits(y) ^ hash ^ location;
+        }
+
+        @Override
+        public void nextGeometricObject() {
+            sum++;
+        }
+
+        @Override
+        public void nextInterior() {
+            sum++;
+        }
+    }
+
+    private final ConsumingSegmentHandler baselineHandler = new ConsumingSegmentHandler();
+    private final ConsumingSegmentHandler handler = new ConsumingSegmentHandler();
+    private final PosListParser baseline = new BaselineHashingPosListParser(baselineHandler);
+    private final PosListParser parser = new HashingPosListParser(handler);
+
+    @Setup
+    public void readPosLists() throws IOException {
+        final List<Path> files;
+        try (final Stream<Path> paths = Files.walk(Paths.get(testData))) {
+            files = paths.filter(p -> p.toString().endsWith(".xml")).sorted().collect(Collectors.toList());
+        }
+        final List<String> texts = new ArrayList<>();
+        for (final Path file : files) {
+            final Matcher matcher = POS_LIST.matcher(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            while (matcher.find()) {
+                texts.add(matcher.group(1));
+            }
+        }
+        if (texts.isEmpty()) {
+            throw new IllegalStateException("No posLists found in " + Paths.get(testData).toAbsolutePath());
+        }
+        posLists = texts.toArray(new String[0]);
+        posListBytes = new byte[posLists.length][];
+        for (int i = 0; i < posLists.length; i++) {
+            posListBytes[i] = posLists[i].getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static long parse(final PosListParser parser, final ConsumingSegmentHandler handler,
+            final byte[][] posLists) {
+        for (int i = 0; i < posLists.length; i++) {
+            parser.nextGeometricObject();
+            parser.parseDirectPositions(posLists[i], i, 0);
+        }
+        return handler.sum;
+    }
+
+    private static long parse(final PosListParser parser, final ConsumingSegmentHandler handler,
+            final String[] posLists) {
+        for (int i = 0; i < posLists.length; i++) {
+            parser.nextGeometricObject();
+            parser.parseDirectPositions(posLists[i], i, 0);
+        }
+        return handler.sum;
+    }
+
+    @Benchmark
+    public long baselineBytes() {
+        return parse(baseline, baselineHandler, posListBytes);
+    }
+
+    @Benchmark
+    public long reworkedBytes() {
+        return parse(parser, handler, posListBytes);
+    }
+
+    @Benchmark
+    public long baselineStrings() {
+        return parse(baseline, baselineHandler, posLists);
+    }
+
+    @Benchmark
+    public long reworkedStrings() {
+        return parse(parser, handler, posLists);
+    }
+}
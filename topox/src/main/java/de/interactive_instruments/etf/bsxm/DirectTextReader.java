@@ -0,0 +1,196 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.bsxm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.basex.data.Data;
+import org.basex.data.DataText;
+import org.basex.data.DiskData;
+import org.basex.io.IO;
+
+import de.interactive_instruments.etf.bsxm.topox.PosListParser;
+import de.interactive_instruments.exceptions.ExcUtils;
+
+/**
+ * Reads the texts of database nodes into the buffer of a {@link PosListParser}.
+ *
+ * The texts of disk databases are read from a read-only memory mapping of the text storage file, so that no array is
+ * allocated per text. Inlined numbers, compressed texts, main memory databases and texts that cannot be read from the
+ * mapping are requested from BaseX, which returns a new array, and copied into the buffer.
+ *
+ * Not thread safe.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class DirectTextReader implements Closeable {
+
+    // A text must be completely within a mapped window
+    private static final long WINDOW_SIZE = 1L << 30;
+    private static final long WINDOW_STEP = WINDOW_SIZE >> 1;
+
+    // Field of the text reference in the table
+    private static final int TEXT_REF_OFFSET = 3;
+
+    private final Map<Data, TextFile> textFiles = new IdentityHashMap<>();
+
+    private static final class TextFile {
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer window;
+        private long windowStart;
+
+        private TextFile(final FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        private MappedByteBuffer window(final long offset, final long end) throws IOException {
+            if (window == null || offset < windowStart || end > windowStart + window.capacity()) {
+                final long start = (offset / WINDOW_STEP) * WINDOW_STEP;
+                final long windowSize = Math.min(WINDOW_SIZE, size - start);
+                if (end > start + windowSize) {
+                    return null;
+                }
+                window = channel.map(FileChannel.MapMode.READ_ONLY, start, windowSize);
+                windowStart = start;
+            }
+            return window;
+        }
+    }
+
+    /**
+     * Reads the text of a text node into the buffer of a parser, which can then be parsed with
+     * {@link PosListParser#parseBuffer(int, long, int)}
+     *
+     * @param data
+     *            database of the node
+     * @param pre
+     *            pre value of the text node
+     * @param parser
+     *            parser that provides the buffer
+     * @return the length of the text, which starts at {@link PosListParser#bufferOffset()}
+     */
+    int text(final Data data, final int pre, final PosListParser parser) {
+        if (data instanceof DiskData && data.kind(pre) == Data.TEXT) {
+            final int length = readDirect(data, pre, parser);
+            if (length != -1) {
+                return length;
+            }
+        }
+        final byte[] text = data.text(pre, true);
+        System.arraycopy(text, 0, parser.buffer(text.length), parser.bufferOffset(), text.length);
+        return text.length;
+    }
+
+    /**
+     * Returns the length of the text or -1 if the text can not be read from the mapping
+     */
+    private int readDirect(final Data data, final int pre, final PosListParser parser) {
+        final long ref = data.table.read5(pre, TEXT_REF_OFFSET);
+        if ((ref & (IO.OFFNUM | IO.OFFCOMP)) != 0) {
+            // inlined number or compressed text
+            return -1;
+        }
+        try {
+            final TextFile textFile = textFile(data);
+            if (textFile == null) {
+                return -1;
+            }
+            // the text is stored as compressed length followed by the bytes
+            final long offset = ref & IO.OFFCOMP - 1;
+            MappedByteBuffer window = textFile.window(offset, Math.min(offset + 5, textFile.size));
+            if (window == null) {
+                return -1;
+            }
+            int pos = (int) (offset - textFile.windowStart);
+            final int v = window.get(pos++) & 0xFF;
+            final int len;
+            switch (v >>> 6) {
+            case 0:
+                len = v;
+                break;
+            case 1:
+                len = (v & 0x3F) << 8 | window.get(pos++) & 0xFF;
+                break;
+            case 2:
+                len = (v & 0x3F) << 24 | (window.get(pos++) & 0xFF) << 16 | (window.get(pos++) & 0xFF) << 8
+                        | window.get(pos++) & 0xFF;
+                break;
+            default:
+                len = (window.get(pos++) & 0xFF) << 24 | (window.get(pos++) & 0xFF) << 16
+                        | (window.get(pos++) & 0xFF) << 8 | window.get(pos++) & 0xFF;
+                break;
+            }
+            if (len < 0 || len != data.textLen(pre, true)) {
+                // unexpected storage layout
+                return -1;
+            }
+            final long start = textFile.windowStart + pos;
+            window = textFile.window(start, start + len);
+            if (window == null) {
+                return -1;
+            }
+            final ByteBuffer bytes = window.duplicate();
+            bytes.position((int) (start - textFile.windowStart));
+            bytes.get(parser.buffer(len), parser.bufferOffset(), len);
+            return len;
+        } catch (final IOException | RuntimeException e) {
+            ExcUtils.suppress(e);
+            return -1;
+        }
+    }
+
+    private TextFile textFile(final Data data) throws IOException {
+        TextFile textFile = textFiles.get(data);
+        if (textFile == null && !textFiles.containsKey(data)) {
+            try {
+                textFile = new TextFile(FileChannel.open(data.meta.dbFile(DataText.DATATXT).file().toPath(),
+                        StandardOpenOption.READ));
+            } finally {
+                // a failed attempt is not repeated
+                textFiles.put(data, textFile);
+            }
+        }
+        return textFile;
+    }
+
+    @Override
+    public void close() {
+        for (final TextFile textFile : textFiles.values()) {
+            if (textFile != null) {
+                try {
+                    textFile.channel.close();
+                } catch (final IOException e) {
+                    ExcUtils.suppress(e);
+                }
+            }
+        }
+        textFiles.clear();
+    }
+}
@@ -27,6 +27,10 @@ import java.io.*;
 import java.lang.management.ManagementFactory;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.jar.Manifest;
 
@@ -36,11 +40,15 @@ import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
 import org.basex.core.BaseXException;
+import org.basex.data.Data;
 import org.basex.query.QueryModule.Deterministic;
 import org.basex.query.QueryModule.Permission;
 import org.basex.query.QueryModule.Requires;
 import org.basex.query.QueryResource;
+import org.basex.query.value.Value;
+import org.basex.query.value.item.Item;
 import org.basex.query.value.node.DBNode;
+import org.basex.util.Token;
 
 import de.interactive_instruments.IFile;
 import de.interactive_instruments.etf.bsxm.topox.*;
@@ -74,14 +82,41 @@ public class TopoX implements Serializable, QueryResource {
     // Current BaseX pre value in a context
     private int currentObjectPre;
 
+    // Reads the posList texts without allocating an array per text
+    private final DirectTextReader textReader = new DirectTextReader();
+
     private final MBeanServer mBeanServer;
 
+    // Parse the direct positions concurrently and build the topologies in batches
+    private final boolean parallelParsing;
+
+    // Storage of the edge and coordinate pages: heap, direct or mapped
+    private final String pageStorage;
+
+    // Write the errors in a background thread
+    private final boolean asyncErrors;
+
+    // Maximum number of errors that are written per topology if the errors are written in a background thread,
+    // 0 for no limit
+    private final long maxErrors;
+
     public TopoX() {
         if (PropertyUtils.getenvOrProperty("ETF_AM_TOPOX_MB", "false").equals("true")) {
             mBeanServer = ManagementFactory.getPlatformMBeanServer();
         } else {
             mBeanServer = null;
         }
+        parallelParsing = PropertyUtils.getenvOrProperty("ETF_TOPOX_PARALLEL_PARSING", "false").equals("true");
+        pageStorage = PropertyUtils.getenvOrProperty("ETF_TOPOX_STORAGE", "heap");
+        asyncErrors = PropertyUtils.getenvOrProperty("ETF_TOPOX_ASYNC_ERRORS", "false").equals("true");
+        long max;
+        try {
+            max = Long.parseLong(PropertyUtils.getenvOrProperty("ETF_TOPOX_MAX_ERRORS", "0"));
+        } catch (final NumberFormatException e) {
+            ExcUtils.suppress(e);
+            max = 0;
+        }
+        maxErrors = max;
     }
 
     /**
@@ -135,6 +170,54 @@ public class TopoX implements Serializable, QueryResource {
     @Requires(Permission.CREATE)
     public int newTopologyBuilder(final String themeName, final int initialEdgeCapacity, final String outputDir)
             throws BaseXException {
+        return newTopologyBuilder(themeName, initialEdgeCapacity, outputDir, null, null);
+    }
+
+    /**
+     * Creates a new topology builder or restores the topology from a snapshot
+     *
+     * If a snapshot exists for the theme name and the key, the topological data structure and the errors that were
+     * reported while it was built are restored. All parsing calls for a restored topology are ignored, see
+     * {@link #restored(int)}. Otherwise a new topology builder is created and a snapshot is written as soon as the
+     * topology is accessed for the first time, e.g. by detecting holes or by creating an Edge Validator.
+     *
+     * The key must change whenever the parsed data or the way they are parsed change. It should therefore combine the
+     * hash of the test object, the identifier and version of the Executable Test Suite and all parameters that
+     * influence the parsing, such as tolerances or the paths of the parsed properties. The ETF test driver binds such
+     * a key of the test object and the Executable Test Suite to $topologySnapshotKey. A snapshot that can not be read
+     * is ignored and the topology is built again.
+     *
+     * @param themeName
+     *            name of the topological name
+     * @param initialEdgeCapacity
+     *            xpected number of edges. This value should be about 1995000 * number of databases (experience value from
+     *            tests). The number is used to allocate the data structures accordingly and to increase the performance.
+     * @param outputDir
+     *            directory for storing error information
+     * @param snapshotDir
+     *            directory for storing snapshots
+     * @param snapshotKey
+     *            key of the snapshot
+     * @return ID of the topology name
+     * @throws BaseXException
+     *             if the $tempOutputDir or $snapshotDir directories cannot be used to write files or if the name name
+     *             already exists.
+     */
+    @Requires(Permission.CREATE)
+    public int newTopologyBuilder(final String themeName, final int initialEdgeCapacity, final String outputDir,
+            final String snapshotDir, final String snapshotKey) throws BaseXException {
+        final Path snapshotFile;
+        try {
+            snapshotFile = TopologySnapshot.file(
+                    Files.createDirectories(Paths.get(snapshotDir)), themeName, snapshotKey);
+        } catch (final IOException | InvalidPathException e) {
+            throw new BaseXException(e);
+        }
+        return newTopologyBuilder(themeName, initialEdgeCapacity, outputDir, snapshotFile, snapshotKey);
+    }
+
+    private int newTopologyBuilder(final String themeName, final int initialEdgeCapacity, final String outputDir,
+            final Path snapshotFile, final String snapshotKey) throws BaseXException {
         if (!themeNames.add(themeName)) {
             throw new BaseXException("Invalid theme name: already exists.");
         }
@@ -149,12 +232,28 @@ public class TopoX implements Serializable, QueryResource {
             final File errorOutputFile = new File(errorOutputDir, themeName + ".xml");
             final XMLStreamWriter streamWriter = xof.createXMLStreamWriter(new FileOutputStream(errorOutputFile), "UTF-8");
             final TopologyErrorXmlWriter topologyErrorCollector = new TopologyErrorXmlWriter(themeName, streamWriter);
-            final TopologyBuilder topologyBuilder = new TopologyBuilder(
-                    themeName, topologyErrorCollector, abs(initialEdgeCapacity + 1024));
             topologyErrorCollector.init();
 
-            final Theme theme = new Theme(themeName, topologyErrorCollector, errorOutputFile.toString(), writer,
-                    topologyBuilder);
+            final TopologyBuilder restoredBuilder = snapshotFile != null
+                    ? TopologySnapshot.restore(snapshotFile, themeName, snapshotKey, topologyErrorCollector)
+                    : null;
+            final Theme theme;
+            if (restoredBuilder != null) {
+                theme = new Theme(themeName, asyncErrors(themeName, topologyErrorCollector),
+                        errorOutputFile.toString(), writer, restoredBuilder);
+            } else {
+                final TopologyErrorRecorder recorder = snapshotFile != null
+                        ? new TopologyErrorRecorder(topologyErrorCollector, snapshotFile, snapshotKey)
+                        : null;
+                final TopologyErrorCollector collector = asyncErrors(themeName,
+                        recorder != null ? recorder : topologyErrorCollector);
+                // mapped pages are written to a temporary file in the output directory
+                final TopologyBuilder topologyBuilder = new TopologyBuilder(
+                        themeName, collector, abs(initialEdgeCapacity + 1024), 0.95,
+                        PageAllocator.create(pageStorage, errorOutputDir.toPath()));
+                theme = new Theme(themeName, collector, errorOutputFile.toString(), writer,
+                        topologyBuilder, parallelParsing, recorder);
+            }
             themes.add(theme);
             if (mBeanServer != null) {
                 try {
@@ -169,11 +268,15 @@ public class TopoX implements Serializable, QueryResource {
                 }
             }
             return themes.size() - 1;
-        } catch (final IOException | XMLStreamException e) {
+        } catch (final IOException | XMLStreamException | IllegalArgumentException e) {
             throw new BaseXException(e);
         }
     }
 
+    private TopologyErrorCollector asyncErrors(final String themeName, final TopologyErrorCollector collector) {
+        return asyncErrors ? new AsyncTopologyErrorCollector(collector, themeName, maxErrors) : collector;
+    }
+
     /**
      * Can be used for dev purposes. Does not override the error output file and writes all errors to System.out.
      *
@@ -233,12 +336,33 @@ public class TopoX implements Serializable, QueryResource {
     @Requires(Permission.CREATE)
     public int newEdgeValidator(final int topologyId)
             throws BaseXException {
-        if (topologyId < 0 || topologyId >= themes.size()) {
-            throw new BaseXException("Unknown topology ID: " + String.valueOf(topologyId));
-        }
         // handlerType 1: singleBoundaryHandler
-        this.boundaries.add(new EdgeValidator(themes.get(topologyId), 1));
-        return this.boundaries.size() - 1 + BOUNDARY_ID_OFFSET;
+        return addEdgeValidator(topologyId, 1, 0);
+    }
+
+    /**
+     * Creates a new object like {@link #newEdgeValidator(int)}, that matches the boundary coordinates with the
+     * nearest node of the topology within a tolerance.
+     *
+     * The nodes of the topology are indexed once, when the first boundary coordinate is looked up. Consecutive boundary
+     * coordinates that are matched with the same node are skipped.
+     *
+     * @param topologyId
+     *            ID of the topology
+     * @param tolerance
+     *            maximum distance between a boundary coordinate and a node of the topology
+     *
+     * @return ID of the boundary check object
+     * @throws BaseXException
+     *             if the $topologyId is unknown or the tolerance is negative
+     */
+    @Requires(Permission.CREATE)
+    public int newEdgeValidator(final int topologyId, final double tolerance)
+            throws BaseXException {
+        if (!(tolerance >= 0)) {
+            throw new BaseXException("Invalid tolerance: " + tolerance);
+        }
+        return addEdgeValidator(topologyId, 1, tolerance);
     }
 
     /**
@@ -259,12 +383,33 @@ public class TopoX implements Serializable, QueryResource {
     @Requires(Permission.CREATE)
     public int newEdgeValidatorMultipleBoundaries(final int topologyId)
             throws BaseXException {
-        if (topologyId < 0 || topologyId >= themes.size()) {
-            throw new BaseXException("Unknown topology ID: " + String.valueOf(topologyId));
-        }
         // handlerType 2: multipleBoundaryHandler
-        this.boundaries.add(new EdgeValidator(themes.get(topologyId), 2));
-        return this.boundaries.size() - 1 + BOUNDARY_ID_OFFSET;
+        return addEdgeValidator(topologyId, 2, 0);
+    }
+
+    /**
+     * Creates a new object like {@link #newEdgeValidatorMultipleBoundaries(int)}, that matches the boundary coordinates
+     * with the nearest node of the topology within a tolerance.
+     *
+     * The nodes of the topology are indexed once, when the first boundary coordinate is looked up. Consecutive boundary
+     * coordinates that are matched with the same node are skipped.
+     *
+     * @param topologyId
+     *            ID of the topology
+     * @param tolerance
+     *            maximum distance between a boundary coordinate and a node of the topology
+     *
+     * @return ID of the boundary check object
+     * @throws BaseXException
+     *             if the $topologyId is unknown or the tolerance is negative
+     */
+    @Requires(Permission.CREATE)
+    public int newEdgeValidatorMultipleBoundaries(final int topologyId, final double tolerance)
+            throws BaseXException {
+        if (!(tolerance >= 0)) {
+            throw new BaseXException("Invalid tolerance: " + tolerance);
+        }
+        return addEdgeValidator(topologyId, 2, tolerance);
     }
 
     /**
@@ -285,11 +430,41 @@ public class TopoX implements Serializable, QueryResource {
     @Requires(Permission.CREATE)
     public int newEdgeValidatorEnclosingBoundaries(final int topologyId)
             throws BaseXException {
+        // handlerType 3: enclosingBoundaryHandler
+        return addEdgeValidator(topologyId, 3, 0);
+    }
+
+    /**
+     * Creates a new object like {@link #newEdgeValidatorEnclosingBoundaries(int)}, that matches the boundary
+     * coordinates with the nearest node of the topology within a tolerance.
+     *
+     * The nodes of the topology are indexed once, when the first boundary coordinate is looked up. Consecutive boundary
+     * coordinates that are matched with the same node are skipped.
+     *
+     * @param topologyId
+     *            ID of the topology
+     * @param tolerance
+     *            maximum distance between a boundary coordinate and a node of the topology
+     *
+     * @return ID of the boundary check object
+     * @throws BaseXException
+     *             if the $topologyId is unknown or the tolerance is negative
+     */
+    @Requires(Permission.CREATE)
+    public int newEdgeValidatorEnclosingBoundaries(final int topologyId, final double tolerance)
+            throws BaseXException {
+        if (!(tolerance >= 0)) {
+            throw new BaseXException("Invalid tolerance: " + tolerance);
+        }
+        return addEdgeValidator(topologyId, 3, tolerance);
+    }
+
+    private int addEdgeValidator(final int topologyId, final int handlerType, final double tolerance)
+            throws BaseXException {
         if (topologyId < 0 || topologyId >= themes.size()) {
             throw new BaseXException("Unknown topology ID: " + String.valueOf(topologyId));
         }
-        // handlerType 3: enclosingBoundaryHandler
-        this.boundaries.add(new EdgeValidator(themes.get(topologyId), 3));
+        this.boundaries.add(new EdgeValidator(themes.get(topologyId), handlerType, tolerance));
         return this.boundaries.size() - 1 + BOUNDARY_ID_OFFSET;
     }
 
@@ -317,6 +492,19 @@ public class TopoX implements Serializable, QueryResource {
     // Topological data parsing
     ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * Check if the topology has been restored from a snapshot. All parsing calls for a restored topology are ignored
+     * and can be skipped.
+     *
+     * @param id
+     *            ID of Topology Builder
+     * @return true if the topology has been restored from a snapshot
+     */
+    @Requires(Permission.NONE)
+    public boolean restored(final int id) {
+        return themes.get(id).isRestored();
+    }
+
     /**
      * Switch the Topology Builder to the next geometric object
      *
@@ -342,7 +530,128 @@ public class TopoX implements Serializable, QueryResource {
      */
     @Requires(Permission.READ)
     public void parseSegment(final int id, final DBNode posList, final int type) {
-        themes.get(id).parser.parseDirectPositions(posList.data().text(posList.pre(), true), false, genIndex(posList), type);
+        final PosListParser parser = themes.get(id).parser;
+        parser.parseBuffer(textReader.text(posList.data(), posList.pre(), parser), genIndex(posList), type);
+    }
+
+    // Local names of the GML elements that are evaluated by parseSurfaces()
+    private final static byte[] POLYGON = Token.token("Polygon");
+    private final static byte[] POLYGON_PATCH = Token.token("PolygonPatch");
+    private final static byte[] INTERIOR = Token.token("interior");
+    private final static byte[] POS_LIST = Token.token("posList");
+    private final static byte[] ARC = Token.token("Arc");
+    private final static byte[] LINE_STRING_SEGMENT = Token.token("LineStringSegment");
+    private final static byte[] SEGMENTS = Token.token("segments");
+    private final static byte[] CURVE = Token.token("Curve");
+    private final static byte[] CURVE_MEMBER = Token.token("curveMember");
+    private final static byte[] RING = Token.token("Ring");
+
+    /**
+     * Parse the surfaces of multiple features with one call
+     *
+     * The child elements of each feature with the local name $propertyName are searched for Polygons and PolygonPatches.
+     * The posLists of the LineStringSegments and Arcs in their Ring/curveMember/Curve/segments are parsed in document
+     * order. This is equivalent to calling {@link #nextFeature(int, DBNode)}, {@link #nextGeometricObject(int)},
+     * {@link #nextInterior(int)} and {@link #parseSegment(int, DBNode, int)} for each feature, surface, interior and
+     * segment, but the database tables are read directly and the Topology Builder as well as the database index are
+     * only looked up once.
+     *
+     * Requires that the database name has been set with {@link #initDb(String, short)}.
+     *
+     * @param id
+     *            ID of Topology Builder
+     * @param features
+     *            database feature nodes, which are parsed in the passed order
+     * @param propertyName
+     *            local name of the geometry property, e.g. "position"
+     * @return number of parsed segments
+     * @throws BaseXException
+     *             if a feature is not a database node
+     */
+    @Requires(Permission.READ)
+    public long parseSurfaces(final int id, final Value features, final String propertyName) throws BaseXException {
+        final Theme theme = themes.get(id);
+        if (theme.isRestored()) {
+            return 0;
+        }
+        final byte[] property = Token.token(propertyName);
+        Data currentData = null;
+        byte dbIndex = 0;
+        long segments = 0;
+        for (final Item item : features.iter()) {
+            if (!(item instanceof DBNode)) {
+                throw new BaseXException("Feature is not a database node: " + item);
+            }
+            final DBNode feature = (DBNode) item;
+            final Data data = feature.data();
+            if (data != currentData) {
+                currentData = data;
+                dbIndex = dbIndex(data.meta.name);
+            }
+            currentObjectPre = feature.pre();
+            final int end = currentObjectPre + data.size(currentObjectPre, Data.ELEM);
+            // iterate over the child elements
+            for (int pre = currentObjectPre + data.attSize(currentObjectPre, Data.ELEM); pre < end;) {
+                final int kind = data.kind(pre);
+                if (kind == Data.ELEM && Token.eq(property, Token.local(data.name(pre, kind)))) {
+                    segments += parseSurfaceProperty(theme, data, pre, dbIndex);
+                }
+                pre += data.size(pre, kind);
+            }
+        }
+        return segments;
+    }
+
+    private int parseSurfaceProperty(final Theme theme, final Data data, final int propertyPre, final byte dbIndex) {
+        final PosListParser parser = theme.parser;
+        final int end = propertyPre + data.size(propertyPre, Data.ELEM);
+        int surfaceEnd = 0;
+        int segments = 0;
+        for (int pre = propertyPre + 1; pre < end; pre++) {
+            final int kind = data.kind(pre);
+            if (kind != Data.ELEM) {
+                continue;
+            }
+            final byte[] name = Token.local(data.name(pre, kind));
+            if (Token.eq(name, POLYGON) || Token.eq(name, POLYGON_PATCH)) {
+                surfaceEnd = pre + data.size(pre, kind);
+                parser.nextGeometricObject();
+            } else if (pre < surfaceEnd) {
+                if (Token.eq(name, INTERIOR)) {
+                    theme.nextInterior();
+                    parser.nextInterior();
+                } else if (Token.eq(name, POS_LIST)) {
+                    final int type = ringSegmentType(data, data.parent(pre, kind));
+                    final int text = pre + data.attSize(pre, kind);
+                    if (type != 0 && text < pre + data.size(pre, kind) && data.kind(text) == Data.TEXT) {
+                        parser.parseBuffer(textReader.text(data, text, parser),
+                                compress(makeCompressedNodeIndex(dbIndex, text - currentObjectPre), text), type);
+                        segments++;
+                    }
+                }
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Returns 1 for an Arc and 2 for a LineStringSegment in a Ring/curveMember/Curve/segments path, otherwise 0
+     */
+    private static int ringSegmentType(final Data data, final int segmentPre) {
+        final byte[] segmentName = Token.local(data.name(segmentPre, Data.ELEM));
+        final int type = Token.eq(segmentName, ARC) ? 1 : Token.eq(segmentName, LINE_STRING_SEGMENT) ? 2 : 0;
+        if (type == 0) {
+            return 0;
+        }
+        final byte[][] ancestors = {SEGMENTS, CURVE, CURVE_MEMBER, RING};
+        int pre = segmentPre;
+        for (final byte[] ancestor : ancestors) {
+            pre = data.parent(pre, Data.ELEM);
+            if (pre < 0 || data.kind(pre) != Data.ELEM || !Token.eq(ancestor, Token.local(data.name(pre, Data.ELEM)))) {
+                return 0;
+            }
+        }
+        return type;
     }
 
     /**
@@ -432,8 +741,8 @@ public class TopoX implements Serializable, QueryResource {
     @Requires(Permission.READ)
     public void parseEdgeToValidate(final int id, final DBNode geo) {
         // geotype 2: use pass through handler
-        boundaries.get(id - BOUNDARY_ID_OFFSET).parser.parseDirectPositions(geo.data().text(geo.pre(), true), false,
-                genIndex(geo), 2);
+        final PosListParser parser = boundaries.get(id - BOUNDARY_ID_OFFSET).parser;
+        parser.parseBuffer(textReader.text(geo.data(), geo.pre(), parser), genIndex(geo), 2);
     }
 
     /**
@@ -488,6 +797,7 @@ public class TopoX implements Serializable, QueryResource {
     @Deterministic
     @Requires(Permission.NONE)
     public String errorFile(final int id) {
+        themes.get(id).completeParsing();
         themes.get(id).topologyErrorCollector.release();
         return themes.get(id).errorFile;
     }
@@ -739,17 +1049,27 @@ public class TopoX implements Serializable, QueryResource {
     }
 
     private long genIndex(final DBNode node) {
-        final String name = node.data().meta.name;
-        final byte dbIndex = (byte) ((name.charAt(dbNameLength - 1) - '0') +
-                (name.charAt(dbNameLength - 2) - '0') * 10 +
-                (name.charAt(dbNameLength - 3) - '0') * 100);
         return compress(
-                makeCompressedNodeIndex(dbIndex, node.pre() - this.currentObjectPre),
+                makeCompressedNodeIndex(dbIndex(node.data().meta.name), node.pre() - this.currentObjectPre),
                 node.pre());
     }
 
+    private byte dbIndex(final String name) {
+        return (byte) ((name.charAt(dbNameLength - 1) - '0') +
+                (name.charAt(dbNameLength - 2) - '0') * 10 +
+                (name.charAt(dbNameLength - 3) - '0') * 100);
+    }
+
     @Override
     public void close() {
+        textReader.close();
+        for (final Theme theme : themes) {
+            try {
+                theme.release();
+            } catch (final IllegalStateException e) {
+                ExcUtils.suppress(e);
+            }
+        }
         this.boundaries.clear();
         this.themes.clear();
     }
@@ -0,0 +1,376 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.bsxm.topox;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Collects topological errors in a ring buffer and passes them on to another collector in a background thread.
+ *
+ * The error type, the coordinates and the numeric parameter values are stored in primitive arrays, so that the values
+ * are converted to strings and written by the background thread and not by the thread that builds the topology. The
+ * errors are passed on in the order they were collected. If the buffer is full, the collecting thread waits until the
+ * background thread has caught up. Errors that exceed the maximum number of errors are dropped.
+ *
+ * Waiting threads are parked without a timeout. A thread announces that it is going to park with a flag, and the other
+ * thread unparks it after publishing a record or after passing one on.
+ *
+ * Exceptions of the other collector are rethrown in the collecting thread with the next call.
+ *
+ * Errors must be collected by a single thread.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public final class AsyncTopologyErrorCollector implements TopologyErrorCollector {
+
+    // Parameter layouts of a record
+    private static final int STRINGS = 0;
+    private static final int STRINGS_XY = 1;
+    private static final int L = 2;
+    private static final int LL = 3;
+    private static final int LLL = 4;
+    private static final int LDD = 5;
+    private static final int DD = 6;
+
+    private static final int CAPACITY = 8192;
+    private static final int MASK = CAPACITY - 1;
+    private static final int MAX_VALUES = 3;
+
+    private final TopologyErrorCollector collector;
+    private final String name;
+    private final long maxErrors;
+
+    // error type ordinal << 8 | layout
+    private final int[] headers = new int[CAPACITY];
+    private final double[] coordinates = new double[CAPACITY * 2];
+    // values of numeric parameters, doubles as long bits
+    private final long[] values = new long[CAPACITY * MAX_VALUES];
+    private final String[] names = new String[CAPACITY * MAX_VALUES];
+    // parameters of the STRINGS layouts
+    private final String[][] parameters = new String[CAPACITY][];
+
+    // Number of published records, only written by the collecting thread
+    private final AtomicLong head = new AtomicLong();
+    // Number of records passed on, only written by the background thread
+    private final AtomicLong tail = new AtomicLong();
+    private volatile boolean stopped;
+    // Set by a thread before it parks, cleared when it continues
+    private volatile boolean consumerWaiting;
+    private volatile boolean producerWaiting;
+    private volatile Thread producer;
+    private volatile RuntimeException failure;
+    private Thread consumer;
+    private long collected;
+    private long dropped;
+    private boolean released;
+
+    /**
+     * Creates a new collector. The background thread is started with the first error.
+     *
+     * @param collector
+     *            collector that receives the errors in the background thread
+     * @param name
+     *            name of the topology, used as thread name
+     * @param maxErrors
+     *            maximum number of errors that are passed on, further errors are dropped. 0 or a negative value for no
+     *            limit.
+     */
+    public AsyncTopologyErrorCollector(final TopologyErrorCollector collector, final String name,
+            final long maxErrors) {
+        this.collector = collector;
+        this.name = name;
+        this.maxErrors = maxErrors > 0 ? maxErrors : Long.MAX_VALUE;
+    }
+
+    @Override
+    public void init() {
+        collector.init();
+    }
+
+    /**
+     * Claims the next slot in the ring buffer
+     *
+     * @return the slot or -1 if the error is dropped
+     */
+    private int claim(final TopologyErrorType topologyErrorType, final int layout) {
+        checkFailure();
+        if (released) {
+            throw new IllegalStateException(
+                    "Error writing topological error: the collector has already been released");
+        }
+        if (collected == maxErrors) {
+            dropped++;
+            return -1;
+        }
+        collected++;
+        if (consumer == null) {
+            consumer = new Thread(this::passOn, "topox-errors-" + name);
+            consumer.setDaemon(true);
+            consumer.start();
+        }
+        final long h = head.get();
+        if (h - tail.get() == CAPACITY) {
+            awaitTail(h - CAPACITY + 1);
+            checkFailure();
+        }
+        final int slot = (int) h & MASK;
+        headers[slot] = topologyErrorType.ordinal() << 8 | layout;
+        return slot;
+    }
+
+    private void publish() {
+        // a volatile write, so that either the consumer sees the record or this thread sees the waiting flag
+        head.set(head.get() + 1);
+        if (consumerWaiting) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Parks the collecting thread until the background thread has passed on the records before the position
+     *
+     * @param position
+     *            number of records that must have been passed on
+     */
+    private void awaitTail(final long position) {
+        producer = Thread.currentThread();
+        while (tail.get() < position) {
+            producerWaiting = true;
+            if (tail.get() < position) {
+                LockSupport.park(this);
+            }
+            producerWaiting = false;
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new IllegalStateException("Error writing topological errors: " + failure.getMessage(), failure);
+        }
+    }
+
+    @Override
+    public void collectError(final TopologyErrorType topologyErrorType, final String... parameter) {
+        final int slot = claim(topologyErrorType, STRINGS);
+        if (slot != -1) {
+            parameters[slot] = parameter;
+            publish();
+        }
+    }
+
+    @Override
+    public void collectError(final TopologyErrorType topologyErrorType, final double x, final double y,
+            final String... parameter) {
+        final int slot = claim(topologyErrorType, STRINGS_XY);
+        if (slot != -1) {
+            setCoordinates(slot, x, y);
+            parameters[slot] = parameter;
+            publish();
+        }
+    }
+
+    @Override
+    public void collectError(final TopologyErrorType topologyErrorType, final double x, final double y,
+            final String p1, final long v1) {
+        final int slot = claim(topologyErrorType, L);
+        if (slot != -1) {
+            setCoordinates(slot, x, y);
+            setValue(slot, 0, p1, v1);
+            publish();
+        }
+    }
+
+    @Override
+    public void collectError(final TopologyErrorType topologyErrorType, final double x, final double y,
+            final String p1, final long v1, final String p2, final long v2) {
+        final int slot = claim(topologyErrorType, LL);
+        if (slot != -1) {
+            setCoordinates(slot, x, y);
+            setValue(slot, 0, p1, v1);
+            setValue(slot, 1, p2, v2);
+            publish();
+        }
+    }
+
+    @Override
+    public void collectError(final TopologyErrorType topologyErrorType, final double x, final double y,
+            final String p1, final long v1, final String p2, final long v2, final String p3, final long v3) {
+        final int slot = claim(topologyErrorType, LLL);
+        if (slot != -1) {
+            setCoordinates(slot, x, y);
+            setValue(slot, 0, p1, v1);
+            setValue(slot, 1, p2, v2);
+            setValue(slot, 2, p3, v3);
+            publish();
+        }
+    }
+
+    @Override
+    public void collectError(final TopologyErrorType topologyErrorType, final double x, final double y,
+            final String p1, final long v1, final String p2, final double v2, final String p3, final double v3) {
+        final int slot = claim(topologyErrorType, LDD);
+        if (slot != -1) {
+            setCoordinates(slot, x, y);
+            setValue(slot, 0, p1, v1);
+            setValue(slot, 1, p2, Double.doubleToRawLongBits(v2));
+            setValue(slot, 2, p3, Double.doubleToRawLongBits(v3));
+            publish();
+        }
+    }
+
+    @Override
+    public void collectError(final TopologyErrorType topologyErrorType, final double x, final double y,
+            final String p1, final double v1, final String p2, final double v2) {
+        final int slot = claim(topologyErrorType, DD);
+        if (slot != -1) {
+            setCoordinates(slot, x, y);
+            setValue(slot, 0, p1, Double.doubleToRawLongBits(v1));
+            setValue(slot, 1, p2, Double.doubleToRawLongBits(v2));
+            publish();
+        }
+    }
+
+    private void setCoordinates(final int slot, final double x, final double y) {
+        coordinates[slot << 1] = x;
+        coordinates[(slot << 1) + 1] = y;
+    }
+
+    private void setValue(final int slot, final int index, final String parameterName, final long value) {
+        names[slot * MAX_VALUES + index] = parameterName;
+        values[slot * MAX_VALUES + index] = value;
+    }
+
+    /**
+     * Background thread
+     */
+    private void passOn() {
+        final TopologyErrorType[] types = TopologyErrorType.values();
+        long t = tail.get();
+        while (true) {
+            final long h = head.get();
+            if (t == h) {
+                if (stopped && t == head.get()) {
+                    return;
+                }
+                consumerWaiting = true;
+                if (t == head.get() && !stopped) {
+                    LockSupport.park(this);
+                }
+                consumerWaiting = false;
+                continue;
+            }
+            for (; t < h; t++) {
+                final int slot = (int) t & MASK;
+                if (failure == null) {
+                    try {
+                        passOn(slot, types[headers[slot] >>> 8], headers[slot] & 0xFF);
+                    } catch (final RuntimeException e) {
+                        failure = e;
+                    }
+                }
+                parameters[slot] = null;
+                tail.set(t + 1);
+                if (producerWaiting) {
+                    LockSupport.unpark(producer);
+                }
+            }
+        }
+    }
+
+    private void passOn(final int slot, final TopologyErrorType type, final int layout) {
+        final double x = coordinates[slot << 1];
+        final double y = coordinates[(slot << 1) + 1];
+        final int v = slot * MAX_VALUES;
+        switch (layout) {
+        case STRINGS:
+            collector.collectError(type, parameters[slot]);
+            break;
+        case STRINGS_XY:
+            collector.collectError(type, x, y, parameters[slot]);
+            break;
+        case L:
+            collector.collectError(type, x, y, names[v], values[v]);
+            break;
+        case LL:
+            collector.collectError(type, x, y, names[v], values[v], names[v + 1], values[v + 1]);
+            break;
+        case LLL:
+            collector.collectError(type, x, y, names[v], values[v], names[v + 1], values[v + 1],
+                    names[v + 2], values[v + 2]);
+            break;
+        case LDD:
+            collector.collectError(type, x, y, names[v], values[v],
+                    names[v + 1], Double.longBitsToDouble(values[v + 1]),
+                    names[v + 2], Double.longBitsToDouble(values[v + 2]));
+            break;
+        case DD:
+            collector.collectError(type, x, y, names[v], Double.longBitsToDouble(values[v]),
+                    names[v + 1], Double.longBitsToDouble(values[v + 1]));
+            break;
+        default:
+            throw new IllegalStateException("Unknown layout " + layout);
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (consumer != null) {
+            awaitTail(head.get());
+        }
+        checkFailure();
+        collector.flush();
+    }
+
+    /**
+     * Passes on the remaining errors, stops the background thread and releases the other collector. Further calls have
+     * no effect.
+     */
+    @Override
+    public void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        if (consumer != null) {
+            stopped = true;
+            LockSupport.unpark(consumer);
+            boolean interrupted = false;
+            while (consumer.isAlive()) {
+                try {
+                    consumer.join();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        collector.release();
+        checkFailure();
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncTopologyErrorCollector{ name=" + name + ", collected=" + collected + ", dropped=" + dropped + '}';
+    }
+}
@@ -0,0 +1,257 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.bsxm.topox;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Maps the exact coordinates of a node to an edge index.
+ *
+ * The map uses open addressing with linear probing. A slot only holds the edge index and the 32-bit hash of the
+ * coordinates. The coordinates are not duplicated, the edge index yields the index of the coordinates in the
+ * coordinate array of the builder, which is used to resolve hash collisions. Signed zeros are normalized to the same
+ * key, as the coordinates are compared by value in the builder.
+ *
+ * The edge index 0 is never used in the topology data structure and marks an empty slot.
+ *
+ * Non thread safe.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class CoordinateEdgeMap {
+
+    private static final int MIN_CAPACITY = 16;
+    static final int MAX_CAPACITY = 1 << 29;
+
+    private final PagedDoubleArray coordinates;
+    // resolves an edge index to the index of the X coordinate in the coordinates array
+    private final IntUnaryOperator coordinateIndex;
+
+    private int[] hashes;
+    private int[] edgeIndices;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+
+    // number of entries that are not stored at the slot of their hash
+    private int collisions;
+
+    /**
+     * Creates an empty map
+     *
+     * @param coordinates
+     *            coordinates of the mapped edge indices
+     * @param coordinateIndex
+     *            resolves an edge index to the index of the X coordinate in the coordinates array. The coordinates of
+     *            an edge index that has just been mapped must be resolvable before the next coordinates are mapped.
+     * @param expectedSize
+     *            expected number of coordinates
+     */
+    CoordinateEdgeMap(final PagedDoubleArray coordinates, final IntUnaryOperator coordinateIndex,
+            final int expectedSize) {
+        this.coordinates = coordinates;
+        this.coordinateIndex = coordinateIndex;
+        final long requested = Math.max(MIN_CAPACITY, Math.min(MAX_CAPACITY, (long) expectedSize * 2));
+        allocate(Integer.highestOneBit((int) (requested - 1)) << 1);
+    }
+
+    /**
+     * Creates a map from the arrays of another map
+     *
+     * @param coordinates
+     *            coordinates of the mapped edge indices
+     * @param coordinateIndex
+     *            resolves an edge index to the index of the X coordinate in the coordinates array
+     * @param hashes
+     *            hashes of the coordinates in the slots, see {@link #hashes()}
+     * @param edgeIndices
+     *            edge indices of the slots, see {@link #edgeIndices()}
+     * @param size
+     *            number of mapped coordinates
+     * @param collisions
+     *            number of hash collisions
+     */
+    CoordinateEdgeMap(final PagedDoubleArray coordinates, final IntUnaryOperator coordinateIndex, final int[] hashes,
+            final int[] edgeIndices, final int size, final int collisions) {
+        if (Integer.bitCount(edgeIndices.length) != 1 || hashes.length != edgeIndices.length) {
+            throw new IllegalArgumentException("Invalid capacity: " + edgeIndices.length);
+        }
+        this.coordinates = coordinates;
+        this.coordinateIndex = coordinateIndex;
+        this.hashes = hashes;
+        this.edgeIndices = edgeIndices;
+        this.mask = edgeIndices.length - 1;
+        this.resizeThreshold = resizeThreshold(edgeIndices.length);
+        this.size = size;
+        this.collisions = collisions;
+    }
+
+    private void allocate(final int capacity) {
+        this.hashes = new int[capacity];
+        this.edgeIndices = new int[capacity];
+        this.mask = capacity - 1;
+        this.resizeThreshold = resizeThreshold(capacity);
+    }
+
+    private static int resizeThreshold(final int capacity) {
+        return capacity == MAX_CAPACITY ? capacity - 1 : capacity >>> 1;
+    }
+
+    private static long key(final double d) {
+        // -0.0 + 0.0 == 0.0
+        return Double.doubleToLongBits(d + 0.0);
+    }
+
+    private static int hash(final long xBits, final long yBits) {
+        long h = xBits * 0x9E3779B97F4A7C15L + yBits;
+        h = (h ^ (h >>> 32)) * 0xD6E8FEB86659FD93L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private boolean matches(final int slot, final int hash, final long xBits, final long yBits) {
+        if (hashes[slot] != hash) {
+            return false;
+        }
+        final int index = coordinateIndex.applyAsInt(edgeIndices[slot]);
+        return key(coordinates.get(index)) == xBits && key(coordinates.get(index + 1)) == yBits;
+    }
+
+    /**
+     * Get the edge index for the coordinates
+     *
+     * @param x
+     *            X coordinate
+     * @param y
+     *            Y coordinate
+     * @return edge index or 0 if the coordinates are unknown
+     */
+    int get(final double x, final double y) {
+        final long xBits = key(x);
+        final long yBits = key(y);
+        final int hash = hash(xBits, yBits);
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            final int edgeIndex = edgeIndices[i];
+            if (edgeIndex == 0 || matches(i, hash, xBits, yBits)) {
+                return edgeIndex;
+            }
+        }
+    }
+
+    /**
+     * Map the coordinates to an edge index if they are not mapped yet
+     *
+     * @param x
+     *            X coordinate
+     * @param y
+     *            Y coordinate
+     * @param edgeIndex
+     *            edge index, must not be 0
+     * @return the edge index that is already mapped to the coordinates or 0 if the new edge index has been added
+     */
+    int putIfAbsent(final double x, final double y, final int edgeIndex) {
+        final long xBits = key(x);
+        final long yBits = key(y);
+        final int hash = hash(xBits, yBits);
+        final int home = hash & mask;
+        int i = home;
+        for (int existing; (existing = edgeIndices[i]) != 0; i = (i + 1) & mask) {
+            if (matches(i, hash, xBits, yBits)) {
+                return existing;
+            }
+        }
+        if (i != home) {
+            ++collisions;
+        }
+        hashes[i] = hash;
+        edgeIndices[i] = edgeIndex;
+        if (++size > resizeThreshold) {
+            grow();
+        }
+        return 0;
+    }
+
+    private void grow() {
+        if (mask + 1 == MAX_CAPACITY) {
+            throw new IllegalStateException("Maximum number of coordinates exceeded: " + size);
+        }
+        final int[] oldHashes = this.hashes;
+        final int[] oldEdgeIndices = this.edgeIndices;
+        allocate((mask + 1) << 1);
+        collisions = 0;
+        for (int o = 0; o < oldEdgeIndices.length; o++) {
+            if (oldEdgeIndices[o] != 0) {
+                final int home = oldHashes[o] & mask;
+                int i = home;
+                while (edgeIndices[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                if (i != home) {
+                    ++collisions;
+                }
+                hashes[i] = oldHashes[o];
+                edgeIndices[i] = oldEdgeIndices[o];
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    int[] hashes() {
+        return hashes;
+    }
+
+    int[] edgeIndices() {
+        return edgeIndices;
+    }
+
+    /**
+     * Returns the X coordinate of an occupied slot
+     *
+     * @param slot
+     *            slot with an edge index that is not 0
+     * @return X coordinate
+     */
+    double x(final int slot) {
+        return coordinates.get(coordinateIndex.applyAsInt(edgeIndices[slot]));
+    }
+
+    /**
+     * Returns the Y coordinate of an occupied slot
+     *
+     * @param slot
+     *            slot with an edge index that is not 0
+     * @return Y coordinate
+     */
+    double y(final int slot) {
+        return coordinates.get(coordinateIndex.applyAsInt(edgeIndices[slot]) + 1);
+    }
+
+    /**
+     * Returns the number of coordinates that could not be stored in the slot of their hash value
+     *
+     * @return number of hash collisions
+     */
+    int collisions() {
+        return collisions;
+    }
+}
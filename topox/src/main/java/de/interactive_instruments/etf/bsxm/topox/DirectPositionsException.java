@@ -0,0 +1,52 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.bsxm.topox;
+
+import static de.interactive_instruments.etf.bsxm.topox.DataCompression.dbIndex;
+import static de.interactive_instruments.etf.bsxm.topox.DataCompression.getRight;
+
+/**
+ * Thrown if the direct positions of a segment can not be parsed, while the segments are parsed in the background.
+ *
+ * The error is only thrown when a later call passes the parsed coordinates on, so the exception identifies the segment
+ * that caused it.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public class DirectPositionsException extends IllegalArgumentException {
+
+    private final long location;
+
+    DirectPositionsException(final long location, final RuntimeException cause) {
+        super("Invalid direct positions of the segment with the pre value " + getRight(location)
+                + " in the database with the index " + dbIndex(location) + ": " + cause.getMessage(), cause);
+        this.location = location;
+    }
+
+    /**
+     * Returns the location of the segment that could not be parsed
+     *
+     * @return compressed TopoX index
+     */
+    public long getLocation() {
+        return location;
+    }
+}
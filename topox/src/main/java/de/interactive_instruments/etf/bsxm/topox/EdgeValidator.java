@@ -26,7 +26,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * An object to verify that boundaries lie exactly on edges.
+ * An object to verify that boundaries lie exactly on edges, or on edges within a tolerance.
  *
  * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
  */
@@ -36,18 +36,35 @@ public class EdgeValidator {
     private final TopologyErrorCollector errorCollector;
 
     public EdgeValidator(final Theme theme, int handlerType) {
+        this(theme, handlerType, 0);
+    }
+
+    /**
+     * Creates a validator that matches the boundary coordinates with the nearest node of the topology within a
+     * tolerance
+     *
+     * @param theme
+     *            theme with the topology
+     * @param handlerType
+     *            1 for a single boundary, 2 for multiple boundaries, 3 for enclosing boundaries
+     * @param tolerance
+     *            maximum distance between a boundary coordinate and a node. 0 to match the coordinates exactly.
+     */
+    public EdgeValidator(final Theme theme, int handlerType, final double tolerance) {
+        // the validator reads the topology
+        theme.completeParsing();
         switch (handlerType) {
         case 1:
-            this.handler = new SingleBoundaryHandler(theme, theme.topologyErrorCollector);
+            this.handler = new SingleBoundaryHandler(theme, theme.topologyErrorCollector, tolerance);
             break;
         case 2:
-            this.handler = new MultipleBoundaryHandler(theme, theme.topologyErrorCollector);
+            this.handler = new MultipleBoundaryHandler(theme, theme.topologyErrorCollector, tolerance);
             break;
         case 3:
-            this.handler = new EnclosingBoundaryHandler(theme, theme.topologyErrorCollector);
+            this.handler = new EnclosingBoundaryHandler(theme, theme.topologyErrorCollector, tolerance);
             break;
         default:
-            this.handler = new MultipleBoundaryHandler(theme, theme.topologyErrorCollector);
+            this.handler = new MultipleBoundaryHandler(theme, theme.topologyErrorCollector, tolerance);
             break;
         }
         this.parser = new HashingPosListParser(handler);
@@ -57,41 +74,58 @@ public class EdgeValidator {
     private static abstract class InternalHandler implements HashingSegmentHandler {
         private final Theme theme;
         private final TopologyErrorCollector errorCollector;
+        private final double tolerance;
 
         protected Topology.Node previousNode;
         protected Topology.Edge previousEdge;
 
-        InternalHandler(final Theme theme, final TopologyErrorCollector errorCollector) {
+        InternalHandler(final Theme theme, final TopologyErrorCollector errorCollector, final double tolerance) {
             this.theme = theme;
             this.errorCollector = errorCollector;
+            this.tolerance = tolerance;
+        }
+
+        protected Topology.Node node(final double x, final double y) {
+            if (tolerance > 0) {
+                return theme.topology.node(x, y, tolerance);
+            } else {
+                return theme.topology.node(x, y);
+            }
+        }
+
+        /**
+         * Coordinates of a boundary that are matched with the same node within the tolerance are skipped
+         */
+        protected boolean sameNode(final Topology.Node nextNode) {
+            return tolerance > 0 && nextNode.equals(previousNode);
         }
 
         @Override
         public void coordinate2d(final double x, final double y, final long hash, final long location, final int type) {
             if (previousNode == null) {
-                previousNode = theme.topology.node(x, y);
+                previousNode = node(x, y);
                 if (previousNode == null) {
                     previousEdge = null;
                     errorCollector.collectError(POINT_DETACHED,
                             x, y,
-                            "IS", String.valueOf(location));
+                            "IS", location);
                 }
             } else {
-                final Topology.Node nextNode = theme.topology.node(x, y);
+                final Topology.Node nextNode = node(x, y);
                 if (nextNode == null) {
                     errorCollector.collectError(POINT_DETACHED,
                             x, y,
-                            "IS", String.valueOf(location));
+                            "IS", location);
                     previousNode = null;
                     previousEdge = null;
-                } else {
+                } else if (!sameNode(nextNode)) {
                     previousEdge = previousNode.edge(nextNode);
                     if (previousEdge == null) {
                         errorCollector.collectError(EDGE_POINTS_INVALID,
                                 x, y,
-                                "IS", String.valueOf(location),
-                                "X2", String.valueOf(previousNode.x()),
-                                "Y2", String.valueOf(previousNode.y()));
+                                "IS", location,
+                                "X2", previousNode.x(),
+                                "Y2", previousNode.y());
                     }
                     previousNode = nextNode;
                 }
@@ -105,8 +139,8 @@ public class EdgeValidator {
 
     private static class MultipleBoundaryHandler extends InternalHandler {
 
-        MultipleBoundaryHandler(Theme theme, TopologyErrorCollector errorCollector) {
-            super(theme, errorCollector);
+        MultipleBoundaryHandler(Theme theme, TopologyErrorCollector errorCollector, final double tolerance) {
+            super(theme, errorCollector, tolerance);
         }
 
         @Override
@@ -126,8 +160,8 @@ public class EdgeValidator {
         private final Theme theme;
         private final TopologyErrorCollector errorCollector;
 
-        EnclosingBoundaryHandler(Theme theme, TopologyErrorCollector errorCollector) {
-            super(theme, errorCollector);
+        EnclosingBoundaryHandler(Theme theme, TopologyErrorCollector errorCollector, final double tolerance) {
+            super(theme, errorCollector, tolerance);
             this.theme = theme;
             this.errorCollector = errorCollector;
         }
@@ -135,29 +169,29 @@ public class EdgeValidator {
         @Override
         public void coordinate2d(final double x, final double y, final long hash, final long location, final int type) {
             if (previousNode == null) {
-                previousNode = theme.topology.node(x, y);
+                previousNode = node(x, y);
                 if (previousNode == null) {
                     previousEdge = null;
                     errorCollector.collectError(POINT_DETACHED,
                             x, y,
-                            "IS", String.valueOf(location));
+                            "IS", location);
                 }
             } else {
-                final Topology.Node nextNode = theme.topology.node(x, y);
+                final Topology.Node nextNode = node(x, y);
                 if (nextNode == null) {
                     errorCollector.collectError(POINT_DETACHED,
                             x, y,
-                            "IS", String.valueOf(location));
+                            "IS", location);
                     previousNode = null;
                     previousEdge = null;
-                } else {
+                } else if (!sameNode(nextNode)) {
                     previousEdge = previousNode.edge(nextNode);
                     if (previousEdge == null) {
                         errorCollector.collectError(EDGE_POINTS_INVALID,
                                 x, y,
-                                "IS", String.valueOf(location),
-                                "X2", String.valueOf(previousNode.x()),
-                                "Y2", String.valueOf(previousNode.y()));
+                                "IS", location,
+                                "X2", previousNode.x(),
+                                "Y2", previousNode.y());
                     } else {
                         // The edge exists in the topology
                         checkIfOutsideExteriorEdgeAndMarkEnclosed(previousEdge);
@@ -177,8 +211,8 @@ public class EdgeValidator {
 
     private static class SingleBoundaryHandler extends InternalHandler {
 
-        SingleBoundaryHandler(Theme theme, TopologyErrorCollector errorCollector) {
-            super(theme, errorCollector);
+        SingleBoundaryHandler(Theme theme, TopologyErrorCollector errorCollector, final double tolerance) {
+            super(theme, errorCollector, tolerance);
         }
 
         @Override
@@ -217,14 +251,14 @@ public class EdgeValidator {
         if (edge.leftObject() == 0) {
             errorCollector.collectError(EDGE_MISSING_LEFT,
                     edge.source().x(), edge.source().y(),
-                    "X2", String.valueOf(edge.target().x()),
-                    "Y2", String.valueOf(edge.target().y()));
+                    "X2", edge.target().x(),
+                    "Y2", edge.target().y());
         } else {
             errorCollector.collectError(EDGE_INVALID_LEFT,
                     edge.source().x(), edge.source().y(),
-                    "IS", String.valueOf(edge.leftObject()),
-                    "X2", String.valueOf(edge.target().x()),
-                    "Y2", String.valueOf(edge.target().y()));
+                    "IS", edge.leftObject(),
+                    "X2", edge.target().x(),
+                    "Y2", edge.target().y());
         }
     }
 
@@ -232,14 +266,14 @@ public class EdgeValidator {
         if (edge.rightObject() == 0) {
             errorCollector.collectError(EDGE_MISSING_RIGHT,
                     edge.source().x(), edge.source().y(),
-                    "X2", String.valueOf(edge.target().x()),
-                    "Y2", String.valueOf(edge.target().y()));
+                    "X2", edge.target().x(),
+                    "Y2", edge.target().y());
         } else {
             errorCollector.collectError(EDGE_INVALID_RIGHT,
                     edge.source().x(), edge.source().y(),
-                    "IS", String.valueOf(edge.rightObject()),
-                    "X2", String.valueOf(edge.target().x()),
-                    "Y2", String.valueOf(edge.target().y()));
+                    "IS", edge.rightObject(),
+                    "X2", edge.target().x(),
+                    "Y2", edge.target().y());
         }
     }
 
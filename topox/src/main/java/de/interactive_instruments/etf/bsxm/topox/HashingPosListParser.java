@@ -20,6 +20,10 @@
  */
 package de.interactive_instruments.etf.bsxm.topox;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
 /**
  * A parser for direct positions of geometric objects that generates hashes for the input data
  *
@@ -30,6 +34,12 @@ class HashingPosListParser implements PosListParser {
     private double previousOrdinate;
     private boolean threeDCoordinates = false;
 
+    // State of the number parsing
+    private long hash;
+    private double digits;
+    // Buffer for the bytes of char sequences and for the direct positions written by the caller
+    private byte[] charBuffer = new byte[256];
+
     private static final long FNV_64_INIT = 0xcbf29ce484222325L;
     private static final long FNV_64_PRIME = 0x100000001b3L;
 
@@ -46,6 +56,23 @@ class HashingPosListParser implements PosListParser {
         }
     }
 
+    // Maximum number of decimal digits that always fit into the mantissa of a double
+    private final static int MAX_EXACT_DIGITS = 15;
+
+    // Replaces non ASCII characters that are not whitespaces
+    private final static byte INVALID_CHAR = 0x7F;
+
+    private final static boolean[] WHITESPACES = new boolean[256];
+    static {
+        for (int i = 0; i < 256; i++) {
+            // the signed byte value as the former per byte check
+            WHITESPACES[i] = Character.isWhitespace((byte) i);
+        }
+    }
+
+    private final static VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
     private static double pow10(final int exp) {
         if (exp > -PRECALC_POW_SIZE) {
             if (exp <= 0) {
@@ -151,177 +178,179 @@ class HashingPosListParser implements PosListParser {
     @Override
     public void parseDirectPositions(final byte[] bytes, final boolean threeDCoordinates, final long location,
             final int geoType) {
+        parseDirectPositions(bytes, 0, bytes.length, location, geoType);
+    }
 
-        final HashingSegmentHandler segmentHandler = this.geoTypeHandlerStrategies[geoType];
-
-        int pos = 0;
-        int length = bytes.length - pos;
+    @Override
+    public void parseDirectPositions(final byte[] bytes, final int offset, final int len, final long location,
+            final int geoType) {
+        parse(bytes, offset, len, location, geoType, null);
+    }
 
-        // skip leading whitespaces
-        byte b = bytes[pos];
-        while (length > 0 && Character.isWhitespace(b)) {
-            b = bytes[++pos];
-            length--;
+    @Override
+    public byte[] buffer(final int length) {
+        if (charBuffer.length < length) {
+            charBuffer = new byte[Math.max(length, charBuffer.length << 1)];
         }
-        int ordinateCounter = 0;
-        long hash = FNV_64_INIT;
+        return charBuffer;
+    }
 
-        while (length > 0) {
-            boolean positiveSign = true;
-            if (b == '+') {
-                pos++;
-                length--;
-            } else if (b == '-') {
-                positiveSign = false;
-                pos++;
-                length--;
-            }
-            hash ^= b;
-            hash *= FNV_64_PRIME;
+    @Override
+    public int bufferOffset() {
+        return 0;
+    }
 
-            boolean err = true;
-            int startOffset = pos;
-            double d;
-            for (d = 0d; (length > 0) && ((b = bytes[pos]) >= '0') && (b <= '9');) {
-                d *= 10d;
-                d += b - '0';
-                hash ^= b;
-                hash *= FNV_64_PRIME;
-                pos++;
-                length--;
-            }
+    @Override
+    public void parseBuffer(final int length, final long location, final int geoType) {
+        parse(charBuffer, 0, length, location, geoType, null);
+    }
 
-            if (pos - startOffset > 0) {
-                err = false;
+    @Override
+    public void parseDirectPositions(final CharSequence csq, final boolean threeDCoordinates, final long location,
+            final int geoType) {
+        final int len = csq.length();
+        if (charBuffer.length < len) {
+            charBuffer = new byte[Math.max(len, charBuffer.length << 1)];
+        }
+        // Whitespaces are never hashed, and any other non ASCII character is invalid in the same position
+        for (int i = 0; i < len; i++) {
+            final char ch = csq.charAt(i);
+            if (ch < 0x80) {
+                charBuffer[i] = (byte) ch;
+            } else if (Character.isWhitespace(ch)) {
+                charBuffer[i] = ' ';
+            } else {
+                charBuffer[i] = INVALID_CHAR;
             }
+        }
+        parse(charBuffer, 0, len, location, geoType, csq);
+    }
 
-            double number = d;
-            if ((length > 0) && (bytes[pos] == '.')) {
-
-                hash ^= '.';
-                hash *= FNV_64_PRIME;
-                startOffset = ++pos;
-                length--;
-
-                for (d = 0d; (length > 0) && ((b = bytes[pos]) >= '0') && (b <= '9');) {
-                    d *= 10d;
-                    d += b - '0';
-                    hash ^= b;
-                    hash *= FNV_64_PRIME;
-                    pos++;
-                    length--;
-                }
-                final int fracLength = pos - startOffset;
-                if (fracLength > 0) {
-                    number += pow10(-fracLength) * d;
-                    err = false;
-                }
-            }
+    private static boolean isWhitespace(final byte b) {
+        return WHITESPACES[b & 0xFF];
+    }
 
-            if (err) {
-                // continue;
+    /**
+     * Checks if all eight bytes of a little endian word are ASCII digits
+     */
+    private static boolean isEightDigits(final long word) {
+        return ((word & 0xF0F0F0F0F0F0F0F0L)
+                | (((word + 0x0606060606060606L) & 0xF0F0F0F0F0F0F0F0L) >>> 4)) == 0x3333333333333333L;
+    }
 
-                // TODO error collector
-                throw new NumberFormatException("Invalid Double : " + new String(bytes));
-            }
+    /**
+     * Converts eight ASCII digits of a little endian word, the first digit in the lowest byte
+     */
+    private static long parseEightDigits(final long word) {
+        long val = word - 0x3030303030303030L;
+        val = (val * 10) + (val >>> 8);
+        return (((val & 0x000000FF000000FFL) * 0x000F424000000064L)
+                + (((val >>> 16) & 0x000000FF000000FFL) * 0x0000271000000001L)) >>> 32;
+    }
 
-            while (--length > 0) {
-                b = bytes[++pos];
-                if (!Character.isWhitespace(b)) {
-                    break;
-                }
+    /**
+     * Parses and hashes the digits beginning at the position.
+     *
+     * The value is accumulated as long, which is identical to the former double accumulation as long as the digits fit
+     * into the 53 bit mantissa. Longer digit sequences are accumulated again as double.
+     *
+     * @return the position after the last digit
+     */
+    private int parseDigits(final byte[] bytes, final int start, final int end) {
+        long value = 0;
+        long hash = this.hash;
+        int pos = start;
+        while (end - pos >= 8) {
+            final long word = (long) LONG_VIEW.get(bytes, pos);
+            if (!isEightDigits(word)) {
+                break;
             }
-
-            if (++ordinateCounter % 2 == 0) {
-                segmentHandler.coordinate2d(previousOrdinate, positiveSign ? number : -number, hash, location, geoType);
-                hash = FNV_64_INIT;
-            } else {
-                previousOrdinate = positiveSign ? number : -number;
+            value = value * 100_000_000L + parseEightDigits(word);
+            for (final int e = pos + 8; pos < e; pos++) {
+                hash ^= bytes[pos];
                 hash *= FNV_64_PRIME;
             }
         }
+        byte b;
+        while (pos < end && (b = bytes[pos]) >= '0' && b <= '9') {
+            value = value * 10 + (b - '0');
+            hash ^= b;
+            hash *= FNV_64_PRIME;
+            pos++;
+        }
+        if (pos - start <= MAX_EXACT_DIGITS) {
+            this.digits = value;
+        } else {
+            double d = 0d;
+            for (int i = start; i < pos; i++) {
+                d *= 10d;
+                d += bytes[i] - '0';
+            }
+            this.digits = d;
+        }
+        this.hash = hash;
+        return pos;
     }
 
-    @Override
-    public void parseDirectPositions(final CharSequence csq, final boolean threeDCoordinates, final long location,
-            final int geoType) {
+    private void parse(final byte[] bytes, final int offset, final int len, final long location, final int geoType,
+            final CharSequence source) {
 
         final HashingSegmentHandler segmentHandler = this.geoTypeHandlerStrategies[geoType];
-        int pos = 0;
-        int length = csq.length() - pos;
+        final int end = offset + len;
+        int pos = offset;
 
         // skip leading whitespaces
-        char ch = csq.charAt(pos);
-        while (length > 0 && Character.isWhitespace(ch)) {
-            ch = csq.charAt(++pos);
-            length--;
+        while (pos < end && isWhitespace(bytes[pos])) {
+            pos++;
         }
         int ordinateCounter = 0;
-        long hash = FNV_64_INIT;
+        hash = FNV_64_INIT;
 
-        while (length > 0) {
+        while (pos < end) {
+            byte b = bytes[pos];
             boolean positiveSign = true;
-            if (ch == '+') {
+            if (b == '+') {
                 pos++;
-                length--;
-            } else if (ch == '-') {
+            } else if (b == '-') {
                 positiveSign = false;
                 pos++;
-                length--;
             }
-            hash ^= ch;
+            // the sign or the first digit
+            hash ^= b;
             hash *= FNV_64_PRIME;
 
             boolean err = true;
             int startOffset = pos;
-            double d;
-            for (d = 0d; (length > 0) && ((ch = csq.charAt(pos)) >= '0') && (ch <= '9');) {
-                d *= 10d;
-                d += ch - '0';
-                hash ^= ch;
-                hash *= FNV_64_PRIME;
-                pos++;
-                length--;
-            }
-
+            pos = parseDigits(bytes, pos, end);
             if (pos - startOffset > 0) {
                 err = false;
             }
 
-            double number = d;
-            if ((length > 0) && (csq.charAt(pos) == '.')) {
+            double number = digits;
+            if ((pos < end) && (bytes[pos] == '.')) {
 
                 hash ^= '.';
                 hash *= FNV_64_PRIME;
                 startOffset = ++pos;
-                length--;
-
-                for (d = 0d; (length > 0) && ((ch = csq.charAt(pos)) >= '0') && (ch <= '9');) {
-                    d *= 10d;
-                    d += ch - '0';
-                    hash ^= ch;
-                    hash *= FNV_64_PRIME;
-                    pos++;
-                    length--;
-                }
+
+                pos = parseDigits(bytes, pos, end);
                 final int fracLength = pos - startOffset;
                 if (fracLength > 0) {
-                    number += pow10(-fracLength) * d;
+                    number += pow10(-fracLength) * digits;
                     err = false;
                 }
             }
 
             if (err) {
-                // continue;
                 // TODO error collector
-                throw new NumberFormatException("Invalid Double : " + csq);
+                throw new NumberFormatException("Invalid Double : "
+                        + (source != null ? source : new String(bytes, offset, len)));
             }
 
-            while (--length > 0) {
-                ch = csq.charAt(++pos);
-                if (!Character.isWhitespace(ch)) {
-                    break;
-                }
+            // skip the separator and following whitespaces
+            pos++;
+            while (pos < end && isWhitespace(bytes[pos])) {
+                pos++;
             }
 
             if (++ordinateCounter % 2 == 0) {
@@ -334,6 +363,13 @@ class HashingPosListParser implements PosListParser {
         }
     }
 
+    /**
+     * Pass an already parsed coordinate to the handler strategy of the geometry type
+     */
+    void coordinate2d(final double x, final double y, final long hash, final long location, final int geoType) {
+        geoTypeHandlerStrategies[geoType].coordinate2d(x, y, hash, location, geoType);
+    }
+
     @Override
     public void dimension(final boolean threeDCoordinates) {
         this.threeDCoordinates = threeDCoordinates;
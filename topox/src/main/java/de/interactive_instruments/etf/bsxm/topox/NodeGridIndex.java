@@ -0,0 +1,192 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.bsxm.topox;
+
+/**
+ * A uniform grid over the nodes of a topology for finding the nearest node within a tolerance.
+ *
+ * The index is built once from the coordinate map of a completely built topology. The nodes are sorted by their grid
+ * cell, so that the nodes of a cell are stored consecutively in primitive arrays and a cell is described by its start
+ * offset only. The cell size is at least the tolerance used for building the index, and it is chosen so that there are
+ * not more cells than nodes.
+ *
+ * Non thread safe.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class NodeGridIndex {
+
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+
+    // start offset of the nodes of a cell, followed by the total number of nodes
+    private final int[] cellStart;
+    private final double[] xs;
+    private final double[] ys;
+    private final int[] edgeIndices;
+
+    /**
+     * Builds the index
+     *
+     * @param coordinateEdgeMap
+     *            map of a completely built topology
+     * @param tolerance
+     *            expected maximum distance used in lookups. Greater distances can be used in lookups, but require more
+     *            cells to be searched.
+     */
+    NodeGridIndex(final CoordinateEdgeMap coordinateEdgeMap, final double tolerance) {
+        final int[] slotEdgeIndices = coordinateEdgeMap.edgeIndices();
+
+        double xMin = Double.POSITIVE_INFINITY;
+        double yMin = Double.POSITIVE_INFINITY;
+        double xMax = Double.NEGATIVE_INFINITY;
+        double yMax = Double.NEGATIVE_INFINITY;
+        int size = 0;
+        for (int slot = 0; slot < slotEdgeIndices.length; slot++) {
+            if (slotEdgeIndices[slot] != 0) {
+                final double x = coordinateEdgeMap.x(slot);
+                final double y = coordinateEdgeMap.y(slot);
+                if (Double.isFinite(x) && Double.isFinite(y)) {
+                    xMin = Math.min(xMin, x);
+                    xMax = Math.max(xMax, x);
+                    yMin = Math.min(yMin, y);
+                    yMax = Math.max(yMax, y);
+                    size++;
+                }
+            }
+        }
+        if (size == 0) {
+            xMin = xMax = yMin = yMax = 0;
+        }
+        this.minX = xMin;
+        this.minY = yMin;
+
+        // Not more cells than nodes, also for data that lie on a horizontal or vertical line
+        final double width = xMax - xMin;
+        final double height = yMax - yMin;
+        final int n = Math.max(1, size);
+        double cell = Math.max(Math.sqrt(width * height / n), Math.max(width, height) / n);
+        if (Double.isFinite(tolerance) && tolerance > cell) {
+            cell = tolerance;
+        }
+        if (!(cell > 0) || !Double.isFinite(cell)) {
+            cell = 1;
+        }
+        this.cellSize = cell;
+        this.columns = (int) Math.min(n, (long) (width / cell) + 1);
+        this.rows = (int) Math.min(n, (long) (height / cell) + 1);
+
+        // Counting sort by cell
+        this.cellStart = new int[columns * rows + 1];
+        for (int slot = 0; slot < slotEdgeIndices.length; slot++) {
+            if (slotEdgeIndices[slot] != 0) {
+                final double x = coordinateEdgeMap.x(slot);
+                final double y = coordinateEdgeMap.y(slot);
+                if (Double.isFinite(x) && Double.isFinite(y)) {
+                    cellStart[cell(x, y) + 1]++;
+                }
+            }
+        }
+        for (int i = 1; i < cellStart.length; i++) {
+            cellStart[i] += cellStart[i - 1];
+        }
+        this.xs = new double[size];
+        this.ys = new double[size];
+        this.edgeIndices = new int[size];
+        final int[] next = new int[columns * rows];
+        System.arraycopy(cellStart, 0, next, 0, next.length);
+        for (int slot = 0; slot < slotEdgeIndices.length; slot++) {
+            if (slotEdgeIndices[slot] != 0) {
+                final double x = coordinateEdgeMap.x(slot);
+                final double y = coordinateEdgeMap.y(slot);
+                if (Double.isFinite(x) && Double.isFinite(y)) {
+                    final int pos = next[cell(x, y)]++;
+                    xs[pos] = x;
+                    ys[pos] = y;
+                    edgeIndices[pos] = slotEdgeIndices[slot];
+                }
+            }
+        }
+    }
+
+    private int column(final double x) {
+        return clamp((x - minX) / cellSize, columns);
+    }
+
+    private int row(final double y) {
+        return clamp((y - minY) / cellSize, rows);
+    }
+
+    private static int clamp(final double pos, final int count) {
+        if (pos <= 0) {
+            return 0;
+        }
+        return pos >= count - 1 ? count - 1 : (int) pos;
+    }
+
+    private int cell(final double x, final double y) {
+        return row(y) * columns + column(x);
+    }
+
+    /**
+     * Finds the node that is nearest to a coordinate
+     *
+     * If two nodes have the same distance, the node that was found first is returned.
+     *
+     * @param x
+     *            X coordinate
+     * @param y
+     *            Y coordinate
+     * @param tolerance
+     *            maximum distance of the node
+     * @return the edge index of the node or 0 if there is no node within the tolerance
+     */
+    int nearest(final double x, final double y, final double tolerance) {
+        if (!(tolerance >= 0) || xs.length == 0) {
+            return 0;
+        }
+        final int c0 = column(x - tolerance);
+        final int c1 = column(x + tolerance);
+        final int r0 = row(y - tolerance);
+        final int r1 = row(y + tolerance);
+        final double maxDistance = tolerance * tolerance;
+        double nearestDistance = Double.POSITIVE_INFINITY;
+        int nearest = 0;
+        for (int r = r0; r <= r1; r++) {
+            final int rowStart = r * columns;
+            // the nodes of adjacent cells in a row are stored consecutively
+            final int end = cellStart[rowStart + c1 + 1];
+            for (int i = cellStart[rowStart + c0]; i < end; i++) {
+                final double dx = xs[i] - x;
+                final double dy = ys[i] - y;
+                final double distance = dx * dx + dy * dy;
+                if (distance <= maxDistance && distance < nearestDistance) {
+                    nearestDistance = distance;
+                    nearest = edgeIndices[i];
+                }
+            }
+        }
+        return nearest;
+    }
+}
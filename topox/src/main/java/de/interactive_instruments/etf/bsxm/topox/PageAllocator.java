@@ -0,0 +1,188 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.bsxm.topox;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Allocates the fixed-size pages of the {@link PagedLongArray} and {@link PagedDoubleArray} stores.
+ *
+ * Pages are either allocated on the heap, in native memory or mapped from a temporary file, which is deleted when the
+ * allocator is closed. Native and mapped pages are not limited by the heap size. An allocator for a
+ * {@link TopologySnapshot} maps the existing pages of the snapshot file copy-on-write and does not allocate new pages.
+ *
+ * Non thread safe.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public final class PageAllocator implements Closeable {
+
+    // 1 MB pages
+    static final int PAGE_SHIFT_BYTES = 20;
+    static final int PAGE_SIZE_BYTES = 1 << PAGE_SHIFT_BYTES;
+
+    public enum Storage {
+        HEAP, DIRECT, MAPPED
+    }
+
+    private final Storage storage;
+    private final FileChannel channel;
+    private final boolean snapshot;
+    private long mappedBytes;
+
+    private PageAllocator(final Storage storage, final FileChannel channel) {
+        this(storage, channel, false);
+    }
+
+    private PageAllocator(final Storage storage, final FileChannel channel, final boolean snapshot) {
+        this.storage = storage;
+        this.channel = channel;
+        this.snapshot = snapshot;
+    }
+
+    public static PageAllocator heap() {
+        return new PageAllocator(Storage.HEAP, null);
+    }
+
+    public static PageAllocator direct() {
+        return new PageAllocator(Storage.DIRECT, null);
+    }
+
+    /**
+     * Creates an allocator that maps the pages from a new temporary file in a directory
+     *
+     * @param dir
+     *            directory for the temporary file
+     * @return allocator
+     * @throws IOException
+     *             if the file cannot be created
+     */
+    public static PageAllocator mapped(final Path dir) throws IOException {
+        final Path file = Files.createTempFile(dir, "topox", ".pages");
+        return new PageAllocator(Storage.MAPPED, FileChannel.open(file,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE));
+    }
+
+    /**
+     * Creates an allocator that maps the pages of a snapshot file. Changes to the pages are private and never written
+     * to the file.
+     *
+     * @param channel
+     *            channel of the snapshot file, opened for reading and writing and closed with the allocator
+     * @return allocator
+     */
+    static PageAllocator snapshot(final FileChannel channel) {
+        return new PageAllocator(Storage.MAPPED, channel, true);
+    }
+
+    /**
+     * Creates an allocator for a storage name: "heap", "direct" or "mapped". Mapped pages are stored in the directory.
+     *
+     * @param storageName
+     *            case-insensitive name of the storage
+     * @param dir
+     *            directory for temporary files
+     * @return allocator
+     * @throws IOException
+     *             if the file for mapped pages cannot be created
+     * @throws IllegalArgumentException
+     *             if the storage name is unknown
+     */
+    public static PageAllocator create(final String storageName, final Path dir) throws IOException {
+        switch (Storage.valueOf(storageName.trim().toUpperCase(Locale.ENGLISH))) {
+        case DIRECT:
+            return direct();
+        case MAPPED:
+            return mapped(dir);
+        default:
+            return heap();
+        }
+    }
+
+    public Storage storage() {
+        return storage;
+    }
+
+    LongBuffer allocateLongs() {
+        if (storage == Storage.HEAP) {
+            // backed by a long array
+            return LongBuffer.allocate(PAGE_SIZE_BYTES >>> 3);
+        }
+        return allocateBytes().asLongBuffer();
+    }
+
+    DoubleBuffer allocateDoubles() {
+        if (storage == Storage.HEAP) {
+            return DoubleBuffer.allocate(PAGE_SIZE_BYTES >>> 3);
+        }
+        return allocateBytes().asDoubleBuffer();
+    }
+
+    LongBuffer mapLongs(final long position) throws IOException {
+        return mapPrivate(position).asLongBuffer();
+    }
+
+    DoubleBuffer mapDoubles(final long position) throws IOException {
+        return mapPrivate(position).asDoubleBuffer();
+    }
+
+    private ByteBuffer mapPrivate(final long position) throws IOException {
+        return channel.map(FileChannel.MapMode.PRIVATE, position, PAGE_SIZE_BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    private ByteBuffer allocateBytes() {
+        if (snapshot) {
+            throw new IllegalStateException("Pages of a restored topology snapshot can not be extended");
+        }
+        if (storage == Storage.DIRECT) {
+            return ByteBuffer.allocateDirect(PAGE_SIZE_BYTES).order(ByteOrder.nativeOrder());
+        }
+        try {
+            final ByteBuffer page = channel.map(FileChannel.MapMode.READ_WRITE, mappedBytes, PAGE_SIZE_BYTES);
+            mappedBytes += PAGE_SIZE_BYTES;
+            return page.order(ByteOrder.nativeOrder());
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Deletes the temporary file of mapped pages or closes the snapshot file. Pages that have already been mapped stay
+     * accessible until they are garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.bsxm.topox;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+/**
+ * A growable array of primitive doubles that is split into fixed-size pages.
+ *
+ * In contrast to a TDoubleArrayList the values are never copied when the array grows, a new page is just appended. The
+ * pages are provided by a {@link PageAllocator} and can therefore be stored outside of the heap.
+ *
+ * Non thread safe.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class PagedDoubleArray {
+
+    static final int PAGE_SHIFT = PageAllocator.PAGE_SHIFT_BYTES - 3;
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final PageAllocator allocator;
+    private DoubleBuffer[] pages;
+    private int size;
+
+    PagedDoubleArray(final PageAllocator allocator, final int initialCapacity) {
+        this.allocator = allocator;
+        this.pages = new DoubleBuffer[Math.max(1, (initialCapacity >>> PAGE_SHIFT) + 1)];
+    }
+
+    /**
+     * Creates an array from existing pages
+     *
+     * @param pages
+     *            pages that hold all values, the last one may be only partially used
+     * @param size
+     *            number of values
+     */
+    PagedDoubleArray(final PageAllocator allocator, final DoubleBuffer[] pages, final int size) {
+        this.allocator = allocator;
+        this.pages = pages;
+        this.size = size;
+    }
+
+    void add(final double value) {
+        final int page = size >>> PAGE_SHIFT;
+        if (page == pages.length) {
+            pages = Arrays.copyOf(pages, pages.length << 1);
+        }
+        if (pages[page] == null) {
+            pages[page] = allocator.allocateDoubles();
+        }
+        pages[page].put(size & PAGE_MASK, value);
+        size++;
+    }
+
+    double getQuick(final int index) {
+        return pages[index >>> PAGE_SHIFT].get(index & PAGE_MASK);
+    }
+
+    double get(final int index) {
+        if (index >= size) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return getQuick(index);
+    }
+
+    void setQuick(final int index, final double value) {
+        pages[index >>> PAGE_SHIFT].put(index & PAGE_MASK, value);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of allocated pages that hold values
+     *
+     * @return number of pages
+     */
+    int pageCount() {
+        return (size + PAGE_MASK) >>> PAGE_SHIFT;
+    }
+
+    DoubleBuffer page(final int index) {
+        return pages[index];
+    }
+
+    /**
+     * Returns the number of bytes occupied by the allocated pages
+     *
+     * @return memory in bytes
+     */
+    long memorySize() {
+        return (long) pageCount() * PageAllocator.PAGE_SIZE_BYTES;
+    }
+}
@@ -0,0 +1,335 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.bsxm.topox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.IntStream;
+
+import gnu.trove.TDoubleArrayList;
+import gnu.trove.TLongArrayList;
+
+/**
+ * A parser that tokenizes the direct positions of multiple segments concurrently and passes the parsed coordinates in
+ * their original order to a sequential parser.
+ *
+ * The calls are collected in batches. When a batch is full, the direct positions of the batch are parsed and hashed in
+ * the common ForkJoin pool, while the coordinates of the previous batch are passed to the handler strategies of the
+ * target parser in the calling thread. The topology builder therefore receives exactly the same sequence of calls as in
+ * the sequential mode and produces the same edges, CCW-next links and errors, just later.
+ *
+ * The direct positions of a batch are kept in chunks, which are reused after the batch has been replayed. Direct
+ * positions that are written with {@link #buffer(int)} are therefore neither allocated nor copied per call. If a
+ * segment can not be parsed, a {@link DirectPositionsException} that identifies the segment is thrown by the call that
+ * replays it.
+ *
+ * All calls must be made by the same thread and {@link #flush()} must be called before the topology is accessed.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class ParallelPosListParser implements PosListParser {
+
+    // Markers that are used instead of a geometry type
+    private static final int NEXT_GEOMETRIC_OBJECT = -1;
+    private static final int NEXT_INTERIOR = -2;
+
+    // Flush a batch after this number of calls or collected bytes
+    private static final int MAX_BATCH_CALLS = 16384;
+    private static final long MAX_BATCH_BYTES = 16L * 1024 * 1024;
+
+    // Number of segments that are parsed by one task
+    private static final int SLICE_SIZE = 256;
+
+    // Size of the chunks for the direct positions, larger direct positions get an own array
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    private final HashingPosListParser target;
+    private Batch current = new Batch();
+    private CompletableFuture<Batch> pending;
+
+    // Chunks of replayed batches
+    private final ArrayDeque<byte[]> freeChunks = new ArrayDeque<>();
+    // Chunk of the current batch and the position of its first free byte
+    private byte[] chunk;
+    private int chunkPos;
+    // Array and offset of the last buffer() call
+    private byte[] buffer;
+    private int bufferOffset;
+
+    ParallelPosListParser(final HashingPosListParser target) {
+        this.target = target;
+    }
+
+    /**
+     * Collected calls of the parser and, after {@link #tokenize()}, the parsed coordinates
+     */
+    private static final class Batch {
+        // byte[] or String
+        private final Object[] sequences = new Object[MAX_BATCH_CALLS];
+        // range of byte[] sequences
+        private final int[] offsets = new int[MAX_BATCH_CALLS];
+        private final int[] lengths = new int[MAX_BATCH_CALLS];
+        private final long[] locations = new long[MAX_BATCH_CALLS];
+        // geometry type or marker
+        private final int[] types = new int[MAX_BATCH_CALLS];
+        private int size;
+        private long bytes;
+        private Slice[] slices;
+        // chunks that are used by the byte[] sequences
+        private final List<byte[]> chunks = new ArrayList<>();
+
+        private void add(final Object sequence, final int offset, final int length, final long location,
+                final int type) {
+            sequences[size] = sequence;
+            offsets[size] = offset;
+            lengths[size] = length;
+            locations[size] = location;
+            types[size] = type;
+            size++;
+            bytes += length;
+        }
+
+        private boolean isFull() {
+            return size == MAX_BATCH_CALLS || bytes >= MAX_BATCH_BYTES;
+        }
+
+        private Batch tokenize() {
+            final int sliceCount = (size + SLICE_SIZE - 1) / SLICE_SIZE;
+            slices = new Slice[sliceCount];
+            IntStream.range(0, sliceCount).parallel().forEach(s -> {
+                slices[s] = new Slice(this, s * SLICE_SIZE, Math.min(size, (s + 1) * SLICE_SIZE));
+            });
+            return this;
+        }
+    }
+
+    /**
+     * Parsed coordinates of a range of calls
+     */
+    private static final class Slice implements HashingSegmentHandler {
+        private final TDoubleArrayList coordinates = new TDoubleArrayList();
+        private final TLongArrayList hashes = new TLongArrayList();
+        // Coordinate count after each call of the slice
+        private final int[] ends;
+        private RuntimeException error;
+        private int errorIndex = -1;
+
+        private Slice(final Batch batch, final int from, final int to) {
+            this.ends = new int[to - from];
+            // Geometry type 0 passes the coordinates directly to this object
+            final HashingPosListParser parser = new HashingPosListParser(this);
+            for (int i = from; i < to; i++) {
+                final Object sequence = batch.sequences[i];
+                if (sequence != null) {
+                    try {
+                        if (sequence instanceof byte[]) {
+                            parser.parseDirectPositions((byte[]) sequence, batch.offsets[i], batch.lengths[i],
+                                    batch.locations[i], 0);
+                        } else {
+                            parser.parseDirectPositions((CharSequence) sequence, false, batch.locations[i], 0);
+                        }
+                    } catch (final RuntimeException e) {
+                        // Rethrown when the call is replayed, coordinates parsed before the error are still passed on
+                        this.error = e;
+                        this.errorIndex = i - from;
+                        ends[i - from] = hashes.size();
+                        return;
+                    }
+                }
+                ends[i - from] = hashes.size();
+            }
+        }
+
+        @Override
+        public void coordinate2d(final double x, final double y, final long hash, final long location, final int type) {
+            coordinates.add(x);
+            coordinates.add(y);
+            hashes.add(hash);
+        }
+
+        @Override
+        public void nextGeometricObject() {}
+
+        @Override
+        public void nextInterior() {}
+    }
+
+    @Override
+    public void parseDirectPositions(final byte[] byteSequence, final long location, final int geoType) {
+        parseDirectPositions(byteSequence, false, location, geoType);
+    }
+
+    @Override
+    public void parseDirectPositions(final CharSequence sequence, final long location, final int geoType) {
+        parseDirectPositions(sequence, false, location, geoType);
+    }
+
+    @Override
+    public void parseDirectPositions(final byte[] byteSequence, final boolean threeDCoordinates, final long location,
+            final int geoType) {
+        // The array is not copied, BaseX returns a new array for every text request
+        add(byteSequence, 0, byteSequence.length, location, geoType);
+    }
+
+    @Override
+    public void parseDirectPositions(final byte[] byteSequence, final int offset, final int length, final long location,
+            final int geoType) {
+        // the caller may reuse the array
+        System.arraycopy(byteSequence, offset, buffer(length), bufferOffset, length);
+        parseBuffer(length, location, geoType);
+    }
+
+    @Override
+    public byte[] buffer(final int length) {
+        if (length > CHUNK_SIZE) {
+            buffer = new byte[length];
+            bufferOffset = 0;
+        } else {
+            if (chunk == null || chunk.length - chunkPos < length) {
+                chunk = freeChunks.isEmpty() ? new byte[CHUNK_SIZE] : freeChunks.poll();
+                chunkPos = 0;
+                current.chunks.add(chunk);
+            }
+            buffer = chunk;
+            bufferOffset = chunkPos;
+        }
+        return buffer;
+    }
+
+    @Override
+    public int bufferOffset() {
+        return bufferOffset;
+    }
+
+    @Override
+    public void parseBuffer(final int length, final long location, final int geoType) {
+        if (buffer == chunk) {
+            chunkPos = bufferOffset + length;
+        }
+        add(buffer, bufferOffset, length, location, geoType);
+    }
+
+    @Override
+    public void parseDirectPositions(final CharSequence sequence, final boolean threeDCoordinates, final long location,
+            final int geoType) {
+        final String str = sequence.toString();
+        add(str, 0, str.length(), location, geoType);
+    }
+
+    @Override
+    public void dimension(final boolean threeDCoordinates) {
+        // not evaluated by the hashing parser, no need to defer it
+        target.dimension(threeDCoordinates);
+    }
+
+    @Override
+    public void nextGeometricObject() {
+        add(null, 0, 0, 0, NEXT_GEOMETRIC_OBJECT);
+    }
+
+    @Override
+    public void nextInterior() {
+        add(null, 0, 0, 0, NEXT_INTERIOR);
+    }
+
+    private void add(final Object sequence, final int offset, final int length, final long location,
+            final int type) {
+        current.add(sequence, offset, length, location, type);
+        if (current.isFull()) {
+            submit();
+        }
+    }
+
+    /**
+     * Start parsing the current batch and replay the previous one while the current one is being parsed
+     */
+    private void submit() {
+        final Batch batch = current;
+        current = new Batch();
+        // the chunk belongs to the submitted batch
+        chunk = null;
+        final CompletableFuture<Batch> tokenized = CompletableFuture.supplyAsync(batch::tokenize);
+        final CompletableFuture<Batch> previous = pending;
+        pending = tokenized;
+        if (previous != null) {
+            replay(previous);
+        }
+    }
+
+    /**
+     * Pass all collected calls to the target parser and wait until they have been processed
+     */
+    void flush() {
+        if (current.size > 0) {
+            submit();
+        }
+        if (pending != null) {
+            final CompletableFuture<Batch> previous = pending;
+            pending = null;
+            replay(previous);
+        }
+    }
+
+    private void replay(final CompletableFuture<Batch> future) {
+        final Batch batch;
+        try {
+            batch = future.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        // The direct positions have been parsed, the chunks can be reused
+        freeChunks.addAll(batch.chunks);
+        for (int s = 0; s < batch.slices.length; s++) {
+            final Slice slice = batch.slices[s];
+            final int offset = s * SLICE_SIZE;
+            int coordinate = 0;
+            for (int j = 0; j < slice.ends.length; j++) {
+                final int i = offset + j;
+                final int type = batch.types[i];
+                if (type == NEXT_GEOMETRIC_OBJECT) {
+                    target.nextGeometricObject();
+                } else if (type == NEXT_INTERIOR) {
+                    target.nextInterior();
+                } else {
+                    final long location = batch.locations[i];
+                    for (final int end = slice.ends[j]; coordinate < end; coordinate++) {
+                        target.coordinate2d(slice.coordinates.getQuick(coordinate * 2),
+                                slice.coordinates.getQuick(coordinate * 2 + 1),
+                                slice.hashes.getQuick(coordinate), location, type);
+                    }
+                    if (j == slice.errorIndex) {
+                        // drop the remaining calls, as the sequential parser would have been aborted here
+                        pending = null;
+                        current = new Batch();
+                        chunk = null;
+                        throw new DirectPositionsException(location, slice.error);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -20,6 +20,8 @@
  */
 package de.interactive_instruments.etf.bsxm.topox;
 
+import java.util.Arrays;
+
 /**
  * An interface for parsing the direct positions of geometric objects
  *
@@ -65,6 +67,57 @@ public interface PosListParser {
     void parseDirectPositions(final byte[] byteSequence, final boolean threeDCoordinates, final long location,
             final int geoType);
 
+    /**
+     * Parse the direct positions in a range of a byte array, which may be reused by the caller after the call.
+     *
+     * @param byteSequence
+     *            byte array containing direct positions
+     * @param offset
+     *            index of the first byte
+     * @param length
+     *            number of bytes
+     * @param location
+     *            location information of the direct positions, e.g. an ID
+     * @param geoType
+     *            Geometry type
+     */
+    default void parseDirectPositions(final byte[] byteSequence, final int offset, final int length, final long location,
+            final int geoType) {
+        parseDirectPositions(Arrays.copyOfRange(byteSequence, offset, offset + length), false, location, geoType);
+    }
+
+    /**
+     * Returns an array owned by the parser, into which the caller can write the next direct positions. The direct
+     * positions are then parsed with {@link #parseBuffer(int, long, int)}. In contrast to
+     * {@link #parseDirectPositions(byte[], int, int, long, int)} the direct positions are not copied, if the parser
+     * keeps them for a deferred parsing.
+     *
+     * @param length
+     *            number of bytes that will be written
+     * @return array with at least length free bytes from {@link #bufferOffset()} on
+     */
+    byte[] buffer(final int length);
+
+    /**
+     * Returns the index in the array of the last {@link #buffer(int)} call, at which the direct positions must be
+     * written.
+     *
+     * @return index of the first byte
+     */
+    int bufferOffset();
+
+    /**
+     * Parse the direct positions that have been written into the array of the last {@link #buffer(int)} call.
+     *
+     * @param length
+     *            number of written bytes
+     * @param location
+     *            location information of the direct positions, e.g. an ID
+     * @param geoType
+     *            Geometry type
+     */
+    void parseBuffer(final int length, final long location, final int geoType);
+
     /**
      * Parse the direct positions of a byte array. The second argument overrides a previous dimension() call temporarily.
      *
@@ -24,11 +24,12 @@ import static de.interactive_instruments.etf.bsxm.topox.TopologyErrorType.*;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.stream.IntStream;
 
 import de.interactive_instruments.etf.bsxm.topox.geojson.writer.GeoJsonWriter;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TLongArrayList;
 
 /**
  * The Theme object bundles all objects that are used to create topological information for one or multiple Features,
@@ -43,6 +44,10 @@ public class Theme implements Serializable {
     public final String errorFile;
     public final GeoJsonWriter geoJsonWriter;
     public final PosListParser parser;
+    // Only set if the segments are parsed concurrently
+    private final ParallelPosListParser parallelParser;
+    // Only set if a snapshot is written when the parsing is completed
+    private final TopologyErrorRecorder snapshotRecorder;
     private boolean topologyMarkingFunctionCalled = false;
 
     final Topology topology;
@@ -50,20 +55,91 @@ public class Theme implements Serializable {
 
     public Theme(final String name, final TopologyErrorCollector topologyErrorCollector, final String errorFile,
             final GeoJsonWriter geoJsonWriter, final TopologyBuilder topologyBuilder) {
+        this(name, topologyErrorCollector, errorFile, geoJsonWriter, topologyBuilder, false);
+    }
+
+    /**
+     * Creates a new Theme
+     *
+     * @param parallelParsing
+     *            if true, the direct positions are parsed concurrently in batches and the topology is built when a batch
+     *            is complete or the topology is accessed. The result is the same as with sequential parsing.
+     */
+    public Theme(final String name, final TopologyErrorCollector topologyErrorCollector, final String errorFile,
+            final GeoJsonWriter geoJsonWriter, final TopologyBuilder topologyBuilder, final boolean parallelParsing) {
+        this(name, topologyErrorCollector, errorFile, geoJsonWriter, topologyBuilder, parallelParsing, null);
+    }
+
+    /**
+     * Creates a new Theme
+     *
+     * If the builder has been restored from a {@link TopologySnapshot}, all parsing calls are ignored.
+     *
+     * @param snapshotRecorder
+     *            if not null, a snapshot of the topology is written with the recorded errors when the parsing is
+     *            completed. The recorder must be the error collector of the theme and the builder.
+     */
+    public Theme(final String name, final TopologyErrorCollector topologyErrorCollector, final String errorFile,
+            final GeoJsonWriter geoJsonWriter, final TopologyBuilder topologyBuilder, final boolean parallelParsing,
+            final TopologyErrorRecorder snapshotRecorder) {
         this.name = name;
         this.topologyErrorCollector = topologyErrorCollector;
         this.errorFile = errorFile;
         this.geoJsonWriter = geoJsonWriter;
         this.topologyBuilder = topologyBuilder;
         this.topology = new TopologyStore(topologyBuilder);
-        this.parser = new HashingPosListParser(topologyBuilder);
+        this.snapshotRecorder = snapshotRecorder;
+        if (topologyBuilder.isRestored()) {
+            this.parallelParser = null;
+            this.parser = new IgnoringPosListParser();
+            return;
+        }
+        final HashingPosListParser hashingParser = new HashingPosListParser(topologyBuilder);
+        if (parallelParsing) {
+            this.parallelParser = new ParallelPosListParser(hashingParser);
+            this.parser = this.parallelParser;
+        } else {
+            this.parallelParser = null;
+            this.parser = hashingParser;
+        }
     }
 
     public void nextInterior() {
-        this.topologyBuilder.nextInterior();
+        if (parallelParser == null && !topologyBuilder.isRestored()) {
+            this.topologyBuilder.nextInterior();
+        }
+        // otherwise the switch is replayed in order by the parser
+    }
+
+    /**
+     * Ensures that all parsed segments have been added to the topology and that all errors reported so far have been
+     * written, and writes the snapshot, if requested. Must be called before the topology is accessed.
+     */
+    public void completeParsing() {
+        flushParser();
+        if (snapshotRecorder != null) {
+            topologyErrorCollector.flush();
+            snapshotRecorder.writeSnapshot(topologyBuilder);
+        }
+    }
+
+    private void flushParser() {
+        if (parallelParser != null) {
+            parallelParser.flush();
+        }
+    }
+
+    /**
+     * Returns true if the topology has been restored from a snapshot and the parsing functions can be skipped.
+     *
+     * @return true if restored
+     */
+    public boolean isRestored() {
+        return topologyBuilder.isRestored();
     }
 
     public int detectHoles() {
+        completeParsing();
         int count = 0;
         for (final Topology.Edge emptyInterior : topology.emptyInteriors()) {
             count++;
@@ -71,7 +147,7 @@ public class Theme implements Serializable {
                     emptyInterior.source().x(),
                     emptyInterior.source().y(),
                     "IS",
-                    String.valueOf(emptyInterior.leftObject()));
+                    emptyInterior.leftObject());
         }
         return count;
     }
@@ -86,6 +162,7 @@ public class Theme implements Serializable {
 
     public int detectFreeStandingSurfaces() {
         checkTopologyMarkingFunctionCalled();
+        completeParsing();
         int count = 0;
         for (final Topology.Edge freeStandingSurface : topology.freeStandingSurfaces()) {
             count++;
@@ -93,13 +170,14 @@ public class Theme implements Serializable {
                     freeStandingSurface.source().x(),
                     freeStandingSurface.source().y(),
                     "IS",
-                    String.valueOf(freeStandingSurface.leftObject()));
+                    freeStandingSurface.leftObject());
         }
         return count;
     }
 
     public int detectUnenclosedBoundaries() {
         checkTopologyMarkingFunctionCalled();
+        completeParsing();
         int count = 0;
         for (final Topology.Edge unenclosedEdge : topology.unenclosedBoundaries()) {
             count++;
@@ -107,54 +185,127 @@ public class Theme implements Serializable {
                     unenclosedEdge.source().x(),
                     unenclosedEdge.source().y(),
                     "IS",
-                    String.valueOf(unenclosedEdge.leftObject()));
+                    unenclosedEdge.leftObject());
         }
         return count;
     }
 
     public int detectFreeStandingSurfacesWithAllObjects() {
         checkTopologyMarkingFunctionCalled();
-        int count = 0;
+        completeParsing();
+        final List<Topology.Edge> freeStandingSurfaces = new ArrayList<>();
         for (final Topology.Edge freeStandingSurface : topology.freeStandingSurfaces()) {
-            count++;
-
-            Topology.Edge nextConnectedEdge = freeStandingSurface.targetCcwNext();
-            final int maxCount = 1_000_000;
-            int c = 0;
-            // compressed indexes of the geometric objects
-            final List<Long> compressedObjIds = new ArrayList<>();
-            // object ids
-            final Set<Integer> objIds = new HashSet<>();
-            while (!nextConnectedEdge.equals(freeStandingSurface) && c++ < maxCount) {
-                final long objId = nextConnectedEdge.leftObject();
-                if (objId != 0 && objIds.add(DataCompression.preObject(objId))) {
-                    compressedObjIds.add(objId);
-                }
-                nextConnectedEdge = nextConnectedEdge.targetCcwNext();
-            }
-
-            final String[] isIds = new String[objIds.size() * 2];
-            int i = 0;
-            for (final Long compressedObjId : compressedObjIds) {
-                isIds[i++] = "IS";
-                isIds[i++] = String.valueOf(compressedObjId);
-            }
-
+            freeStandingSurfaces.add(freeStandingSurface);
+        }
+        // The surfaces are only read, collect the objects in parallel and report them in order
+        final String[][] objects = IntStream.range(0, freeStandingSurfaces.size()).parallel()
+                .mapToObj(s -> surfaceObjects(freeStandingSurfaces.get(s)))
+                .toArray(String[][]::new);
+        for (int s = 0; s < objects.length; s++) {
+            final Topology.Edge freeStandingSurface = freeStandingSurfaces.get(s);
             topologyErrorCollector.collectError(
                     FREE_STANDING_SURFACE_DETAILED,
                     freeStandingSurface.source().x(),
                     freeStandingSurface.source().y(),
-                    isIds);
+                    objects[s]);
+        }
+        return objects.length;
+    }
+
+    private static String[] surfaceObjects(final Topology.Edge freeStandingSurface) {
+        Topology.Edge nextConnectedEdge = freeStandingSurface.targetCcwNext();
+        final int maxCount = 1_000_000;
+        int c = 0;
+        // compressed indexes of the geometric objects
+        final TLongArrayList compressedObjIds = new TLongArrayList();
+        // object ids
+        final TIntHashSet objIds = new TIntHashSet();
+        while (!nextConnectedEdge.equals(freeStandingSurface) && c++ < maxCount) {
+            final long objId = nextConnectedEdge.leftObject();
+            if (objId != 0 && objIds.add(DataCompression.preObject(objId))) {
+                compressedObjIds.add(objId);
+            }
+            nextConnectedEdge = nextConnectedEdge.targetCcwNext();
+        }
+
+        final String[] isIds = new String[compressedObjIds.size() * 2];
+        int i = 0;
+        for (int o = 0; o < compressedObjIds.size(); o++) {
+            isIds[i++] = "IS";
+            isIds[i++] = String.valueOf(compressedObjIds.getQuick(o));
+        }
+        return isIds;
+    }
+
+    /**
+     * Releases the error collector and the storage of the topology
+     */
+    public void release() {
+        try {
+            topologyErrorCollector.release();
+        } finally {
+            topologyBuilder.release();
         }
-        return count;
     }
 
     public TopologyMXBean getMBean() {
         return (TopologyMXBean) topology;
     }
 
+    /**
+     * Ignores all direct positions of a restored topology
+     */
+    private static final class IgnoringPosListParser implements PosListParser {
+
+        private byte[] buffer = new byte[0];
+
+        @Override
+        public void parseDirectPositions(final byte[] byteSequence, final long location, final int geoType) {}
+
+        @Override
+        public void parseDirectPositions(final CharSequence sequence, final long location, final int geoType) {}
+
+        @Override
+        public void parseDirectPositions(final byte[] byteSequence, final boolean threeDCoordinates,
+                final long location, final int geoType) {}
+
+        @Override
+        public void parseDirectPositions(final byte[] byteSequence, final int offset, final int length,
+                final long location, final int geoType) {}
+
+        @Override
+        public byte[] buffer(final int length) {
+            if (buffer.length < length) {
+                buffer = new byte[length];
+            }
+            return buffer;
+        }
+
+        @Override
+        public int bufferOffset() {
+            return 0;
+        }
+
+        @Override
+        public void parseBuffer(final int length, final long location, final int geoType) {}
+
+        @Override
+        public void parseDirectPositions(final CharSequence sequence, final boolean threeDCoordinates,
+                final long location, final int geoType) {}
+
+        @Override
+        public void dimension(final boolean threeDCoordinates) {}
+
+        @Override
+        public void nextGeometricObject() {}
+
+        @Override
+        public void nextInterior() {}
+    }
+
     @Override
     public String toString() {
+        flushParser();
         return topologyBuilder.toString();
     }
 }
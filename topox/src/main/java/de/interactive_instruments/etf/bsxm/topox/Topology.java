@@ -189,6 +189,21 @@ public interface Topology {
      */
     Node node(final double x, final double y);
 
+    /**
+     * Get the node that is nearest to a X/Y coordinate within a tolerance
+     *
+     * The nodes are indexed with the first call, the topology must not be changed afterwards.
+     *
+     * @param x
+     *            X coordinate
+     * @param y
+     *            Y coordinate
+     * @param tolerance
+     *            maximum distance between the coordinate and the node
+     * @return the nearest node or null if there is no node within the tolerance
+     */
+    Node node(final double x, final double y, final double tolerance);
+
     /**
      * Returns edges that have objects only on one side
      *
@@ -25,11 +25,12 @@ import static de.interactive_instruments.etf.bsxm.topox.TopologyErrorType.*;
 import static java.lang.Math.abs;
 import static java.lang.Math.atan2;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
 
-import de.interactive_instruments.container.Pair;
 import de.interactive_instruments.etf.bsxm.TopoX;
+import de.interactive_instruments.exceptions.ExcUtils;
 import gnu.trove.*;
 
 /**
@@ -47,7 +48,7 @@ public class TopologyBuilder implements HashingSegmentHandler {
      * Array containing coordinates referenced from the topology edges. First index is the X, second one always the Y
      * coordinate.
      */
-    private final TDoubleArrayList coordinates;
+    private final PagedDoubleArray coordinates;
 
     /**
      * ID of the current geometry
@@ -60,19 +61,13 @@ public class TopologyBuilder implements HashingSegmentHandler {
     private int objectsProcessed = 0;
 
     /**
-     * Maps a coordinate hash to an edge index. The 0 edge index indicates that the edge does not exist. The coordinate hash
-     * is always mapped to edges where the coordinates are the origin.
-     *
-     * The data store is very fast but it can not handle collisions due to the use of a primitive data type.
+     * Maps the exact coordinates to an edge index. The 0 edge index indicates that the edge does not exist. The
+     * coordinates are mapped to the first edge that uses them, a positive index means that the coordinates are the origin
+     * of the edge and a negative index means that they are the end point of the edge.
      */
-    private final TLongIntHashMap coordinateHashToEdgeMap;
+    private final CoordinateEdgeMap coordinateToEdgeMap;
 
-    /**
-     * Secondary map for handling collisions. Uses more heap space and is slower due to auto boxing of the Double type.
-     *
-     * Todo consider using a rehash mechanism when collisions are detected
-     */
-    private final Map<Coordinate, Integer> coordinateCollisionHashToEdgeMap = new HashMap<>();
+    // Number of lookups for coordinates that are not part of the topology
     private int errors = 0;
 
     /**
@@ -91,7 +86,7 @@ public class TopologyBuilder implements HashingSegmentHandler {
      * Left object geometry location - Right object geometry location
      *
      * Edge index concept: To reduce memory, the direction of edges are encoded into the sign of the edge index. The edge
-     * index is used in the coordinate to edge mapping {@link #coordinateHashToEdgeMap} and the ccw next index from origin /
+     * index is used in the coordinate to edge mapping {@link #coordinateToEdgeMap} and the ccw next index from origin /
      * end {@link #CCWI_OFFSET}. Requesting the edge index for a coordinate, a positive index means that the coordinate is
      * the origin of the edge and a negative index means that the coordinate is the end point of the edge. The same applies
      * to the ccw next indexes {@link #CCWI_OFFSET} that are persisted for the start and the end point of an edge. A
@@ -108,7 +103,7 @@ public class TopologyBuilder implements HashingSegmentHandler {
      * The order of the array values are optimized for edge creation
      *
      */
-    private final TLongArrayList topology;
+    private final PagedLongArray topology;
 
     // Offset for the index reference of the X coordinate in the coordinates array.
     // Y is at position + 1
@@ -138,6 +133,9 @@ public class TopologyBuilder implements HashingSegmentHandler {
     // the whole cake
     private final static double PI_2 = Math.PI * 2;
 
+    // Number of edges that are searched by one task of the parallel sweeps
+    private static final int EDGES_PER_SEARCH_TASK = 1 << 16;
+
     // Right side location value that marks an edge as an unenclosed boundary
     public static final int ENCLOSED_BOUNDARY_MARK_VALUE = Integer.MIN_VALUE + 1;
 
@@ -157,6 +155,12 @@ public class TopologyBuilder implements HashingSegmentHandler {
     // surface boundary
     private boolean exterior;
 
+    // Allocator of the topology and coordinate pages
+    private final PageAllocator pageAllocator;
+
+    // True if the builder has been restored from a snapshot and can not be extended
+    private final boolean restored;
+
     // Previous X ordinate
     private double previousX;
     private double previousY;
@@ -172,47 +176,69 @@ public class TopologyBuilder implements HashingSegmentHandler {
             final TopologyErrorCollector errorCollector,
             final int initialEdgeCapacity,
             final double uniqueCoordinatesPerEdge) {
+        this(themeName, errorCollector, initialEdgeCapacity, uniqueCoordinatesPerEdge, PageAllocator.heap());
+    }
+
+    /**
+     * Creates a new builder
+     *
+     * @param pageAllocator
+     *            allocator for the pages of the edge and coordinate arrays, closed by {@link #release()}
+     */
+    public TopologyBuilder(final String themeName,
+            final TopologyErrorCollector errorCollector,
+            final int initialEdgeCapacity,
+            final double uniqueCoordinatesPerEdge,
+            final PageAllocator pageAllocator) {
         this.exterior = true;
+        this.restored = false;
+        this.pageAllocator = pageAllocator;
         this.errorCollector = errorCollector;
         this.themeName = themeName;
 
         this.edgeExistence = new TLongHashSet(initialEdgeCapacity);
-        this.topology = new TLongArrayList(initialEdgeCapacity * TOPOLOGY_FIELDS_SIZE);
+        this.topology = new PagedLongArray(pageAllocator, initialEdgeCapacity * TOPOLOGY_FIELDS_SIZE);
         for (int i = 0; i < TOPOLOGY_FIELDS_SIZE; i++) {
             this.topology.add(0);
         }
 
         final double coordinateArrSize = initialEdgeCapacity * uniqueCoordinatesPerEdge * 2;
-        this.coordinates = new TDoubleArrayList((int) coordinateArrSize);
+        this.coordinates = new PagedDoubleArray(pageAllocator, (int) coordinateArrSize);
         this.coordinates.add(Double.NaN);
         this.coordinates.add(Double.NaN);
 
-        this.coordinateHashToEdgeMap = new TLongIntHashMap((int) (coordinateArrSize / 2));
+        this.coordinateToEdgeMap = new CoordinateEdgeMap(this.coordinates, this::getMappedCoordIndex,
+                (int) (coordinateArrSize / 2));
     }
 
-    private final static class Coordinate extends Pair<Double, Double> {
-
-        public Coordinate(final Double left, final Double right) {
-            super(left, right);
-        }
-
-        /**
-         * Faster equality check, avoids using autoboxing functions
-         */
-        @Override
-        public boolean equals(final Object o) {
-            if ((!(o instanceof Coordinate))) {
-                return false;
-            }
-            final Coordinate c = (Coordinate) o;
-            return c.getLeft().doubleValue() == this.getLeft().doubleValue()
-                    && c.getRight().doubleValue() == this.getRight().doubleValue();
-        }
-
-        @Override
-        public String toString() {
-            return getLeft() + ", " + getRight();
-        }
+    /**
+     * Creates a builder from the data of a {@link TopologySnapshot}. The builder can not be extended.
+     */
+    TopologyBuilder(final String themeName,
+            final TopologyErrorCollector errorCollector,
+            final PageAllocator pageAllocator,
+            final PagedLongArray topology,
+            final PagedDoubleArray coordinates,
+            final int[] mapHashes,
+            final int[] mapEdgeIndices,
+            final int mapSize,
+            final int mapCollisions,
+            final int objectId,
+            final int objectsProcessed,
+            final int errors) {
+        this.exterior = true;
+        this.restored = true;
+        this.pageAllocator = pageAllocator;
+        this.errorCollector = errorCollector;
+        this.themeName = themeName;
+        this.edgeExistence = new TLongHashSet();
+        this.topology = topology;
+        this.coordinates = coordinates;
+        this.coordinateToEdgeMap = new CoordinateEdgeMap(coordinates, this::getMappedCoordIndex, mapHashes,
+                mapEdgeIndices, mapSize, mapCollisions);
+        this.objectId = objectId;
+        this.objectsProcessed = objectsProcessed;
+        this.errors = errors;
     }
 
     private void addCoordinates() {
@@ -222,23 +248,15 @@ public class TopologyBuilder implements HashingSegmentHandler {
     }
 
     /**
-     * Find a node by the hash of the previous coordinates. If found the previousEdgeIndex will be set. Otherwise the
-     * coordinates are added and the previousEdgeIndex is set to 0.
+     * Find a node by the previous coordinates. If found the previousEdgeIndex will be set. Otherwise the coordinates
+     * are added and the previousEdgeIndex is set to 0.
      */
     private void findOrCreateFirstNode() {
-        final long hashCode = calcCoordHashCode(this.previousX, this.previousY);
-        final int sourceEdgeIndex = coordinateHashToEdgeMap.get(hashCode);
+        final int sourceEdgeIndex = coordinateToEdgeMap.putIfAbsent(
+                this.previousX, this.previousY, this.topology.size());
         if (sourceEdgeIndex == 0) {
-            // There is no coordinate to edge mapping. Add the coordinates.
+            // There was no coordinate to edge mapping. Add the coordinates.
             addCoordinates();
-            coordinateHashToEdgeMap.put(hashCode, this.topology.size());
-        } else if (coordinatesNotEqual(sourceEdgeIndex, this.previousX, this.previousY)) {
-            // collision detection
-            final Object ret = coordinateCollisionHashToEdgeMap.putIfAbsent(
-                    new Coordinate(this.previousX, previousY), this.topology.size());
-            if (ret == null) {
-                addCoordinates();
-            }
         } else {
             this.previousEdgeIndex = sourceEdgeIndex;
         }
@@ -248,37 +266,18 @@ public class TopologyBuilder implements HashingSegmentHandler {
      * Find the target edge. Add coordinate if it does not exist yet.
      */
     private int getTargetEdgeEnsureCoordinates(final double x, final double y) {
-        final long hashCode = calcCoordHashCode(x, y);
-        final int targetEdgeIndex = coordinateHashToEdgeMap.get(hashCode);
-        // Check if the target edge exists
+        // If the target edge does not exist, use this edge to set a reverse-reference
+        // (negative index reference) to the edge that is created here
+        final int targetEdgeIndex = coordinateToEdgeMap.putIfAbsent(x, y, -this.topology.size());
         if (targetEdgeIndex == 0) {
-            // No, so add the coordinates
+            // and add the coordinates
             coordinates.add(x);
             coordinates.add(y);
-            // And use this edge to set a reverse-reference (negative index reference)
-            // to the edge that is created here
-            coordinateHashToEdgeMap.put(hashCode, -this.topology.size());
             return -this.topology.size();
-        } else if (coordinatesNotEqual(targetEdgeIndex, x, y)) {
-            // collision detection
-            final Object ret = coordinateCollisionHashToEdgeMap.putIfAbsent(new Coordinate(x, y), -this.topology.size());
-            if (ret == null) {
-                coordinates.add(x);
-                coordinates.add(y);
-                return -this.topology.size();
-            } else {
-                ++errors;
-                return (int) ret;
-            }
         }
         return targetEdgeIndex;
     }
 
-    private boolean coordinatesNotEqual(final int edgeIndex, final double x, final double y) {
-        final int coordIndex = getLeftOrRightByIndex(edgeIndex, COORDINATE_OFFSET);
-        return coordinates.getQuick(coordIndex) != x || coordinates.getQuick(coordIndex + 1) != y;
-    }
-
     /**
      * Get target edge index or return -1 if not found
      *
@@ -289,35 +288,41 @@ public class TopologyBuilder implements HashingSegmentHandler {
      * @return edge index or -1 if not found
      */
     int getTargetEdge(final double x, final double y) {
-        final long hashCode = calcCoordHashCode(x, y);
-        final int edgeIndex = coordinateHashToEdgeMap.get(hashCode);
-        if (coordinatesNotEqual(edgeIndex, x, y)) {
-            // collision detection
+        final int edgeIndex = coordinateToEdgeMap.get(x, y);
+        if (edgeIndex == 0) {
             ++errors;
-            final Object ret = coordinateCollisionHashToEdgeMap.get(new Coordinate(x, y));
-            if (ret == null) {
-                return -1;
-            } else {
-                return (int) ret;
-            }
+            return -1;
         }
         return edgeIndex;
     }
 
+    /**
+     * Adds the empty ccw nexts of the edge that is created. The field must exist before the ccw nexts of the adjacent
+     * edges are adjusted, as the adjustment also sets the ccw nexts of the new edge.
+     *
+     * @return index of the ccw nexts
+     */
+    private int addCcwNexts() {
+        final int index = topology.size();
+        topology.add(0);
+        return index;
+    }
+
     private void connectCurrentEdge(final int targetEdgeIndex, final long compressedLocation) {
         // adjust ccws
-        final int current = topology.size() - CCWI_OFFSET;
+        final int ccwNexts = addCcwNexts();
+        final int current = ccwNexts - CCWI_OFFSET;
         if (-current == targetEdgeIndex) {
             // connect the source of the current edge with an existing edge
             // Set previous as source ccw next and determine the target ccw next
-            topology.add(toLeft(adjustCcwNexts(this.previousEdgeIndex, current, compressedLocation)));
+            topology.setQuick(ccwNexts, toLeft(adjustCcwNexts(this.previousEdgeIndex, current, compressedLocation)));
         } else {
             // connect the target of the current edge with an existing edge
             // Set previous as source ccw next and determine the target ccw next
             final int r = adjustCcwNexts(targetEdgeIndex, -current, compressedLocation);
             // Set in previous edge this edge as target ccw next
             final int l = adjustCcwNexts(this.previousEdgeIndex, current, compressedLocation);
-            topology.add(compress(l, r));
+            topology.setQuick(ccwNexts, compress(l, r));
         }
     }
 
@@ -360,9 +365,9 @@ public class TopologyBuilder implements HashingSegmentHandler {
                 errorCollector.collectError(
                         INVALID_ANGLE,
                         this.coordinates.get(sourceEdgeCoordIndex), this.coordinates.get(sourceEdgeCoordIndex + 1),
-                        "OBJ", String.valueOf(this.objectId),
-                        "TX", String.valueOf(this.coordinates.get(targetEdgeCoordIndex)),
-                        "TY", String.valueOf(this.coordinates.get(targetEdgeCoordIndex + 1)));
+                        "OBJ", this.objectId,
+                        "TX", this.coordinates.get(targetEdgeCoordIndex),
+                        "TY", this.coordinates.get(targetEdgeCoordIndex + 1));
                 return -1;
             }
 
@@ -376,9 +381,9 @@ public class TopologyBuilder implements HashingSegmentHandler {
                     errorCollector.collectError(
                             RING_INTERSECTION,
                             this.coordinates.get(sourceEdgeCoordIndex), this.coordinates.get(sourceEdgeCoordIndex + 1),
-                            "IS", String.valueOf(compressedLocation),
-                            "CW", getLocationAsStr(-ccwNext),
-                            "CCW", getLocationAsStr(cwNext));
+                            "IS", compressedLocation,
+                            "CW", getLocation(-ccwNext),
+                            "CCW", getLocation(cwNext));
                 }
             } else {
                 // Right side of target edge. Must be negated to getTopologicalData the right hand side.
@@ -388,17 +393,17 @@ public class TopologyBuilder implements HashingSegmentHandler {
                     errorCollector.collectError(
                             RING_INTERSECTION,
                             this.coordinates.get(sourceEdgeCoordIndex), this.coordinates.get(sourceEdgeCoordIndex + 1),
-                            "IS", String.valueOf(compressedLocation),
-                            "CW", getLocationAsStr(-ccwNext),
-                            "CCW", getLocationAsStr(cwNext));
+                            "IS", compressedLocation,
+                            "CW", getLocation(-ccwNext),
+                            "CCW", getLocation(cwNext));
                 } else if (cwObjectFromTargetEdge != 0 && abs(cwObjectFromTargetEdge) != objectId) {
                     final int sourceEdgeCoordIndex = getEdgeCoordIndex(sourceEdgeIndex);
                     errorCollector.collectError(
                             RING_INTERSECTION,
                             this.coordinates.get(sourceEdgeCoordIndex), this.coordinates.get(sourceEdgeCoordIndex + 1),
-                            "IS", String.valueOf(compressedLocation),
-                            "CW", getLocationAsStr(-ccwNext),
-                            "CCW", getLocationAsStr(cwNext));
+                            "IS", compressedLocation,
+                            "CW", getLocation(-ccwNext),
+                            "CCW", getLocation(cwNext));
                 }
             }
             return setLeftOrRightCcwNextAndGetPrevious(cwNext, newTargetEdgeIndex);
@@ -409,11 +414,11 @@ public class TopologyBuilder implements HashingSegmentHandler {
         return objectId < 0;
     }
 
-    private String getLocationAsStr(final int loc) {
+    private long getLocation(final int loc) {
         if (loc > 0) {
-            return String.valueOf(topology.getQuick(loc + LEFT_LOCATION_INDEX));
+            return topology.getQuick(loc + LEFT_LOCATION_INDEX);
         } else {
-            return String.valueOf(topology.getQuick((-loc) + RIGHT_LOCATION_INDEX));
+            return topology.getQuick((-loc) + RIGHT_LOCATION_INDEX);
         }
     }
 
@@ -668,8 +673,8 @@ public class TopologyBuilder implements HashingSegmentHandler {
                     // The edge can not be found, most likely due to previous errors in the geometric object.
                     errorCollector.collectError(EDGE_NOT_FOUND,
                             this.previousX, this.previousY,
-                            "OBJ", String.valueOf(this.objectId),
-                            "TX", String.valueOf(x), "TY", String.valueOf(y));
+                            "OBJ", this.objectId,
+                            "TX", x, "TY", y);
                     this.previousEdgeIndex = 0;
                     previousX = x;
                     previousY = y;
@@ -707,14 +712,13 @@ public class TopologyBuilder implements HashingSegmentHandler {
 
                         addAnglesForArc(currentArc, x, y);
 
+                        // The source-ccw-next and target-ccw-next remain empty for the first edge
+                        final int ccwNexts = addCcwNexts();
                         if (targetEdgeIndex != this.previousEdgeIndex) {
                             // the edge is connected to an existing edge
                             final int targetCcwNext = adjustCcwNexts(targetEdgeIndex, this.previousEdgeIndex,
                                     compressedLocation);
-                            topology.add(toRight(targetCcwNext));
-                        } else {
-                            // First edge, set empty source-ccw-next and target-ccw-next
-                            topology.add(0);
+                            topology.setQuick(ccwNexts, toRight(targetCcwNext));
                         }
 
                         // Just set the object ID here, no checks required
@@ -737,12 +741,13 @@ public class TopologyBuilder implements HashingSegmentHandler {
                         addAnglesForArc(currentArc, x, y);
 
                         // Adjust the ccw-nexts
+                        final int ccwNexts = addCcwNexts();
                         final int sourceCcwNext = adjustCcwNexts(previousEdgeIndex, current, compressedLocation);
                         if (-current != targetEdgeIndex) {
                             final int targetCcwNext = adjustCcwNexts(targetEdgeIndex, -current, compressedLocation);
-                            topology.add(compress(sourceCcwNext, targetCcwNext));
+                            topology.setQuick(ccwNexts, compress(sourceCcwNext, targetCcwNext));
                         } else {
-                            topology.add(toLeft(sourceCcwNext));
+                            topology.setQuick(ccwNexts, toLeft(sourceCcwNext));
                         }
 
                         // Just set the object ID here, no checks required
@@ -800,8 +805,8 @@ public class TopologyBuilder implements HashingSegmentHandler {
                 // The edge can not be found, most likely due to previous errors in the geometric object.
                 errorCollector.collectError(EDGE_NOT_FOUND,
                         this.previousX, this.previousY,
-                        "OBJ", String.valueOf(this.objectId),
-                        "TX", String.valueOf(x), "TY", String.valueOf(y));
+                        "OBJ", this.objectId,
+                        "TX", x, "TY", y);
                 this.previousEdgeIndex = 0;
                 this.previousHash = 0;
                 return;
@@ -837,13 +842,12 @@ public class TopologyBuilder implements HashingSegmentHandler {
 
                     addAnglesForLineSegment(x, y);
 
+                    // The source-ccw-next and target-ccw-next remain empty for the first edge
+                    final int ccwNexts = addCcwNexts();
                     if (targetEdgeIndex != this.previousEdgeIndex) {
                         // the edge is connected to an existing edge
                         final int targetCcwNext = adjustCcwNexts(targetEdgeIndex, this.previousEdgeIndex, compressedLocation);
-                        topology.add(toRight(targetCcwNext));
-                    } else {
-                        // First edge, set empty source-ccw-next and target-ccw-next
-                        topology.add(0);
+                        topology.setQuick(ccwNexts, toRight(targetCcwNext));
                     }
 
                     // Just set the object ID here, no checks required
@@ -866,12 +870,13 @@ public class TopologyBuilder implements HashingSegmentHandler {
                     addAnglesForLineSegment(x, y);
 
                     // Adjust the ccw-nexts
+                    final int ccwNexts = addCcwNexts();
                     final int sourceCcwNext = adjustCcwNexts(previousEdgeIndex, current, compressedLocation);
                     if (-current != targetEdgeIndex) {
                         final int targetCcwNext = adjustCcwNexts(targetEdgeIndex, -current, compressedLocation);
-                        topology.add(compress(sourceCcwNext, targetCcwNext));
+                        topology.setQuick(ccwNexts, compress(sourceCcwNext, targetCcwNext));
                     } else {
-                        topology.add(toLeft(sourceCcwNext));
+                        topology.setQuick(ccwNexts, toLeft(sourceCcwNext));
                     }
 
                     // Just set the object ID here, no checks required
@@ -922,9 +927,9 @@ public class TopologyBuilder implements HashingSegmentHandler {
                 this.coordinates.get(edgeCoordIndex),
                 this.coordinates.get(edgeCoordIndex + 1),
                 // existing object id
-                "IS", String.valueOf(topology.getQuick(locationOffset)),
+                "IS", topology.getQuick(locationOffset),
                 // new object overlapping id
-                "O", String.valueOf(compressedLocation));
+                "O", compressedLocation);
     }
 
     private void collectErrorOverlappingEdges(final long compressedLocation, final int locationOffset) {
@@ -934,9 +939,9 @@ public class TopologyBuilder implements HashingSegmentHandler {
                 this.coordinates.get(edgeCoordIndex),
                 this.coordinates.get(edgeCoordIndex + 1),
                 // existing object id
-                "IS", String.valueOf(topology.getQuick(locationOffset)),
+                "IS", topology.getQuick(locationOffset),
                 // new object overlapping id
-                "O", String.valueOf(compressedLocation));
+                "O", compressedLocation);
     }
 
     private void setObject(final long compressedLocation) {
@@ -1055,6 +1060,17 @@ public class TopologyBuilder implements HashingSegmentHandler {
         }
     }
 
+    /**
+     * Resolves an edge index of the coordinate to edge mapping to the index of its coordinates. The coordinate index
+     * of the edge that is created is not stored yet, its coordinates are the last ones that have been added.
+     */
+    private int getMappedCoordIndex(final int edgeIndex) {
+        if (Math.abs(edgeIndex) >= this.topology.size()) {
+            return this.coordinates.size() - 2;
+        }
+        return getEdgeCoordIndex(edgeIndex);
+    }
+
     static long calcCoordHashCode(final double x, final double y) {
         long coordHash = 0xcbf29ce484222325L;
         coordHash = coordHash * 0x100000001b3L * Double.doubleToLongBits(x);
@@ -1071,6 +1087,28 @@ public class TopologyBuilder implements HashingSegmentHandler {
         return !edgeExistence.add(edgeHash);
     }
 
+    PagedLongArray topologicalData() {
+        return topology;
+    }
+
+    PagedDoubleArray coordinateData() {
+        return coordinates;
+    }
+
+    CoordinateEdgeMap coordinateEdgeMap() {
+        return coordinateToEdgeMap;
+    }
+
+    /**
+     * Returns true if the builder has been restored from a snapshot. Restored builders can not be extended with further
+     * objects.
+     *
+     * @return true if restored
+     */
+    public boolean isRestored() {
+        return restored;
+    }
+
     int internalTopologicalDataSize() {
         return topology.size();
     }
@@ -1087,24 +1125,73 @@ public class TopologyBuilder implements HashingSegmentHandler {
         return coordinates.getQuick(coordinateIndex);
     }
 
+    /**
+     * Searches the edges that fulfill a condition in parallel. Used to find the start edges of the sweeps over the
+     * topology, which then only visit the found edges in ascending order.
+     *
+     * @param condition
+     *            condition that only reads the topology
+     * @return found edge indices in ascending order
+     */
+    private TIntArrayList findEdges(final IntPredicate condition) {
+        final int end = topology.size();
+        final int taskCount = (end - TOPOLOGY_FIELDS_SIZE + EDGES_PER_SEARCH_TASK * TOPOLOGY_FIELDS_SIZE - 1)
+                / (EDGES_PER_SEARCH_TASK * TOPOLOGY_FIELDS_SIZE);
+        final TIntArrayList[] found = IntStream.range(0, Math.max(0, taskCount)).parallel().mapToObj(t -> {
+            final TIntArrayList edges = new TIntArrayList();
+            final int from = TOPOLOGY_FIELDS_SIZE + t * EDGES_PER_SEARCH_TASK * TOPOLOGY_FIELDS_SIZE;
+            final int to = Math.min(end, from + EDGES_PER_SEARCH_TASK * TOPOLOGY_FIELDS_SIZE);
+            for (int i = from; i < to; i += TOPOLOGY_FIELDS_SIZE) {
+                if (condition.test(i)) {
+                    edges.add(i);
+                }
+            }
+            return edges;
+        }).toArray(TIntArrayList[]::new);
+        if (found.length == 1) {
+            return found[0];
+        }
+        int size = 0;
+        for (final TIntArrayList edges : found) {
+            size += edges.size();
+        }
+        final TIntArrayList edges = new TIntArrayList(size);
+        for (final TIntArrayList f : found) {
+            for (int i = 0; i < f.size(); i++) {
+                edges.add(f.getQuick(i));
+            }
+        }
+        return edges;
+    }
+
+    private boolean isInteriorEdge(final int rEdgeIndex) {
+        // Check if the edge of an interior ring has nothing on the right side
+        return topology.getQuick(rEdgeIndex + RIGHT_LOCATION_INDEX) == 0
+                && getLeft(topology.getQuick(rEdgeIndex + OBJ_OFFSET)) < 0;
+    }
+
     private boolean checkIfInteriorEdgeAndMark(final int edgeIndex) {
         final int rEdgeIndex = abs(edgeIndex);
-        if (topology.getQuick(rEdgeIndex + RIGHT_LOCATION_INDEX) == 0) {
-            final long obj = topology.getQuick(rEdgeIndex + OBJ_OFFSET);
-            // Check if this is an exterior edge
-            if (getLeft(obj) < 0) {
-                // mark it
-                topology.setQuick(rEdgeIndex + RIGHT_LOCATION_INDEX, Integer.MIN_VALUE);
-                return true;
-            }
+        if (isInteriorEdge(rEdgeIndex)) {
+            // mark it
+            topology.setQuick(rEdgeIndex + RIGHT_LOCATION_INDEX, Integer.MIN_VALUE);
+            return true;
         }
         return false;
     }
 
-    int findNextEmptyInterior(final int currentPos) {
+    /**
+     * Find edges of interior rings that have nothing on the right side. Edges of the same ring are only reported once.
+     *
+     * @param foundEmptyInteriorEdges
+     *            array for adding the found edges
+     */
+    void findEmptyInteriors(final TIntArrayList foundEmptyInteriorEdges) {
         final int maxEdgeSearch = 100_000;
-        for (int i = currentPos; i < topology.size(); i += TOPOLOGY_FIELDS_SIZE) {
-            // Check if an object is set on the right side
+        final TIntArrayList candidates = findEdges(this::isInteriorEdge);
+        for (int c = 0; c < candidates.size(); c++) {
+            final int i = candidates.getQuick(c);
+            // Check again, the edge may have been marked while following a previous ring
             if (checkIfInteriorEdgeAndMark(i)) {
                 // Check if this is an interior edge
                 final int emptyInteriorEdge = i;
@@ -1114,10 +1201,15 @@ public class TopologyBuilder implements HashingSegmentHandler {
                         checkIfInteriorEdgeAndMark(next); steps++) {
                     next = getLeftOrRightByIndex(-next, CCWI_OFFSET);
                 }
-                return emptyInteriorEdge;
+                foundEmptyInteriorEdges.add(emptyInteriorEdge);
             }
         }
-        return topology.size();
+    }
+
+    private boolean isOutsideExteriorEdge(final int edgeIndex) {
+        // Check if the edge of an exterior ring has nothing on the right side
+        return topology.getQuick(edgeIndex + RIGHT_LOCATION_INDEX) == 0
+                && getLeft(topology.getQuick(edgeIndex + OBJ_OFFSET)) > 0;
     }
 
     /**
@@ -1153,8 +1245,9 @@ public class TopologyBuilder implements HashingSegmentHandler {
     void findFreeStandingSurfaces(final TIntArrayList firstFoundFreeStandingSurfaceEdges,
             final TIntArrayList freeStandingSurfaceEdgeSize) {
         final int maxEdgeSearch = 1_000_000;
-
-        for (int i = TOPOLOGY_FIELDS_SIZE; i < topology.size(); i += TOPOLOGY_FIELDS_SIZE) {
+        final TIntArrayList candidates = findEdges(this::isOutsideExteriorEdge);
+        for (int c = 0; c < candidates.size(); c++) {
+            final int i = candidates.getQuick(c);
             // Check if an object is set on the right side
             if (checkIfOutsideExteriorEdgeAndMark(i)) {
                 // Found the first exterior edge without anything on the right side.
@@ -1183,8 +1276,12 @@ public class TopologyBuilder implements HashingSegmentHandler {
      */
     void findUnenclosedBoundaries(final TIntArrayList foundUnenclosedBoundaryEdges) {
         final int maxEdgeSearch = 1_000_000;
-
-        for (int i = TOPOLOGY_FIELDS_SIZE; i < topology.size(); i += TOPOLOGY_FIELDS_SIZE) {
+        final TIntArrayList candidates = findEdges(i -> {
+            final long right = topology.getQuick(i + RIGHT_LOCATION_INDEX);
+            return right == 0 || right == ENCLOSED_BOUNDARY_MARK_VALUE;
+        });
+        for (int c = 0; c < candidates.size(); c++) {
+            final int i = candidates.getQuick(c);
             // Check if an object is set on the right side
             if (checkIfOutsideExteriorEdgeAddUnenclosedEdgeAndMark(i, foundUnenclosedBoundaryEdges)) {
                 // Found the first exterior edge without anything on the right side.
@@ -1248,11 +1345,11 @@ public class TopologyBuilder implements HashingSegmentHandler {
         topology.setQuick(abs(edgeIndex) + RIGHT_LOCATION_INDEX, ENCLOSED_BOUNDARY_MARK_VALUE);
     }
 
-    static double getSourceAngle(final TLongArrayList topology, final int index) {
+    static double getSourceAngle(final PagedLongArray topology, final int index) {
         return Double.longBitsToDouble(topology.getQuick(index + SOURCE_ANGLE_OFFSET));
     }
 
-    static double getTargetAngle(final TLongArrayList topology, final int index) {
+    static double getTargetAngle(final PagedLongArray topology, final int index) {
         return Double.longBitsToDouble(topology.getQuick(index + TARGET_ANGLE_OFFSET));
     }
 
@@ -1264,12 +1361,12 @@ public class TopologyBuilder implements HashingSegmentHandler {
         }
     }
 
-    static void setRight(final TLongArrayList topology, final int index, final int right) {
+    static void setRight(final PagedLongArray topology, final int index, final int right) {
         final long v = topology.getQuick(index);
         topology.setQuick(index, compress((int) (v >> 32), right));
     }
 
-    static void setLeft(final TLongArrayList topology, final int index, final int left) {
+    static void setLeft(final PagedLongArray topology, final int index, final int left) {
         final long v = topology.getQuick(index);
         topology.setQuick(index, (v & 0x00000000FFFFFFFFL | (long) left << 32));
     }
@@ -1282,7 +1379,7 @@ public class TopologyBuilder implements HashingSegmentHandler {
         }
     }
 
-    static int setRightIfNullOrGet(final TLongArrayList topology, final int index, final int right) {
+    static int setRightIfNullOrGet(final PagedLongArray topology, final int index, final int right) {
         final long v = topology.getQuick(index);
         final int r = getRight(v);
         if (r == 0) {
@@ -1292,7 +1389,7 @@ public class TopologyBuilder implements HashingSegmentHandler {
         return r;
     }
 
-    static int setLeftIfNullOrGet(final TLongArrayList topology, final int index, final int left) {
+    static int setLeftIfNullOrGet(final PagedLongArray topology, final int index, final int left) {
         final long v = topology.getQuick(index);
         final int l = getLeft(v);
         if (l == 0) {
@@ -1361,6 +1458,17 @@ public class TopologyBuilder implements HashingSegmentHandler {
         exterior = false;
     }
 
+    /**
+     * Releases the temporary file of mapped edge and coordinate pages. The builder must not be used afterwards.
+     */
+    public void release() {
+        try {
+            pageAllocator.close();
+        } catch (final IOException e) {
+            ExcUtils.suppress(e);
+        }
+    }
+
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder("TopologyBuilder{ ");
@@ -1373,9 +1481,13 @@ public class TopologyBuilder implements HashingSegmentHandler {
         sb.append(", coordinates=");
         sb.append((coordinates.size() - 2) / 2);
         sb.append(", lookupCollisions=");
-        sb.append(coordinateCollisionHashToEdgeMap.size());
+        sb.append(coordinateToEdgeMap.collisions());
         sb.append(", lookupErrors=");
         sb.append(errors);
+        sb.append(", storage=");
+        sb.append(pageAllocator.storage());
+        sb.append(", storageSize=");
+        sb.append(topology.memorySize() + coordinates.memorySize());
         sb.append('}');
         return sb.toString();
     }
@@ -1389,7 +1501,7 @@ public class TopologyBuilder implements HashingSegmentHandler {
     }
 
     int internalGetLookupCollisions() {
-        return coordinateCollisionHashToEdgeMap.size();
+        return coordinateToEdgeMap.collisions();
     }
 
     int internalGetLookupErrors() {
@@ -34,4 +34,37 @@ public interface TopologyErrorCollector extends Releasable {
     void collectError(final TopologyErrorType topologyErrorType, final String... parameter);
 
     void collectError(final TopologyErrorType topologyErrorType, final double x, final double y, final String... parameter);
+
+    // The following methods avoid converting the parameter values to strings in the caller thread. The default
+    // implementations convert the values with String.valueOf().
+
+    default void collectError(final TopologyErrorType topologyErrorType, final double x, final double y,
+            final String p1, final long v1) {
+        collectError(topologyErrorType, x, y, p1, String.valueOf(v1));
+    }
+
+    default void collectError(final TopologyErrorType topologyErrorType, final double x, final double y,
+            final String p1, final long v1, final String p2, final long v2) {
+        collectError(topologyErrorType, x, y, p1, String.valueOf(v1), p2, String.valueOf(v2));
+    }
+
+    default void collectError(final TopologyErrorType topologyErrorType, final double x, final double y,
+            final String p1, final long v1, final String p2, final long v2, final String p3, final long v3) {
+        collectError(topologyErrorType, x, y, p1, String.valueOf(v1), p2, String.valueOf(v2), p3, String.valueOf(v3));
+    }
+
+    default void collectError(final TopologyErrorType topologyErrorType, final double x, final double y,
+            final String p1, final long v1, final String p2, final double v2, final String p3, final double v3) {
+        collectError(topologyErrorType, x, y, p1, String.valueOf(v1), p2, String.valueOf(v2), p3, String.valueOf(v3));
+    }
+
+    default void collectError(final TopologyErrorType topologyErrorType, final double x, final double y,
+            final String p1, final double v1, final String p2, final double v2) {
+        collectError(topologyErrorType, x, y, p1, String.valueOf(v1), p2, String.valueOf(v2));
+    }
+
+    /**
+     * Blocks until all collected errors have been passed on, if the errors are collected asynchronously.
+     */
+    default void flush() {}
 }
@@ -0,0 +1,205 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.bsxm.topox;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import de.interactive_instruments.exceptions.ExcUtils;
+
+/**
+ * Forwards topological errors to another collector and records them for a {@link TopologySnapshot}.
+ *
+ * The errors that are reported while the topology is built are recorded in a log file next to the snapshot file. When
+ * the parsing is completed, the log is stored with the snapshot and the recording is stopped, so that errors of the
+ * detection functions are not part of the snapshot. When the snapshot is restored, the recorded errors are replayed.
+ *
+ * Non thread safe.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public final class TopologyErrorRecorder implements TopologyErrorCollector {
+
+    // Upper bound for reading the parameters of a recorded error, errors are reported with a few parameters
+    private static final int MAX_PARAMETERS = 1024;
+
+    private final TopologyErrorCollector collector;
+    private final Path snapshotFile;
+    private final String snapshotKey;
+    private final Path log;
+    // null if the recording has been stopped
+    private DataOutputStream out;
+    private int count;
+
+    /**
+     * Creates a new recorder
+     *
+     * @param collector
+     *            collector that receives all errors
+     * @param snapshotFile
+     *            file of the snapshot that is written when the parsing is completed
+     * @param snapshotKey
+     *            key of the snapshot
+     * @throws IOException
+     *             if the log file can not be created
+     */
+    public TopologyErrorRecorder(final TopologyErrorCollector collector, final Path snapshotFile,
+            final String snapshotKey) throws IOException {
+        this.collector = collector;
+        this.snapshotFile = snapshotFile;
+        this.snapshotKey = snapshotKey;
+        this.log = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".errors");
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(log)));
+    }
+
+    @Override
+    public void init() {
+        collector.init();
+    }
+
+    @Override
+    public void collectError(final TopologyErrorType topologyErrorType, final String... parameter) {
+        if (out != null) {
+            try {
+                out.writeByte(topologyErrorType.ordinal());
+                out.writeBoolean(false);
+                writeParameters(parameter);
+                count++;
+            } catch (final IOException e) {
+                ExcUtils.suppress(e);
+                discard();
+            }
+        }
+        collector.collectError(topologyErrorType, parameter);
+    }
+
+    @Override
+    public void collectError(final TopologyErrorType topologyErrorType, final double x, final double y,
+            final String... parameter) {
+        if (out != null) {
+            try {
+                out.writeByte(topologyErrorType.ordinal());
+                out.writeBoolean(true);
+                out.writeDouble(x);
+                out.writeDouble(y);
+                writeParameters(parameter);
+                count++;
+            } catch (final IOException e) {
+                ExcUtils.suppress(e);
+                discard();
+            }
+        }
+        collector.collectError(topologyErrorType, x, y, parameter);
+    }
+
+    private void writeParameters(final String... parameter) throws IOException {
+        if (parameter == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(parameter.length);
+            for (final String p : parameter) {
+                out.writeUTF(p);
+            }
+        }
+    }
+
+    /**
+     * Replays recorded errors
+     *
+     * @param in
+     *            recorded errors
+     * @param count
+     *            number of recorded errors
+     * @param collector
+     *            collector that receives the errors
+     * @throws IOException
+     *             if the errors can not be read
+     */
+    static void replay(final DataInput in, final int count, final TopologyErrorCollector collector) throws IOException {
+        final TopologyErrorType[] types = TopologyErrorType.values();
+        for (int i = 0; i < count; i++) {
+            final TopologyErrorType type = types[in.readUnsignedByte()];
+            final boolean withCoordinates = in.readBoolean();
+            final double x = withCoordinates ? in.readDouble() : 0;
+            final double y = withCoordinates ? in.readDouble() : 0;
+            final int length = in.readInt();
+            if (length < -1 || length > MAX_PARAMETERS) {
+                throw new IOException("Invalid number of recorded error parameters: " + length);
+            }
+            final String[] parameter = length < 0 ? null : new String[length];
+            for (int p = 0; p < length; p++) {
+                parameter[p] = in.readUTF();
+            }
+            if (withCoordinates) {
+                collector.collectError(type, x, y, parameter);
+            } else {
+                collector.collectError(type, parameter);
+            }
+        }
+    }
+
+    /**
+     * Stops the recording and writes the snapshot. Failures are suppressed, as the topology can still be used.
+     *
+     * @param builder
+     *            builder that has completed the parsing
+     */
+    void writeSnapshot(final TopologyBuilder builder) {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+            out = null;
+            TopologySnapshot.write(snapshotFile, snapshotKey, builder, log, count);
+        } catch (final IOException e) {
+            ExcUtils.suppress(e);
+        } finally {
+            discard();
+        }
+    }
+
+    private void discard() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (final IOException e) {
+                ExcUtils.suppress(e);
+            }
+            out = null;
+        }
+        try {
+            Files.deleteIfExists(log);
+        } catch (final IOException e) {
+            ExcUtils.suppress(e);
+        }
+    }
+
+    @Override
+    public void release() {
+        discard();
+        collector.release();
+    }
+}
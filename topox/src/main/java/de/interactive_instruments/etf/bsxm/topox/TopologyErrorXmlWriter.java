@@ -140,6 +140,11 @@ public class TopologyErrorXmlWriter implements TopologyErrorCollector {
 
     @Override
     public void release() {
+        if (counter < 0) {
+            // not initialized or already released
+            return;
+        }
+        counter = -1;
         try {
             // TopologicalErrors
             writer.writeEndElement();
@@ -0,0 +1,436 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.bsxm.topox;
+
+import static de.interactive_instruments.etf.bsxm.topox.PageAllocator.PAGE_SIZE_BYTES;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+import de.interactive_instruments.exceptions.ExcUtils;
+
+/**
+ * Persists the topological data structure of a {@link TopologyBuilder} in a binary file and restores it.
+ *
+ * A snapshot can be restored if the data that have been used to build the topology did not change, for instance if a
+ * test object is tested again and its databases are reused. The snapshot contains the edge and coordinate pages, the
+ * coordinate to edge mapping and the errors that have been reported while the topology was built. The pages are
+ * stored in the native byte order and are mapped copy-on-write when the snapshot is restored, so that the snapshot
+ * file is never changed. Snapshots written with another byte order, version or key are ignored.
+ *
+ * The key identifies the parsed data and must change whenever the data or the way they are parsed change. Only its
+ * SHA-256 digest is used in the file name and stored in the header.
+ *
+ * The header contains a CRC-32C checksum of the remaining file, which is verified before a snapshot is restored.
+ *
+ * File layout: header, edge pages, coordinate pages, hashes of the mapped coordinates, mapped edge indices, recorded
+ * errors.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+public final class TopologySnapshot {
+
+    // "TOPOXSNP"
+    private static final long MAGIC = 0x544F504F58534E50L;
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 4096;
+    private static final String FILE_SUFFIX = ".topox";
+
+    private TopologySnapshot() {}
+
+    /**
+     * Returns the snapshot file for a topology
+     *
+     * @param dir
+     *            directory of the snapshots
+     * @param themeName
+     *            name of the topology
+     * @param key
+     *            key that changes when the parsed data change
+     * @return path of the snapshot file
+     */
+    public static Path file(final Path dir, final String themeName, final String key) {
+        final StringBuilder name = new StringBuilder(themeName.replaceAll("[^A-Za-z0-9._-]", "_")).append('-');
+        for (final byte b : digest(key)) {
+            name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return dir.resolve(name.append(FILE_SUFFIX).toString());
+    }
+
+    private static byte[] digest(final String key) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+        } catch (final NoSuchAlgorithmException e) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes a snapshot. The snapshot is written to a temporary file first, which replaces the snapshot file when it is
+     * complete.
+     *
+     * @param file
+     *            snapshot file
+     * @param key
+     *            key of the snapshot
+     * @param builder
+     *            builder that has completed the parsing
+     * @param errorLog
+     *            errors recorded by a {@link TopologyErrorRecorder}
+     * @param errorCount
+     *            number of recorded errors
+     * @throws IOException
+     *             if the snapshot can not be written
+     */
+    static void write(final Path file, final String key, final TopologyBuilder builder, final Path errorLog,
+            final int errorCount) throws IOException {
+        final PagedLongArray topology = builder.topologicalData();
+        final PagedDoubleArray coordinates = builder.coordinateData();
+        final CoordinateEdgeMap map = builder.coordinateEdgeMap();
+        final byte[] name = builder.themeName.getBytes(StandardCharsets.UTF_8);
+        if (name.length > HEADER_SIZE / 2) {
+            throw new IOException("Theme name too long: " + builder.themeName);
+        }
+
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (final FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.position(HEADER_SIZE);
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(PAGE_SIZE_BYTES).order(ByteOrder.nativeOrder());
+            for (int i = 0; i < topology.pageCount(); i++) {
+                buffer.clear();
+                buffer.asLongBuffer().put(topology.page(i).duplicate().clear());
+                writeFully(channel, buffer);
+            }
+            for (int i = 0; i < coordinates.pageCount(); i++) {
+                buffer.clear();
+                buffer.asDoubleBuffer().put(coordinates.page(i).duplicate().clear());
+                writeFully(channel, buffer);
+            }
+            final int[] edgeIndices = map.edgeIndices();
+            writeInts(channel, buffer, map.hashes());
+            writeInts(channel, buffer, edgeIndices);
+
+            final long errorLogOffset = channel.position();
+            final long errorLogLength = Files.size(errorLog);
+            try (final FileChannel logChannel = FileChannel.open(errorLog, StandardOpenOption.READ)) {
+                for (long transferred = 0; transferred < errorLogLength;) {
+                    transferred += channel.transferFrom(logChannel, errorLogOffset + transferred,
+                            errorLogLength - transferred);
+                }
+            }
+
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+            header.putLong(MAGIC);
+            header.putInt(VERSION);
+            header.put(digest(key));
+            header.putInt(name.length);
+            header.put(name);
+            header.putInt(topology.size());
+            header.putInt(coordinates.size());
+            header.putInt(edgeIndices.length);
+            header.putInt(map.size());
+            header.putInt(map.collisions());
+            header.putInt(builder.internalGetCurrentObjectId());
+            header.putInt(builder.internalGetObjectsProcessed());
+            header.putInt(builder.internalGetLookupErrors());
+            header.putInt(errorCount);
+            header.putLong(errorLogLength);
+            header.putLong(checksum(channel, HEADER_SIZE, errorLogOffset + errorLogLength));
+            header.clear();
+            channel.position(0);
+            writeFully(channel, header);
+        } catch (final IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Restores a snapshot
+     *
+     * The snapshot is validated completely before the errors are replayed, so that the collector does not receive any
+     * errors if the snapshot can not be used. Any failure is suppressed and the topology must be built again.
+     *
+     * @param file
+     *            snapshot file
+     * @param themeName
+     *            name of the topology that must match the name in the snapshot
+     * @param key
+     *            key that must match the key of the snapshot
+     * @param errorCollector
+     *            initialized collector for the errors in the snapshot and for further errors
+     * @return the restored builder, which can not be extended, or null if the file does not exist, is not a valid
+     *         snapshot of the topology or can not be read
+     */
+    public static TopologyBuilder restore(final Path file, final String themeName, final String key,
+            final TopologyErrorCollector errorCollector) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        PageAllocator allocator = null;
+        try {
+            // Opened for writing as required by private mappings, the file is not changed
+            final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            allocator = PageAllocator.snapshot(channel);
+            final TopologyBuilder builder = restore(channel, allocator, themeName, key, errorCollector);
+            if (builder != null) {
+                allocator = null;
+            }
+            return builder;
+        } catch (final IOException | RuntimeException e) {
+            ExcUtils.suppress(e);
+            return null;
+        } finally {
+            if (allocator != null) {
+                try {
+                    allocator.close();
+                } catch (final IOException e) {
+                    ExcUtils.suppress(e);
+                }
+            }
+        }
+    }
+
+    private static TopologyBuilder restore(final FileChannel channel, final PageAllocator allocator,
+            final String themeName, final String key, final TopologyErrorCollector errorCollector) throws IOException {
+        final long fileSize = channel.size();
+        if (fileSize < HEADER_SIZE) {
+            return null;
+        }
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+        readFully(channel, header, 0);
+        header.flip();
+        if (header.getLong() != MAGIC || header.getInt() != VERSION) {
+            return null;
+        }
+        final byte[] keyDigest = new byte[32];
+        header.get(keyDigest);
+        if (!Arrays.equals(keyDigest, digest(key))) {
+            return null;
+        }
+        final int nameLength = header.getInt();
+        if (nameLength < 0 || nameLength > HEADER_SIZE / 2) {
+            return null;
+        }
+        final byte[] name = new byte[nameLength];
+        header.get(name);
+        if (!themeName.equals(new String(name, StandardCharsets.UTF_8))) {
+            return null;
+        }
+        final int topologySize = header.getInt();
+        final int coordinatesSize = header.getInt();
+        final int mapCapacity = header.getInt();
+        final int mapSize = header.getInt();
+        final int mapCollisions = header.getInt();
+        final int objectId = header.getInt();
+        final int objectsProcessed = header.getInt();
+        final int lookupErrors = header.getInt();
+        final int errorCount = header.getInt();
+        final long errorLogLength = header.getLong();
+        final long checksum = header.getLong();
+
+        final int topologyPages = pages(topologySize, PagedLongArray.PAGE_SHIFT);
+        final int coordinatePages = pages(coordinatesSize, PagedDoubleArray.PAGE_SHIFT);
+        final long coordinatesOffset = HEADER_SIZE + (long) topologyPages * PAGE_SIZE_BYTES;
+        final long hashesOffset = coordinatesOffset + (long) coordinatePages * PAGE_SIZE_BYTES;
+        final long edgeIndicesOffset = hashesOffset + mapCapacity * 4L;
+        final long errorLogOffset = edgeIndicesOffset + mapCapacity * 4L;
+        if (topologySize < 0 || coordinatesSize < 0 || Integer.bitCount(mapCapacity) != 1
+                || mapCapacity > CoordinateEdgeMap.MAX_CAPACITY || mapSize < 0 || mapSize > mapCapacity
+                || errorCount < 0 || errorLogLength < 0 || fileSize != errorLogOffset + errorLogLength) {
+            return null;
+        }
+        if (checksum != checksum(channel, HEADER_SIZE, fileSize)) {
+            return null;
+        }
+
+        // Read the recorded errors without forwarding them, they are replayed after the snapshot has been restored
+        final CountingErrorCollector validator = new CountingErrorCollector();
+        final CountingInputStream errorLog = new CountingInputStream(
+                new BufferedInputStream(Channels.newInputStream(channel.position(errorLogOffset))));
+        TopologyErrorRecorder.replay(new DataInputStream(errorLog), errorCount, validator);
+        if (validator.count != errorCount || errorLog.count != errorLogLength) {
+            return null;
+        }
+
+        final LongBuffer[] topologyData = new LongBuffer[topologyPages];
+        for (int i = 0; i < topologyPages; i++) {
+            topologyData[i] = allocator.mapLongs(HEADER_SIZE + (long) i * PAGE_SIZE_BYTES);
+        }
+        final DoubleBuffer[] coordinateData = new DoubleBuffer[coordinatePages];
+        for (int i = 0; i < coordinatePages; i++) {
+            coordinateData[i] = allocator.mapDoubles(coordinatesOffset + (long) i * PAGE_SIZE_BYTES);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(PAGE_SIZE_BYTES).order(ByteOrder.nativeOrder());
+        final int[] hashes = readInts(channel, buffer, hashesOffset, mapCapacity);
+        final int[] edgeIndices = readInts(channel, buffer, edgeIndicesOffset, mapCapacity);
+
+        final TopologyBuilder builder = new TopologyBuilder(themeName, errorCollector, allocator,
+                new PagedLongArray(allocator, topologyData, topologySize),
+                new PagedDoubleArray(allocator, coordinateData, coordinatesSize),
+                hashes, edgeIndices, mapSize, mapCollisions,
+                objectId, objectsProcessed, lookupErrors);
+
+        // the stream is not closed, as this would close the channel
+        channel.position(errorLogOffset);
+        TopologyErrorRecorder.replay(new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel))),
+                errorCount, errorCollector);
+        return builder;
+    }
+
+    private static void writeInts(final FileChannel channel, final ByteBuffer buffer, final int[] values)
+            throws IOException {
+        for (int off = 0; off < values.length;) {
+            buffer.clear();
+            final IntBuffer view = buffer.asIntBuffer();
+            final int length = Math.min(view.capacity(), values.length - off);
+            view.put(values, off, length);
+            buffer.limit(length << 2);
+            writeFully(channel, buffer);
+            off += length;
+        }
+    }
+
+    private static int[] readInts(final FileChannel channel, final ByteBuffer buffer, final long position,
+            final int count) throws IOException {
+        final int[] values = new int[count];
+        for (int off = 0; off < values.length;) {
+            buffer.clear();
+            buffer.limit(Math.min(PAGE_SIZE_BYTES, (values.length - off) << 2));
+            readFully(channel, buffer, position + ((long) off << 2));
+            final int length = buffer.limit() >>> 2;
+            buffer.flip();
+            buffer.asIntBuffer().get(values, off, length);
+            off += length;
+        }
+        return values;
+    }
+
+    private static int pages(final int size, final int pageShift) {
+        return (int) ((size + (1L << pageShift) - 1) >>> pageShift);
+    }
+
+    private static final class CountingErrorCollector implements TopologyErrorCollector {
+        private int count;
+
+        @Override
+        public void collectError(final TopologyErrorType topologyErrorType, final String... parameter) {
+            count++;
+        }
+
+        @Override
+        public void collectError(final TopologyErrorType topologyErrorType, final double x, final double y,
+                final String... parameter) {
+            count++;
+        }
+
+        @Override
+        public void init() {}
+
+        @Override
+        public void release() {}
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+
+    private static long checksum(final FileChannel channel, final long from, final long to) throws IOException {
+        final CRC32C crc = new CRC32C();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(PAGE_SIZE_BYTES);
+        for (long position = from; position < to;) {
+            buffer.clear();
+            buffer.limit((int) Math.min(PAGE_SIZE_BYTES, to - position));
+            readFully(channel, buffer, position);
+            buffer.flip();
+            position += buffer.remaining();
+            crc.update(buffer);
+        }
+        return crc.getValue();
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position)
+            throws IOException {
+        for (long p = position; buffer.hasRemaining();) {
+            final int read = channel.read(buffer, p);
+            if (read < 0) {
+                throw new IOException("Unexpected end of topology snapshot");
+            }
+            p += read;
+        }
+    }
+}
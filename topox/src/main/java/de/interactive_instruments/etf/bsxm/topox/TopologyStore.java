@@ -59,32 +59,32 @@ class TopologyStore implements Topology, TopologyMXBean {
 
         @Override
         public double sourceAngle() {
-            return builder.getAngleByIndex(edgeIndex);
+            return angle(edgeIndex);
         }
 
         @Override
         public double targetAngle() {
-            return builder.getAngleByIndex(-edgeIndex);
+            return angle(-edgeIndex);
         }
 
         @Override
         public int leftInternalObjectId() {
-            return builder.getLeftOrRightByIndex(edgeIndex, OBJ_OFFSET);
+            return leftOrRight(edgeIndex, OBJ_OFFSET);
         }
 
         @Override
         public int rightInternalObjectId() {
-            return builder.getLeftOrRightByIndex(-edgeIndex, OBJ_OFFSET);
+            return leftOrRight(-edgeIndex, OBJ_OFFSET);
         }
 
         @Override
         public long leftObject() {
-            return builder.getTopologicalData(abs(edgeIndex) + LEFT_LOCATION_INDEX);
+            return edges.getQuick(abs(edgeIndex) + LEFT_LOCATION_INDEX);
         }
 
         @Override
         public long rightObject() {
-            final long right = builder.getTopologicalData(abs(edgeIndex) + RIGHT_LOCATION_INDEX);
+            final long right = edges.getQuick(abs(edgeIndex) + RIGHT_LOCATION_INDEX);
             if (right == Integer.MIN_VALUE || right == ENCLOSED_BOUNDARY_MARK_VALUE) {
                 // check if this is a free-standing or enclosing surface mark
                 return 0;
@@ -94,12 +94,12 @@ class TopologyStore implements Topology, TopologyMXBean {
 
         @Override
         public Edge sourceCcwNext() {
-            return new FlyweightEdge(builder.getLeftOrRightByIndex(edgeIndex, CCWI_OFFSET));
+            return new FlyweightEdge(leftOrRight(edgeIndex, CCWI_OFFSET));
         }
 
         @Override
         public Edge targetCcwNext() {
-            return new FlyweightEdge(builder.getLeftOrRightByIndex(-edgeIndex, CCWI_OFFSET));
+            return new FlyweightEdge(leftOrRight(-edgeIndex, CCWI_OFFSET));
         }
 
         @Override
@@ -136,12 +136,12 @@ class TopologyStore implements Topology, TopologyMXBean {
 
         @Override
         public double x() {
-            return builder.getCoordinate(builder.getLeftOrRightByIndex(edgeIndex, COORDINATE_OFFSET));
+            return coordinates.getQuick(leftOrRight(edgeIndex, COORDINATE_OFFSET));
         }
 
         @Override
         public double y() {
-            return builder.getCoordinate(builder.getLeftOrRightByIndex(edgeIndex, COORDINATE_OFFSET) + 1);
+            return coordinates.getQuick(leftOrRight(edgeIndex, COORDINATE_OFFSET) + 1);
         }
 
         @Override
@@ -171,8 +171,33 @@ class TopologyStore implements Topology, TopologyMXBean {
 
     private TopologyBuilder builder;
 
+    // The edge and coordinate arrays of the builder, read directly by the flyweight objects
+    private final PagedLongArray edges;
+    private final PagedDoubleArray coordinates;
+
+    // Built with the first lookup within a tolerance
+    private NodeGridIndex nodeIndex;
+
     TopologyStore(final TopologyBuilder builder) {
         this.builder = builder;
+        this.edges = builder.topologicalData();
+        this.coordinates = builder.coordinateData();
+    }
+
+    private int leftOrRight(final int edgeIndex, final int propertyOffset) {
+        if (edgeIndex > 0) {
+            return getLeft(edges.getQuick(edgeIndex + propertyOffset));
+        } else {
+            return getRight(edges.getQuick(-edgeIndex + propertyOffset));
+        }
+    }
+
+    private double angle(final int edgeIndex) {
+        if (edgeIndex > 0) {
+            return Double.longBitsToDouble(edges.getQuick(edgeIndex + SOURCE_ANGLE_OFFSET));
+        } else {
+            return Double.longBitsToDouble(edges.getQuick(-edgeIndex + TARGET_ANGLE_OFFSET));
+        }
     }
 
     int size() {
@@ -250,21 +275,41 @@ class TopologyStore implements Topology, TopologyMXBean {
         }
     }
 
+    @Override
+    public Node node(final double x, final double y, final double tolerance) {
+        if (nodeIndex == null) {
+            nodeIndex = new NodeGridIndex(builder.coordinateEdgeMap(), tolerance);
+        }
+        final int edgeIndex = nodeIndex.nearest(x, y, tolerance);
+        if (edgeIndex != 0) {
+            return new FlyweightNode(edgeIndex);
+        } else {
+            return null;
+        }
+    }
+
     @Override
     public Iterable<Edge> emptyInteriors() {
+
+        // The first found edge index of the empty interiors
+        final TIntArrayList foundEmptyInteriorEdges = new TIntArrayList();
+
+        builder.findEmptyInteriors(foundEmptyInteriorEdges);
+
+        final int maxPos = foundEmptyInteriorEdges.size();
+
         return () -> new Iterator<Edge>() {
-            int currentPos = builder.findNextEmptyInterior(TOPOLOGY_FIELDS_SIZE);
+            int currentPos = 0;
 
             @Override
             public boolean hasNext() {
-                return currentPos + TOPOLOGY_FIELDS_SIZE < builder.internalTopologicalDataSize();
+                return currentPos < maxPos && foundEmptyInteriorEdges.get(currentPos)
+                        + TOPOLOGY_FIELDS_SIZE < builder.internalTopologicalDataSize();
             }
 
             @Override
             public Edge next() {
-                final Edge edge = new FlyweightEdge(currentPos);
-                currentPos = builder.findNextEmptyInterior(currentPos + TOPOLOGY_FIELDS_SIZE);
-                return edge;
+                return new FlyweightEdge(foundEmptyInteriorEdges.get(currentPos++));
             }
         };
     }
@@ -0,0 +1,204 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.bsxm.topox;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares the {@link HashingPosListParser} with the {@link BaselineHashingPosListParser} on random posLists.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+class HashingPosListParserTest {
+
+    private static final int POS_LISTS = 300_000;
+
+    private static final String[] SEPARATORS = {
+            " ", " ", " ", " ", "  ", "\t", "\n", "\r\n", " \t ", ",", "\u2003", "\u00A0", " \u3000 "
+    };
+
+    private static final String[] INVALID_ORDINATES = {
+            "", ".", "-", "+", "-.", "+-1", "x1", "1e5", "1.2.3", "\u00E91", "\u0661"
+    };
+
+    private static void appendDigits(final Random random, final StringBuilder sb, final int count) {
+        for (int i = 0; i < count; i++) {
+            sb.append((char) ('0' + random.nextInt(10)));
+        }
+    }
+
+    private static int digitCount(final Random random) {
+        // mostly the lengths of real coordinates, sometimes runs that exceed the exact double range
+        return random.nextInt(4) == 0 ? random.nextInt(21) : 1 + random.nextInt(8);
+    }
+
+    private static void appendOrdinate(final Random random, final StringBuilder sb) {
+        if (random.nextInt(200) == 0) {
+            sb.append(INVALID_ORDINATES[random.nextInt(INVALID_ORDINATES.length)]);
+            return;
+        }
+        final int sign = random.nextInt(20);
+        if (sign < 2) {
+            sb.append('-');
+        } else if (sign == 2) {
+            sb.append('+');
+        }
+        final int integerDigits = random.nextInt(50) == 0 ? 0 : digitCount(random);
+        appendDigits(random, sb, integerDigits);
+        if (integerDigits == 0 || random.nextInt(10) < 7) {
+            sb.append('.');
+            appendDigits(random, sb, integerDigits == 0 ? 1 + random.nextInt(8) : digitCount(random));
+        }
+    }
+
+    static String randomPosList(final Random random) {
+        final StringBuilder sb = new StringBuilder();
+        if (random.nextInt(1000) == 0) {
+            // empty or only whitespaces
+            for (int i = random.nextInt(3); i > 0; i--) {
+                sb.append(SEPARATORS[random.nextInt(9)]);
+            }
+            return sb.toString();
+        }
+        if (random.nextInt(10) == 0) {
+            sb.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+        }
+        final int ordinates = 1 + random.nextInt(24);
+        for (int i = 0; i < ordinates; i++) {
+            if (i > 0) {
+                sb.append(random.nextInt(40) == 0 ? SEPARATORS[random.nextInt(SEPARATORS.length)] : " ");
+            }
+            appendOrdinate(random, sb);
+        }
+        if (random.nextInt(10) == 0) {
+            sb.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parses the posList in one of the supported ways and returns a description of the exception or null
+     */
+    private static String parse(final PosListParser parser, final String posList, final int variant,
+            final long location, final int geoType) {
+        try {
+            final byte[] bytes = posList.getBytes(StandardCharsets.UTF_8);
+            switch (variant) {
+            case 0:
+                parser.parseDirectPositions(posList, location, geoType);
+                break;
+            case 1:
+                parser.parseDirectPositions(bytes, location, geoType);
+                break;
+            case 2:
+                // surrounded by bytes that must not be parsed
+                final byte[] range = new byte[bytes.length + 16];
+                Arrays.fill(range, (byte) '7');
+                System.arraycopy(bytes, 0, range, 8, bytes.length);
+                parser.parseDirectPositions(range, 8, bytes.length, location, geoType);
+                break;
+            default:
+                System.arraycopy(bytes, 0, parser.buffer(bytes.length), parser.bufferOffset(), bytes.length);
+                parser.parseBuffer(bytes.length, location, geoType);
+            }
+            return null;
+        } catch (final RuntimeException e) {
+            return e.getClass().getName() + ": " + e.getMessage();
+        }
+    }
+
+    private static String escape(final String posList) {
+        final StringBuilder sb = new StringBuilder();
+        for (final char c : posList.toCharArray()) {
+            if (c < 0x20 || c > 0x7E) {
+                sb.append(String.format("\\u%04X", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void randomPosListsAreParsedBitIdentically() {
+        final Random random = new Random(4711);
+        final RecordingSegmentHandler expected = new RecordingSegmentHandler();
+        final RecordingSegmentHandler actual = new RecordingSegmentHandler();
+        final PosListParser baseline = new BaselineHashingPosListParser(expected);
+        final PosListParser parser = new HashingPosListParser(actual);
+        int coordinates = 0;
+        int failures = 0;
+
+        for (int i = 0; i < POS_LISTS; i++) {
+            final String posList = randomPosList(random);
+            final int variant = random.nextInt(4);
+            final int geoType = random.nextInt(3);
+            final int marker = random.nextInt(8);
+            if (marker == 0) {
+                baseline.nextGeometricObject();
+                parser.nextGeometricObject();
+            } else if (marker == 1) {
+                baseline.nextInterior();
+                parser.nextInterior();
+            }
+
+            final String expectedError = parse(baseline, posList, variant, i, geoType);
+            final String actualError = parse(parser, posList, variant, i, geoType);
+            final String description = "posList " + i + " '" + escape(posList) + "', variant " + variant;
+            if (expectedError != null && expectedError.contains("IndexOutOfBoundsException")) {
+                // the former parser read past empty or whitespace only input
+                assertTrue(posList.isBlank(), description);
+                assertNull(actualError, description);
+            } else {
+                assertEquals(expectedError, actualError, description);
+            }
+            assertArrayEquals(expected.records(), actual.records(), description);
+            if (expectedError != null) {
+                failures++;
+            }
+            coordinates += expected.size() / 5;
+            expected.clear();
+            actual.clear();
+        }
+        // make sure that the generated posLists cover both outcomes
+        assertTrue(coordinates > POS_LISTS, "coordinates " + coordinates);
+        assertTrue(failures > 0 && failures < POS_LISTS / 4, "failures " + failures);
+    }
+
+    @Test
+    void whitespacesOnlyAreIgnored() {
+        final RecordingSegmentHandler handler = new RecordingSegmentHandler();
+        final PosListParser parser = new HashingPosListParser(handler);
+        parser.parseDirectPositions(" \t\n ", 0, 0);
+        parser.parseDirectPositions(" \t\n ".getBytes(StandardCharsets.US_ASCII), 0, 0);
+        parser.parseDirectPositions(new byte[0], 0, 0);
+        assertEquals(0, handler.size());
+    }
+}
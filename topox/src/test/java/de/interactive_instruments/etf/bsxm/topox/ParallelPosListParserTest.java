@@ -0,0 +1,189 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.bsxm.topox;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Drives the {@link ParallelPosListParser} and the sequential {@link HashingPosListParser} side by side and compares
+ * the calls that their handlers receive.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+class ParallelPosListParserTest {
+
+    // Several batches of the parallel parser
+    private static final int CALLS = 60_000;
+
+    // A segment that is larger than the chunks of the parallel parser
+    private static final int LARGE_SEGMENT = 12_345;
+
+    private static final String INVALID_POS_LIST = "1 2 3 x4";
+
+    private final RecordingSegmentHandler validation = new RecordingSegmentHandler();
+    private final PosListParser validationParser = new HashingPosListParser(validation);
+
+    private static long location(final int call) {
+        return call * 7L + 3;
+    }
+
+    private String validPosList(final Random random) {
+        while (true) {
+            final String posList = HashingPosListParserTest.randomPosList(random);
+            try {
+                // non-ASCII whitespaces are only valid in char sequences
+                validationParser.parseDirectPositions(posList, 0, 0);
+                validationParser.parseDirectPositions(posList.getBytes(StandardCharsets.UTF_8), 0, 0);
+                return posList;
+            } catch (final RuntimeException ign) {
+                // try the next one
+            } finally {
+                validation.clear();
+            }
+        }
+    }
+
+    private static String largePosList(final Random random) {
+        final StringBuilder sb = new StringBuilder();
+        while (sb.length() < 1_200_000) {
+            sb.append(random.nextInt(1_000_000)).append('.').append(random.nextInt(1000)).append(' ');
+        }
+        return sb.toString();
+    }
+
+    private static void parse(final PosListParser parser, final String posList, final byte[] bytes,
+            final int variant, final long location, final int geoType) {
+        switch (variant) {
+        case 0:
+            parser.parseDirectPositions(posList, location, geoType);
+            break;
+        case 1:
+            // the parallel parser keeps the array
+            parser.parseDirectPositions(bytes.clone(), location, geoType);
+            break;
+        case 2:
+            // the caller reuses the array
+            final byte[] range = new byte[bytes.length + 16];
+            Arrays.fill(range, (byte) '7');
+            System.arraycopy(bytes, 0, range, 8, bytes.length);
+            parser.parseDirectPositions(range, 8, bytes.length, location, geoType);
+            Arrays.fill(range, (byte) 'x');
+            break;
+        default:
+            System.arraycopy(bytes, 0, parser.buffer(bytes.length), parser.bufferOffset(), bytes.length);
+            parser.parseBuffer(bytes.length, location, geoType);
+        }
+    }
+
+    /**
+     * Makes the same random calls on both parsers, until the failing call or until all calls have been made.
+     *
+     * @param failingCall
+     *            index of the call with invalid direct positions or -1
+     * @return the exception of the sequential parser
+     */
+    private RuntimeException drive(final long seed, final int failingCall, final PosListParser sequential,
+            final PosListParser parallel) {
+        final Random random = new Random(seed);
+        for (int i = 0; i < CALLS; i++) {
+            final int marker = random.nextInt(10);
+            if (marker == 0) {
+                sequential.nextGeometricObject();
+                parallel.nextGeometricObject();
+            } else if (marker == 1) {
+                sequential.nextInterior();
+                parallel.nextInterior();
+            }
+            final String posList;
+            if (i == failingCall) {
+                posList = INVALID_POS_LIST;
+            } else if (i == LARGE_SEGMENT) {
+                posList = largePosList(random);
+            } else {
+                posList = validPosList(random);
+            }
+            final byte[] bytes = posList.getBytes(StandardCharsets.UTF_8);
+            final int variant = random.nextInt(4);
+            // the coordinate before the error of the failing call is passed on directly
+            final int geoType = i == failingCall ? 0 : random.nextInt(3);
+            parse(parallel, posList, bytes, variant, location(i), geoType);
+            try {
+                parse(sequential, posList, bytes, variant, location(i), geoType);
+            } catch (final RuntimeException e) {
+                assertEquals(failingCall, i);
+                return e;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    void identicalCalls() {
+        final RecordingSegmentHandler expected = new RecordingSegmentHandler();
+        final RecordingSegmentHandler actual = new RecordingSegmentHandler();
+        final PosListParser sequential = new HashingPosListParser(expected);
+        final ParallelPosListParser parallel = new ParallelPosListParser(new HashingPosListParser(actual));
+
+        assertNull(drive(1, -1, sequential, parallel));
+        parallel.flush();
+        assertArrayEquals(expected.records(), actual.records());
+    }
+
+    private void failingSegment(final int failingCall) {
+        final RecordingSegmentHandler expected = new RecordingSegmentHandler();
+        final RecordingSegmentHandler actual = new RecordingSegmentHandler();
+        final PosListParser sequential = new HashingPosListParser(expected);
+        final ParallelPosListParser parallel = new ParallelPosListParser(new HashingPosListParser(actual));
+
+        final RuntimeException error = drive(failingCall, failingCall, sequential, parallel);
+        assertEquals(NumberFormatException.class, error.getClass());
+        final DirectPositionsException exception = assertThrows(DirectPositionsException.class, parallel::flush);
+        assertEquals(location(failingCall), exception.getLocation());
+        assertSame(error.getClass(), exception.getCause().getClass());
+        assertEquals(error.getMessage(), exception.getCause().getMessage());
+        // including the coordinates of the failing segment that precede the error
+        assertArrayEquals(expected.records(), actual.records());
+
+        // the remaining calls have been dropped
+        parallel.flush();
+        assertArrayEquals(expected.records(), actual.records());
+    }
+
+    @Test
+    void failingSegmentInFirstBatch() {
+        failingSegment(100);
+    }
+
+    @Test
+    void failingSegmentInLaterBatch() {
+        failingSegment(40_000);
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2017-2020 European Union, interactive instruments GmbH
+ *
+ * Licensed under the EUPL, Version 1.2 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * https://joinup.ec.europa.eu/software/page/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ *
+ * This work was supported by the EU Interoperability Solutions for
+ * European Public Administrations Programme (http://ec.europa.eu/isa)
+ * through Action 1.17: A Reusable INSPIRE Reference Platform (ARE3NA).
+ */
+package de.interactive_instruments.etf.bsxm.topox;
+
+import java.util.Arrays;
+
+/**
+ * Records all calls of a parser in a long array, so that the output of two parsers can be compared bit by bit.
+ *
+ * A coordinate is recorded as the raw bits of x and y, the hash, the location and the geometry type. The markers for
+ * the next geometric object and the next interior are recorded as a single negative value.
+ *
+ * @author Jon Herrmann ( herrmann aT interactive-instruments doT de )
+ */
+final class RecordingSegmentHandler implements HashingSegmentHandler {
+
+    static final long NEXT_GEOMETRIC_OBJECT = -1;
+    static final long NEXT_INTERIOR = -2;
+
+    private long[] records = new long[1024];
+    private int size;
+
+    private void add(final long value) {
+        if (size == records.length) {
+            records = Arrays.copyOf(records, size << 1);
+        }
+        records[size++] = value;
+    }
+
+    @Override
+    public void coordinate2d(final double x, final double y, final long hash, final long location, final int type) {
+        add(Double.doubleToRawLongBits(x));
+        add(Double.doubleToRawLongBits(y));
+        add(hash);
+        add(location);
+        add(type);
+    }
+
+    @Override
+    public void nextGeometricObject() {
+        add(NEXT_GEOMETRIC_OBJECT);
+    }
+
+    @Override
+    public void nextInterior() {
+        add(NEXT_INTERIOR);
+    }
+
+    long[] records() {
+        return Arrays.copyOf(records, size);
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+}